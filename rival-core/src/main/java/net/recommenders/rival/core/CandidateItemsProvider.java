@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.util.Set;
+
+/**
+ * Provider of the items that should be scored for each user. It allows the
+ * recommendation phase to score only the items that will be used later (e.g.,
+ * the candidates of an evaluation strategy) instead of the whole catalog.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ *
+ * @param <U> generic type of users
+ * @param <I> generic type of items
+ */
+public interface CandidateItemsProvider<U, I> {
+
+    /**
+     * Gets the items to be scored for a user. Implementations should return
+     * the same set every time they are called for the same user.
+     *
+     * @param user The user.
+     * @return The items to be scored.
+     */
+    Set<I> getCandidateItems(U user);
+}
@@ -0,0 +1,600 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only temporal data model backed by primitive arrays. Users and items
+ * are mapped to dense indices (their position in sorted arrays of ids, which
+ * can be shared by several models, e.g., the training and test splits of a
+ * fold) and the preferences are stored in compressed sparse rows, with the
+ * items of each user sorted by index. The transposed (per item) structure is
+ * built lazily the first time it is requested.
+ *
+ * The arrays returned by the getters are the internal ones and must not be
+ * modified.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class FrozenDataModel implements TemporalDataModelIF<Long, Long> {
+
+    /**
+     * Sorted user ids (shared id space).
+     */
+    private final long[] userIds;
+    /**
+     * Sorted item ids (shared id space).
+     */
+    private final long[] itemIds;
+    /**
+     * Start of the row of each user (length: number of users + 1).
+     */
+    private final int[] rowPointers;
+    /**
+     * Item index of each preference.
+     */
+    private final int[] itemIndices;
+    /**
+     * Value of each preference.
+     */
+    private final double[] values;
+    /**
+     * Start of the timestamps of each preference (length: number of
+     * preferences + 1).
+     */
+    private final int[] timestampPointers;
+    /**
+     * The timestamps.
+     */
+    private final long[] timestamps;
+    /**
+     * Users with at least one preference in this model.
+     */
+    private final long[] activeUsers;
+    /**
+     * Items with at least one preference in this model.
+     */
+    private final long[] activeItems;
+    /**
+     * Start of the column of each item, built lazily.
+     */
+    private volatile int[] columnPointers;
+    /**
+     * User index of each preference in the columns, built lazily.
+     */
+    private int[] columnUserIndices;
+    /**
+     * Position in the rows of each preference in the columns, built lazily.
+     */
+    private int[] columnPositions;
+
+    /**
+     * Constructor.
+     *
+     * @param users sorted user ids
+     * @param items sorted item ids
+     * @param rows start of the row of each user
+     * @param columns item index of each preference (sorted within each row)
+     * @param prefs value of each preference
+     * @param timePointers start of the timestamps of each preference
+     * @param times the timestamps
+     */
+    public FrozenDataModel(final long[] users, final long[] items, final int[] rows, final int[] columns, final double[] prefs,
+            final int[] timePointers, final long[] times) {
+        this.userIds = users;
+        this.itemIds = items;
+        this.rowPointers = rows;
+        this.itemIndices = columns;
+        this.values = prefs;
+        this.timestampPointers = timePointers;
+        this.timestamps = times;
+        int nActiveUsers = 0;
+        for (int u = 0; u < users.length; u++) {
+            if (rows[u + 1] > rows[u]) {
+                nActiveUsers++;
+            }
+        }
+        activeUsers = new long[nActiveUsers];
+        nActiveUsers = 0;
+        for (int u = 0; u < users.length; u++) {
+            if (rows[u + 1] > rows[u]) {
+                activeUsers[nActiveUsers++] = users[u];
+            }
+        }
+        boolean[] seen = new boolean[items.length];
+        int nActiveItems = 0;
+        for (int p = 0; p < rows[users.length]; p++) {
+            if (!seen[columns[p]]) {
+                seen[columns[p]] = true;
+                nActiveItems++;
+            }
+        }
+        activeItems = new long[nActiveItems];
+        nActiveItems = 0;
+        for (int i = 0; i < items.length; i++) {
+            if (seen[i]) {
+                activeItems[nActiveItems++] = items[i];
+            }
+        }
+    }
+
+    /**
+     * Freezes a set of data models into a shared id space (the union of their
+     * users and items).
+     *
+     * @param models the models
+     * @return the frozen models, in the same order
+     */
+    @SafeVarargs
+    public static FrozenDataModel[] freeze(final DataModelIF<Long, Long>... models) {
+        long[] users = new long[0];
+        long[] items = new long[0];
+        int nUsers = 0;
+        int nItems = 0;
+        for (DataModelIF<Long, Long> m : models) {
+            for (Long u : m.getUsers()) {
+                if (nUsers == users.length) {
+                    users = Arrays.copyOf(users, Math.max(16, 2 * nUsers));
+                }
+                users[nUsers++] = u;
+            }
+            for (Long i : m.getItems()) {
+                if (nItems == items.length) {
+                    items = Arrays.copyOf(items, Math.max(16, 2 * nItems));
+                }
+                items[nItems++] = i;
+            }
+        }
+        users = sortedUnique(users, nUsers);
+        items = sortedUnique(items, nItems);
+        FrozenDataModel[] frozen = new FrozenDataModel[models.length];
+        for (int k = 0; k < models.length; k++) {
+            frozen[k] = freeze(models[k], users, items);
+        }
+        return frozen;
+    }
+
+    /**
+     * Freezes a data model into a given id space.
+     *
+     * @param model the model
+     * @param users sorted user ids, containing every user of the model
+     * @param items sorted item ids, containing every item of the model
+     * @return the frozen model
+     */
+    public static FrozenDataModel freeze(final DataModelIF<Long, Long> model, final long[] users, final long[] items) {
+        TemporalDataModelIF<Long, Long> temporal = null;
+        if (model instanceof TemporalDataModelIF) {
+            temporal = (TemporalDataModelIF<Long, Long>) model;
+        }
+        int[] rows = new int[users.length + 1];
+        for (Long u : model.getUsers()) {
+            int n = 0;
+            for (Long i : model.getUserItems(u)) {
+                n++;
+            }
+            rows[Arrays.binarySearch(users, u) + 1] = n;
+        }
+        for (int u = 0; u < users.length; u++) {
+            rows[u + 1] += rows[u];
+        }
+        int nnz = rows[users.length];
+        int[] columns = new int[nnz];
+        double[] prefs = new double[nnz];
+        int[] timePointers = new int[nnz + 1];
+        long[] times = new long[Math.max(16, nnz)];
+        int nTimes = 0;
+        for (int u = 0; u < users.length; u++) {
+            int from = rows[u];
+            int to = rows[u + 1];
+            if (from == to) {
+                continue;
+            }
+            Long user = users[u];
+            int p = from;
+            for (Long i : model.getUserItems(user)) {
+                columns[p++] = Arrays.binarySearch(items, i);
+            }
+            Arrays.sort(columns, from, to);
+            for (p = from; p < to; p++) {
+                Long item = items[columns[p]];
+                Double v = model.getUserItemPreference(user, item);
+                prefs[p] = v == null ? Double.NaN : v;
+                timePointers[p] = nTimes;
+                Iterable<Long> ts = temporal == null ? null : temporal.getUserItemTimestamps(user, item);
+                if (ts != null) {
+                    for (Long t : ts) {
+                        if (nTimes == times.length) {
+                            times = Arrays.copyOf(times, 2 * nTimes);
+                        }
+                        times[nTimes++] = t;
+                    }
+                }
+            }
+        }
+        timePointers[nnz] = nTimes;
+        return new FrozenDataModel(users, items, rows, columns, prefs, timePointers, Arrays.copyOf(times, nTimes));
+    }
+
+    /**
+     * Sorts an array and removes its duplicates.
+     *
+     * @param a the array
+     * @param n number of valid positions in the array
+     * @return a new sorted array without duplicates
+     */
+    private static long[] sortedUnique(final long[] a, final int n) {
+        long[] s = Arrays.copyOf(a, n);
+        Arrays.sort(s);
+        int k = 0;
+        for (int j = 0; j < n; j++) {
+            if (k == 0 || s[j] != s[k - 1]) {
+                s[k++] = s[j];
+            }
+        }
+        return Arrays.copyOf(s, k);
+    }
+
+    /**
+     * Gets the index of a user in the shared id space.
+     *
+     * @param u the user
+     * @return the index, or a negative number if the user is not in the id
+     * space
+     */
+    public int getUserIndex(final long u) {
+        return Arrays.binarySearch(userIds, u);
+    }
+
+    /**
+     * Gets the index of an item in the shared id space.
+     *
+     * @param i the item
+     * @return the index, or a negative number if the item is not in the id
+     * space
+     */
+    public int getItemIndex(final long i) {
+        return Arrays.binarySearch(itemIds, i);
+    }
+
+    /**
+     * Gets the sorted user ids of the shared id space.
+     *
+     * @return the user ids
+     */
+    public long[] getUserIds() {
+        return userIds;
+    }
+
+    /**
+     * Gets the sorted item ids of the shared id space.
+     *
+     * @return the item ids
+     */
+    public long[] getItemIds() {
+        return itemIds;
+    }
+
+    /**
+     * Gets the start of the row of each user (the row of user index u spans
+     * positions [rows[u], rows[u + 1])).
+     *
+     * @return the row pointers
+     */
+    public int[] getRowPointers() {
+        return rowPointers;
+    }
+
+    /**
+     * Gets the item index of each preference.
+     *
+     * @return the item indices
+     */
+    public int[] getItemIndices() {
+        return itemIndices;
+    }
+
+    /**
+     * Gets the value of each preference.
+     *
+     * @return the values
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * Gets the start of the timestamps of each preference (the timestamps of
+     * the preference at position p span [pointers[p], pointers[p + 1])).
+     *
+     * @return the timestamp pointers
+     */
+    public int[] getTimestampPointers() {
+        return timestampPointers;
+    }
+
+    /**
+     * Gets the timestamps.
+     *
+     * @return the timestamps
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * Gets the number of preferences.
+     *
+     * @return the number of preferences
+     */
+    public int getNumPreferences() {
+        return rowPointers[userIds.length];
+    }
+
+    /**
+     * Gets the start of the column of each item (the column of item index i
+     * spans positions [columns[i], columns[i + 1]) of
+     * {@link #getColumnUserIndices()} and {@link #getColumnPositions()}).
+     *
+     * @return the column pointers
+     */
+    public int[] getColumnPointers() {
+        buildColumns();
+        return columnPointers;
+    }
+
+    /**
+     * Gets the user index of each preference in the columns (sorted within
+     * each column).
+     *
+     * @return the user indices
+     */
+    public int[] getColumnUserIndices() {
+        buildColumns();
+        return columnUserIndices;
+    }
+
+    /**
+     * Gets, for each preference in the columns, its position in the rows (to
+     * access its value or timestamps).
+     *
+     * @return the positions
+     */
+    public int[] getColumnPositions() {
+        buildColumns();
+        return columnPositions;
+    }
+
+    /**
+     * Builds the transposed structure if needed (thread-safe).
+     */
+    private void buildColumns() {
+        if (columnPointers != null) {
+            return;
+        }
+        synchronized (this) {
+            if (columnPointers != null) {
+                return;
+            }
+            int nnz = getNumPreferences();
+            int[] pointers = new int[itemIds.length + 1];
+            for (int p = 0; p < nnz; p++) {
+                pointers[itemIndices[p] + 1]++;
+            }
+            for (int i = 0; i < itemIds.length; i++) {
+                pointers[i + 1] += pointers[i];
+            }
+            int[] fill = Arrays.copyOf(pointers, itemIds.length);
+            int[] users = new int[nnz];
+            int[] positions = new int[nnz];
+            for (int u = 0; u < userIds.length; u++) {
+                for (int p = rowPointers[u]; p < rowPointers[u + 1]; p++) {
+                    int q = fill[itemIndices[p]]++;
+                    users[q] = u;
+                    positions[q] = p;
+                }
+            }
+            columnUserIndices = users;
+            columnPositions = positions;
+            columnPointers = pointers;
+        }
+    }
+
+    /**
+     * Finds the position of a preference.
+     *
+     * @param u the user
+     * @param i the item
+     * @return the position, or -1 if the preference does not exist
+     */
+    private int position(final Long u, final Long i) {
+        if (u == null || i == null) {
+            return -1;
+        }
+        int uidx = getUserIndex(u);
+        int iidx = getItemIndex(i);
+        if (uidx < 0 || iidx < 0) {
+            return -1;
+        }
+        int p = Arrays.binarySearch(itemIndices, rowPointers[uidx], rowPointers[uidx + 1], iidx);
+        return p < 0 ? -1 : p;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Double getUserItemPreference(final Long u, final Long i) {
+        int p = position(u, i);
+        return p < 0 ? Double.NaN : values[p];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<Long> getUserItems(final Long u) {
+        int uidx = u == null ? -1 : getUserIndex(u);
+        if (uidx < 0) {
+            return Collections.emptySet();
+        }
+        final int from = rowPointers[uidx];
+        final int to = rowPointers[uidx + 1];
+        return new Iterable<Long>() {
+            @Override
+            public Iterator<Long> iterator() {
+                return new Iterator<Long>() {
+                    private int p = from;
+
+                    @Override
+                    public boolean hasNext() {
+                        return p < to;
+                    }
+
+                    @Override
+                    public Long next() {
+                        if (p >= to) {
+                            throw new NoSuchElementException();
+                        }
+                        return itemIds[itemIndices[p++]];
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<Long> getUserItemTimestamps(final Long u, final Long i) {
+        int p = position(u, i);
+        if (p < 0 || timestampPointers[p] == timestampPointers[p + 1]) {
+            return null;
+        }
+        return iterable(timestamps, timestampPointers[p], timestampPointers[p + 1]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<Long> getItems() {
+        return iterable(activeItems, 0, activeItems.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<Long> getUsers() {
+        return iterable(activeUsers, 0, activeUsers.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumItems() {
+        return activeItems.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumUsers() {
+        return activeUsers.length;
+    }
+
+    /**
+     * Not supported: frozen models are read-only.
+     *
+     * @param u the user
+     * @param i the item
+     * @param d the preference
+     */
+    @Override
+    public void addPreference(final Long u, final Long i, final Double d) {
+        throw new UnsupportedOperationException("Frozen data models are read-only");
+    }
+
+    /**
+     * Not supported: frozen models are read-only.
+     *
+     * @param u the user
+     * @param i the item
+     * @param t the timestamp
+     */
+    @Override
+    public void addTimestamp(final Long u, final Long i, final Long t) {
+        throw new UnsupportedOperationException("Frozen data models are read-only");
+    }
+
+    /**
+     * Not supported: frozen models are read-only.
+     */
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("Frozen data models are read-only");
+    }
+
+    /**
+     * Creates an iterable over a range of an array.
+     *
+     * @param a the array
+     * @param from first position (inclusive)
+     * @param to last position (exclusive)
+     * @return the iterable
+     */
+    private static Iterable<Long> iterable(final long[] a, final int from, final int to) {
+        return new Iterable<Long>() {
+            @Override
+            public Iterator<Long> iterator() {
+                return new Iterator<Long>() {
+                    private int p = from;
+
+                    @Override
+                    public boolean hasNext() {
+                        return p < to;
+                    }
+
+                    @Override
+                    public Long next() {
+                        if (p >= to) {
+                            throw new NoSuchElementException();
+                        }
+                        return a[p++];
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+}
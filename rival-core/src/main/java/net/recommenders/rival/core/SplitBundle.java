@@ -0,0 +1,370 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Binary bundle with the training and test splits of one fold, stored in a
+ * shared id space (see {@link FrozenDataModel}), so that recommenders and
+ * evaluators can build their structures directly from the arrays without
+ * parsing text files. A bundle is usually accompanied by a manifest (a
+ * properties file) with the parameters used to generate the splits and their
+ * sizes.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class SplitBundle {
+
+    /**
+     * The property key for the file of a split bundle, used by the runners
+     * instead of the training and test files.
+     */
+    public static final String PROPERTY = "split.bundle.file";
+    /**
+     * Identifier written at the beginning of a bundle.
+     */
+    private static final int MAGIC = 0x52564C42;
+    /**
+     * Version of the binary format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Size of the buffer used to read and write the arrays.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+    /**
+     * The training split.
+     */
+    private final FrozenDataModel training;
+    /**
+     * The test split.
+     */
+    private final FrozenDataModel test;
+
+    /**
+     * Constructor.
+     *
+     * @param trainingModel the training split
+     * @param testModel the test split (in the same id space as the training
+     * split)
+     */
+    public SplitBundle(final FrozenDataModel trainingModel, final FrozenDataModel testModel) {
+        if (trainingModel.getUserIds() != testModel.getUserIds() && !Arrays.equals(trainingModel.getUserIds(), testModel.getUserIds())) {
+            throw new IllegalArgumentException("Training and test splits do not share the user id space");
+        }
+        if (trainingModel.getItemIds() != testModel.getItemIds() && !Arrays.equals(trainingModel.getItemIds(), testModel.getItemIds())) {
+            throw new IllegalArgumentException("Training and test splits do not share the item id space");
+        }
+        this.training = trainingModel;
+        this.test = testModel;
+    }
+
+    /**
+     * Creates a bundle from a training and a test model.
+     *
+     * @param trainingModel the training model
+     * @param testModel the test model
+     * @return the bundle
+     */
+    public static SplitBundle create(final DataModelIF<Long, Long> trainingModel, final DataModelIF<Long, Long> testModel) {
+        FrozenDataModel[] frozen = FrozenDataModel.freeze(trainingModel, testModel);
+        return new SplitBundle(frozen[0], frozen[1]);
+    }
+
+    /**
+     * Gets the training split.
+     *
+     * @return the training split
+     */
+    public FrozenDataModel getTraining() {
+        return training;
+    }
+
+    /**
+     * Gets the test split.
+     *
+     * @return the test split
+     */
+    public FrozenDataModel getTest() {
+        return test;
+    }
+
+    /**
+     * Writes the bundle to a file.
+     *
+     * @param f the file
+     * @throws IOException when the file cannot be written
+     */
+    public void write(final File f) throws IOException {
+        FileOutputStream fos = new FileOutputStream(f);
+        try {
+            FileChannel channel = fos.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(training.getUserIds().length);
+            buffer.putInt(training.getItemIds().length);
+            for (long u : training.getUserIds()) {
+                buffer = ensure(channel, buffer, 8).putLong(u);
+            }
+            for (long i : training.getItemIds()) {
+                buffer = ensure(channel, buffer, 8).putLong(i);
+            }
+            buffer = writeModel(channel, buffer, training);
+            buffer = writeModel(channel, buffer, test);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Writes the arrays of a model.
+     *
+     * @param channel the channel
+     * @param buffer the buffer
+     * @param model the model
+     * @return the buffer
+     * @throws IOException when the data cannot be written
+     */
+    private static ByteBuffer writeModel(final FileChannel channel, final ByteBuffer buffer, final FrozenDataModel model) throws IOException {
+        ByteBuffer b = ensure(channel, buffer, 8);
+        b.putInt(model.getNumPreferences());
+        b.putInt(model.getTimestamps().length);
+        for (int v : model.getRowPointers()) {
+            b = ensure(channel, b, 4).putInt(v);
+        }
+        for (int p = 0; p < model.getNumPreferences(); p++) {
+            b = ensure(channel, b, 4).putInt(model.getItemIndices()[p]);
+        }
+        for (int p = 0; p < model.getNumPreferences(); p++) {
+            b = ensure(channel, b, 8).putDouble(model.getValues()[p]);
+        }
+        for (int p = 0; p <= model.getNumPreferences(); p++) {
+            b = ensure(channel, b, 4).putInt(model.getTimestampPointers()[p]);
+        }
+        for (long t : model.getTimestamps()) {
+            b = ensure(channel, b, 8).putLong(t);
+        }
+        return b;
+    }
+
+    /**
+     * Makes sure there is room in the buffer, flushing it if needed.
+     *
+     * @param channel the channel
+     * @param buffer the buffer
+     * @param bytes the number of bytes needed
+     * @return the buffer
+     * @throws IOException when the data cannot be written
+     */
+    private static ByteBuffer ensure(final FileChannel channel, final ByteBuffer buffer, final int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    /**
+     * Reads a bundle from a file. The arrays are read through a buffer of
+     * bounded size, so the size of the bundle is not limited by the one of a
+     * mapped buffer.
+     *
+     * @param f the file
+     * @return the bundle
+     * @throws IOException when the file cannot be read or is not a bundle
+     */
+    public static SplitBundle read(final File f) throws IOException {
+        FileInputStream fis = new FileInputStream(f);
+        try {
+            FileChannel channel = fis.getChannel();
+            ByteBuffer b = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            b.flip();
+            fill(channel, b, 16);
+            if (b.getInt() != MAGIC || b.getInt() != VERSION) {
+                throw new IOException("Not a split bundle (or unsupported version): " + f);
+            }
+            long[] users = new long[b.getInt()];
+            long[] items = new long[b.getInt()];
+            readLongs(channel, b, users);
+            readLongs(channel, b, items);
+            FrozenDataModel trainingModel = readModel(channel, b, users, items);
+            FrozenDataModel testModel = readModel(channel, b, users, items);
+            return new SplitBundle(trainingModel, testModel);
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Reads the arrays of a model.
+     *
+     * @param channel the channel
+     * @param b the buffer
+     * @param users the user ids
+     * @param items the item ids
+     * @return the model
+     * @throws IOException when the data cannot be read
+     */
+    private static FrozenDataModel readModel(final FileChannel channel, final ByteBuffer b, final long[] users, final long[] items) throws IOException {
+        fill(channel, b, 8);
+        int nnz = b.getInt();
+        int nTimes = b.getInt();
+        int[] rows = new int[users.length + 1];
+        int[] columns = new int[nnz];
+        double[] prefs = new double[nnz];
+        int[] timePointers = new int[nnz + 1];
+        long[] times = new long[nTimes];
+        readInts(channel, b, rows);
+        readInts(channel, b, columns);
+        for (int off = 0; off < prefs.length;) {
+            fill(channel, b, 8);
+            int n = Math.min(prefs.length - off, b.remaining() / 8);
+            b.asDoubleBuffer().get(prefs, off, n);
+            b.position(b.position() + 8 * n);
+            off += n;
+        }
+        readInts(channel, b, timePointers);
+        readLongs(channel, b, times);
+        return new FrozenDataModel(users, items, rows, columns, prefs, timePointers, times);
+    }
+
+    /**
+     * Bulk reads ints through a buffer.
+     *
+     * @param channel the channel
+     * @param b the buffer
+     * @param a the destination
+     * @throws IOException when the data cannot be read
+     */
+    private static void readInts(final FileChannel channel, final ByteBuffer b, final int[] a) throws IOException {
+        for (int off = 0; off < a.length;) {
+            fill(channel, b, 4);
+            int n = Math.min(a.length - off, b.remaining() / 4);
+            b.asIntBuffer().get(a, off, n);
+            b.position(b.position() + 4 * n);
+            off += n;
+        }
+    }
+
+    /**
+     * Bulk reads longs through a buffer.
+     *
+     * @param channel the channel
+     * @param b the buffer
+     * @param a the destination
+     * @throws IOException when the data cannot be read
+     */
+    private static void readLongs(final FileChannel channel, final ByteBuffer b, final long[] a) throws IOException {
+        for (int off = 0; off < a.length;) {
+            fill(channel, b, 8);
+            int n = Math.min(a.length - off, b.remaining() / 8);
+            b.asLongBuffer().get(a, off, n);
+            b.position(b.position() + 8 * n);
+            off += n;
+        }
+    }
+
+    /**
+     * Makes sure the buffer has some bytes to read, refilling it if needed.
+     *
+     * @param channel the channel
+     * @param buffer the buffer
+     * @param bytes the number of bytes needed
+     * @throws IOException when the data cannot be read or the file is
+     * truncated
+     */
+    private static void fill(final FileChannel channel, final ByteBuffer buffer, final int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Truncated split bundle");
+                }
+            }
+            buffer.flip();
+        }
+    }
+
+    /**
+     * Adds the sizes of the bundle to a manifest, using a prefix for the keys.
+     *
+     * @param manifest the manifest
+     * @param prefix prefix of the keys (e.g., fold.0.)
+     */
+    public void describe(final Properties manifest, final String prefix) {
+        manifest.setProperty(prefix + "users", "" + training.getUserIds().length);
+        manifest.setProperty(prefix + "items", "" + training.getItemIds().length);
+        manifest.setProperty(prefix + "training.users", "" + training.getNumUsers());
+        manifest.setProperty(prefix + "training.items", "" + training.getNumItems());
+        manifest.setProperty(prefix + "training.preferences", "" + training.getNumPreferences());
+        manifest.setProperty(prefix + "test.users", "" + test.getNumUsers());
+        manifest.setProperty(prefix + "test.items", "" + test.getNumItems());
+        manifest.setProperty(prefix + "test.preferences", "" + test.getNumPreferences());
+    }
+
+    /**
+     * Writes a manifest.
+     *
+     * @param manifest the manifest
+     * @param f the file
+     * @throws IOException when the file cannot be written
+     */
+    public static void writeManifest(final Properties manifest, final File f) throws IOException {
+        OutputStream out = new FileOutputStream(f);
+        try {
+            manifest.store(out, "RiVal split bundle manifest (format version " + VERSION + ")");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a manifest.
+     *
+     * @param f the file
+     * @return the manifest
+     * @throws IOException when the file cannot be read
+     */
+    public static Properties readManifest(final File f) throws IOException {
+        Properties manifest = new Properties();
+        InputStream in = new FileInputStream(f);
+        try {
+            manifest.load(in);
+        } finally {
+            in.close();
+        }
+        return manifest;
+    }
+}
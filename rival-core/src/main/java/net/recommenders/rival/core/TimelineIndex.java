@@ -0,0 +1,574 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Global timeline of the events (user, item, preference, timestamp) contained
+ * in a temporal data model. Events are sorted by timestamp (ties are broken by
+ * user and then by item) and stored in primitive columns, which can be saved
+ * to disk and memory-mapped afterwards. The index supports range queries by
+ * time and sequential replay of the events, so global cutoffs, sliding windows
+ * or prequential protocols do not need to sort the data again.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class TimelineIndex {
+
+    /**
+     * Identifier written at the beginning of a saved index.
+     */
+    private static final int MAGIC = 0x52564C54;
+    /**
+     * Version of the binary format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Size (in bytes) of the header of a saved index.
+     */
+    private static final int HEADER_BYTES = 16;
+    /**
+     * Initial capacity of the columns when building the index.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Listener that receives the events of the timeline in temporal order.
+     */
+    public interface EventListener {
+
+        /**
+         * Method called for every event being replayed.
+         *
+         * @param user the user.
+         * @param item the item.
+         * @param preference the preference.
+         * @param timestamp the timestamp.
+         */
+        void onEvent(long user, long item, double preference, long timestamp);
+    }
+
+    /**
+     * Listener that receives the windows generated by
+     * {@link #forEachWindow(long, long, long, long, WindowListener)}.
+     */
+    public interface WindowListener {
+
+        /**
+         * Method called for every window.
+         *
+         * @param windowStart timestamp where the window starts (inclusive).
+         * @param fromPosition first position of the window (inclusive).
+         * @param toPosition last position of the window (exclusive).
+         */
+        void onWindow(long windowStart, int fromPosition, int toPosition);
+    }
+
+    /**
+     * Number of events in the index.
+     */
+    private final int size;
+    /**
+     * Column with the users of each event.
+     */
+    private final LongBuffer users;
+    /**
+     * Column with the items of each event.
+     */
+    private final LongBuffer items;
+    /**
+     * Column with the preferences of each event.
+     */
+    private final DoubleBuffer preferences;
+    /**
+     * Column with the timestamps of each event (sorted).
+     */
+    private final LongBuffer timestamps;
+
+    /**
+     * Constructor.
+     *
+     * @param n number of events
+     * @param userColumn the users
+     * @param itemColumn the items
+     * @param preferenceColumn the preferences
+     * @param timestampColumn the timestamps
+     */
+    private TimelineIndex(final int n, final LongBuffer userColumn, final LongBuffer itemColumn,
+            final DoubleBuffer preferenceColumn, final LongBuffer timestampColumn) {
+        this.size = n;
+        this.users = userColumn;
+        this.items = itemColumn;
+        this.preferences = preferenceColumn;
+        this.timestamps = timestampColumn;
+    }
+
+    /**
+     * Builds the timeline of a temporal data model. Every timestamp of a
+     * (user, item) pair generates one event; pairs without timestamps are
+     * ignored.
+     *
+     * @param data the data model
+     * @return the timeline of the data model
+     */
+    public static TimelineIndex build(final TemporalDataModelIF<Long, Long> data) {
+        long[] u = new long[INITIAL_CAPACITY];
+        long[] i = new long[INITIAL_CAPACITY];
+        double[] p = new double[INITIAL_CAPACITY];
+        long[] t = new long[INITIAL_CAPACITY];
+        int n = 0;
+        for (Long user : data.getUsers()) {
+            for (Long item : data.getUserItems(user)) {
+                Iterable<Long> times = data.getUserItemTimestamps(user, item);
+                if (times == null) {
+                    continue;
+                }
+                double pref = data.getUserItemPreference(user, item);
+                for (Long time : times) {
+                    if (n == t.length) {
+                        int capacity = 2 * n;
+                        u = Arrays.copyOf(u, capacity);
+                        i = Arrays.copyOf(i, capacity);
+                        p = Arrays.copyOf(p, capacity);
+                        t = Arrays.copyOf(t, capacity);
+                    }
+                    u[n] = user;
+                    i[n] = item;
+                    p[n] = pref;
+                    t[n] = time;
+                    n++;
+                }
+            }
+        }
+        return build(n, u, i, p, t);
+    }
+
+    /**
+     * Builds the timeline from (unsorted) primitive columns. The arrays are
+     * not modified.
+     *
+     * @param n number of events to consider from the columns
+     * @param u the users
+     * @param i the items
+     * @param p the preferences
+     * @param t the timestamps
+     * @return the timeline of the events
+     */
+    public static TimelineIndex build(final int n, final long[] u, final long[] i, final double[] p, final long[] t) {
+        int[] order = new int[n];
+        for (int k = 0; k < n; k++) {
+            order[k] = k;
+        }
+        mergeSort(order, new int[n], 0, n, t, u, i);
+        long[] su = new long[n];
+        long[] si = new long[n];
+        double[] sp = new double[n];
+        long[] st = new long[n];
+        for (int k = 0; k < n; k++) {
+            int o = order[k];
+            su[k] = u[o];
+            si[k] = i[o];
+            sp[k] = p[o];
+            st[k] = t[o];
+        }
+        return new TimelineIndex(n, LongBuffer.wrap(su), LongBuffer.wrap(si), DoubleBuffer.wrap(sp), LongBuffer.wrap(st));
+    }
+
+    /**
+     * Stable merge sort of a permutation according to (timestamp, user, item).
+     *
+     * @param order the permutation to sort
+     * @param tmp auxiliary array with the same length as order
+     * @param from first position (inclusive)
+     * @param to last position (exclusive)
+     * @param t the timestamps
+     * @param u the users
+     * @param i the items
+     */
+    private static void mergeSort(final int[] order, final int[] tmp, final int from, final int to,
+            final long[] t, final long[] u, final long[] i) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(order, tmp, from, mid, t, u, i);
+        mergeSort(order, tmp, mid, to, t, u, i);
+        if (compare(order[mid - 1], order[mid], t, u, i) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, tmp, from, to - from);
+        int a = from;
+        int b = mid;
+        for (int k = from; k < to; k++) {
+            if (b >= to || (a < mid && compare(tmp[a], tmp[b], t, u, i) <= 0)) {
+                order[k] = tmp[a++];
+            } else {
+                order[k] = tmp[b++];
+            }
+        }
+    }
+
+    /**
+     * Compares two events according to (timestamp, user, item).
+     *
+     * @param x first event
+     * @param y second event
+     * @param t the timestamps
+     * @param u the users
+     * @param i the items
+     * @return a negative number, zero, or a positive number as the first event
+     * goes before, at the same time, or after the second one
+     */
+    private static int compare(final int x, final int y, final long[] t, final long[] u, final long[] i) {
+        int c = Long.compare(t[x], t[y]);
+        if (c == 0) {
+            c = Long.compare(u[x], u[y]);
+        }
+        if (c == 0) {
+            c = Long.compare(i[x], i[y]);
+        }
+        return c;
+    }
+
+    /**
+     * Gets the number of events in the timeline.
+     *
+     * @return the number of events
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the user of the event at some position.
+     *
+     * @param pos the position
+     * @return the user
+     */
+    public long getUser(final int pos) {
+        return users.get(pos);
+    }
+
+    /**
+     * Gets the item of the event at some position.
+     *
+     * @param pos the position
+     * @return the item
+     */
+    public long getItem(final int pos) {
+        return items.get(pos);
+    }
+
+    /**
+     * Gets the preference of the event at some position.
+     *
+     * @param pos the position
+     * @return the preference
+     */
+    public double getPreference(final int pos) {
+        return preferences.get(pos);
+    }
+
+    /**
+     * Gets the timestamp of the event at some position.
+     *
+     * @param pos the position
+     * @return the timestamp
+     */
+    public long getTimestamp(final int pos) {
+        return timestamps.get(pos);
+    }
+
+    /**
+     * Gets the first timestamp of the timeline.
+     *
+     * @return the first timestamp or Long.MIN_VALUE if the timeline is empty
+     */
+    public long getFirstTimestamp() {
+        return size == 0 ? Long.MIN_VALUE : timestamps.get(0);
+    }
+
+    /**
+     * Gets the last timestamp of the timeline.
+     *
+     * @return the last timestamp or Long.MAX_VALUE if the timeline is empty
+     */
+    public long getLastTimestamp() {
+        return size == 0 ? Long.MAX_VALUE : timestamps.get(size - 1);
+    }
+
+    /**
+     * Finds the first position whose timestamp is greater than or equal to the
+     * provided one.
+     *
+     * @param time the timestamp
+     * @return the position (size if there is no such position)
+     */
+    public int lowerBound(final long time) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps.get(mid) < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Finds the first position whose timestamp is strictly greater than the
+     * provided one.
+     *
+     * @param time the timestamp
+     * @return the position (size if there is no such position)
+     */
+    public int upperBound(final long time) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps.get(mid) <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Gets the positions of the events that happened in a time window.
+     *
+     * @param from beginning of the window (inclusive)
+     * @param to end of the window (exclusive)
+     * @return an array with the first position (inclusive) and the last
+     * position (exclusive) of the window
+     */
+    public int[] range(final long from, final long to) {
+        int start = lowerBound(from);
+        int end = Math.max(start, lowerBound(to));
+        return new int[]{start, end};
+    }
+
+    /**
+     * Gets the timestamp that leaves the given fraction of the events before
+     * it, useful to define global cutoffs.
+     *
+     * @param fraction fraction of events (between 0 and 1)
+     * @return the timestamp of the event at that position of the timeline
+     */
+    public long getTimestampAtFraction(final double fraction) {
+        if (size == 0) {
+            throw new IllegalStateException("The timeline is empty");
+        }
+        int pos = (int) Math.floor(fraction * size);
+        pos = Math.max(0, Math.min(size - 1, pos));
+        return timestamps.get(pos);
+    }
+
+    /**
+     * Replays all the events in temporal order.
+     *
+     * @param listener the listener that will receive the events
+     */
+    public void replay(final EventListener listener) {
+        replay(0, size, listener);
+    }
+
+    /**
+     * Replays the events between two positions in temporal order.
+     *
+     * @param from first position (inclusive)
+     * @param to last position (exclusive)
+     * @param listener the listener that will receive the events
+     */
+    public void replay(final int from, final int to, final EventListener listener) {
+        for (int pos = from; pos < to; pos++) {
+            listener.onEvent(users.get(pos), items.get(pos), preferences.get(pos), timestamps.get(pos));
+        }
+    }
+
+    /**
+     * Generates sliding windows over the timeline. Each window covers the
+     * interval [windowStart, windowStart + width) and consecutive windows are
+     * separated by step.
+     *
+     * @param start timestamp of the first window
+     * @param end timestamp where no more windows are generated (exclusive)
+     * @param width width of each window
+     * @param step distance between the beginning of two consecutive windows
+     * @param listener the listener that will receive the windows
+     */
+    public void forEachWindow(final long start, final long end, final long width, final long step, final WindowListener listener) {
+        if (width <= 0 || step <= 0) {
+            throw new IllegalArgumentException("Width and step must be positive");
+        }
+        int from = lowerBound(start);
+        int to = from;
+        for (long w = start; w < end; w += step) {
+            while (from < size && timestamps.get(from) < w) {
+                from++;
+            }
+            to = Math.max(to, from);
+            while (to < size && timestamps.get(to) < w + width) {
+                to++;
+            }
+            listener.onWindow(w, from, to);
+        }
+    }
+
+    /**
+     * Materializes the events between two positions as a temporal data model.
+     * Preferences of (user, item) pairs with several events are only added
+     * once.
+     *
+     * @param from first position (inclusive)
+     * @param to last position (exclusive)
+     * @return a data model with the events of the interval
+     */
+    public TemporalDataModelIF<Long, Long> toDataModel(final int from, final int to) {
+        final TemporalDataModelIF<Long, Long> model = DataModelFactory.getDefaultTemporalModel();
+        replay(from, to, new EventListener() {
+            @Override
+            public void onEvent(final long user, final long item, final double preference, final long timestamp) {
+                if (Double.isNaN(model.getUserItemPreference(user, item))) {
+                    model.addPreference(user, item, preference);
+                }
+                model.addTimestamp(user, item, timestamp);
+            }
+        });
+        return model;
+    }
+
+    /**
+     * Saves the timeline into a binary file that can be loaded (or mapped) by
+     * {@link #load(java.io.File, boolean)}.
+     *
+     * @param f the file
+     * @throws IOException when the file cannot be written
+     */
+    public void save(final File f) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(size);
+            for (int pos = 0; pos < size; pos++) {
+                out.writeLong(users.get(pos));
+            }
+            for (int pos = 0; pos < size; pos++) {
+                out.writeLong(items.get(pos));
+            }
+            for (int pos = 0; pos < size; pos++) {
+                out.writeLong(timestamps.get(pos));
+            }
+            for (int pos = 0; pos < size; pos++) {
+                out.writeDouble(preferences.get(pos));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Loads a timeline saved with {@link #save(java.io.File)}.
+     *
+     * @param f the file
+     * @param memoryMap if true, the columns are memory-mapped instead of being
+     * read into the heap
+     * @return the timeline
+     * @throws IOException when the file cannot be read or it is not a valid
+     * timeline
+     */
+    public static TimelineIndex load(final File f, final boolean memoryMap) throws IOException {
+        if (memoryMap) {
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+                int n = readHeader(header.getInt(), header.getInt(), header.getLong());
+                long column = 8L * n;
+                LongBuffer u = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, column).asLongBuffer();
+                LongBuffer i = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + column, column).asLongBuffer();
+                LongBuffer t = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + 2 * column, column).asLongBuffer();
+                DoubleBuffer p = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + 3 * column, column).asDoubleBuffer();
+                return new TimelineIndex(n, u, i, p, t);
+            } finally {
+                // mapped buffers remain valid after closing the channel
+                raf.close();
+            }
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            int n = readHeader(in.readInt(), in.readInt(), in.readLong());
+            long[] u = new long[n];
+            long[] i = new long[n];
+            long[] t = new long[n];
+            double[] p = new double[n];
+            for (int pos = 0; pos < n; pos++) {
+                u[pos] = in.readLong();
+            }
+            for (int pos = 0; pos < n; pos++) {
+                i[pos] = in.readLong();
+            }
+            for (int pos = 0; pos < n; pos++) {
+                t[pos] = in.readLong();
+            }
+            for (int pos = 0; pos < n; pos++) {
+                p[pos] = in.readDouble();
+            }
+            return new TimelineIndex(n, LongBuffer.wrap(u), LongBuffer.wrap(i), DoubleBuffer.wrap(p), LongBuffer.wrap(t));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Validates the header of a saved timeline.
+     *
+     * @param magic the identifier read from the file
+     * @param version the version read from the file
+     * @param n the number of events read from the file
+     * @return the number of events
+     * @throws IOException when the header is not valid
+     */
+    private static int readHeader(final int magic, final int version, final long n) throws IOException {
+        if (magic != MAGIC || version != VERSION) {
+            throw new IOException("Not a timeline index (or unsupported version)");
+        }
+        if (n < 0 || 8L * n > Integer.MAX_VALUE) {
+            throw new IOException("Timeline too large to be loaded: " + n + " events");
+        }
+        return (int) n;
+    }
+}
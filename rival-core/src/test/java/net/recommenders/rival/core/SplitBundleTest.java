@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link net.recommenders.rival.core.SplitBundle} and
+ * {@link net.recommenders.rival.core.FrozenDataModel}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+@RunWith(JUnit4.class)
+public class SplitBundleTest {
+
+    /**
+     * The number of users in the data model.
+     */
+    private static final int USERS = 5;
+    /**
+     * The number of items in the data model.
+     */
+    private static final int ITEMS = 7;
+    /**
+     * Temporary folder for the bundles.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        TemporalDataModelIF<Long, Long> training = DataModelFactory.getDefaultTemporalModel();
+        TemporalDataModelIF<Long, Long> test = DataModelFactory.getDefaultTemporalModel();
+        for (long u = 1L; u <= USERS; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                TemporalDataModelIF<Long, Long> dm = (u + i) % 3 == 0 ? test : training;
+                dm.addPreference(u * 10, i * 100, 1.0 * u * i);
+                if (i % 2 == 0) {
+                    dm.addTimestamp(u * 10, i * 100, u + i);
+                }
+            }
+        }
+        File f = folder.newFile("split_0.bundle");
+        SplitBundle.create(training, test).write(f);
+        SplitBundle bundle = SplitBundle.read(f);
+
+        check(training, bundle.getTraining());
+        check(test, bundle.getTest());
+        // both splits share the id space
+        assertTrue(bundle.getTraining().getUserIds() == bundle.getTest().getUserIds());
+        assertTrue(Double.isNaN(bundle.getTraining().getUserItemPreference(-1L, 100L)));
+        // the item-based structure contains every preference
+        assertEquals(bundle.getTraining().getNumPreferences(), bundle.getTraining().getColumnUserIndices().length);
+    }
+
+    @Test
+    public void testLargeBundle() throws IOException {
+        // the arrays span several refills of the read buffer
+        TemporalDataModelIF<Long, Long> training = DataModelFactory.getDefaultTemporalModel();
+        TemporalDataModelIF<Long, Long> test = DataModelFactory.getDefaultTemporalModel();
+        for (long u = 1L; u <= 300L; u++) {
+            for (long i = 1L; i <= 500L; i++) {
+                TemporalDataModelIF<Long, Long> dm = (u * i) % 5 == 0 ? test : training;
+                dm.addPreference(u, i, 0.5 * ((u + i) % 10));
+                dm.addTimestamp(u, i, u * 1000L + i);
+            }
+        }
+        File f = folder.newFile("split_large.bundle");
+        SplitBundle.create(training, test).write(f);
+        assertTrue(f.length() > 2 * (1 << 20));
+        SplitBundle bundle = SplitBundle.read(f);
+        check(training, bundle.getTraining());
+        check(test, bundle.getTest());
+
+        // a truncated bundle is rejected
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.setLength(f.length() - 4);
+        } finally {
+            raf.close();
+        }
+        try {
+            SplitBundle.read(f);
+            fail("a truncated bundle should not be read");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Checks that a frozen model contains the same data as the original one.
+     *
+     * @param expected the original model
+     * @param actual the frozen model
+     */
+    private static void check(final TemporalDataModelIF<Long, Long> expected, final FrozenDataModel actual) {
+        assertEquals(expected.getNumUsers(), actual.getNumUsers());
+        assertEquals(expected.getNumItems(), actual.getNumItems());
+        for (Long u : expected.getUsers()) {
+            int n = 0;
+            for (Long i : actual.getUserItems(u)) {
+                assertEquals(expected.getUserItemPreference(u, i), actual.getUserItemPreference(u, i), 0.0);
+                Iterable<Long> times = expected.getUserItemTimestamps(u, i);
+                if (times == null) {
+                    assertNull(actual.getUserItemTimestamps(u, i));
+                } else {
+                    assertEquals(times.iterator().next(), actual.getUserItemTimestamps(u, i).iterator().next());
+                }
+                n++;
+            }
+            int m = 0;
+            for (Long i : expected.getUserItems(u)) {
+                m++;
+            }
+            assertEquals(m, n);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link net.recommenders.rival.core.TimelineIndex}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+@RunWith(JUnit4.class)
+public class TimelineIndexTest {
+
+    /**
+     * The number of users in the data model.
+     */
+    private static final int USERS = 4;
+    /**
+     * The number of items in the data model.
+     */
+    private static final int ITEMS = 5;
+    /**
+     * Temporary folder for saved timelines.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    /**
+     * The timeline.
+     */
+    private TimelineIndex timeline;
+
+    @Before
+    public void initialize() {
+        TemporalDataModelIF<Long, Long> dm = DataModelFactory.getDefaultTemporalModel();
+        for (long u = 1L; u <= USERS; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                dm.addPreference(u, i, 1.0 * u * i);
+                dm.addTimestamp(u, i, (u * 7 + i * 3) % 11);
+            }
+        }
+        timeline = TimelineIndex.build(dm);
+    }
+
+    @Test
+    public void testOrder() {
+        assertEquals(USERS * ITEMS, timeline.size());
+        for (int pos = 1; pos < timeline.size(); pos++) {
+            assertTrue(timeline.getTimestamp(pos - 1) <= timeline.getTimestamp(pos));
+            assertEquals(1.0 * timeline.getUser(pos) * timeline.getItem(pos), timeline.getPreference(pos), 0.0);
+        }
+    }
+
+    @Test
+    public void testRange() {
+        int[] range = timeline.range(3L, 6L);
+        for (int pos = 0; pos < timeline.size(); pos++) {
+            long t = timeline.getTimestamp(pos);
+            assertEquals(t >= 3L && t < 6L, pos >= range[0] && pos < range[1]);
+        }
+        DataModelIF<Long, Long> window = timeline.toDataModel(range[0], range[1]);
+        int events = 0;
+        for (Long u : window.getUsers()) {
+            for (Long i : window.getUserItems(u)) {
+                events++;
+            }
+        }
+        assertEquals(range[1] - range[0], events);
+    }
+
+    @Test
+    public void testSaveAndMap() throws IOException {
+        File f = folder.newFile("timeline.bin");
+        timeline.save(f);
+        for (boolean map : new boolean[]{true, false}) {
+            TimelineIndex loaded = TimelineIndex.load(f, map);
+            assertEquals(timeline.size(), loaded.size());
+            for (int pos = 0; pos < timeline.size(); pos++) {
+                assertEquals(timeline.getUser(pos), loaded.getUser(pos));
+                assertEquals(timeline.getItem(pos), loaded.getItem(pos));
+                assertEquals(timeline.getTimestamp(pos), loaded.getTimestamp(pos));
+                assertEquals(timeline.getPreference(pos), loaded.getPreference(pos), 0.0);
+            }
+        }
+    }
+
+    /**
+     * Builds a small timeline with ties and gaps: events at times 1, 2, 2, 5, 5
+     * and 9.
+     *
+     * @return the timeline
+     */
+    private static TimelineIndex small() {
+        long[] u = new long[]{2L, 3L, 3L, 1L, 4L, 2L};
+        long[] i = new long[]{21L, 31L, 30L, 10L, 40L, 20L};
+        double[] p = new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0};
+        long[] t = new long[]{5L, 2L, 9L, 2L, 1L, 5L};
+        return TimelineIndex.build(u.length, u, i, p, t);
+    }
+
+    @Test
+    public void testReplay() {
+        final List<String> events = new ArrayList<>();
+        TimelineIndex.EventListener listener = new TimelineIndex.EventListener() {
+            @Override
+            public void onEvent(final long user, final long item, final double preference, final long timestamp) {
+                events.add(timestamp + ":" + user + ":" + item + ":" + preference);
+            }
+        };
+        TimelineIndex small = small();
+        small.replay(listener);
+        // ties are broken by user and then by item
+        assertEquals(Arrays.asList("1:4:40:5.0", "2:1:10:4.0", "2:3:31:2.0", "5:2:20:6.0", "5:2:21:1.0", "9:3:30:3.0"), events);
+
+        events.clear();
+        small.replay(1, 3, listener);
+        assertEquals(Arrays.asList("2:1:10:4.0", "2:3:31:2.0"), events);
+        events.clear();
+        small.replay(3, 3, listener);
+        assertTrue(events.isEmpty());
+
+        // the whole timeline of the default model, in order
+        final List<Long> times = new ArrayList<>();
+        timeline.replay(new TimelineIndex.EventListener() {
+            @Override
+            public void onEvent(final long user, final long item, final double preference, final long timestamp) {
+                times.add(timestamp);
+            }
+        });
+        assertEquals(timeline.size(), times.size());
+        for (int pos = 0; pos < timeline.size(); pos++) {
+            assertEquals(timeline.getTimestamp(pos), times.get(pos).longValue());
+        }
+    }
+
+    @Test
+    public void testForEachWindow() {
+        final TimelineIndex small = small();
+        final List<String> windows = new ArrayList<>();
+        TimelineIndex.WindowListener listener = new TimelineIndex.WindowListener() {
+            @Override
+            public void onWindow(final long windowStart, final int fromPosition, final int toPosition) {
+                windows.add(windowStart + ":" + fromPosition + ":" + toPosition);
+            }
+        };
+        // overlapping windows [w, w + 3): the end of a window is exclusive,
+        // and windows without events are still reported (6 and 10)
+        small.forEachWindow(0L, 12L, 3L, 2L, listener);
+        assertEquals(Arrays.asList("0:0:3", "2:1:3", "4:3:5", "6:5:5", "8:5:6", "10:6:6"), windows);
+
+        // windows with gaps between them, starting before the first event
+        // (whose window ends just at it) and ending before the last one
+        windows.clear();
+        small.forEachWindow(-1L, 6L, 2L, 3L, listener);
+        assertEquals(Arrays.asList("-1:0:0", "2:1:3", "5:3:5"), windows);
+
+        // a window starting exactly at an event includes it; the end timestamp
+        // does not start a window
+        windows.clear();
+        small.forEachWindow(5L, 9L, 4L, 4L, listener);
+        assertEquals(Arrays.asList("5:3:5"), windows);
+
+        // no windows when the interval is empty
+        windows.clear();
+        small.forEachWindow(9L, 9L, 1L, 1L, listener);
+        assertTrue(windows.isEmpty());
+
+        // every window matches the corresponding range query
+        timeline.forEachWindow(0L, 11L, 4L, 1L, new TimelineIndex.WindowListener() {
+            @Override
+            public void onWindow(final long windowStart, final int fromPosition, final int toPosition) {
+                int[] range = timeline.range(windowStart, windowStart + 4L);
+                assertEquals(range[0], fromPosition);
+                assertEquals(range[1], toPosition);
+            }
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testForEachWindowWithoutStep() {
+        small().forEachWindow(0L, 10L, 1L, 0L, new TimelineIndex.WindowListener() {
+            @Override
+            public void onWindow(final long windowStart, final int fromPosition, final int toPosition) {
+            }
+        });
+    }
+
+    @Test
+    public void testTimestampAtFraction() {
+        TimelineIndex small = small();
+        assertEquals(1L, small.getTimestampAtFraction(0.0));
+        // the fraction 1 gives the last event, not a position past the end
+        assertEquals(9L, small.getTimestampAtFraction(1.0));
+        assertEquals(5L, small.getTimestampAtFraction(0.5));
+        // 2 of 6 events happen before the timestamp
+        assertEquals(2L, small.getTimestampAtFraction(2.0 / 6));
+        assertEquals(1L, small.getTimestampAtFraction(-0.5));
+        assertEquals(9L, small.getTimestampAtFraction(1.5));
+        assertEquals(timeline.getFirstTimestamp(), timeline.getTimestampAtFraction(0.0));
+        assertEquals(timeline.getLastTimestamp(), timeline.getTimestampAtFraction(1.0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTimestampAtFractionOfEmptyTimeline() {
+        TimelineIndex.build(0, new long[0], new long[0], new double[0], new long[0]).getTimestampAtFraction(0.5);
+    }
+}
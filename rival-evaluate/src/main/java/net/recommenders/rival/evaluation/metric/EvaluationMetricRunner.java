@@ -26,6 +26,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.Properties;
 import net.recommenders.rival.core.DataModelIF;
 import net.recommenders.rival.core.SimpleParser;
+import net.recommenders.rival.core.SplitBundle;
 import net.recommenders.rival.evaluation.metric.error.AbstractErrorMetric;
 import net.recommenders.rival.evaluation.metric.ranking.AbstractRankingMetric;
 import net.recommenders.rival.evaluation.metric.ranking.NDCG;
@@ -149,10 +150,16 @@ public final class EvaluationMetricRunner {
                 throw new AssertionError();
         }
         System.out.println("Parsing finished: recommendation file");
-        System.out.println("Parsing started: test file");
-        File testFile = new File(properties.getProperty(TEST_FILE));
-        DataModelIF<Long, Long> testModel = new SimpleParser().parseData(testFile);
-        System.out.println("Parsing finished: test file");
+        DataModelIF<Long, Long> testModel;
+        if (properties.getProperty(SplitBundle.PROPERTY) != null) {
+            System.out.println("Loading split bundle");
+            testModel = SplitBundle.read(new File(properties.getProperty(SplitBundle.PROPERTY))).getTest();
+        } else {
+            System.out.println("Parsing started: test file");
+            File testFile = new File(properties.getProperty(TEST_FILE));
+            testModel = new SimpleParser().parseData(testFile);
+            System.out.println("Parsing finished: test file");
+        }
         // read other parameters
         Boolean overwrite = Boolean.parseBoolean(properties.getProperty(OUTPUT_OVERWRITE, "false"));
         Boolean doAppend = Boolean.parseBoolean(properties.getProperty(OUTPUT_APPEND, "true"));
@@ -26,6 +26,7 @@ import java.util.Properties;
 import java.util.Set;
 import net.recommenders.rival.core.DataModelIF;
 import net.recommenders.rival.core.SimpleParser;
+import net.recommenders.rival.core.SplitBundle;
 import net.recommenders.rival.evaluation.parser.TrecEvalParser;
 import net.recommenders.rival.evaluation.strategy.EvaluationStrategy;
 
@@ -143,10 +144,16 @@ public final class MultipleEvaluationMetricRunner {
             recFormat = EvaluationStrategy.OUTPUT_FORMAT.SIMPLE;
         }
 
-        System.out.println("Parsing started: test file");
-        File testFile = new File(properties.getProperty(TEST_FILE));
-        DataModelIF<Long, Long> testModel = new SimpleParser().parseData(testFile);
-        System.out.println("Parsing finished: test file");
+        DataModelIF<Long, Long> testModel;
+        if (properties.getProperty(SplitBundle.PROPERTY) != null) {
+            System.out.println("Loading split bundle");
+            testModel = SplitBundle.read(new File(properties.getProperty(SplitBundle.PROPERTY))).getTest();
+        } else {
+            System.out.println("Parsing started: test file");
+            File testFile = new File(properties.getProperty(TEST_FILE));
+            testModel = new SimpleParser().parseData(testFile);
+            System.out.println("Parsing finished: test file");
+        }
 
         File predictionsFolder = new File(properties.getProperty(PREDICTION_FOLDER));
         String predictionsPrefix = properties.getProperty(PREDICTION_PREFIX);
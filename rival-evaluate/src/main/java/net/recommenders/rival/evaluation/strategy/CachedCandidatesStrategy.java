@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.evaluation.strategy;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.recommenders.rival.core.CandidateItemsProvider;
+import net.recommenders.rival.evaluation.Pair;
+
+/**
+ * Strategy that remembers the candidate items of another strategy, so the
+ * same candidates are returned every time they are requested for a user. This
+ * is needed when the candidates are used twice, to score only those items in
+ * the recommendation phase (as a {@link CandidateItemsProvider}) and to
+ * generate the rankings afterwards, and the decorated strategy is not
+ * deterministic (e.g., {@link RelPlusN}).
+ *
+ * For randomized strategies, the candidates depend on the order in which
+ * users are requested; {@link #precompute(java.lang.Iterable)} can be used to
+ * fix that order before candidates are requested from several threads.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ *
+ * @param <U> generic type for users
+ * @param <I> generic type for items
+ */
+public class CachedCandidatesStrategy<U, I> implements EvaluationStrategy<U, I>, CandidateItemsProvider<U, I> {
+
+    /**
+     * The decorated strategy.
+     */
+    private final EvaluationStrategy<U, I> strategy;
+    /**
+     * Candidates already computed for each user.
+     */
+    private final Map<U, Set<I>> candidates;
+
+    /**
+     * Default constructor.
+     *
+     * @param theStrategy the strategy to be decorated
+     */
+    public CachedCandidatesStrategy(final EvaluationStrategy<U, I> theStrategy) {
+        this.strategy = theStrategy;
+        this.candidates = new HashMap<U, Set<I>>();
+    }
+
+    /**
+     * Computes the candidates of the users, in the given order.
+     *
+     * @param users the users
+     */
+    public void precompute(final Iterable<U> users) {
+        for (U u : users) {
+            getCandidateItemsToRank(u);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Set<I> getCandidateItemsToRank(final U user) {
+        Set<I> items = candidates.get(user);
+        if (items == null) {
+            items = strategy.getCandidateItemsToRank(user);
+            candidates.put(user, items);
+        }
+        return items;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<I> getCandidateItems(final U user) {
+        return getCandidateItemsToRank(user);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void printRanking(final U user, final List<Pair<I, Double>> scoredItems, final PrintStream out, final OUTPUT_FORMAT format) {
+        strategy.printRanking(user, scoredItems, out, format);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void printGroundtruth(final U user, final PrintStream out, final OUTPUT_FORMAT format) {
+        strategy.printGroundtruth(user, out, format);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return strategy.toString();
+    }
+}
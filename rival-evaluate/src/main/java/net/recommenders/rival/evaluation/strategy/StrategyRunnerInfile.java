@@ -31,6 +31,7 @@ import java.util.Properties;
 import java.util.Set;
 import net.recommenders.rival.core.DataModelIF;
 import net.recommenders.rival.core.SimpleParser;
+import net.recommenders.rival.core.SplitBundle;
 import net.recommenders.rival.evaluation.Pair;
 
 /**
@@ -133,14 +134,23 @@ public final class StrategyRunnerInfile {
     public static void run(final Properties properties)
             throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException, InvocationTargetException, NoSuchMethodException {
         // read splits
-        System.out.println("Parsing started: training file");
-        File trainingFile = new File(properties.getProperty(TRAINING_FILE));
-        DataModelIF<Long, Long> trainingModel = new SimpleParser().parseData(trainingFile);
-        System.out.println("Parsing finished: training file");
-        System.out.println("Parsing started: test file");
-        File testFile = new File(properties.getProperty(TEST_FILE));
-        DataModelIF<Long, Long> testModel = new SimpleParser().parseData(testFile);
-        System.out.println("Parsing finished: test file");
+        DataModelIF<Long, Long> trainingModel;
+        DataModelIF<Long, Long> testModel;
+        if (properties.getProperty(SplitBundle.PROPERTY) != null) {
+            System.out.println("Loading split bundle");
+            SplitBundle bundle = SplitBundle.read(new File(properties.getProperty(SplitBundle.PROPERTY)));
+            trainingModel = bundle.getTraining();
+            testModel = bundle.getTest();
+        } else {
+            System.out.println("Parsing started: training file");
+            File trainingFile = new File(properties.getProperty(TRAINING_FILE));
+            trainingModel = new SimpleParser().parseData(trainingFile);
+            System.out.println("Parsing finished: training file");
+            System.out.println("Parsing started: test file");
+            File testFile = new File(properties.getProperty(TEST_FILE));
+            testModel = new SimpleParser().parseData(testFile);
+            System.out.println("Parsing finished: test file");
+        }
         // read other parameters
         File inputFile = new File(properties.getProperty(INPUT_FILE));
         Boolean overwrite = Boolean.parseBoolean(properties.getProperty(OUTPUT_OVERWRITE, "false"));
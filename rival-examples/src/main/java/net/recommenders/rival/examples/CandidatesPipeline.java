@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.examples;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import net.recommenders.rival.core.SimpleParser;
+import net.recommenders.rival.core.SplitBundle;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.evaluation.Pair;
+import net.recommenders.rival.evaluation.strategy.CachedCandidatesStrategy;
+import net.recommenders.rival.evaluation.strategy.EvaluationStrategy;
+import net.recommenders.rival.evaluation.strategy.StrategyRunner;
+import net.recommenders.rival.recommend.frameworks.AbstractRunner;
+import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
+
+/**
+ * Class that demonstrates how to score only the candidate items of an
+ * evaluation strategy: the recommender receives the strategy as a
+ * {@link net.recommenders.rival.core.CandidateItemsProvider}, and the same
+ * (cached) strategy is then used to generate the rankings, so randomized
+ * strategies such as
+ * {@link net.recommenders.rival.evaluation.strategy.RelPlusN} see the same
+ * candidates in both steps.
+ *
+ * The property file combines those of {@link RecommendationRunner} and
+ * {@link StrategyRunner} (except for the training, test and recommendation
+ * files of the latter, which are taken from the recommender).
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class CandidatesPipeline {
+
+    /**
+     * Utility classes should not have a public or default constructor.
+     */
+    private CandidatesPipeline() {
+    }
+
+    /**
+     * Main method: it will use the property file passed as a System property
+     * (pointed by 'propertyFile').
+     *
+     * @param args not used.
+     * @throws Exception see {@link #run(java.util.Properties)}
+     */
+    public static void main(final String[] args) throws Exception {
+        String propertyFile = System.getProperty("propertyFile");
+        if (propertyFile == null) {
+            System.out.println("Property file not given, exiting.");
+            System.exit(0);
+        }
+        final Properties properties = new Properties();
+        properties.load(new FileInputStream(propertyFile));
+        run(properties);
+    }
+
+    /**
+     * Generates the recommendations of the candidate items of a strategy, and
+     * the rankings and groundtruth of that strategy.
+     *
+     * @param properties the properties of the recommender and the strategy
+     * @throws Exception when the splits cannot be read, or the recommender or
+     * the strategy cannot be instantiated or run
+     */
+    public static void run(final Properties properties) throws Exception {
+        // read splits
+        TemporalDataModelIF<Long, Long> trainingModel;
+        TemporalDataModelIF<Long, Long> testModel;
+        if (properties.getProperty(SplitBundle.PROPERTY) != null) {
+            SplitBundle bundle = SplitBundle.read(new File(properties.getProperty(SplitBundle.PROPERTY)));
+            trainingModel = bundle.getTraining();
+            testModel = bundle.getTest();
+        } else {
+            trainingModel = new SimpleParser().parseTemporalData(new File(properties.getProperty(RecommendationRunner.TRAINING_SET)));
+            testModel = new SimpleParser().parseTemporalData(new File(properties.getProperty(RecommendationRunner.TEST_SET)));
+        }
+        AbstractRunner<Long, Long> runner = RecommendationRunner.instantiateRecommender(properties);
+        if (runner == null) {
+            return;
+        }
+        if (runner.isAlreadyRecommended()) {
+            // the existing recommendations may not be restricted to the same candidates
+            System.out.println("Ignoring " + runner.getCanonicalFileName());
+            return;
+        }
+        CachedCandidatesStrategy<Long, Long> strategy = new CachedCandidatesStrategy<Long, Long>(
+                StrategyRunner.instantiateStrategy(properties, trainingModel, testModel));
+        Map<Long, List<Pair<Long, Double>>> recommendations = recommend(runner, trainingModel, testModel, strategy);
+        EvaluationStrategy.OUTPUT_FORMAT format = EvaluationStrategy.OUTPUT_FORMAT.SIMPLE;
+        if (EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL.toString().equals(properties.getProperty(StrategyRunner.OUTPUT_FORMAT))) {
+            format = EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL;
+        }
+        StrategyRunner.generateOutput(testModel, recommendations, strategy, format,
+                new File(properties.getProperty(StrategyRunner.OUTPUT_FILE)),
+                new File(properties.getProperty(StrategyRunner.GROUNDTRUTH_FILE)),
+                Boolean.parseBoolean(properties.getProperty(StrategyRunner.OUTPUT_OVERWRITE, "false")));
+    }
+
+    /**
+     * Runs a recommender that only scores the candidate items of a strategy.
+     * The recommendations are also written to the output of the recommender.
+     *
+     * @param runner the recommender
+     * @param trainingModel the training split
+     * @param testModel the test split
+     * @param strategy the strategy, whose candidates will be used again to
+     * generate the rankings
+     * @return the recommendations of each user, as read by
+     * {@link StrategyRunner#generateOutput(net.recommenders.rival.core.DataModelIF, java.util.Map,
+     * net.recommenders.rival.evaluation.strategy.EvaluationStrategy,
+     * net.recommenders.rival.evaluation.strategy.EvaluationStrategy.OUTPUT_FORMAT,
+     * java.io.File, java.io.File, java.lang.Boolean)}
+     * @throws Exception see
+     * {@link AbstractRunner#run(net.recommenders.rival.recommend.frameworks.AbstractRunner.RUN_OPTIONS,
+     * net.recommenders.rival.core.TemporalDataModelIF, net.recommenders.rival.core.TemporalDataModelIF)}
+     */
+    public static Map<Long, List<Pair<Long, Double>>> recommend(final AbstractRunner<Long, Long> runner,
+            final TemporalDataModelIF<Long, Long> trainingModel, final TemporalDataModelIF<Long, Long> testModel,
+            final CachedCandidatesStrategy<Long, Long> strategy) throws Exception {
+        // candidates of randomized strategies depend on the order of the users, fixed before scoring
+        strategy.precompute(testModel.getUsers());
+        runner.setCandidateItemsProvider(strategy);
+        TemporalDataModelIF<Long, Long> recModel = runner.run(AbstractRunner.RUN_OPTIONS.RETURN_AND_OUTPUT_RECS, trainingModel, testModel);
+        Map<Long, List<Pair<Long, Double>>> recommendations = new HashMap<Long, List<Pair<Long, Double>>>();
+        if (recModel == null) {
+            return recommendations;
+        }
+        for (Long user : recModel.getUsers()) {
+            List<Pair<Long, Double>> scoredItems = new ArrayList<Pair<Long, Double>>();
+            for (Long item : recModel.getUserItems(user)) {
+                scoredItems.add(new Pair<Long, Double>(item, recModel.getUserItemPreference(user, item)));
+            }
+            recommendations.put(user, scoredItems);
+        }
+        return recommendations;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.examples.daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Client that sends a job to a {@link RivalDaemon}, with the same property
+ * file given to the runners: {@code -DpropertyFile} (or {@code -Dfile}, as
+ * {@link net.recommenders.rival.recommend.frameworks.RecommendationRunner}),
+ * together with {@code -Djob} (one of the jobs of {@link RivalDaemon},
+ * {@link RivalDaemon#JOB_RECOMMEND} by default) and {@code -Dport}. The
+ * client waits for the job to finish, and exits with status 1 if it failed.
+ * {@code -Djob=status} prints the number of jobs the daemon has not finished
+ * yet, and {@code -Djob=shutdown} stops the daemon.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class RivalClient {
+
+    /**
+     * Variable that represent the name of a system property.
+     */
+    public static final String JOB = "job";
+
+    /**
+     * Utility classes should not have a public or default constructor.
+     */
+    private RivalClient() {
+    }
+
+    /**
+     * Main method that sends a job to the daemon.
+     *
+     * @param args program arguments (not used)
+     * @throws IOException when the daemon cannot be reached
+     */
+    public static void main(final String[] args) throws IOException {
+        String job = System.getProperty(JOB, RivalDaemon.JOB_RECOMMEND);
+        String propertyFile = System.getProperty("propertyFile", System.getProperty("file"));
+        int port = Integer.parseInt(System.getProperty(RivalDaemon.PORT, "" + RivalDaemon.DEFAULT_PORT));
+        String request;
+        if (RivalDaemon.SHUTDOWN.equals(job) || RivalDaemon.STATUS.equals(job)) {
+            request = job;
+        } else if (propertyFile == null) {
+            System.out.println("Property file not given, exiting.");
+            System.exit(0);
+            return;
+        } else {
+            request = job + "\t" + new File(propertyFile).getAbsolutePath();
+        }
+        String answer = send(port, request);
+        System.out.println(answer);
+        if (answer == null || !answer.startsWith(RivalDaemon.OK)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Sends a request to the daemon and waits for the answer.
+     *
+     * @param port the port of the daemon
+     * @param request the request, as described in {@link RivalDaemon}
+     * @return the answer (null if the daemon closed the connection)
+     * @throws IOException when the daemon cannot be reached
+     */
+    public static String send(final int port, final String request) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            out.write(request + "\n");
+            out.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            return in.readLine();
+        } finally {
+            socket.close();
+        }
+    }
+}
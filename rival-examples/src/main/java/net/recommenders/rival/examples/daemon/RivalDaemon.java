@@ -0,0 +1,504 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.examples.daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.recommenders.rival.core.SplitBundle;
+import net.recommenders.rival.evaluation.metric.EvaluationMetricRunner;
+import net.recommenders.rival.evaluation.statistics.StatisticsRunner;
+import net.recommenders.rival.evaluation.strategy.StrategyRunner;
+import net.recommenders.rival.recommend.frameworks.AbstractRunner;
+import net.recommenders.rival.recommend.frameworks.ExperimentScheduler;
+import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
+import net.recommenders.rival.split.filter.FilterRunner;
+import net.recommenders.rival.split.parser.ParserRunner;
+import net.recommenders.rival.split.splitter.SplitterRunner;
+
+/**
+ * Long-lived process that runs RiVal jobs sent by {@link RivalClient}, so the
+ * startup of the JVM, the loading of the classes of the frameworks and the
+ * warm-up of the JIT are paid once instead of once per job.
+ *
+ * The daemon listens on a port of the loopback interface. Each connection
+ * sends one line, {@code <job>\t<property file>}, where the job is one of
+ * {@link #JOB_RECOMMEND}, {@link #JOB_STRATEGY}, {@link #JOB_METRIC},
+ * {@link #JOB_STATISTICS} or {@link #JOB_SPLIT}, and the property file is the
+ * one the corresponding runner reads from {@code -DpropertyFile}; the job is
+ * run in a pool of threads and the daemon answers with a line
+ * {@code OK\t<milliseconds>} or {@code ERROR\t<message>}. The line
+ * {@link #STATUS} is answered with {@code OK\t<jobs>}, the number of jobs
+ * received and not finished yet, and the line {@link #SHUTDOWN} stops the
+ * daemon once the jobs already received finish; both are answered by the
+ * threads that read the requests, so they are answered while jobs are
+ * running, and a client that connects and sends nothing does not delay the
+ * others.
+ * Relative paths in the property files are resolved against the working
+ * directory of the daemon.
+ *
+ * The splits read by the recommendation jobs are kept in memory (the most
+ * recently used ones, up to a maximum) and shared by the jobs that use them;
+ * a split is read again when its files change.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class RivalDaemon {
+
+    /**
+     * Job that generates recommendations, as {@link RecommendationRunner}.
+     */
+    public static final String JOB_RECOMMEND = "recommend";
+    /**
+     * Job that applies an evaluation strategy, as {@link StrategyRunner}.
+     */
+    public static final String JOB_STRATEGY = "strategy";
+    /**
+     * Job that computes an evaluation metric, as
+     * {@link EvaluationMetricRunner}.
+     */
+    public static final String JOB_METRIC = "metric";
+    /**
+     * Job that computes statistical tests, as {@link StatisticsRunner}.
+     */
+    public static final String JOB_STATISTICS = "statistics";
+    /**
+     * Job that parses, filters and splits a dataset, as
+     * {@link net.recommenders.rival.split.splitter.Split}.
+     */
+    public static final String JOB_SPLIT = "split";
+    /**
+     * Request that stops the daemon.
+     */
+    public static final String SHUTDOWN = "shutdown";
+    /**
+     * Request for the number of jobs not finished yet.
+     */
+    public static final String STATUS = "status";
+    /**
+     * Answer of a job that finished.
+     */
+    public static final String OK = "OK";
+    /**
+     * Answer of a job that failed.
+     */
+    public static final String ERROR = "ERROR";
+    /**
+     * Variable that represent the name of a property of the daemon.
+     */
+    public static final String PORT = "port";
+    /**
+     * Variable that represent the name of a property of the daemon.
+     */
+    public static final String THREADS = "threads";
+    /**
+     * Variable that represent the name of a property of the daemon.
+     */
+    public static final String CACHED_SPLITS = "cached_splits";
+    /**
+     * Default port.
+     */
+    public static final int DEFAULT_PORT = 17070;
+    /**
+     * Default number of splits kept in memory.
+     */
+    public static final int DEFAULT_CACHED_SPLITS = 4;
+    /**
+     * Milliseconds to wait for the request of a connection.
+     */
+    private static final int REQUEST_TIMEOUT = 10000;
+    /**
+     * Number of jobs run at the same time.
+     */
+    private final int nThreads;
+    /**
+     * Number of jobs received and not finished yet.
+     */
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+    /**
+     * Maximum number of splits kept in memory.
+     */
+    private final int maxSplits;
+    /**
+     * Splits kept in memory, from the least to the most recently used.
+     */
+    private final Map<String, FutureTask<SplitBundle>> splits = new LinkedHashMap<String, FutureTask<SplitBundle>>(16, 0.75f, true);
+    /**
+     * Socket where the jobs are received.
+     */
+    private ServerSocket server;
+    /**
+     * Pool where the jobs are run.
+     */
+    private ExecutorService pool;
+    /**
+     * Pool where the requests are read.
+     */
+    private ExecutorService readers;
+
+    /**
+     * Constructor.
+     *
+     * @param threads number of jobs run at the same time
+     * @param cachedSplits maximum number of splits kept in memory
+     */
+    public RivalDaemon(final int threads, final int cachedSplits) {
+        this.nThreads = Math.max(1, threads);
+        this.maxSplits = Math.max(0, cachedSplits);
+    }
+
+    /**
+     * Main method that starts the daemon. The port ({@link #PORT}), the
+     * number of jobs run at the same time ({@link #THREADS}) and the number of
+     * splits kept in memory ({@link #CACHED_SPLITS}) are read from the system
+     * properties.
+     *
+     * @param args program arguments (not used)
+     * @throws Exception when the daemon cannot be started
+     */
+    public static void main(final String[] args) throws Exception {
+        int port = Integer.parseInt(System.getProperty(PORT, "" + DEFAULT_PORT));
+        int threads = Integer.parseInt(System.getProperty(THREADS, "" + Runtime.getRuntime().availableProcessors()));
+        int cached = Integer.parseInt(System.getProperty(CACHED_SPLITS, "" + DEFAULT_CACHED_SPLITS));
+        RivalDaemon daemon = new RivalDaemon(threads, cached);
+        daemon.start(port);
+        System.out.println("RiVal daemon listening on port " + daemon.getPort());
+        daemon.serve();
+    }
+
+    /**
+     * Opens the socket of the daemon.
+     *
+     * @param port the port, or 0 to use any free port
+     * @throws IOException when the socket cannot be opened
+     */
+    public void start(final int port) throws IOException {
+        server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        pool = Executors.newFixedThreadPool(nThreads);
+        readers = Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Gets the port where the daemon listens.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Receives jobs until the daemon is stopped, and waits for the running
+     * jobs to finish.
+     *
+     * @throws InterruptedException when interrupted while waiting for the
+     * jobs
+     */
+    public void serve() throws InterruptedException {
+        try {
+            while (!server.isClosed()) {
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketException e) {
+                    // the socket was closed by a shutdown request
+                    break;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    continue;
+                }
+                readers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        receive(socket);
+                    }
+                });
+            }
+        } finally {
+            // the requests being read may still submit their jobs
+            readers.shutdown();
+            readers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            synchronized (splits) {
+                splits.clear();
+            }
+        }
+    }
+
+    /**
+     * Reads the request of a connection. Control requests are answered in the
+     * current thread, so they do not wait for the jobs; the other requests are
+     * run in the pool of jobs.
+     *
+     * @param socket the connection
+     */
+    private void receive(final Socket socket) {
+        final String line;
+        try {
+            socket.setSoTimeout(REQUEST_TIMEOUT);
+            line = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine();
+            socket.setSoTimeout(0);
+        } catch (IOException e) {
+            e.printStackTrace();
+            close(socket);
+            return;
+        }
+        if (line != null && line.trim().equals(SHUTDOWN)) {
+            answer(socket, OK + "\t0");
+            stop();
+        } else if (line != null && line.trim().equals(STATUS)) {
+            answer(socket, OK + "\t" + pendingJobs.get());
+        } else {
+            pendingJobs.incrementAndGet();
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    String answer = null;
+                    try {
+                        answer = handle(line);
+                    } catch (Error e) {
+                        answer = ERROR + "\t" + String.valueOf(e).replace('\n', ' ');
+                        throw e;
+                    } finally {
+                        pendingJobs.decrementAndGet();
+                        // the client is answered even if the job did not end normally
+                        answer(socket, answer == null ? ERROR + "\tThe job did not finish" : answer);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops receiving jobs.
+     */
+    public void stop() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs the job of a request.
+     *
+     * @param line the request (null if the connection sent nothing)
+     * @return the answer
+     */
+    private String handle(final String line) {
+        if (line == null) {
+            return ERROR + "\tEmpty request";
+        }
+        String[] toks = line.split("\t", 2);
+        if (toks.length < 2) {
+            return ERROR + "\tMalformed request: " + line;
+        }
+        String answer;
+        long time = System.currentTimeMillis();
+        try {
+            execute(toks[0], loadProperties(toks[1]));
+            answer = OK + "\t" + (System.currentTimeMillis() - time);
+        } catch (Exception e) {
+            e.printStackTrace();
+            answer = ERROR + "\t" + String.valueOf(e).replace('\n', ' ');
+        }
+        System.out.println(toks[0] + "\t" + toks[1] + "\t" + answer);
+        return answer;
+    }
+
+    /**
+     * Answers a request and closes its connection.
+     *
+     * @param socket the connection
+     * @param answer the answer
+     */
+    private static void answer(final Socket socket, final String answer) {
+        try {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            out.write(answer + "\n");
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            close(socket);
+        }
+    }
+
+    /**
+     * Closes a connection.
+     *
+     * @param socket the connection
+     */
+    private static void close(final Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads a property file.
+     *
+     * @param propertyFile the file
+     * @return the properties
+     * @throws IOException when the file cannot be read
+     */
+    private static Properties loadProperties(final String propertyFile) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(propertyFile);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    /**
+     * Runs a job in the current thread.
+     *
+     * @param job the type of job
+     * @param properties the properties of the job, as read by its runner
+     * @throws Exception when the job fails
+     */
+    public void execute(final String job, final Properties properties) throws Exception {
+        if (JOB_RECOMMEND.equals(job)) {
+            recommend(properties);
+        } else if (JOB_STRATEGY.equals(job)) {
+            StrategyRunner.run(properties);
+        } else if (JOB_METRIC.equals(job)) {
+            EvaluationMetricRunner.run(properties);
+        } else if (JOB_STATISTICS.equals(job)) {
+            StatisticsRunner.run(properties);
+        } else if (JOB_SPLIT.equals(job)) {
+            SplitterRunner.run(properties, FilterRunner.run(properties, ParserRunner.run(properties)), true);
+        } else {
+            throw new IllegalArgumentException("Unknown job: " + job);
+        }
+    }
+
+    /**
+     * Generates recommendations as {@link RecommendationRunner#run(AbstractRunner)},
+     * but with the split shared by the jobs.
+     *
+     * @param properties the properties of the job
+     * @throws Exception when the recommendations cannot be generated
+     */
+    private void recommend(final Properties properties) throws Exception {
+        AbstractRunner<Long, Long> rr = RecommendationRunner.instantiateRecommender(properties);
+        if (rr == null) {
+            throw new IllegalArgumentException("Recommender could not be instantiated");
+        }
+        if (rr.isAlreadyRecommended()) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        SplitBundle split = getSplit(rr);
+        rr.run(AbstractRunner.RUN_OPTIONS.OUTPUT_RECS, split.getTraining(), split.getTest());
+        RecommendationRunner.writeStats(rr.getCanonicalFileName(), "time", System.currentTimeMillis() - time);
+    }
+
+    /**
+     * Gets the split of a job, reading it if it is not in memory. Jobs that
+     * need the same split while it is being read wait for it.
+     *
+     * @param rr the job
+     * @return the split
+     * @throws Exception when the split cannot be read
+     */
+    private SplitBundle getSplit(final AbstractRunner<Long, Long> rr) throws Exception {
+        String key = ExperimentScheduler.splitKey(rr);
+        for (String file : key.split("\n")) {
+            File f = new File(file);
+            key += "\t" + f.lastModified() + "\t" + f.length();
+        }
+        FutureTask<SplitBundle> task;
+        boolean load = false;
+        synchronized (splits) {
+            task = splits.get(key);
+            if (task == null) {
+                task = new FutureTask<SplitBundle>(new Callable<SplitBundle>() {
+                    @Override
+                    public SplitBundle call() throws Exception {
+                        return ExperimentScheduler.loadSplit(rr);
+                    }
+                });
+                load = true;
+                splits.put(key, task);
+                evict();
+            }
+        }
+        if (load) {
+            task.run();
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            synchronized (splits) {
+                if (splits.get(key) == task) {
+                    splits.remove(key);
+                }
+            }
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Removes the least recently used splits when there are too many.
+     */
+    private void evict() {
+        Iterator<FutureTask<SplitBundle>> it = splits.values().iterator();
+        while (splits.size() > maxSplits && it.hasNext()) {
+            FutureTask<SplitBundle> task = it.next();
+            it.remove();
+            if (task.isDone()) {
+                // the shared similarities of the split (if any) are not needed either
+                try {
+                    ExperimentScheduler.releaseSimilarities(task.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    // the split was not read, so no similarities were computed
+                }
+            }
+        }
+    }
+}
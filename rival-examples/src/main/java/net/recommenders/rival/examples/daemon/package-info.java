@@ -0,0 +1,4 @@
+/**
+ * RiVal daemon that runs jobs in a long-lived JVM, and its client.
+ */
+package net.recommenders.rival.examples.daemon;
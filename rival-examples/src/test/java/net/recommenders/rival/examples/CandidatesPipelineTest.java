@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.examples;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.evaluation.Pair;
+import net.recommenders.rival.evaluation.strategy.CachedCandidatesStrategy;
+import net.recommenders.rival.evaluation.strategy.EvaluationStrategy;
+import net.recommenders.rival.evaluation.strategy.RelPlusN;
+import net.recommenders.rival.evaluation.strategy.StrategyRunner;
+import net.recommenders.rival.recommend.frameworks.AbstractRunner;
+import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
+import net.recommenders.rival.recommend.frameworks.rival.PopularityRecommender;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link CandidatesPipeline}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class CandidatesPipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRelPlusNCandidatesMatch() throws Exception {
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        TemporalDataModelIF<Long, Long> test = new TemporalDataModel<>();
+        Random rnd = new Random(3L);
+        for (long u = 1; u <= 30; u++) {
+            for (long i = 1; i <= 60; i++) {
+                if (rnd.nextInt(3) == 0) {
+                    training.addPreference(u, i, 1.0 + rnd.nextInt(5));
+                } else if (rnd.nextInt(8) == 0) {
+                    test.addPreference(u, i, 5.0);
+                }
+            }
+        }
+        // every candidate drawn by RelPlusN, in order
+        final Map<Long, Set<Long>> drawn = new HashMap<>();
+        final int[] draws = new int[1];
+        RelPlusN relPlusN = new RelPlusN(training, test, 10, 5.0, 7L) {
+
+            @Override
+            public Set<Long> getCandidateItemsToRank(final Long user) {
+                Set<Long> items = super.getCandidateItemsToRank(user);
+                draws[0]++;
+                drawn.put(user, items);
+                return items;
+            }
+        };
+        CachedCandidatesStrategy<Long, Long> strategy = new CachedCandidatesStrategy<>(relPlusN);
+
+        Properties props = new Properties();
+        props.setProperty(RecommendationRunner.FRAMEWORK, RecommendationRunner.RIVAL);
+        props.setProperty(RecommendationRunner.RECOMMENDER, PopularityRecommender.class.getName());
+        props.setProperty(RecommendationRunner.TRAINING_SET, "data_train.csv");
+        props.setProperty(RecommendationRunner.TEST_SET, "data_test.csv");
+        props.setProperty(RecommendationRunner.OUTPUT, folder.getRoot().getAbsolutePath());
+        AbstractRunner<Long, Long> runner = RecommendationRunner.instantiateRecommender(props);
+        Map<Long, List<Pair<Long, Double>>> recs = CandidatesPipeline.recommend(runner, training, test, strategy);
+        assertFalse(recs.isEmpty());
+        // only candidates are scored
+        for (Map.Entry<Long, List<Pair<Long, Double>>> e : recs.entrySet()) {
+            for (Pair<Long, Double> p : e.getValue()) {
+                assertTrue(drawn.get(e.getKey()).contains(p.getFirst()));
+            }
+        }
+
+        File ranking = folder.newFile("ranking.txt");
+        File groundtruth = folder.newFile("groundtruth.txt");
+        StrategyRunner.generateOutput(test, recs, strategy, EvaluationStrategy.OUTPUT_FORMAT.SIMPLE, ranking, groundtruth, true);
+        // the candidates were drawn once per user, and shared by both steps
+        int users = 0;
+        for (Long u : test.getUsers()) {
+            users++;
+        }
+        assertEquals(users, draws[0]);
+        // so no recommendation is dropped when the rankings are generated
+        Set<String> ranked = new HashSet<>();
+        for (String line : Files.readAllLines(ranking.toPath())) {
+            String[] toks = line.split("\t");
+            ranked.add(toks[0].split("_")[0] + "\t" + toks[1]);
+        }
+        Set<String> recommended = new HashSet<>();
+        for (Map.Entry<Long, List<Pair<Long, Double>>> e : recs.entrySet()) {
+            for (Pair<Long, Double> p : e.getValue()) {
+                recommended.add(e.getKey() + "\t" + p.getFirst());
+            }
+        }
+        assertEquals(recommended, ranked);
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        File train = folder.newFile("split_train.dat");
+        File test = folder.newFile("split_test.dat");
+        try (PrintStream out = new PrintStream(train, "UTF-8")) {
+            out.println("1\t10\t5.0\t100");
+            out.println("2\t10\t3.0\t100");
+            out.println("2\t11\t4.0\t100");
+            out.println("3\t12\t4.0\t100");
+        }
+        try (PrintStream out = new PrintStream(test, "UTF-8")) {
+            out.println("1\t11\t5.0\t100");
+            out.println("3\t10\t5.0\t100");
+        }
+        File ranking = new File(folder.getRoot(), "ranking.txt");
+        File groundtruth = new File(folder.getRoot(), "groundtruth.txt");
+        Properties props = new Properties();
+        props.setProperty(RecommendationRunner.FRAMEWORK, RecommendationRunner.RIVAL);
+        props.setProperty(RecommendationRunner.RECOMMENDER, PopularityRecommender.class.getName());
+        props.setProperty(RecommendationRunner.TRAINING_SET, train.getAbsolutePath());
+        props.setProperty(RecommendationRunner.TEST_SET, test.getAbsolutePath());
+        props.setProperty(RecommendationRunner.OUTPUT, folder.getRoot().getAbsolutePath());
+        props.setProperty(StrategyRunner.STRATEGY, RelPlusN.class.getName());
+        props.setProperty(StrategyRunner.RELEVANCE_THRESHOLD, "5");
+        props.setProperty(StrategyRunner.RELPLUSN_N, "1");
+        props.setProperty(StrategyRunner.RELPLUSN_SEED, "2017");
+        props.setProperty(StrategyRunner.OUTPUT_FORMAT, EvaluationStrategy.OUTPUT_FORMAT.SIMPLE.toString());
+        props.setProperty(StrategyRunner.OUTPUT_FILE, ranking.getAbsolutePath());
+        props.setProperty(StrategyRunner.GROUNDTRUTH_FILE, groundtruth.getAbsolutePath());
+        CandidatesPipeline.run(props);
+
+        AbstractRunner<Long, Long> runner = RecommendationRunner.instantiateRecommender(props);
+        assertTrue(runner.isAlreadyRecommended());
+        assertEquals(2, Files.readAllLines(groundtruth.toPath()).size());
+        // the relevant item of each user is ranked
+        String rankings = new String(Files.readAllBytes(ranking.toPath()), "UTF-8");
+        assertTrue(rankings.contains("1_11\t11\t"));
+        assertTrue(rankings.contains("3_10\t10\t"));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.examples.daemon;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Properties;
+import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
+import net.recommenders.rival.recommend.frameworks.rival.PopularityRecommender;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link RivalDaemon} and {@link RivalClient}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class RivalDaemonTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 60000)
+    public void testRoundTrip() throws Exception {
+        File train = folder.newFile("split_train.dat");
+        File test = folder.newFile("split_test.dat");
+        try (PrintStream out = new PrintStream(train, "UTF-8")) {
+            out.println("1\t10\t5.0\t100");
+            out.println("2\t10\t3.0\t100");
+            out.println("2\t11\t4.0\t100");
+            out.println("3\t12\t4.0\t100");
+        }
+        try (PrintStream out = new PrintStream(test, "UTF-8")) {
+            out.println("1\t11\t5.0\t100");
+            out.println("3\t10\t5.0\t100");
+        }
+        Properties props = new Properties();
+        props.setProperty(RecommendationRunner.FRAMEWORK, RecommendationRunner.RIVAL);
+        props.setProperty(RecommendationRunner.RECOMMENDER, PopularityRecommender.class.getName());
+        props.setProperty(RecommendationRunner.TRAINING_SET, train.getAbsolutePath());
+        props.setProperty(RecommendationRunner.TEST_SET, test.getAbsolutePath());
+        props.setProperty(RecommendationRunner.OUTPUT, folder.getRoot().getAbsolutePath());
+        File propertyFile = folder.newFile("recommend.properties");
+        try (OutputStream out = new FileOutputStream(propertyFile)) {
+            props.store(out, null);
+        }
+
+        final RivalDaemon daemon = new RivalDaemon(2, 1);
+        daemon.start(0);
+        Thread serving = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    daemon.serve();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        serving.start();
+        int port = daemon.getPort();
+
+        String answer = RivalClient.send(port, RivalDaemon.JOB_RECOMMEND + "\t" + propertyFile.getAbsolutePath());
+        assertTrue(answer, answer.startsWith(RivalDaemon.OK + "\t"));
+        assertTrue(RecommendationRunner.instantiateRecommender(props).isAlreadyRecommended());
+        // the job has finished, so none is pending
+        assertEquals(RivalDaemon.OK + "\t0", RivalClient.send(port, RivalDaemon.STATUS));
+        assertTrue(RivalClient.send(port, "unknown\t" + propertyFile.getAbsolutePath()).startsWith(RivalDaemon.ERROR + "\t"));
+
+        assertEquals(RivalDaemon.OK + "\t0", RivalClient.send(port, RivalDaemon.SHUTDOWN));
+        serving.join(30000);
+        assertFalse(serving.isAlive());
+    }
+
+    /**
+     * Recommender that cannot be built.
+     */
+    public static class BrokenRecommender extends PopularityRecommender {
+
+        /**
+         * Constructor.
+         */
+        public BrokenRecommender() {
+            throw new AssertionError("broken recommender");
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testSilentClientAndError() throws Exception {
+        File train = folder.newFile("split_train.dat");
+        File test = folder.newFile("split_test.dat");
+        try (PrintStream out = new PrintStream(train, "UTF-8")) {
+            out.println("1\t10\t5.0\t100");
+        }
+        try (PrintStream out = new PrintStream(test, "UTF-8")) {
+            out.println("1\t11\t5.0\t100");
+        }
+        Properties props = new Properties();
+        props.setProperty(RecommendationRunner.FRAMEWORK, RecommendationRunner.RIVAL);
+        props.setProperty(RecommendationRunner.RECOMMENDER, BrokenRecommender.class.getName());
+        props.setProperty(RecommendationRunner.TRAINING_SET, train.getAbsolutePath());
+        props.setProperty(RecommendationRunner.TEST_SET, test.getAbsolutePath());
+        props.setProperty(RecommendationRunner.OUTPUT, folder.getRoot().getAbsolutePath());
+        File propertyFile = folder.newFile("recommend.properties");
+        try (OutputStream out = new FileOutputStream(propertyFile)) {
+            props.store(out, null);
+        }
+
+        final RivalDaemon daemon = new RivalDaemon(1, 1);
+        daemon.start(0);
+        Thread serving = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    daemon.serve();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        serving.start();
+        int port = daemon.getPort();
+
+        // a client that connects and sends nothing does not delay the others
+        try (Socket silent = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            long time = System.currentTimeMillis();
+            assertEquals(RivalDaemon.OK + "\t0", RivalClient.send(port, RivalDaemon.STATUS));
+            assertTrue(System.currentTimeMillis() - time < 5000L);
+            // a job that throws an error is still answered
+            String answer = RivalClient.send(port, RivalDaemon.JOB_RECOMMEND + "\t" + propertyFile.getAbsolutePath());
+            assertTrue(answer, answer.startsWith(RivalDaemon.ERROR + "\t"));
+            assertTrue(answer, answer.contains("broken recommender"));
+            assertEquals(RivalDaemon.OK + "\t0", RivalClient.send(port, RivalDaemon.STATUS));
+        }
+
+        assertEquals(RivalDaemon.OK + "\t0", RivalClient.send(port, RivalDaemon.SHUTDOWN));
+        serving.join(30000);
+        assertFalse(serving.isAlive());
+    }
+}
@@ -16,9 +16,13 @@
 package net.recommenders.rival.recommend.frameworks;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map.Entry;
 import java.util.Properties;
 
+import net.recommenders.rival.core.CandidateItemsProvider;
+import net.recommenders.rival.core.SplitBundle;
 import net.recommenders.rival.core.TemporalDataModelIF;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +67,15 @@ public abstract class AbstractRunner<U, I> {
      * Default number of iterations.
      */
     public static final int DEFAULT_ITERATIONS = 50;
+    /**
+     * Default number of lists of the approximate index scored for each user.
+     */
+    public static final int DEFAULT_APPROXIMATE_PROBES = 8;
+    /**
+     * Default number of users whose approximate recommendations are compared
+     * with the exact ones.
+     */
+    public static final int DEFAULT_APPROXIMATE_RECALL_USERS = 100;
     /**
      * The properties.
      */
@@ -79,6 +92,15 @@ public abstract class AbstractRunner<U, I> {
      * True if this recommender has already been issued and output files exist.
      */
     private boolean alreadyRecommended;
+    /**
+     * Provider of the items to be scored for each user (null if all the items
+     * should be considered).
+     */
+    private CandidateItemsProvider<U, I> candidateItemsProvider;
+    /**
+     * Operational statistics of the run.
+     */
+    private final RunnerStatistics statistics = new RunnerStatistics();
 
     /**
      * Default constructor.
@@ -124,7 +146,12 @@ public abstract class AbstractRunner<U, I> {
         }
 
         String trainingSet = properties.getProperty(RecommendationRunner.TRAINING_SET);
-        trainingSet = trainingSet.substring(trainingSet.lastIndexOf("/") + 1, trainingSet.lastIndexOf("_train"));
+        if (trainingSet == null && properties.containsKey(SplitBundle.PROPERTY)) {
+            String bundle = new File(properties.getProperty(SplitBundle.PROPERTY)).getName();
+            trainingSet = bundle.contains(".") ? bundle.substring(0, bundle.lastIndexOf(".")) : bundle;
+        } else {
+            trainingSet = trainingSet.substring(trainingSet.lastIndexOf("/") + 1, trainingSet.lastIndexOf("_train"));
+        }
 
         fileName = trainingSet + "."
                 + properties.getProperty(RecommendationRunner.FRAMEWORK) + "."
@@ -145,6 +172,36 @@ public abstract class AbstractRunner<U, I> {
         return path + "/" + fileName + ".stats";
     }
 
+    /**
+     * Gets the operational statistics of the run, written to
+     * {@link #getCanonicalFileName()} when recommendations are written.
+     *
+     * @return the statistics
+     */
+    public RunnerStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Finishes the statistics of the run and, if recommendations are written
+     * to a file, writes them next to it (see {@link #getCanonicalFileName()}).
+     *
+     * @param name name of the output file (null if it is not written)
+     * @param sink the sink of the recommendations, already closed
+     */
+    protected void writeStatistics(final String name, final RecommendationSink sink) {
+        statistics.endPhase();
+        statistics.setOutputBytes(sink.getBytesWritten());
+        if (name == null) {
+            return;
+        }
+        try {
+            statistics.write(new File(getCanonicalFileName()));
+        } catch (IOException e) {
+            System.out.println("Statistics could not be written: " + e.getMessage());
+        }
+    }
+
     /**
      * Checks if recommendations have already been generated.
      *
@@ -182,7 +239,166 @@ public abstract class AbstractRunner<U, I> {
     }
 
     /**
-     * Runs the recommender. Training and test models will be read from file.
+     * Restricts the items scored for each user to those given by a provider,
+     * for instance, the candidates of an evaluation strategy. When the
+     * recommendations are later filtered by such strategy, the result is the
+     * same as when every item is scored, but the scoring work is much lower.
+     *
+     * @param provider the provider (null to score every item)
+     */
+    public void setCandidateItemsProvider(final CandidateItemsProvider<U, I> provider) {
+        this.candidateItemsProvider = provider;
+    }
+
+    /**
+     * Gets the provider of the items to be scored for each user.
+     *
+     * @return the provider, or null if every item should be scored
+     */
+    protected CandidateItemsProvider<U, I> getCandidateItemsProvider() {
+        return candidateItemsProvider;
+    }
+
+    /**
+     * Gets the number of threads to be used when generating recommendations
+     * (see {@link RecommendationRunner#THREADS}).
+     *
+     * @return the number of threads (1 if not specified)
+     */
+    protected int getNumThreads() {
+        return Integer.parseInt(properties.getProperty(RecommendationRunner.THREADS, "1"));
+    }
+
+    /**
+     * Gets the number of recommendations to be generated for each user (see
+     * {@link RecommendationRunner#TOP_K}).
+     *
+     * @return the cutoff, or 0 if all the items should be recommended
+     */
+    protected int getTopK() {
+        return Integer.parseInt(properties.getProperty(RecommendationRunner.TOP_K, "0"));
+    }
+
+    /**
+     * Checks if all the scores should be kept in the returned model (see
+     * {@link RecommendationRunner#KEEP_FULL_SCORES}).
+     *
+     * @return true if the full score vectors should be kept in memory
+     */
+    protected boolean isKeepFullScores() {
+        return Boolean.parseBoolean(properties.getProperty(RecommendationRunner.KEEP_FULL_SCORES, "false"));
+    }
+
+    /**
+     * Gets the number of items that should be requested to the framework for
+     * each user.
+     *
+     * @param nItems number of items in the training data
+     * @param model the model to be returned (null if no model is returned)
+     * @return the number of items to request
+     */
+    protected int getRequestedItems(final int nItems, final TemporalDataModelIF<U, I> model) {
+        int topK = getTopK();
+        if (topK <= 0 || (model != null && isKeepFullScores())) {
+            return nItems;
+        }
+        return Math.min(topK, nItems);
+    }
+
+    /**
+     * Creates the sink where recommendations are written, according to the
+     * top-k and checkpoint (see {@link RecommendationRunner#CHECKPOINT_USERS})
+     * properties.
+     *
+     * @param name name of the output file (null if it should not be written)
+     * @param model the model to be returned (null if no model is returned)
+     * @return the sink
+     */
+    protected RecommendationSink createSink(final String name, final TemporalDataModelIF<Long, Long> model) {
+        int checkpointUsers = Integer.parseInt(properties.getProperty(RecommendationRunner.CHECKPOINT_USERS, "0"));
+        return new RecommendationSink(path, name, model, getTopK(), isKeepFullScores()).enableCheckpoints(checkpointUsers);
+    }
+
+    /**
+     * Checks if the similarities should be taken from the shared matrices
+     * (see {@link RecommendationRunner#SHARED_SIMILARITY}).
+     *
+     * @return true if the similarities are shared
+     */
+    protected boolean isSharedSimilarity() {
+        return Boolean.parseBoolean(properties.getProperty(RecommendationRunner.SHARED_SIMILARITY, "false"));
+    }
+
+    /**
+     * Gets the cache of trained models (see
+     * {@link RecommendationRunner#MODEL_CACHE}).
+     *
+     * @param parameters fingerprint of the parameters the framework uses to
+     * train the model
+     * @return the cache, or null if models should not be cached
+     */
+    protected ModelCache getModelCache(final ModelCache.Fingerprint parameters) {
+        String dir = properties.getProperty(RecommendationRunner.MODEL_CACHE);
+        if (dir == null) {
+            return null;
+        }
+        return new ModelCache(new File(dir), parameters);
+    }
+
+    /**
+     * Writes the recommendations of a factorization model to a sink (which
+     * is not closed). When {@link RecommendationRunner#APPROXIMATE_LISTS} is
+     * given, the items are retrieved from an approximate index, and the
+     * recall of some users with respect to the exact recommendations is
+     * logged.
+     *
+     * @param scorer the scorer of the model
+     * @param users the users, in the order they should be written
+     * @param rows row of each user in the user factors (negative if the
+     * user has no factors)
+     * @param cutoff number of items to recommend to each user
+     * @param sink the sink
+     * @throws Exception when the recommendations cannot be written
+     */
+    protected void runFactorScorer(final BatchFactorScorer scorer, final long[] users, final int[] rows, final int cutoff, final RecommendationSink sink) throws Exception {
+        int nLists = Integer.parseInt(properties.getProperty(RecommendationRunner.APPROXIMATE_LISTS, "0"));
+        if (nLists > 0) {
+            int nProbes = Integer.parseInt(properties.getProperty(RecommendationRunner.APPROXIMATE_PROBES, "" + DEFAULT_APPROXIMATE_PROBES));
+            scorer.setApproximate(nLists, nProbes, getNumThreads());
+            int nRecall = Integer.parseInt(properties.getProperty(RecommendationRunner.APPROXIMATE_RECALL_USERS, "" + DEFAULT_APPROXIMATE_RECALL_USERS));
+            // users evenly spread over those with factors
+            int[] withFactors = Arrays.stream(rows).filter(r -> r >= 0).toArray();
+            int n = Math.min(nRecall, withFactors.length);
+            if (n > 0) {
+                int[] sample = new int[n];
+                for (int s = 0; s < n; s++) {
+                    sample[s] = withFactors[(int) ((long) s * withFactors.length / n)];
+                }
+                LOG.info("Approximate top-" + cutoff + " with " + nProbes + " of " + nLists + " lists: " + scorer.measureRecall(sample, cutoff));
+            }
+        }
+        scorer.setStatistics(statistics).run(users, rows, cutoff, getNumThreads(), sink);
+    }
+
+    /**
+     * Loads the split bundle given in the properties, if any.
+     *
+     * @return the bundle, or null if the training and test sets should be
+     * read from text files
+     * @throws IOException when the bundle cannot be read
+     */
+    protected SplitBundle loadSplitBundle() throws IOException {
+        String bundleFile = properties.getProperty(SplitBundle.PROPERTY);
+        if (bundleFile == null) {
+            return null;
+        }
+        return SplitBundle.read(new File(bundleFile));
+    }
+
+    /**
+     * Runs the recommender. Training and test models will be read from file
+     * (or from the split bundle when
+     * {@link SplitBundle#PROPERTY} is provided).
      *
      * @param opts options to run this recommender. See {@link RUN_OPTIONS}
      *             enum.
@@ -0,0 +1,491 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Scores users with a factorization model in batches: blocks of users are
+ * multiplied by tiles of items over the (row by row) factor arrays, so each
+ * tile of item factors is read from memory once per block of users instead
+ * of once per user. Excluded items (e.g., those in the training data of each
+ * user) are masked with a bitmap, and the top items of each user are
+ * selected in the same pass, so full score vectors are never materialized.
+ *
+ * Blocks are scored in parallel and written to a {@link RecommendationSink}
+ * in the order of the users. When an {@link InvertedFileIndex} is given,
+ * each user only scores the items in the lists of the index closest to the
+ * user, and {@link #measureRecall(int[], int)} reports how far these
+ * approximate recommendations are from the exact ones.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class BatchFactorScorer {
+
+    /**
+     * Default number of users in a block.
+     */
+    public static final int DEFAULT_USER_BLOCK = 64;
+    /**
+     * Default number of items in a tile.
+     */
+    public static final int DEFAULT_ITEM_TILE = 256;
+    /**
+     * Number of factors.
+     */
+    private final int k;
+    /**
+     * Factors of the users, row by row.
+     */
+    private final double[] userFactors;
+    /**
+     * Factors of the items, row by row.
+     */
+    private final double[] itemFactors;
+    /**
+     * Ids of the items.
+     */
+    private final long[] itemIds;
+    /**
+     * Bitmap of the items that can be recommended (null if all of them).
+     */
+    private long[] allowed;
+    /**
+     * Position of the first excluded item of each user row (null if no item
+     * is excluded).
+     */
+    private int[] excludedPointers;
+    /**
+     * Excluded items of each user row.
+     */
+    private int[] excludedItems;
+    /**
+     * Index of the items (null if every item is scored).
+     */
+    private InvertedFileIndex index;
+    /**
+     * Number of lists of the index scored for each user.
+     */
+    private int nProbes;
+    /**
+     * Statistics where the latency of the users is recorded (may be null).
+     */
+    private RunnerStatistics statistics;
+
+    /**
+     * Constructor.
+     *
+     * @param numFactors number of factors
+     * @param theUserFactors factors of the users, row by row
+     * @param theItemFactors factors of the items, row by row
+     * @param theItemIds ids of the items, following the rows of the item
+     * factors
+     */
+    public BatchFactorScorer(final int numFactors, final double[] theUserFactors, final double[] theItemFactors, final long[] theItemIds) {
+        this.k = numFactors;
+        this.userFactors = theUserFactors;
+        this.itemFactors = theItemFactors;
+        this.itemIds = theItemIds;
+    }
+
+    /**
+     * Restricts the items that can be recommended.
+     *
+     * @param items the rows of the items that can be recommended
+     * @return this scorer
+     */
+    public BatchFactorScorer setAllowedItems(final int[] items) {
+        allowed = new long[(itemIds.length + 63) >>> 6];
+        for (int i : items) {
+            allowed[i >>> 6] |= 1L << i;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the items that should not be recommended to each user, in
+     * compressed sparse row format (e.g., the rows of the training data).
+     *
+     * @param pointers position of the first excluded item of each user row
+     * (plus the number of excluded items)
+     * @param items rows of the excluded items
+     * @return this scorer
+     */
+    public BatchFactorScorer setExcludedItems(final int[] pointers, final int[] items) {
+        this.excludedPointers = pointers;
+        this.excludedItems = items;
+        return this;
+    }
+
+    /**
+     * Builds an index of the items that can be recommended, so each user only
+     * scores the items in the lists closest to the user.
+     *
+     * @param nLists number of lists of the index
+     * @param probes number of lists scored for each user
+     * @param nThreads number of threads used to build the index
+     * @return this scorer
+     * @throws Exception when the index cannot be built
+     */
+    public BatchFactorScorer setApproximate(final int nLists, final int probes, final int nThreads) throws Exception {
+        int n = 0;
+        int[] items = new int[itemIds.length];
+        for (int i = 0; i < itemIds.length; i++) {
+            if (allowed == null || (allowed[i >>> 6] & (1L << i)) != 0) {
+                items[n++] = i;
+            }
+        }
+        this.index = InvertedFileIndex.build(k, itemFactors, Arrays.copyOf(items, n), nLists, InvertedFileIndex.DEFAULT_ITERATIONS, nThreads);
+        this.nProbes = Math.max(1, probes);
+        return this;
+    }
+
+    /**
+     * Records the latency of the users in some statistics: each user of a
+     * block is recorded with the time of the block divided by its size.
+     *
+     * @param stats the statistics
+     * @return this scorer
+     */
+    public BatchFactorScorer setStatistics(final RunnerStatistics stats) {
+        this.statistics = stats;
+        return this;
+    }
+
+    /**
+     * Compares the approximate recommendations of some users with the exact
+     * ones.
+     *
+     * @param rows rows of the users in the user factors
+     * @param cutoff number of items to recommend to each user
+     * @return how many of the exact recommendations are missed
+     */
+    public Recall measureRecall(final int[] rows, final int cutoff) {
+        Buffers buffers = new Buffers(Math.max(1, cutoff), itemIds.length);
+        int nUsers = 0;
+        long nExact = 0L;
+        long nMissed = 0L;
+        for (int from = 0; from < rows.length; from += DEFAULT_USER_BLOCK) {
+            int[] block = Arrays.copyOfRange(rows, from, Math.min(rows.length, from + DEFAULT_USER_BLOCK));
+            Block exact = buffers.score(block, false);
+            Block approximate = buffers.score(block, index != null);
+            for (int b = 0; b < block.length; b++) {
+                if (exact.items[b] == null) {
+                    continue;
+                }
+                nUsers++;
+                nExact += exact.items[b].length;
+                Set<Long> found = new HashSet<>();
+                for (long i : approximate.items[b]) {
+                    found.add(i);
+                }
+                for (long i : exact.items[b]) {
+                    if (!found.contains(i)) {
+                        nMissed++;
+                    }
+                }
+            }
+        }
+        return new Recall(nUsers, nExact, nMissed);
+    }
+
+    /**
+     * Scores the users and writes their top items to a sink (which is not
+     * closed).
+     *
+     * @param users the users, in the order they should be written
+     * @param rows row of each user in the user factors (negative if the
+     * user has no factors, and then nothing is written)
+     * @param cutoff number of items to recommend to each user
+     * @param nThreads number of threads
+     * @param sink the sink
+     * @throws Exception when the recommendations cannot be written
+     */
+    public void run(final long[] users, final int[] rows, final int cutoff, final int nThreads, final RecommendationSink sink) throws Exception {
+        final int nBlocks = (users.length + DEFAULT_USER_BLOCK - 1) / DEFAULT_USER_BLOCK;
+        long[] blocks = new long[nBlocks];
+        for (int b = 0; b < nBlocks; b++) {
+            blocks[b] = b;
+        }
+        final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+            @Override
+            protected Buffers initialValue() {
+                return new Buffers(Math.max(1, cutoff), itemIds.length);
+            }
+        };
+        UserPartitionExecutor.run(blocks, nThreads, 1, new UserPartitionExecutor.UserTask<Block>() {
+            @Override
+            public Block compute(final long block) {
+                int from = (int) block * DEFAULT_USER_BLOCK;
+                int to = Math.min(users.length, from + DEFAULT_USER_BLOCK);
+                long start = System.nanoTime();
+                Block recs = buffers.get().score(Arrays.copyOfRange(rows, from, to), index != null);
+                if (statistics != null) {
+                    statistics.recordUsers(to - from, System.nanoTime() - start);
+                }
+                return recs;
+            }
+        }, new UserPartitionExecutor.ResultSink<Block>() {
+            @Override
+            public void consume(final long block, final Block recs) throws Exception {
+                int from = (int) block * DEFAULT_USER_BLOCK;
+                for (int b = 0; b < recs.items.length; b++) {
+                    if (recs.items[b] != null) {
+                        sink.write(users[from + b], recs.items[b], recs.scores[b], recs.items[b].length);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Number of exact recommendations missed by the approximate ones.
+     */
+    public static final class Recall {
+
+        /**
+         * Number of users compared.
+         */
+        private final int users;
+        /**
+         * Number of exact recommendations.
+         */
+        private final long exact;
+        /**
+         * Number of exact recommendations not in the approximate ones.
+         */
+        private final long missed;
+
+        /**
+         * Constructor.
+         *
+         * @param nUsers number of users compared
+         * @param nExact number of exact recommendations
+         * @param nMissed number of exact recommendations missed
+         */
+        Recall(final int nUsers, final long nExact, final long nMissed) {
+            this.users = nUsers;
+            this.exact = nExact;
+            this.missed = nMissed;
+        }
+
+        /**
+         * Gets the number of users compared.
+         *
+         * @return the number of users
+         */
+        public int getUsers() {
+            return users;
+        }
+
+        /**
+         * Gets the number of exact recommendations.
+         *
+         * @return the number of recommendations
+         */
+        public long getExact() {
+            return exact;
+        }
+
+        /**
+         * Gets the number of exact recommendations missed.
+         *
+         * @return the number of recommendations
+         */
+        public long getMissed() {
+            return missed;
+        }
+
+        /**
+         * Gets the fraction of exact recommendations found.
+         *
+         * @return the recall (1 if there are no recommendations)
+         */
+        public double getRecall() {
+            return exact == 0L ? 1.0 : 1.0 - (double) missed / exact;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "recall " + getRecall() + " on " + users + " users (" + missed + " of " + exact + " items missed)";
+        }
+    }
+
+    /**
+     * Recommendations of a block of users.
+     */
+    private static final class Block {
+
+        /**
+         * Top items of each user, by decreasing score (null if the user has
+         * no factors).
+         */
+        private final long[][] items;
+        /**
+         * Their scores.
+         */
+        private final double[][] scores;
+
+        /**
+         * Constructor.
+         *
+         * @param n number of users
+         */
+        Block(final int n) {
+            this.items = new long[n][];
+            this.scores = new double[n][];
+        }
+    }
+
+    /**
+     * Buffers used by a thread to score blocks of users.
+     */
+    private final class Buffers {
+
+        /**
+         * Selector of the top items of each user in the block.
+         */
+        private final TopKSelector[] selectors;
+        /**
+         * Bitmap of the excluded items of each user in the block.
+         */
+        private final long[][] masks;
+        /**
+         * Selector of the lists of the index probed by a user.
+         */
+        private final TopKSelector lists;
+
+        /**
+         * Constructor.
+         *
+         * @param cutoff number of items to recommend to each user
+         * @param nItems number of items
+         */
+        Buffers(final int cutoff, final int nItems) {
+            selectors = new TopKSelector[DEFAULT_USER_BLOCK];
+            masks = new long[DEFAULT_USER_BLOCK][];
+            for (int b = 0; b < DEFAULT_USER_BLOCK; b++) {
+                selectors[b] = new TopKSelector(cutoff);
+                masks[b] = excludedPointers == null ? null : new long[(nItems + 63) >>> 6];
+            }
+            lists = new TopKSelector(Math.max(1, nProbes));
+        }
+
+        /**
+         * Scores a block of users.
+         *
+         * @param rows row of each user in the user factors
+         * @param approximate whether only the lists of the index closest to
+         * each user are scored
+         * @return the recommendations of the users
+         */
+        Block score(final int[] rows, final boolean approximate) {
+            int nb = rows.length;
+            for (int b = 0; b < nb; b++) {
+                selectors[b].clear();
+                if (excludedPointers != null && rows[b] >= 0) {
+                    for (int p = excludedPointers[rows[b]]; p < excludedPointers[rows[b] + 1]; p++) {
+                        masks[b][excludedItems[p] >>> 6] |= 1L << excludedItems[p];
+                    }
+                }
+            }
+            if (approximate) {
+                scoreLists(rows);
+            }
+            int nItems = approximate ? 0 : itemIds.length;
+            for (int t0 = 0; t0 < nItems; t0 += DEFAULT_ITEM_TILE) {
+                int t1 = Math.min(nItems, t0 + DEFAULT_ITEM_TILE);
+                for (int b = 0; b < nb; b++) {
+                    if (rows[b] < 0) {
+                        continue;
+                    }
+                    int uo = rows[b] * k;
+                    long[] mask = masks[b];
+                    TopKSelector selector = selectors[b];
+                    for (int i = t0; i < t1; i++) {
+                        if ((allowed != null && (allowed[i >>> 6] & (1L << i)) == 0)
+                                || (mask != null && (mask[i >>> 6] & (1L << i)) != 0)) {
+                            continue;
+                        }
+                        int io = i * k;
+                        double s = 0.0;
+                        for (int f = 0; f < k; f++) {
+                            s += userFactors[uo + f] * itemFactors[io + f];
+                        }
+                        selector.add(i, s);
+                    }
+                }
+            }
+            Block recs = new Block(nb);
+            for (int b = 0; b < nb; b++) {
+                if (rows[b] < 0) {
+                    continue;
+                }
+                if (excludedPointers != null) {
+                    for (int p = excludedPointers[rows[b]]; p < excludedPointers[rows[b] + 1]; p++) {
+                        masks[b][excludedItems[p] >>> 6] = 0L;
+                    }
+                }
+                int n = selectors[b].select();
+                recs.items[b] = new long[n];
+                recs.scores[b] = Arrays.copyOf(selectors[b].getScores(), n);
+                for (int j = 0; j < n; j++) {
+                    recs.items[b][j] = itemIds[(int) selectors[b].getItems()[j]];
+                }
+            }
+            return recs;
+        }
+
+        /**
+         * Scores the items in the lists of the index closest to each user.
+         *
+         * @param rows row of each user in the user factors
+         */
+        private void scoreLists(final int[] rows) {
+            int[] listItems = index.getListItems();
+            double[] listFactors = index.getListFactors();
+            for (int b = 0; b < rows.length; b++) {
+                if (rows[b] < 0) {
+                    continue;
+                }
+                int uo = rows[b] * k;
+                long[] mask = masks[b];
+                TopKSelector selector = selectors[b];
+                int nl = index.probe(userFactors, uo, lists);
+                for (int l = 0; l < nl; l++) {
+                    int list = (int) lists.getItems()[l];
+                    for (int p = index.getListStart(list); p < index.getListEnd(list); p++) {
+                        int i = listItems[p];
+                        if (mask != null && (mask[i >>> 6] & (1L << i)) != 0) {
+                            continue;
+                        }
+                        int io = p * k;
+                        double s = 0.0;
+                        for (int f = 0; f < k; f++) {
+                            s += userFactors[uo + f] * listFactors[io + f];
+                        }
+                        selector.add(i, s);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import net.recommenders.rival.core.FrozenDataModel;
+import net.recommenders.rival.core.SimpleParser;
+import net.recommenders.rival.core.SplitBundle;
+import net.recommenders.rival.recommend.frameworks.similarity.CsrMatrix;
+import net.recommenders.rival.recommend.frameworks.similarity.SimilarityEngine;
+
+/**
+ * Runs independent recommendation jobs concurrently within a memory budget.
+ *
+ * Jobs are admitted in order, as long as the memory estimated for the jobs
+ * already running (see {@link #estimateFootprint(AbstractRunner, FrozenDataModel)})
+ * and the splits they use fits in the budget; a job that does not fit on its
+ * own is run when nothing else is running. Each split is read once and shared
+ * by all the jobs that use it, and released after the last of them finishes.
+ *
+ * For each job, the wall time and the peak heap observed while it was running
+ * are written to its stats file (as RecommendationRunner does for the time)
+ * and returned as a {@link JobReport}. Since jobs run concurrently, the peak
+ * heap includes the memory used by the other jobs running at the same time.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class ExperimentScheduler {
+
+    /**
+     * Fraction of the maximum heap used as the default budget.
+     */
+    public static final double DEFAULT_BUDGET_FRACTION = 0.8;
+    /**
+     * Interval between heap samples, in milliseconds.
+     */
+    private static final long SAMPLE_INTERVAL = 50L;
+    /**
+     * Estimated bytes per preference of a loaded split.
+     */
+    private static final long SPLIT_BYTES_PER_PREFERENCE = 40L;
+    /**
+     * Number of jobs run at the same time.
+     */
+    private final int nThreads;
+    /**
+     * Memory budget, in bytes.
+     */
+    private final long budget;
+    /**
+     * Memory reserved by the running jobs and the loaded splits.
+     */
+    private long reserved;
+    /**
+     * Number of jobs running (or admitted).
+     */
+    private int running;
+    /**
+     * Reports of the jobs that are running.
+     */
+    private final Set<JobReport> active = Collections.synchronizedSet(new HashSet<JobReport>());
+
+    /**
+     * Constructor.
+     *
+     * @param threads number of jobs run at the same time
+     * @param memoryBudget memory budget, in bytes
+     */
+    public ExperimentScheduler(final int threads, final long memoryBudget) {
+        this.nThreads = Math.max(1, threads);
+        this.budget = memoryBudget;
+    }
+
+    /**
+     * Constructor with the default memory budget.
+     *
+     * @param threads number of jobs run at the same time
+     */
+    public ExperimentScheduler(final int threads) {
+        this(threads, (long) (DEFAULT_BUDGET_FRACTION * Runtime.getRuntime().maxMemory()));
+    }
+
+    /**
+     * Estimates the memory needed to train and run a recommender, besides the
+     * split itself. It is a rough estimate based on the size of the training
+     * data and the type of recommender: the copy of the data made by the
+     * framework, the model (factors or item-item similarities) and the
+     * buffers to score the items of a user.
+     *
+     * @param runner the runner
+     * @param training the training split
+     * @return the estimated number of bytes
+     */
+    public static long estimateFootprint(final AbstractRunner<Long, Long> runner, final FrozenDataModel training) {
+        Properties props = runner.getProperties();
+        long nPrefs = training.getNumPreferences();
+        long nUsers = training.getUserIds().length;
+        long nItems = training.getItemIds().length;
+        String framework = props.getProperty(RecommendationRunner.FRAMEWORK, "");
+        String recommender = props.getProperty(RecommendationRunner.RECOMMENDER, "");
+        // copy of the data in the framework's own structures
+        long bytesPerPreference;
+        if (RecommendationRunner.MAHOUT.equals(framework)) {
+            bytesPerPreference = 96L;
+        } else if (RecommendationRunner.LENSKIT.equals(framework)) {
+            bytesPerPreference = 128L;
+        } else if (RecommendationRunner.RIVAL.equals(framework)) {
+            // the frozen arrays are used directly, only the columns are built
+            bytesPerPreference = 8L;
+        } else {
+            bytesPerPreference = 48L;
+        }
+        long bytes = nPrefs * bytesPerPreference;
+        // model
+        String factors = props.getProperty(RecommendationRunner.FACTORS);
+        if (factors != null) {
+            long k = "-1".equals(factors) ? Math.round(Math.sqrt(nItems)) : Long.parseLong(factors);
+            bytes += 2 * (nUsers + nItems) * k * 8L;
+        } else if (recommender.contains("Item") && !recommender.contains("Average")) {
+            if (RecommendationRunner.RIVAL.equals(framework)) {
+                // only the top neighbors are kept, twice (by similarity and by index)
+                String n = props.getProperty(RecommendationRunner.NEIGHBORHOOD, "-1");
+                long k = "-1".equals(n) ? Math.round(Math.sqrt(nItems)) : Long.parseLong(n);
+                bytes += nItems * Math.min(nItems, Math.max(k, SimilarityEngine.getMaxNeighbors((int) nItems))) * 24L;
+            } else {
+                bytes += nItems * nItems * 12L;
+            }
+        } else if (recommender.contains("User")) {
+            String n = props.getProperty(RecommendationRunner.NEIGHBORHOOD, "-1");
+            long k = "-1".equals(n) ? Math.round(Math.sqrt(nItems)) : Long.parseLong(n);
+            bytes += nUsers * Math.min(nUsers, k + SimilarityEngine.DEFAULT_MAX_NEIGHBORS) * 12L;
+        }
+        // scores of all the items for the users being recommended
+        bytes += runner.getNumThreads() * UserPartitionExecutor.DEFAULT_BLOCK_SIZE * nItems * 16L;
+        return bytes;
+    }
+
+    /**
+     * Runs the jobs. Jobs whose recommendations already exist are skipped.
+     *
+     * @param jobs the jobs
+     * @return the reports of the jobs that were run
+     * @throws InterruptedException when interrupted while waiting for the
+     * jobs
+     */
+    public List<JobReport> run(final List<AbstractRunner<Long, Long>> jobs) throws InterruptedException {
+        final Map<String, Integer> pending = new HashMap<String, Integer>();
+        for (AbstractRunner<Long, Long> job : jobs) {
+            if (!job.isAlreadyRecommended()) {
+                String key = splitKey(job);
+                Integer n = pending.get(key);
+                pending.put(key, (n == null) ? 1 : n + 1);
+            }
+        }
+        final Map<String, SplitBundle> splits = new HashMap<String, SplitBundle>();
+        final List<JobReport> reports = Collections.synchronizedList(new ArrayList<JobReport>());
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        Thread monitor = startMonitor();
+        try {
+            for (final AbstractRunner<Long, Long> job : jobs) {
+                if (job.isAlreadyRecommended()) {
+                    continue;
+                }
+                final String key = splitKey(job);
+                SplitBundle loaded;
+                synchronized (splits) {
+                    loaded = splits.get(key);
+                }
+                if (loaded == null) {
+                    try {
+                        loaded = loadSplit(job);
+                    } catch (IOException e) {
+                        System.out.println("Split could not be read: " + key);
+                        e.printStackTrace();
+                        releaseSplit(key, pending, splits);
+                        continue;
+                    }
+                    admit(splitFootprint(loaded), false);
+                    synchronized (splits) {
+                        splits.put(key, loaded);
+                    }
+                }
+                final SplitBundle split = loaded;
+                final long footprint = estimateFootprint(job, split.getTraining());
+                admit(footprint, true);
+                pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        JobReport report = new JobReport(job.getCanonicalFileName(), footprint);
+                        active.add(report);
+                        long start = System.currentTimeMillis();
+                        try {
+                            job.run(AbstractRunner.RUN_OPTIONS.OUTPUT_RECS, split.getTraining(), split.getTest());
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        } finally {
+                            report.wallTime = System.currentTimeMillis() - start;
+                            active.remove(report);
+                            report.sample();
+                            RecommendationRunner.writeStats(report.getName(), "time", report.getWallTime());
+                            RecommendationRunner.writeStats(report.getName(), "peak_heap", report.getPeakHeap());
+                            System.out.println(report);
+                            reports.add(report);
+                            release(footprint, true);
+                            releaseSplit(key, pending, splits);
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            monitor.interrupt();
+        }
+        return reports;
+    }
+
+    /**
+     * Gets the identifier of the split used by a job: the split bundle, or
+     * the training and test files.
+     *
+     * @param job the job
+     * @return the identifier
+     */
+    public static String splitKey(final AbstractRunner<Long, Long> job) {
+        return splitKey(job.getProperties());
+    }
+
+    /**
+     * Gets the identifier of the split used by a job: the split bundle, or
+     * the training and test files.
+     *
+     * @param props the properties of the job
+     * @return the identifier
+     */
+    public static String splitKey(final Properties props) {
+        String bundle = props.getProperty(SplitBundle.PROPERTY);
+        if (bundle != null) {
+            return bundle;
+        }
+        return props.getProperty(RecommendationRunner.TRAINING_SET) + "\n" + props.getProperty(RecommendationRunner.TEST_SET);
+    }
+
+    /**
+     * Reads the split used by a job, so it can be shared with other jobs
+     * through
+     * {@link AbstractRunner#run(AbstractRunner.RUN_OPTIONS, net.recommenders.rival.core.TemporalDataModelIF, net.recommenders.rival.core.TemporalDataModelIF)}.
+     *
+     * @param job the job
+     * @return the split
+     * @throws IOException when the split cannot be read
+     */
+    public static SplitBundle loadSplit(final AbstractRunner<Long, Long> job) throws IOException {
+        SplitBundle bundle = job.loadSplitBundle();
+        if (bundle != null) {
+            return bundle;
+        }
+        Properties props = job.getProperties();
+        SimpleParser parser = new SimpleParser();
+        return SplitBundle.create(
+                parser.parseTemporalData(new File(props.getProperty(RecommendationRunner.TRAINING_SET))),
+                parser.parseTemporalData(new File(props.getProperty(RecommendationRunner.TEST_SET))));
+    }
+
+    /**
+     * Estimates the memory used by a split.
+     *
+     * @param split the split
+     * @return the estimated number of bytes
+     */
+    private static long splitFootprint(final SplitBundle split) {
+        return SPLIT_BYTES_PER_PREFERENCE * (split.getTraining().getNumPreferences() + split.getTest().getNumPreferences());
+    }
+
+    /**
+     * Releases a split when no more jobs need it.
+     *
+     * @param key the split
+     * @param pending number of jobs that still need each split
+     * @param splits the splits loaded
+     */
+    private void releaseSplit(final String key, final Map<String, Integer> pending, final Map<String, SplitBundle> splits) {
+        SplitBundle released = null;
+        synchronized (splits) {
+            int n = pending.get(key) - 1;
+            pending.put(key, n);
+            if (n == 0) {
+                released = splits.remove(key);
+            }
+        }
+        if (released != null) {
+            // the shared similarities of the other splits are still needed
+            releaseSimilarities(released);
+            release(splitFootprint(released), false);
+        }
+    }
+
+    /**
+     * Removes the shared similarities computed from the training data of a
+     * split (see {@link SimilarityEngine#release(String)}).
+     *
+     * @param split the split
+     */
+    public static void releaseSimilarities(final SplitBundle split) {
+        FrozenDataModel training = split.getTraining();
+        SimilarityEngine.release(CsrMatrix.wrap(training.getUserIds(), training.getItemIds(),
+                training.getRowPointers(), training.getItemIndices(), training.getValues()).fingerprint());
+    }
+
+    /**
+     * Waits until some memory can be reserved, or until no job is running.
+     *
+     * @param bytes the memory needed
+     * @param job true if the memory is for a job, false for a split
+     * @throws InterruptedException when interrupted while waiting
+     */
+    private synchronized void admit(final long bytes, final boolean job) throws InterruptedException {
+        while (running > 0 && reserved + bytes > budget) {
+            wait();
+        }
+        reserved += bytes;
+        if (job) {
+            running++;
+        }
+    }
+
+    /**
+     * Releases some reserved memory.
+     *
+     * @param bytes the memory released
+     * @param job true if the memory was reserved for a job
+     */
+    private synchronized void release(final long bytes, final boolean job) {
+        reserved -= bytes;
+        if (job) {
+            running--;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Starts the thread that samples the heap for the running jobs.
+     *
+     * @return the thread
+     */
+    private Thread startMonitor() {
+        Thread monitor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    synchronized (active) {
+                        for (JobReport report : active) {
+                            report.sample();
+                        }
+                    }
+                    try {
+                        Thread.sleep(SAMPLE_INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "rival-heap-monitor");
+        monitor.setDaemon(true);
+        monitor.start();
+        return monitor;
+    }
+
+    /**
+     * Statistics of a job.
+     */
+    public static final class JobReport {
+
+        /**
+         * Name of the job (its stats file).
+         */
+        private final String name;
+        /**
+         * Estimated footprint.
+         */
+        private final long footprint;
+        /**
+         * Wall time, in milliseconds.
+         */
+        private volatile long wallTime;
+        /**
+         * Peak heap observed, in bytes.
+         */
+        private volatile long peakHeap;
+
+        /**
+         * Constructor.
+         *
+         * @param theName name of the job
+         * @param theFootprint estimated footprint
+         */
+        JobReport(final String theName, final long theFootprint) {
+            this.name = theName;
+            this.footprint = theFootprint;
+            sample();
+        }
+
+        /**
+         * Updates the peak heap with the current usage.
+         */
+        synchronized void sample() {
+            Runtime rt = Runtime.getRuntime();
+            peakHeap = Math.max(peakHeap, rt.totalMemory() - rt.freeMemory());
+        }
+
+        /**
+         * Gets the name of the job.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the estimated footprint of the job.
+         *
+         * @return the footprint, in bytes
+         */
+        public long getFootprint() {
+            return footprint;
+        }
+
+        /**
+         * Gets the wall time of the job.
+         *
+         * @return the time, in milliseconds
+         */
+        public long getWallTime() {
+            return wallTime;
+        }
+
+        /**
+         * Gets the peak heap observed while the job was running.
+         *
+         * @return the heap, in bytes
+         */
+        public long getPeakHeap() {
+            return peakHeap;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return name + "\ttime=" + wallTime + "ms\tpeak_heap=" + (peakHeap >> 20) + "MB\testimate=" + (footprint >> 20) + "MB";
+        }
+    }
+}
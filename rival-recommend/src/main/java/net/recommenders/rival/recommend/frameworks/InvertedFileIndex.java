@@ -0,0 +1,287 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Approximate index for the items with the largest inner product with a user
+ * (an inverted file): the factors of the items are clustered with k-means,
+ * each cluster is stored as a list of items with their factors contiguous in
+ * memory, and a user only scores the items in the lists whose centroids have
+ * the largest inner product with the user.
+ *
+ * The more lists are probed, the closer the results are to the exact ones;
+ * {@link BatchFactorScorer#measureRecall(int[], int)} reports how many of the
+ * exact top items are missed.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class InvertedFileIndex {
+
+    /**
+     * Default number of k-means iterations.
+     */
+    public static final int DEFAULT_ITERATIONS = 10;
+    /**
+     * Maximum number of items per list used to train the centroids.
+     */
+    private static final int TRAINING_ITEMS_PER_LIST = 256;
+    /**
+     * Number of items assigned in each parallel task.
+     */
+    private static final int ASSIGN_BLOCK = 1024;
+    /**
+     * Seed of the initial centroids.
+     */
+    private static final long SEED = 20170101L;
+    /**
+     * Number of factors.
+     */
+    private final int k;
+    /**
+     * Centroids of the lists, row by row.
+     */
+    private final double[] centroids;
+    /**
+     * Position of the first item of each list (plus the number of items).
+     */
+    private final int[] listPointers;
+    /**
+     * Items of the lists, as rows of the original factors.
+     */
+    private final int[] listItems;
+    /**
+     * Factors of the items of the lists, in the order of the lists.
+     */
+    private final double[] listFactors;
+
+    /**
+     * Constructor.
+     *
+     * @param numFactors number of factors
+     * @param theCentroids centroids of the lists
+     * @param theListPointers position of the first item of each list
+     * @param theListItems items of the lists
+     * @param theListFactors factors of the items of the lists
+     */
+    private InvertedFileIndex(final int numFactors, final double[] theCentroids, final int[] theListPointers, final int[] theListItems, final double[] theListFactors) {
+        this.k = numFactors;
+        this.centroids = theCentroids;
+        this.listPointers = theListPointers;
+        this.listItems = theListItems;
+        this.listFactors = theListFactors;
+    }
+
+    /**
+     * Builds the index.
+     *
+     * @param numFactors number of factors
+     * @param itemFactors factors of the items, row by row
+     * @param items rows of the items to be indexed
+     * @param nLists number of lists
+     * @param iterations number of k-means iterations
+     * @param nThreads number of threads
+     * @return the index
+     * @throws Exception when the items cannot be assigned to the lists
+     */
+    public static InvertedFileIndex build(final int numFactors, final double[] itemFactors, final int[] items, final int nLists, final int iterations, final int nThreads) throws Exception {
+        final int k = numFactors;
+        int n = items.length;
+        int nl = Math.max(1, Math.min(nLists, n));
+        // the centroids are trained on a random sample of the items
+        int[] sample = items.clone();
+        Random rnd = new Random(SEED);
+        for (int j = n - 1; j > 0; j--) {
+            int r = rnd.nextInt(j + 1);
+            int t = sample[j];
+            sample[j] = sample[r];
+            sample[r] = t;
+        }
+        if (n > TRAINING_ITEMS_PER_LIST * nl) {
+            sample = Arrays.copyOf(sample, TRAINING_ITEMS_PER_LIST * nl);
+        }
+        double[] centroids = new double[nl * k];
+        for (int c = 0; c < nl && c < sample.length; c++) {
+            System.arraycopy(itemFactors, sample[c] * k, centroids, c * k, k);
+        }
+        int[] assignment = new int[sample.length];
+        for (int it = 0; it < iterations; it++) {
+            assign(k, itemFactors, sample, centroids, assignment, nThreads);
+            double[] sums = new double[nl * k];
+            int[] counts = new int[nl];
+            for (int s = 0; s < sample.length; s++) {
+                int c = assignment[s];
+                counts[c]++;
+                for (int f = 0; f < k; f++) {
+                    sums[c * k + f] += itemFactors[sample[s] * k + f];
+                }
+            }
+            for (int c = 0; c < nl; c++) {
+                // empty lists keep their previous centroid
+                if (counts[c] > 0) {
+                    for (int f = 0; f < k; f++) {
+                        centroids[c * k + f] = sums[c * k + f] / counts[c];
+                    }
+                }
+            }
+        }
+        assignment = new int[n];
+        assign(k, itemFactors, items, centroids, assignment, nThreads);
+        int[] pointers = new int[nl + 1];
+        for (int j = 0; j < n; j++) {
+            pointers[assignment[j] + 1]++;
+        }
+        for (int c = 0; c < nl; c++) {
+            pointers[c + 1] += pointers[c];
+        }
+        int[] next = Arrays.copyOf(pointers, nl);
+        int[] listItems = new int[n];
+        double[] listFactors = new double[n * k];
+        for (int j = 0; j < n; j++) {
+            int p = next[assignment[j]]++;
+            listItems[p] = items[j];
+            System.arraycopy(itemFactors, items[j] * k, listFactors, p * k, k);
+        }
+        return new InvertedFileIndex(k, centroids, pointers, listItems, listFactors);
+    }
+
+    /**
+     * Assigns items to their closest (in euclidean distance) centroid.
+     *
+     * @param k number of factors
+     * @param itemFactors factors of the items, row by row
+     * @param items rows of the items to be assigned
+     * @param centroids the centroids
+     * @param assignment where the centroid of each item is stored
+     * @param nThreads number of threads
+     * @throws Exception when the items cannot be assigned
+     */
+    private static void assign(final int k, final double[] itemFactors, final int[] items, final double[] centroids, final int[] assignment, final int nThreads) throws Exception {
+        final int nl = centroids.length / k;
+        final double[] norms = new double[nl];
+        for (int c = 0; c < nl; c++) {
+            for (int f = 0; f < k; f++) {
+                norms[c] += centroids[c * k + f] * centroids[c * k + f];
+            }
+        }
+        long[] blocks = new long[(items.length + ASSIGN_BLOCK - 1) / ASSIGN_BLOCK];
+        for (int b = 0; b < blocks.length; b++) {
+            blocks[b] = b;
+        }
+        UserPartitionExecutor.run(blocks, nThreads, 1, new UserPartitionExecutor.UserTask<Void>() {
+            @Override
+            public Void compute(final long block) {
+                int from = (int) block * ASSIGN_BLOCK;
+                int to = Math.min(items.length, from + ASSIGN_BLOCK);
+                for (int j = from; j < to; j++) {
+                    int io = items[j] * k;
+                    int best = 0;
+                    double bestDistance = Double.POSITIVE_INFINITY;
+                    for (int c = 0; c < nl; c++) {
+                        // the norm of the item is the same for every centroid
+                        double d = norms[c];
+                        for (int f = 0; f < k; f++) {
+                            d -= 2.0 * itemFactors[io + f] * centroids[c * k + f];
+                        }
+                        if (d < bestDistance) {
+                            bestDistance = d;
+                            best = c;
+                        }
+                    }
+                    assignment[j] = best;
+                }
+                return null;
+            }
+        }, new UserPartitionExecutor.ResultSink<Void>() {
+            @Override
+            public void consume(final long block, final Void result) {
+            }
+        });
+    }
+
+    /**
+     * Gets the number of lists.
+     *
+     * @return the number of lists
+     */
+    public int getNumLists() {
+        return listPointers.length - 1;
+    }
+
+    /**
+     * Selects the lists whose centroids have the largest inner product with a
+     * user.
+     *
+     * @param userFactors factors of the users, row by row
+     * @param offset position of the factors of the user
+     * @param selector selector where the lists are added (its cutoff is the
+     * number of lists to probe)
+     * @return the number of lists selected, available in
+     * {@link TopKSelector#getItems()}
+     */
+    public int probe(final double[] userFactors, final int offset, final TopKSelector selector) {
+        selector.clear();
+        int nl = getNumLists();
+        for (int c = 0; c < nl; c++) {
+            double s = 0.0;
+            for (int f = 0; f < k; f++) {
+                s += userFactors[offset + f] * centroids[c * k + f];
+            }
+            selector.add(c, s);
+        }
+        return selector.select();
+    }
+
+    /**
+     * Gets the position of the first item of a list.
+     *
+     * @param list the list
+     * @return the position
+     */
+    public int getListStart(final int list) {
+        return listPointers[list];
+    }
+
+    /**
+     * Gets the position after the last item of a list.
+     *
+     * @param list the list
+     * @return the position
+     */
+    public int getListEnd(final int list) {
+        return listPointers[list + 1];
+    }
+
+    /**
+     * Gets the items of the lists, as rows of the original factors.
+     *
+     * @return the items, in the order of the lists
+     */
+    public int[] getListItems() {
+        return listItems;
+    }
+
+    /**
+     * Gets the factors of the items of the lists.
+     *
+     * @return the factors, in the order of the lists
+     */
+    public double[] getListFactors() {
+        return listFactors;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Directory where trained models (factorizations, LensKit engines, ...) are
+ * stored so they can be reused by later runs. A model is identified by a
+ * SHA-256 digest of the training data and of the parameters that the
+ * framework actually uses to train it (e.g., the number of iterations only
+ * when the framework reads it); changing only the test set or the output
+ * options reuses the same model.
+ *
+ * Models are written with {@link #write(File, ModelWriter)}, so a run never
+ * finds (or leaves, if it is killed) a partially written model.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class ModelCache {
+
+    /**
+     * The cache directory.
+     */
+    private final File directory;
+    /**
+     * Digest of the training parameters.
+     */
+    private final String configuration;
+
+    /**
+     * Constructor.
+     *
+     * @param cacheDirectory directory where models are stored
+     * @param parameters fingerprint of the parameters used to train the
+     * models, with the values actually used (e.g., after resolving defaults)
+     */
+    public ModelCache(final File cacheDirectory, final Fingerprint parameters) {
+        this.directory = cacheDirectory;
+        this.configuration = parameters.toString();
+    }
+
+    /**
+     * Gets the file where a trained model is (or should be) stored.
+     *
+     * @param trainingFingerprint fingerprint of the training data
+     * @param artifact name of the artifact (e.g., mahout.svd)
+     * @return the file
+     */
+    public File getFile(final Fingerprint trainingFingerprint, final String artifact) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            System.out.println("Directory " + directory + " could not be created");
+        }
+        String key = new Fingerprint().add(configuration).add(trainingFingerprint.toString()).toString();
+        return new File(directory, key + "." + artifact);
+    }
+
+    /**
+     * Writes a model to a temporary file in the directory of its file, and
+     * then renames it (atomically if the file system supports it).
+     *
+     * @param file the file of the model (see
+     * {@link #getFile(Fingerprint, String)})
+     * @param writer writes the model to a file
+     * @throws IOException when the model cannot be written
+     */
+    public static void write(final File file, final ModelWriter writer) throws IOException {
+        File tmp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            writer.write(tmp);
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Writes a model to a file.
+     */
+    public interface ModelWriter {
+
+        /**
+         * Writes the model.
+         *
+         * @param file the file
+         * @throws IOException when the model cannot be written
+         */
+        void write(File file) throws IOException;
+    }
+
+    /**
+     * Incremental SHA-256 digest of some data. Callers should add the data in
+     * a canonical order (e.g., users and items sorted by id), so that the same
+     * data always produces the same fingerprint.
+     */
+    public static final class Fingerprint {
+
+        /**
+         * The digest.
+         */
+        private final MessageDigest digest;
+        /**
+         * Buffer used to convert numbers to bytes.
+         */
+        private final byte[] buffer = new byte[8];
+        /**
+         * The final value (null until computed).
+         */
+        private String value;
+
+        /**
+         * Constructor.
+         */
+        public Fingerprint() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Adds a number.
+         *
+         * @param v the number
+         * @return this fingerprint
+         */
+        public Fingerprint add(final long v) {
+            for (int i = 0; i < 8; i++) {
+                buffer[i] = (byte) (v >>> (56 - 8 * i));
+            }
+            digest.update(buffer);
+            return this;
+        }
+
+        /**
+         * Adds a number.
+         *
+         * @param v the number
+         * @return this fingerprint
+         */
+        public Fingerprint add(final double v) {
+            return add(Double.doubleToLongBits(v));
+        }
+
+        /**
+         * Adds a string.
+         *
+         * @param s the string
+         * @return this fingerprint
+         */
+        public Fingerprint add(final String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            add((long) b.length);
+            digest.update(b);
+            return this;
+        }
+
+        /**
+         * Gets the hexadecimal value of the digest. No more data should be
+         * added afterwards.
+         *
+         * @return the digest
+         */
+        @Override
+        public String toString() {
+            if (value == null) {
+                StringBuilder sb = new StringBuilder();
+                for (byte b : digest.digest()) {
+                    sb.append(String.format("%02x", b));
+                }
+                value = sb.toString();
+            }
+            return value;
+        }
+    }
+}
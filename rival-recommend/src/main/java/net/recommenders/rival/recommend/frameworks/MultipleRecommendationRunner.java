@@ -19,10 +19,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import net.recommenders.rival.recommend.frameworks.similarity.SimilarityEngine;
 
 /**
  * Runner of multiple recommenders.
@@ -103,6 +107,42 @@ public final class MultipleRecommendationRunner {
      * Property key.
      */
     public static final String OUTPUT = "output";
+    /**
+     * Property key (false by default).
+     */
+    public static final String SHARED_SIMILARITY = RecommendationRunner.SHARED_SIMILARITY;
+    /**
+     * Property key (number of recommenders run at the same time, 1 by
+     * default).
+     */
+    public static final String PARALLEL_JOBS = "parallel.jobs";
+    /**
+     * Property key (memory budget of the parallel jobs in megabytes, a
+     * fraction of the maximum heap by default).
+     */
+    public static final String MEMORY_BUDGET = "memory.budget";
+    /**
+     * Property key (number of worker processes that run the recommenders, 0
+     * by default, i.e., they are run in this JVM; see
+     * {@link ProcessWorkerPool}).
+     */
+    public static final String PARALLEL_PROCESSES = "parallel.processes";
+    /**
+     * Property key prefix (classpath of the worker processes of a framework,
+     * e.g., {@code worker.classpath.mahout}; the classpath of this JVM by
+     * default).
+     */
+    public static final String WORKER_CLASSPATH = "worker.classpath.";
+    /**
+     * Property key (options of the JVM of the worker processes, separated by
+     * spaces).
+     */
+    public static final String WORKER_JVM_OPTIONS = "worker.jvm.options";
+    /**
+     * Property key (milliseconds a job may run in a worker process before
+     * the worker is killed, no limit by default).
+     */
+    public static final String WORKER_TIMEOUT = "worker.timeout";
 
     /**
      * Utility classes should not have a public or default constructor.
@@ -131,9 +171,94 @@ public final class MultipleRecommendationRunner {
 
         listAllFiles(paths, properties.getProperty(INPUT));
 
-        runLenskitRecommenders(paths, properties);
-        runMahoutRecommenders(paths, properties);
-        runRanksysRecommenders(paths, properties);
+        int parallelJobs = Integer.parseInt(properties.getProperty(PARALLEL_JOBS, "1"));
+        int parallelProcesses = Integer.parseInt(properties.getProperty(PARALLEL_PROCESSES, "0"));
+        if (parallelProcesses > 0) {
+            runIsolatedRecommenders(paths, properties, parallelProcesses);
+        } else if (parallelJobs > 1) {
+            runScheduledRecommenders(paths, properties, parallelJobs);
+        } else {
+            runLenskitRecommenders(paths, properties);
+            runMahoutRecommenders(paths, properties);
+            runRanksysRecommenders(paths, properties);
+        }
+    }
+
+    /**
+     * Runs the recommenders of all the frameworks concurrently, sharing the
+     * splits they use (see {@link ExperimentScheduler}).
+     *
+     * @param paths the input and output paths.
+     * @param properties the properties.
+     * @param parallelJobs number of recommenders run at the same time.
+     */
+    public static void runScheduledRecommenders(final Set<String> paths, final Properties properties, final int parallelJobs) {
+        List<AbstractRunner<Long, Long>> jobs = new ArrayList<AbstractRunner<Long, Long>>();
+        jobs.addAll(Arrays.asList(instantiateLenskitRecommenders(paths, properties)));
+        jobs.addAll(Arrays.asList(instantiateMahoutRecommenders(paths, properties)));
+        jobs.addAll(Arrays.asList(instantiateRanksysRecommenders(paths, properties)));
+        // jobs of the same split are close, so the split is released soon
+        Collections.sort(jobs, new Comparator<AbstractRunner<Long, Long>>() {
+            @Override
+            public int compare(final AbstractRunner<Long, Long> a, final AbstractRunner<Long, Long> b) {
+                return ExperimentScheduler.splitKey(a).compareTo(ExperimentScheduler.splitKey(b));
+            }
+        });
+        setMaxNeighbors(properties);
+        ExperimentScheduler scheduler;
+        if (properties.getProperty(MEMORY_BUDGET) != null) {
+            scheduler = new ExperimentScheduler(parallelJobs, Long.parseLong(properties.getProperty(MEMORY_BUDGET)) << 20);
+        } else {
+            scheduler = new ExperimentScheduler(parallelJobs);
+        }
+        try {
+            scheduler.run(jobs);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        SimilarityEngine.clear();
+    }
+
+    /**
+     * Runs the recommenders of all the frameworks in a pool of worker
+     * processes (see {@link ProcessWorkerPool}), so that frameworks do not
+     * share a JVM.
+     *
+     * @param paths the input and output paths.
+     * @param properties the properties.
+     * @param parallelProcesses number of worker processes.
+     */
+    public static void runIsolatedRecommenders(final Set<String> paths, final Properties properties, final int parallelProcesses) {
+        List<AbstractRunner<Long, Long>> recs = new ArrayList<AbstractRunner<Long, Long>>();
+        recs.addAll(Arrays.asList(instantiateLenskitRecommenders(paths, properties)));
+        recs.addAll(Arrays.asList(instantiateMahoutRecommenders(paths, properties)));
+        recs.addAll(Arrays.asList(instantiateRanksysRecommenders(paths, properties)));
+        List<Properties> jobs = new ArrayList<Properties>();
+        for (AbstractRunner<Long, Long> rec : recs) {
+            if (!rec.isAlreadyRecommended()) {
+                jobs.add(rec.getProperties());
+            }
+        }
+        // jobs of the same split are close, so workers can share similarities
+        Collections.sort(jobs, new Comparator<Properties>() {
+            @Override
+            public int compare(final Properties a, final Properties b) {
+                return ExperimentScheduler.splitKey(a).compareTo(ExperimentScheduler.splitKey(b));
+            }
+        });
+        ProcessWorkerPool pool = new ProcessWorkerPool(parallelProcesses);
+        for (String pr : properties.stringPropertyNames()) {
+            if (pr.startsWith(WORKER_CLASSPATH)) {
+                pool.setClasspath(pr.substring(WORKER_CLASSPATH.length()), properties.getProperty(pr));
+            }
+        }
+        pool.setJvmOptions(properties.getProperty(WORKER_JVM_OPTIONS, "").split(" "));
+        pool.setJobTimeout(Long.parseLong(properties.getProperty(WORKER_TIMEOUT, "0")));
+        try {
+            pool.run(jobs);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -227,9 +352,7 @@ public final class MultipleRecommendationRunner {
      * @param properties the properties.
      */
     public static void runMahoutRecommenders(final Set<String> paths, final Properties properties) {
-        for (AbstractRunner<Long, Long> rec : instantiateMahoutRecommenders(paths, properties)) {
-            RecommendationRunner.run(rec);
-        }
+        runSharingSimilarities(instantiateMahoutRecommenders(paths, properties), properties);
     }
 
     /**
@@ -318,9 +441,7 @@ public final class MultipleRecommendationRunner {
      * @param properties the properties.
      */
     public static void runRanksysRecommenders(final Set<String> paths, final Properties properties) {
-        for (AbstractRunner<Long, Long> rec : instantiateRanksysRecommenders(paths, properties)) {
-            RecommendationRunner.run(rec);
-        }
+        runSharingSimilarities(instantiateRanksysRecommenders(paths, properties), properties);
     }
 
     /**
@@ -349,6 +470,7 @@ public final class MultipleRecommendationRunner {
                 prop.setProperty(RecommendationRunner.TEST_SET, path + "_test.dat");
                 prop.setProperty(RecommendationRunner.OUTPUT, properties.getProperty(OUTPUT, ""));
                 prop.setProperty(RecommendationRunner.FRAMEWORK, "ranksys");
+                prop.setProperty(RecommendationRunner.SHARED_SIMILARITY, properties.getProperty(SHARED_SIMILARITY, "false"));
                 // first IB because it (should) does not have neighborhood
                 for (String ibRec : ibRecs) {
                     if (ibRec.trim().isEmpty()) {
@@ -402,6 +524,54 @@ public final class MultipleRecommendationRunner {
         return recs;
     }
 
+    /**
+     * Runs the recommenders so that runs over the same training set share
+     * their similarity matrices: as many neighbors as the largest
+     * neighborhood in the properties are kept, and the matrices are released
+     * when the training set changes.
+     *
+     * @param recs the recommenders, grouped by training set
+     * @param properties the properties
+     */
+    private static void runSharingSimilarities(final AbstractRunner<Long, Long>[] recs, final Properties properties) {
+        setMaxNeighbors(properties);
+        String training = null;
+        for (AbstractRunner<Long, Long> rec : recs) {
+            String recTraining = rec.getProperties().getProperty(RecommendationRunner.TRAINING_SET);
+            if (training != null && !training.equals(recTraining)) {
+                SimilarityEngine.clear();
+            }
+            training = recTraining;
+            RecommendationRunner.run(rec);
+        }
+        SimilarityEngine.clear();
+    }
+
+    /**
+     * Keeps as many neighbors in the shared similarities as the largest
+     * neighborhood in the properties, where -1 (the square root of the
+     * number of items) is resolved against the items of each split.
+     *
+     * @param properties the properties
+     */
+    private static void setMaxNeighbors(final Properties properties) {
+        int maxNeighbors = 0;
+        boolean sqrtNeighbors = false;
+        for (String n : properties.getProperty(N, "").split(",")) {
+            try {
+                int k = Integer.parseInt(n.trim());
+                maxNeighbors = Math.max(maxNeighbors, k);
+                sqrtNeighbors |= k == -1;
+            } catch (NumberFormatException e) {
+                // e.g., empty values
+            }
+        }
+        if (maxNeighbors > 0) {
+            SimilarityEngine.setMaxNeighbors(maxNeighbors);
+        }
+        SimilarityEngine.setSqrtNeighbors(sqrtNeighbors);
+    }
+
     /**
      * List all files at a certain path.
      *
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import net.recommenders.rival.recommend.frameworks.similarity.SimilarityEngine;
+
+/**
+ * Worker process of a {@link ProcessWorkerPool}: reads jobs from its standard
+ * input, runs them one after the other as {@link RecommendationRunner} does,
+ * and writes their results to its standard output. Whatever the runners
+ * print is sent to the standard error instead.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class ProcessWorker {
+
+    /**
+     * Maximum length of the message of a result.
+     */
+    private static final int MAX_MESSAGE = 10000;
+
+    /**
+     * Utility classes should not have a public or default constructor.
+     */
+    private ProcessWorker() {
+    }
+
+    /**
+     * Main method that runs jobs until the pool stops the worker.
+     *
+     * @param args program arguments (not used)
+     * @throws IOException when the pool cannot be reached
+     */
+    public static void main(final String[] args) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        // the standard output only carries results
+        System.setOut(System.err);
+        String training = null;
+        while (in.read() == ProcessWorkerPool.JOB) {
+            Properties properties = ProcessWorkerPool.readProperties(in);
+            // similarities are shared while the split does not change
+            String jobTraining = ExperimentScheduler.splitKey(properties);
+            if (training != null && !training.equals(jobTraining)) {
+                SimilarityEngine.clear();
+            }
+            training = jobTraining;
+            long time = System.currentTimeMillis();
+            ProcessWorkerPool.Status status;
+            String message = "";
+            try {
+                AbstractRunner<Long, Long> rr = RecommendationRunner.instantiateRecommender(properties);
+                if (rr == null) {
+                    status = ProcessWorkerPool.Status.ERROR;
+                    message = "Recommender could not be instantiated";
+                } else if (rr.isAlreadyRecommended()) {
+                    status = ProcessWorkerPool.Status.SKIPPED;
+                } else {
+                    rr.run(AbstractRunner.RUN_OPTIONS.OUTPUT_RECS);
+                    RecommendationRunner.writeStats(rr.getCanonicalFileName(), "time", System.currentTimeMillis() - time);
+                    status = ProcessWorkerPool.Status.OK;
+                }
+            } catch (Exception | LinkageError e) {
+                // e.g., conflicting versions of a dependency
+                e.printStackTrace();
+                status = ProcessWorkerPool.Status.ERROR;
+                message = String.valueOf(e);
+                if (message.length() > MAX_MESSAGE) {
+                    message = message.substring(0, MAX_MESSAGE);
+                }
+            }
+            out.writeByte(status.ordinal());
+            out.writeLong(System.currentTimeMillis() - time);
+            ProcessWorkerPool.writeString(out, message);
+            out.flush();
+        }
+        out.close();
+    }
+}
@@ -0,0 +1,538 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs recommendation jobs in a pool of worker processes ({@link ProcessWorker}),
+ * so frameworks with conflicting dependencies or static caches do not share
+ * a JVM.
+ *
+ * Each worker is a JVM launched with the classpath of the framework of its
+ * jobs (see {@link #setClasspath(String, String)}; the classpath of this JVM
+ * by default) and is reused for as many jobs as possible: the jobs are taken
+ * from a shared queue, and a worker prefers the jobs that need its classpath,
+ * so it is only replaced when none is left. A worker that dies, or that runs
+ * a job for longer than the timeout (see {@link #setJobTimeout(long)}), is
+ * replaced by a new one, and its job is reported as failed.
+ *
+ * Jobs and results are sent through the standard input and output of the
+ * workers: a job is the byte {@link #JOB}, the number of properties and each
+ * key and value (as strings, see {@link #writeString(DataOutputStream, String)});
+ * the byte {@link #EXIT} stops the worker. A result is the ordinal of its
+ * {@link Status}, the wall time in milliseconds and a message.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class ProcessWorkerPool {
+
+    /**
+     * Request to run a job.
+     */
+    public static final int JOB = 1;
+    /**
+     * Request to stop the worker.
+     */
+    public static final int EXIT = 0;
+
+    /**
+     * Outcome of a job.
+     */
+    public enum Status {
+
+        /**
+         * The recommendations were generated.
+         */
+        OK,
+        /**
+         * The job failed.
+         */
+        ERROR,
+        /**
+         * The recommendations already existed.
+         */
+        SKIPPED
+    }
+
+    /**
+     * Number of workers.
+     */
+    private final int nWorkers;
+    /**
+     * Classpath of the workers of each framework.
+     */
+    private final Map<String, String> classpaths = new HashMap<String, String>();
+    /**
+     * Options of the JVM of the workers.
+     */
+    private final List<String> jvmOptions = new ArrayList<String>();
+    /**
+     * Milliseconds a job may run before its worker is killed (0 if there is
+     * no limit).
+     */
+    private long jobTimeout = 0L;
+
+    /**
+     * Constructor.
+     *
+     * @param workers number of workers, i.e., jobs run at the same time
+     */
+    public ProcessWorkerPool(final int workers) {
+        this.nWorkers = Math.max(1, workers);
+    }
+
+    /**
+     * Sets the classpath of the workers that run the jobs of a framework.
+     *
+     * @param framework the framework, as in {@link RecommendationRunner#FRAMEWORK}
+     * @param classpath the classpath
+     * @return this pool
+     */
+    public ProcessWorkerPool setClasspath(final String framework, final String classpath) {
+        classpaths.put(framework, classpath);
+        return this;
+    }
+
+    /**
+     * Sets the options of the JVM of the workers, e.g., {@code -Xmx4g}.
+     *
+     * @param options the options
+     * @return this pool
+     */
+    public ProcessWorkerPool setJvmOptions(final String... options) {
+        jvmOptions.clear();
+        for (String option : options) {
+            if (!option.trim().isEmpty()) {
+                jvmOptions.add(option.trim());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Sets the time a job may run before its worker is killed and the job is
+     * reported as failed.
+     *
+     * @param millis the time in milliseconds (0 if there is no limit)
+     * @return this pool
+     */
+    public ProcessWorkerPool setJobTimeout(final long millis) {
+        this.jobTimeout = Math.max(0L, millis);
+        return this;
+    }
+
+    /**
+     * Gets the classpath of the worker that should run a job.
+     *
+     * @param job the properties of the job
+     * @return the classpath
+     */
+    private String getClasspath(final Properties job) {
+        String classpath = classpaths.get(job.getProperty(RecommendationRunner.FRAMEWORK));
+        return (classpath == null) ? System.getProperty("java.class.path") : classpath;
+    }
+
+    /**
+     * Runs the jobs.
+     *
+     * @param jobs the properties of each job, as read by
+     * {@link RecommendationRunner}
+     * @return the result of each job, in the same order
+     * @throws InterruptedException when interrupted while waiting for the
+     * jobs
+     */
+    public List<JobResult> run(final List<Properties> jobs) throws InterruptedException {
+        final LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (int j = 0; j < jobs.size(); j++) {
+            queue.add(j);
+        }
+        final JobResult[] results = new JobResult[jobs.size()];
+        final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService pool = Executors.newFixedThreadPool(nWorkers);
+        for (int w = 0; w < nWorkers; w++) {
+            pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Worker worker = null;
+                    try {
+                        while (true) {
+                            int j = next(queue, jobs, (worker == null) ? null : worker.classpath);
+                            if (j < 0) {
+                                break;
+                            }
+                            Properties job = jobs.get(j);
+                            try {
+                                String classpath = getClasspath(job);
+                                if (worker != null && !worker.classpath.equals(classpath)) {
+                                    worker.close();
+                                    worker = null;
+                                }
+                                if (worker == null) {
+                                    worker = new Worker(classpath, jvmOptions);
+                                }
+                                results[j] = worker.execute(job, jobTimeout, watchdog);
+                                if (worker.killed) {
+                                    // the timeout expired just after the result
+                                    worker = null;
+                                }
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                                results[j] = new JobResult(job, Status.ERROR, 0L, "Worker failed: " + e);
+                                if (worker != null) {
+                                    worker.destroy();
+                                    worker = null;
+                                }
+                            } catch (Throwable t) {
+                                // e.g., a worker that writes something else to its standard output
+                                t.printStackTrace();
+                                results[j] = new JobResult(job, Status.ERROR, 0L, "Job failed: " + t);
+                                if (worker != null) {
+                                    worker.destroy();
+                                    worker = null;
+                                }
+                            }
+                            System.out.println(results[j]);
+                        }
+                    } finally {
+                        if (worker != null) {
+                            worker.close();
+                        }
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            watchdog.shutdownNow();
+        }
+        for (int j = 0; j < results.length; j++) {
+            if (results[j] == null) {
+                // the thread of a worker stopped before taking the job
+                results[j] = new JobResult(jobs.get(j), Status.ERROR, 0L, "Job was not run");
+            }
+        }
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    /**
+     * Takes the next job from the queue, preferring those that need a given
+     * classpath.
+     *
+     * @param queue the queue of jobs
+     * @param jobs the jobs
+     * @param classpath the classpath (null if there is no preference)
+     * @return the job, or -1 if the queue is empty
+     */
+    private int next(final LinkedList<Integer> queue, final List<Properties> jobs, final String classpath) {
+        synchronized (queue) {
+            if (queue.isEmpty()) {
+                return -1;
+            }
+            if (classpath != null) {
+                Iterator<Integer> it = queue.iterator();
+                while (it.hasNext()) {
+                    int j = it.next();
+                    if (classpath.equals(getClasspath(jobs.get(j)))) {
+                        it.remove();
+                        return j;
+                    }
+                }
+            }
+            return queue.removeFirst();
+        }
+    }
+
+    /**
+     * Writes the properties of a job.
+     *
+     * @param out where the properties are written
+     * @param properties the properties
+     * @throws IOException when the properties cannot be written
+     */
+    static void writeProperties(final DataOutputStream out, final Properties properties) throws IOException {
+        List<String> keys = new ArrayList<String>(properties.stringPropertyNames());
+        out.writeInt(keys.size());
+        for (String key : keys) {
+            writeString(out, key);
+            writeString(out, properties.getProperty(key));
+        }
+    }
+
+    /**
+     * Reads the properties of a job.
+     *
+     * @param in where the properties are read from
+     * @return the properties
+     * @throws IOException when the properties cannot be read
+     */
+    static Properties readProperties(final DataInputStream in) throws IOException {
+        Properties properties = new Properties();
+        int n = in.readInt();
+        for (int p = 0; p < n; p++) {
+            String key = readString(in);
+            properties.setProperty(key, readString(in));
+        }
+        return properties;
+    }
+
+    /**
+     * Writes a string as the number of bytes of its UTF-8 encoding followed
+     * by the bytes, so that, unlike {@link DataOutputStream#writeUTF(String)},
+     * strings are not limited to 64KB.
+     *
+     * @param out where the string is written
+     * @param str the string
+     * @throws IOException when the string cannot be written
+     */
+    static void writeString(final DataOutputStream out, final String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+     *
+     * @param in where the string is read from
+     * @return the string
+     * @throws IOException when the string cannot be read
+     */
+    static String readString(final DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A worker process.
+     */
+    private static final class Worker {
+
+        /**
+         * Classpath of the worker.
+         */
+        private final String classpath;
+        /**
+         * The process.
+         */
+        private final Process process;
+        /**
+         * Standard input of the process.
+         */
+        private final DataOutputStream out;
+        /**
+         * Standard output of the process.
+         */
+        private final DataInputStream in;
+        /**
+         * Whether the worker was killed because a job timed out.
+         */
+        private volatile boolean killed;
+
+        /**
+         * Launches a worker.
+         *
+         * @param theClasspath classpath of the worker
+         * @param jvmOptions options of the JVM
+         * @throws IOException when the process cannot be launched
+         */
+        Worker(final String theClasspath, final List<String> jvmOptions) throws IOException {
+            this.classpath = theClasspath;
+            List<String> command = new ArrayList<String>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            command.addAll(jvmOptions);
+            command.add("-cp");
+            command.add(classpath);
+            command.add(ProcessWorker.class.getName());
+            // the output of the runners is written to the standard error
+            process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+
+        /**
+         * Runs a job in the worker and waits for its result.
+         *
+         * @param job the properties of the job
+         * @param timeout milliseconds before the worker is killed (0 if there
+         * is no limit)
+         * @param watchdog executor that kills the worker
+         * @return the result
+         * @throws IOException when the worker cannot be reached (e.g., it died
+         * or the job timed out)
+         */
+        JobResult execute(final Properties job, final long timeout, final ScheduledExecutorService watchdog) throws IOException {
+            ScheduledFuture<?> kill = null;
+            if (timeout > 0L) {
+                kill = watchdog.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        killed = true;
+                        destroy();
+                    }
+                }, timeout, TimeUnit.MILLISECONDS);
+            }
+            try {
+                out.writeByte(JOB);
+                writeProperties(out, job);
+                out.flush();
+                Status status = Status.values()[in.readByte()];
+                long wallTime = in.readLong();
+                return new JobResult(job, status, wallTime, readString(in));
+            } catch (IOException e) {
+                if (killed) {
+                    throw new IOException("Job timed out after " + timeout + " ms", e);
+                }
+                throw e;
+            } finally {
+                if (kill != null) {
+                    kill.cancel(false);
+                }
+            }
+        }
+
+        /**
+         * Stops the worker once it finishes its job.
+         */
+        void close() {
+            try {
+                out.writeByte(EXIT);
+                out.flush();
+                process.waitFor();
+            } catch (IOException e) {
+                destroy();
+            } catch (InterruptedException e) {
+                destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Kills the worker.
+         */
+        void destroy() {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Result of a job.
+     */
+    public static final class JobResult {
+
+        /**
+         * Properties of the job.
+         */
+        private final Properties properties;
+        /**
+         * Outcome of the job.
+         */
+        private final Status status;
+        /**
+         * Wall time of the job, in milliseconds.
+         */
+        private final long wallTime;
+        /**
+         * Message of the worker, e.g., the error.
+         */
+        private final String message;
+
+        /**
+         * Constructor.
+         *
+         * @param props properties of the job
+         * @param theStatus outcome of the job
+         * @param time wall time of the job
+         * @param theMessage message of the worker
+         */
+        JobResult(final Properties props, final Status theStatus, final long time, final String theMessage) {
+            this.properties = props;
+            this.status = theStatus;
+            this.wallTime = time;
+            this.message = theMessage;
+        }
+
+        /**
+         * Gets the properties of the job.
+         *
+         * @return the properties
+         */
+        public Properties getProperties() {
+            return properties;
+        }
+
+        /**
+         * Gets the outcome of the job.
+         *
+         * @return the outcome
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Gets the wall time of the job.
+         *
+         * @return the time, in milliseconds
+         */
+        public long getWallTime() {
+            return wallTime;
+        }
+
+        /**
+         * Gets the message of the worker.
+         *
+         * @return the message (empty if none)
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return properties.getProperty(RecommendationRunner.FRAMEWORK) + "\t"
+                    + properties.getProperty(RecommendationRunner.RECOMMENDER) + "\t"
+                    + properties.getProperty(RecommendationRunner.TRAINING_SET) + "\t"
+                    + status + "\t" + wallTime + " ms" + (message.isEmpty() ? "" : "\t" + message);
+        }
+    }
+}
@@ -21,9 +21,11 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import net.recommenders.rival.core.SplitBundle;
 import net.recommenders.rival.recommend.frameworks.lenskit.LenskitRecommenderRunner;
 import net.recommenders.rival.recommend.frameworks.mahout.MahoutRecommenderRunner;
 import net.recommenders.rival.recommend.frameworks.ranksys.RanksysRecommenderRunner;
+import net.recommenders.rival.recommend.frameworks.rival.RivalRecommenderRunner;
 
 import java.util.Properties;
 
@@ -78,6 +80,54 @@ public final class RecommendationRunner {
      * The property key for the output.
      */
     public static final String OUTPUT = "output";
+    /**
+     * The property key for the number of threads used to generate the
+     * recommendations.
+     */
+    public static final String THREADS = "threads";
+    /**
+     * The property key for the number of recommendations generated for each
+     * user (all the items if not specified).
+     */
+    public static final String TOP_K = "top_k";
+    /**
+     * The property key to keep all the scores in the returned model, even
+     * when only the top-k recommendations are written.
+     */
+    public static final String KEEP_FULL_SCORES = "keep_full_scores";
+    /**
+     * The property key for the directory where trained models are cached.
+     */
+    public static final String MODEL_CACHE = "model_cache";
+    /**
+     * The property key for the number of users between checkpoints of the
+     * output file, so an interrupted run can be resumed (no checkpoints if
+     * not specified).
+     */
+    public static final String CHECKPOINT_USERS = "checkpoint_users";
+    /**
+     * The property key to take the similarities of neighborhood recommenders
+     * from the matrices shared between runners (only for the similarities
+     * supported by
+     * {@link net.recommenders.rival.recommend.frameworks.similarity.SimilarityEngine}).
+     */
+    public static final String SHARED_SIMILARITY = "shared_similarity";
+    /**
+     * The property key for the number of lists of the approximate index used
+     * to recommend with factorization models (exact scoring if not
+     * specified).
+     */
+    public static final String APPROXIMATE_LISTS = "approximate_lists";
+    /**
+     * The property key for the number of lists of the approximate index
+     * scored for each user.
+     */
+    public static final String APPROXIMATE_PROBES = "approximate_probes";
+    /**
+     * The property key for the number of users whose approximate
+     * recommendations are compared with the exact ones.
+     */
+    public static final String APPROXIMATE_RECALL_USERS = "approximate_recall_users";
     /**
      * The property key for the framework.
      */
@@ -99,13 +149,9 @@ public final class RecommendationRunner {
      */
     public static final String RANKSYS = "ranksys";
     /**
-     * The canonical path.
+     * The property value for RiVal's native recommenders.
      */
-    private static String statPath;
-    /**
-     * The execution time.
-     */
-    private static long time;
+    public static final String RIVAL = "rival";
 
     /**
      * Utility classes should not have a public or default constructor.
@@ -151,9 +197,9 @@ public final class RecommendationRunner {
      * @param rr abstract recommender already initialized
      */
     public static void run(final AbstractRunner rr) {
-        time = System.currentTimeMillis();
+        long time = System.currentTimeMillis();
         boolean statsExist = false;
-        statPath = rr.getCanonicalFileName();
+        String statPath = rr.getCanonicalFileName();
         statsExist = rr.isAlreadyRecommended();
         try {
             rr.run(AbstractRunner.RUN_OPTIONS.OUTPUT_RECS);
@@ -178,12 +224,14 @@ public final class RecommendationRunner {
             System.out.println("No recommenderClass specified, exiting.");
             return null;
         }
-        if (properties.getProperty(TRAINING_SET) == null) {
+        // a split bundle replaces the training and test sets
+        boolean bundle = properties.getProperty(SplitBundle.PROPERTY) != null;
+        if (!bundle && properties.getProperty(TRAINING_SET) == null) {
             System.out.println("No training set specified, exiting.");
             return null;
         }
-        if (properties.getProperty(TEST_SET) == null) {
-            System.out.println("No training set specified, exiting.");
+        if (!bundle && properties.getProperty(TEST_SET) == null) {
+            System.out.println("No test set specified, exiting.");
             return null;
         }
 
@@ -194,6 +242,8 @@ public final class RecommendationRunner {
             rr = new LenskitRecommenderRunner(properties);
         } else if (properties.getProperty(FRAMEWORK).equals(RANKSYS)) {
             rr = new RanksysRecommenderRunner(properties);
+        } else if (properties.getProperty(FRAMEWORK).equals(RIVAL)) {
+            rr = new RivalRecommenderRunner(properties);
         }
         return rr;
     }
@@ -0,0 +1,844 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import net.recommenders.rival.core.TemporalDataModelIF;
+
+/**
+ * Long-lived destination for the recommendations of a run. The output file
+ * is opened once; recommendations are formatted (in the same format as
+ * {@link RecommenderIO#writeData}) into reusable byte chunks that a dedicated
+ * thread writes to disk, with a bounded number of chunks pending. If a model
+ * is provided, recommendations are also added to it.
+ *
+ * The file is written with the suffix {@link #PARTIAL_SUFFIX} and renamed
+ * when the sink is closed, so an interrupted run never leaves a file that
+ * looks complete. With {@link #enableCheckpoints(int)}, the file is synced
+ * every few users and the blocks of users written so far are recorded (with
+ * their checksums) in a manifest with the suffix {@link #PROGRESS_SUFFIX}; a
+ * later sink for the same file keeps the last valid block and skips the users
+ * already written.
+ *
+ * Methods of this class should be called from a single thread.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class RecommendationSink implements Closeable {
+
+    /**
+     * Size of a chunk of formatted recommendations.
+     */
+    public static final int CHUNK_SIZE = 1 << 16;
+    /**
+     * Maximum number of chunks waiting to be written.
+     */
+    public static final int QUEUE_SIZE = 8;
+    /**
+     * Chunk used to tell the writer thread there is nothing else to write.
+     */
+    private static final Chunk END = new Chunk(0);
+    /**
+     * Suffix of the output file while it is being written.
+     */
+    public static final String PARTIAL_SUFFIX = ".part";
+    /**
+     * Suffix of the manifest of the checkpoints of the output file.
+     */
+    public static final String PROGRESS_SUFFIX = ".progress";
+    /**
+     * Directory where the file is written.
+     */
+    private final String path;
+    /**
+     * Name of the file (null if recommendations are not written).
+     */
+    private final String fileName;
+    /**
+     * Model where recommendations are saved (may be null).
+     */
+    private final TemporalDataModelIF<Long, Long> model;
+    /**
+     * Chunks waiting to be written.
+     */
+    private final BlockingQueue<Chunk> pending = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    /**
+     * Chunks already written, to be reused.
+     */
+    private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(QUEUE_SIZE + 2);
+    /**
+     * Chunk being filled.
+     */
+    private Chunk current;
+    /**
+     * The writer thread (null until the first recommendation is written).
+     */
+    private Thread writer;
+    /**
+     * Error found by the writer thread.
+     */
+    private volatile IOException error;
+    /**
+     * Flag to know if the output could not be opened.
+     */
+    private boolean disabled;
+    /**
+     * Selector of the top recommendations (null if all of them are kept).
+     */
+    private final TopKSelector selector;
+    /**
+     * Flag to save all the recommendations in the model, even if only the top
+     * ones are written.
+     */
+    private final boolean keepFullScores;
+    /**
+     * Number of users between checkpoints (0 if there are no checkpoints).
+     */
+    private int checkpointUsers;
+    /**
+     * Lines of the manifest of the checkpoints kept from a previous run.
+     */
+    private List<String> resumedCheckpoints = new ArrayList<>();
+    /**
+     * Number of users already written by a previous run.
+     */
+    private int resumedUsers;
+    /**
+     * Last user written by a previous run.
+     */
+    private long resumedLastUser;
+    /**
+     * Length of the file written by a previous run.
+     */
+    private long resumedBytes;
+    /**
+     * Number of users written so far, including those of a previous run.
+     */
+    private int usersWritten;
+    /**
+     * Number of bytes written to the file.
+     */
+    private long bytesWritten;
+
+    /**
+     * Constructor.
+     *
+     * @param outputPath directory where fileName will be written (if not
+     * null)
+     * @param outputFileName name of the file, if null recommendations will not
+     * be printed
+     * @param outputModel if not null, recommendations will be saved here
+     */
+    public RecommendationSink(final String outputPath, final String outputFileName, final TemporalDataModelIF<Long, Long> outputModel) {
+        this(outputPath, outputFileName, outputModel, 0, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param outputPath directory where fileName will be written (if not
+     * null)
+     * @param outputFileName name of the file, if null recommendations will not
+     * be printed
+     * @param outputModel if not null, recommendations will be saved here
+     * @param topK number of recommendations kept per user (all of them if not
+     * positive)
+     * @param keepFullScoresInModel if true, all the recommendations are saved
+     * in the model, and the cutoff only applies to the file
+     */
+    public RecommendationSink(final String outputPath, final String outputFileName, final TemporalDataModelIF<Long, Long> outputModel, final int topK, final boolean keepFullScoresInModel) {
+        this.path = outputPath;
+        this.fileName = outputFileName;
+        this.model = outputModel;
+        this.disabled = (outputPath == null) || (outputFileName == null);
+        this.selector = (topK > 0) ? new TopKSelector(topK) : null;
+        this.keepFullScores = keepFullScoresInModel;
+    }
+
+    /**
+     * Writes the recommendations of a user. If there are more than the
+     * cutoff, the top ones are selected (see {@link TopKSelector}).
+     *
+     * @param user the user
+     * @param recommendations the recommendations
+     * @throws IOException when the recommendations cannot be written
+     */
+    public void write(final long user, final List<RecommenderIO.Preference<Long, Long>> recommendations) throws IOException {
+        boolean toFile = isPending(user);
+        if (selector != null && recommendations.size() > selector.getCutoff()) {
+            if (keepFullScores) {
+                addToModel(user, recommendations);
+            }
+            selector.clear();
+            for (RecommenderIO.Preference<Long, Long> recItem : recommendations) {
+                selector.add(recItem.getItem(), recItem.getScore());
+            }
+            int n = selector.select();
+            if (!keepFullScores) {
+                addToModel(user, selector.getItems(), selector.getScores(), n);
+            }
+            if (toFile) {
+                addToFile(user, selector.getItems(), selector.getScores(), n);
+            }
+            return;
+        }
+        addToModel(user, recommendations);
+        if (!toFile || !ready()) {
+            return;
+        }
+        for (RecommenderIO.Preference<Long, Long> recItem : recommendations) {
+            if (current.length > CHUNK_SIZE) {
+                enqueue(current);
+                current = nextChunk();
+            }
+            current.append(user).append('\t').append(recItem.getItem()).append('\t').append(Double.toString(recItem.getScore())).append('\n');
+        }
+        userWritten(user);
+    }
+
+    /**
+     * Writes the recommendations of a user, given as parallel arrays of items
+     * and scores. If there are more than the cutoff, the top ones are
+     * selected (see {@link TopKSelector}).
+     *
+     * @param user the user
+     * @param items the items
+     * @param scores the scores
+     * @param n number of recommendations
+     * @throws IOException when the recommendations cannot be written
+     */
+    public void write(final long user, final long[] items, final double[] scores, final int n) throws IOException {
+        boolean toFile = isPending(user);
+        if (selector != null && n > selector.getCutoff()) {
+            if (keepFullScores) {
+                addToModel(user, items, scores, n);
+            }
+            selector.clear();
+            for (int k = 0; k < n; k++) {
+                selector.add(items[k], scores[k]);
+            }
+            int m = selector.select();
+            if (!keepFullScores) {
+                addToModel(user, selector.getItems(), selector.getScores(), m);
+            }
+            if (toFile) {
+                addToFile(user, selector.getItems(), selector.getScores(), m);
+            }
+            return;
+        }
+        addToModel(user, items, scores, n);
+        if (toFile) {
+            addToFile(user, items, scores, n);
+        }
+    }
+
+    /**
+     * Enables the checkpoints of the output file and, if a previous run left
+     * a manifest, recovers its last valid block of users: the following calls
+     * to the write methods for the users already in the file only add the
+     * recommendations to the model (see also {@link #resume(long[])}). Should
+     * be called before any recommendation is written.
+     *
+     * @param usersPerCheckpoint number of users between checkpoints
+     * @return this sink
+     */
+    public RecommendationSink enableCheckpoints(final int usersPerCheckpoint) {
+        checkpointUsers = usersPerCheckpoint;
+        if (disabled || checkpointUsers <= 0) {
+            return this;
+        }
+        File progress = new File(path, fileName + PROGRESS_SUFFIX);
+        File part = new File(path, fileName + PARTIAL_SUFFIX);
+        if (!progress.exists() || !part.exists()) {
+            return this;
+        }
+        try {
+            List<String> lines = Files.readAllLines(progress.toPath(), StandardCharsets.UTF_8);
+            // the last block whose bytes are still in the file, with the same checksum
+            for (int l = lines.size() - 1; l >= 0; l--) {
+                long[] checkpoint = parseCheckpoint(lines.get(l));
+                long[] previous = (l == 0) ? new long[4] : parseCheckpoint(lines.get(l - 1));
+                if (checkpoint == null || previous == null || part.length() < checkpoint[2]
+                        || checksum(part, previous[2], checkpoint[2]) != checkpoint[3]) {
+                    continue;
+                }
+                resumedCheckpoints = new ArrayList<>(lines.subList(0, l + 1));
+                resumedUsers = (int) checkpoint[0];
+                resumedLastUser = checkpoint[1];
+                resumedBytes = checkpoint[2];
+                System.out.println("Resuming " + fileName + " after " + resumedUsers + " users");
+                break;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return this;
+    }
+
+    /**
+     * Skips the users already written by a previous run, so they do not need
+     * to be recommended again (their recommendations will not be added to
+     * the model).
+     *
+     * @param users the users, in the order they will be written
+     * @return the number of users at the beginning of the array already
+     * written (0 if the checkpoint does not match the users, and the file is
+     * written again)
+     */
+    public int resume(final long[] users) {
+        if (resumedUsers == 0 || usersWritten > 0) {
+            return 0;
+        }
+        if (resumedUsers > users.length || users[resumedUsers - 1] != resumedLastUser) {
+            System.out.println("Checkpoint of " + fileName + " does not match the users, starting again");
+            resumedCheckpoints = new ArrayList<>();
+            resumedUsers = 0;
+            resumedBytes = 0L;
+            return 0;
+        }
+        usersWritten = resumedUsers;
+        return resumedUsers;
+    }
+
+    /**
+     * Parses a line of the manifest of the checkpoints.
+     *
+     * @param line the line
+     * @return the number of users, last user, length of the file and
+     * checksum of the last block, or null if the line is not valid
+     */
+    private static long[] parseCheckpoint(final String line) {
+        String[] toks = line.split("\t");
+        if (toks.length != 4) {
+            return null;
+        }
+        try {
+            return new long[]{Long.parseLong(toks[0]), Long.parseLong(toks[1]), Long.parseLong(toks[2]), Long.parseLong(toks[3])};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Computes the checksum of a range of a file.
+     *
+     * @param file the file
+     * @param from first byte of the range
+     * @param to byte after the range
+     * @return the checksum
+     * @throws IOException when the file cannot be read
+     */
+    private static long checksum(final File file, final long from, final long to) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[CHUNK_SIZE];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(from);
+            long remaining = to - from;
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    break;
+                }
+                crc.update(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Checks if the recommendations of a user should be written to the file,
+     * that is, if they were not written by a previous run.
+     *
+     * @param user the user
+     * @return true if the recommendations should be written
+     * @throws IOException when the user is not the one recorded in the
+     * checkpoint
+     */
+    private boolean isPending(final long user) throws IOException {
+        if (usersWritten >= resumedUsers) {
+            return true;
+        }
+        usersWritten++;
+        if (usersWritten == resumedUsers && user != resumedLastUser) {
+            throw new IOException("Users are not written in the order of the checkpoint, remove " + path + "/" + fileName + PROGRESS_SUFFIX + " to start again");
+        }
+        return false;
+    }
+
+    /**
+     * Records that the recommendations of a user have been written, adding a
+     * checkpoint when needed.
+     *
+     * @param user the user
+     * @throws IOException if interrupted
+     */
+    private void userWritten(final long user) throws IOException {
+        usersWritten++;
+        if (checkpointUsers > 0 && writer != null && (usersWritten - resumedUsers) % checkpointUsers == 0) {
+            if (current.length > 0) {
+                enqueue(current);
+                current = nextChunk();
+            }
+            enqueue(new Chunk(usersWritten, user));
+        }
+    }
+
+    /**
+     * Adds recommendations to the model, if any.
+     *
+     * @param user the user
+     * @param recommendations the recommendations
+     */
+    private void addToModel(final long user, final List<RecommenderIO.Preference<Long, Long>> recommendations) {
+        if (model != null) {
+            for (RecommenderIO.Preference<Long, Long> recItem : recommendations) {
+                model.addPreference(user, recItem.getItem(), recItem.getScore());
+            }
+        }
+    }
+
+    /**
+     * Adds recommendations to the model, if any.
+     *
+     * @param user the user
+     * @param items the items
+     * @param scores the scores
+     * @param n number of recommendations
+     */
+    private void addToModel(final long user, final long[] items, final double[] scores, final int n) {
+        if (model != null) {
+            for (int k = 0; k < n; k++) {
+                model.addPreference(user, items[k], scores[k]);
+            }
+        }
+    }
+
+    /**
+     * Formats recommendations into the output file, if any.
+     *
+     * @param user the user
+     * @param items the items
+     * @param scores the scores
+     * @param n number of recommendations
+     * @throws IOException when the recommendations cannot be written
+     */
+    private void addToFile(final long user, final long[] items, final double[] scores, final int n) throws IOException {
+        if (!ready()) {
+            return;
+        }
+        for (int k = 0; k < n; k++) {
+            if (current.length > CHUNK_SIZE) {
+                enqueue(current);
+                current = nextChunk();
+            }
+            current.append(user).append('\t').append(items[k]).append('\t').append(Double.toString(scores[k])).append('\n');
+        }
+        userWritten(user);
+    }
+
+    /**
+     * Makes sure the output is open, if it should be written.
+     *
+     * @return true if recommendations should be written to the file
+     * @throws IOException when the file cannot be opened or the writer failed
+     */
+    private boolean ready() throws IOException {
+        if (disabled) {
+            return false;
+        }
+        if (writer == null) {
+            open();
+            if (disabled) {
+                return false;
+            }
+        }
+        checkError();
+        return true;
+    }
+
+    /**
+     * Opens the output file and starts the writer thread.
+     *
+     * @throws IOException when the file cannot be opened
+     */
+    private void open() throws IOException {
+        File dir = new File(path);
+        if (!dir.isDirectory() && !dir.mkdir()) {
+            System.out.println("Directory " + path + " could not be created");
+            disabled = true;
+            return;
+        }
+        File part = new File(path, fileName + PARTIAL_SUFFIX);
+        if (resumedBytes > 0) {
+            try (FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(resumedBytes);
+            }
+        }
+        final FileOutputStream out = new FileOutputStream(part, resumedBytes > 0);
+        final FileOutputStream progress = (checkpointUsers > 0) ? openProgress() : null;
+        final long initialBytes = resumedBytes;
+        for (int i = 0; i < QUEUE_SIZE + 1; i++) {
+            free.add(new Chunk(CHUNK_SIZE + 256));
+        }
+        current = nextChunk();
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean done = false;
+                CRC32 crc = new CRC32();
+                long bytes = initialBytes;
+                try {
+                    try {
+                        Chunk c = pending.take();
+                        while (c != END) {
+                            if (c.checkpoint) {
+                                // the block is on disk before it is recorded
+                                out.getFD().sync();
+                                String line = c.users + "\t" + c.lastUser + "\t" + bytes + "\t" + crc.getValue() + "\n";
+                                progress.write(line.getBytes(StandardCharsets.UTF_8));
+                                progress.getFD().sync();
+                                crc.reset();
+                            } else {
+                                out.write(c.data, 0, c.length);
+                                crc.update(c.data, 0, c.length);
+                                bytes += c.length;
+                                c.length = 0;
+                                free.put(c);
+                            }
+                            c = pending.take();
+                        }
+                        done = true;
+                    } finally {
+                        out.close();
+                        if (progress != null) {
+                            progress.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    error = e;
+                    if (!done) {
+                        drainAfterError();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "recommendation-sink-" + fileName);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Rewrites the manifest of the checkpoints with those kept from a previous
+     * run, and opens it to add new ones.
+     *
+     * @return the stream where checkpoints are added
+     * @throws IOException when the manifest cannot be written
+     */
+    private FileOutputStream openProgress() throws IOException {
+        File progress = new File(path, fileName + PROGRESS_SUFFIX);
+        File tmp = new File(path, fileName + PROGRESS_SUFFIX + ".tmp");
+        StringBuilder sb = new StringBuilder();
+        for (String line : resumedCheckpoints) {
+            sb.append(line).append('\n');
+        }
+        Files.write(tmp.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        move(tmp, progress);
+        return new FileOutputStream(progress, true);
+    }
+
+    /**
+     * Renames a file, atomically if the file system supports it.
+     *
+     * @param from the file
+     * @param to the new name
+     * @throws IOException when the file cannot be renamed
+     */
+    private static void move(final File from, final File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Keeps releasing chunks after the writer failed, so that the producer
+     * never blocks.
+     */
+    private void drainAfterError() {
+        try {
+            Chunk c = pending.take();
+            while (c != END) {
+                if (!c.checkpoint) {
+                    c.length = 0;
+                    free.put(c);
+                }
+                c = pending.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets a chunk to be filled, waiting for the writer if needed.
+     *
+     * @return the chunk
+     * @throws IOException if interrupted
+     */
+    private Chunk nextChunk() throws IOException {
+        try {
+            return free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Gives a chunk to the writer thread.
+     *
+     * @param c the chunk
+     * @throws IOException if interrupted
+     */
+    private void enqueue(final Chunk c) throws IOException {
+        bytesWritten += c.length;
+        try {
+            pending.put(c);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Throws the error found by the writer thread, if any.
+     *
+     * @throws IOException the error
+     */
+    private void checkError() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Gets the number of bytes written to the file (excluding those written by
+     * a previous run); those still in the chunk being filled are only counted
+     * when the sink is closed.
+     *
+     * @return the number of bytes
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Writes the pending recommendations and closes the file, which is then
+     * renamed to its final name.
+     *
+     * @throws IOException when the recommendations cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        // a previous run may have written every user
+        if (writer == null && (resumedUsers == 0 || !ready())) {
+            return;
+        }
+        if (current.length > 0) {
+            enqueue(current);
+        }
+        current = null;
+        enqueue(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        writer = null;
+        disabled = true;
+        checkError();
+        move(new File(path, fileName + PARTIAL_SUFFIX), new File(path, fileName));
+        Files.deleteIfExists(new File(path, fileName + PROGRESS_SUFFIX).toPath());
+    }
+
+    /**
+     * Stops the writer thread and closes the output file and the manifest of
+     * the checkpoints, without renaming the file: the blocks already recorded
+     * can be resumed by a later sink. Does nothing if the sink was closed or
+     * nothing was written, so it can be called whenever a run ends.
+     */
+    public void abort() {
+        if (writer == null) {
+            return;
+        }
+        Thread w = writer;
+        writer = null;
+        current = null;
+        disabled = true;
+        try {
+            pending.put(END);
+            w.join();
+        } catch (InterruptedException e) {
+            // the writer stops without writing the pending chunks
+            w.interrupt();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reusable buffer of formatted recommendations.
+     */
+    private static final class Chunk {
+
+        /**
+         * Formatted bytes.
+         */
+        private byte[] data;
+        /**
+         * Number of bytes used.
+         */
+        private int length;
+        /**
+         * Scratch space to format numbers.
+         */
+        private final byte[] digits = new byte[20];
+        /**
+         * Flag to know if this chunk marks a checkpoint instead of holding
+         * bytes.
+         */
+        private final boolean checkpoint;
+        /**
+         * Number of users written at the checkpoint.
+         */
+        private final int users;
+        /**
+         * Last user written at the checkpoint.
+         */
+        private final long lastUser;
+
+        /**
+         * Constructor.
+         *
+         * @param capacity initial capacity
+         */
+        Chunk(final int capacity) {
+            data = new byte[capacity];
+            checkpoint = false;
+            users = 0;
+            lastUser = 0L;
+        }
+
+        /**
+         * Constructor of a checkpoint.
+         *
+         * @param nUsers number of users written
+         * @param last last user written
+         */
+        Chunk(final int nUsers, final long last) {
+            data = new byte[0];
+            checkpoint = true;
+            users = nUsers;
+            lastUser = last;
+        }
+
+        /**
+         * Makes room for some bytes.
+         *
+         * @param n number of bytes
+         */
+        private void ensure(final int n) {
+            if (length + n > data.length) {
+                byte[] d = new byte[Math.max(data.length * 2, length + n)];
+                System.arraycopy(data, 0, d, 0, length);
+                data = d;
+            }
+        }
+
+        /**
+         * Appends a character (ASCII only).
+         *
+         * @param c the character
+         * @return this chunk
+         */
+        Chunk append(final char c) {
+            ensure(1);
+            data[length++] = (byte) c;
+            return this;
+        }
+
+        /**
+         * Appends a string (ASCII only).
+         *
+         * @param s the string
+         * @return this chunk
+         */
+        Chunk append(final String s) {
+            int n = s.length();
+            ensure(n);
+            for (int i = 0; i < n; i++) {
+                data[length++] = (byte) s.charAt(i);
+            }
+            return this;
+        }
+
+        /**
+         * Appends a number in decimal notation.
+         *
+         * @param v the number
+         * @return this chunk
+         */
+        Chunk append(final long v) {
+            if (v == Long.MIN_VALUE) {
+                return append(Long.toString(v));
+            }
+            ensure(20);
+            long x = v;
+            if (x < 0) {
+                data[length++] = '-';
+                x = -x;
+            }
+            int n = 0;
+            do {
+                digits[n++] = (byte) ('0' + (x % 10));
+                x /= 10;
+            } while (x != 0);
+            while (n > 0) {
+                data[length++] = digits[--n];
+            }
+            return this;
+        }
+    }
+}
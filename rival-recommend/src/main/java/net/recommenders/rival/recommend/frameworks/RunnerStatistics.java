@@ -0,0 +1,398 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Operational statistics of a runner: for each phase ({@link #LOAD},
+ * {@link #TRAIN}, {@link #RECOMMEND}), its time, the bytes allocated by the
+ * thread of the runner and by the workers of {@link UserPartitionExecutor},
+ * and the peak heap usage; also the latency of the recommendation of each
+ * user (in a histogram with logarithmic buckets, whose percentiles are
+ * accurate up to 1/16), the throughput and the bytes of output.
+ *
+ * They are written as lines of tab-separated keys and values, e.g.,
+ * {@code recommend.latency_p95_us	1234}. Phases are started and finished
+ * from the thread of the runner (which finishes them also when it fails),
+ * and workers add their allocations to the statistics of the runner whose
+ * thread started them, so runners executed at the same time are measured
+ * separately. The peak heap is shared by the
+ * whole JVM, so it is omitted for the phases that overlapped with a phase of
+ * another runner.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class RunnerStatistics {
+
+    /**
+     * Phase where the data is loaded.
+     */
+    public static final String LOAD = "load";
+    /**
+     * Phase where the recommender is built or trained.
+     */
+    public static final String TRAIN = "train";
+    /**
+     * Phase where recommendations are generated and written.
+     */
+    public static final String RECOMMEND = "recommend";
+    /**
+     * Bits of the value kept in each bucket of the histogram.
+     */
+    private static final int SUB_BITS = 3;
+    /**
+     * Buckets for each power of two.
+     */
+    private static final int SUB = 1 << SUB_BITS;
+    /**
+     * Statistics of the current thread, measuring a phase (if any).
+     */
+    private static final ThreadLocal<RunnerStatistics> CURRENT = new ThreadLocal<>();
+    /**
+     * Statistics measuring a phase (weakly referenced, so that runners that
+     * failed in the middle of a phase are eventually forgotten).
+     */
+    private static final Set<RunnerStatistics> ACTIVE = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<RunnerStatistics, Boolean>()));
+    /**
+     * Number of phases started so far by any runner.
+     */
+    private static final AtomicLong PHASES_STARTED = new AtomicLong();
+    /**
+     * Nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1e6;
+    /**
+     * Statistics of each phase: time, allocated bytes and peak heap (-1 if
+     * the phase overlapped with those of other runners).
+     */
+    private final Map<String, long[]> phases = new LinkedHashMap<>();
+    /**
+     * Histogram of the latency of each user, in nanoseconds.
+     */
+    private final AtomicLongArray latencies = new AtomicLongArray((64 - SUB_BITS + 1) * SUB);
+    /**
+     * Phase being measured (null if none).
+     */
+    private String phase;
+    /**
+     * Time when the phase started.
+     */
+    private long phaseStart;
+    /**
+     * Bytes allocated when the phase started.
+     */
+    private long phaseAllocated;
+    /**
+     * Bytes allocated by the workers of {@link UserPartitionExecutor}
+     * started by this runner.
+     */
+    private final AtomicLong workerAllocated = new AtomicLong();
+    /**
+     * Number of phases started by any runner when the current phase started.
+     */
+    private long phasesStarted;
+    /**
+     * Whether another runner was measuring a phase when the current phase
+     * started.
+     */
+    private boolean phaseShared;
+    /**
+     * Bytes written to the output.
+     */
+    private long outputBytes;
+
+    /**
+     * Starts a phase, finishing the current one (if any). If the phase was
+     * already measured, the new measures are added to it.
+     *
+     * @param name name of the phase
+     */
+    public void startPhase(final String name) {
+        endPhase();
+        synchronized (ACTIVE) {
+            phaseShared = !ACTIVE.isEmpty();
+            ACTIVE.add(this);
+            phasesStarted = PHASES_STARTED.incrementAndGet();
+        }
+        if (!phaseShared) {
+            // the peaks of other runners are not reset while they are measured
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    pool.resetPeakUsage();
+                }
+            }
+        }
+        CURRENT.set(this);
+        phase = name;
+        phaseAllocated = threadAllocatedBytes() + workerAllocated.get();
+        phaseStart = System.nanoTime();
+    }
+
+    /**
+     * Forgets the phases of every runner being measured, as if none was
+     * running (for tests).
+     */
+    static void reset() {
+        ACTIVE.clear();
+        CURRENT.remove();
+    }
+
+    /**
+     * Finishes the current phase, if any.
+     */
+    public void endPhase() {
+        if (phase == null) {
+            return;
+        }
+        long time = System.nanoTime() - phaseStart;
+        long allocated = threadAllocatedBytes() + workerAllocated.get() - phaseAllocated;
+        boolean shared;
+        synchronized (ACTIVE) {
+            ACTIVE.remove(this);
+            // another runner was or became active, and reset the peaks or added to them
+            shared = phaseShared || PHASES_STARTED.get() != phasesStarted;
+        }
+        long peak = shared ? -1L : 0L;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (!shared && pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        long[] s = phases.get(phase);
+        if (s == null) {
+            phases.put(phase, new long[]{time, allocated, peak});
+        } else {
+            s[0] += time;
+            s[1] += allocated;
+            s[2] = (s[2] < 0L || peak < 0L) ? -1L : Math.max(s[2], peak);
+        }
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+        phase = null;
+    }
+
+    /**
+     * Records the latency of the recommendation of a user. Can be called
+     * from several threads.
+     *
+     * @param nanos the latency, in nanoseconds
+     */
+    public void recordUser(final long nanos) {
+        latencies.incrementAndGet(bucket(Math.max(0L, nanos)));
+    }
+
+    /**
+     * Records the latency of a group of users recommended together, as if
+     * each of them took the same time. Can be called from several threads.
+     *
+     * @param nUsers number of users
+     * @param nanos the latency of the group, in nanoseconds
+     */
+    public void recordUsers(final int nUsers, final long nanos) {
+        if (nUsers > 0) {
+            latencies.addAndGet(bucket(Math.max(0L, nanos / nUsers)), nUsers);
+        }
+    }
+
+    /**
+     * Wraps a task so the latency of each user is recorded.
+     *
+     * @param <R> type of the result
+     * @param task the task
+     * @return the timed task
+     */
+    public <R> UserPartitionExecutor.UserTask<R> timed(final UserPartitionExecutor.UserTask<R> task) {
+        return new UserPartitionExecutor.UserTask<R>() {
+            @Override
+            public R compute(final long user) throws Exception {
+                long start = System.nanoTime();
+                R r = task.compute(user);
+                recordUser(System.nanoTime() - start);
+                return r;
+            }
+        };
+    }
+
+    /**
+     * Sets the number of bytes written to the output.
+     *
+     * @param bytes the number of bytes
+     */
+    public void setOutputBytes(final long bytes) {
+        this.outputBytes = bytes;
+    }
+
+    /**
+     * Gets the number of users whose latency was recorded.
+     *
+     * @return the number of users
+     */
+    public long getNumUsers() {
+        long n = 0L;
+        for (int b = 0; b < latencies.length(); b++) {
+            n += latencies.get(b);
+        }
+        return n;
+    }
+
+    /**
+     * Gets a percentile of the latency of the users, as the middle of its
+     * bucket in the histogram.
+     *
+     * @param p the percentile, between 0 and 100
+     * @return the latency in nanoseconds (0 if no user was recorded)
+     */
+    public long getLatencyPercentile(final double p) {
+        long n = getNumUsers();
+        if (n == 0L) {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(p / 100.0 * n));
+        long seen = 0L;
+        for (int b = 0; b < latencies.length(); b++) {
+            seen += latencies.get(b);
+            if (seen >= rank) {
+                return lowerBound(b) + (lowerBound(b + 1) - lowerBound(b)) / 2;
+            }
+        }
+        return lowerBound(latencies.length());
+    }
+
+    /**
+     * Gets the statistics as lines of tab-separated keys and values. The
+     * current phase, if any, is finished.
+     *
+     * @return the lines
+     */
+    public List<String> getLines() {
+        endPhase();
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, long[]> e : phases.entrySet()) {
+            lines.add(e.getKey() + ".time_ms\t" + e.getValue()[0] / NANOS_PER_MILLI);
+            lines.add(e.getKey() + ".allocated_bytes\t" + e.getValue()[1]);
+            if (e.getValue()[2] >= 0L) {
+                lines.add(e.getKey() + ".peak_heap_bytes\t" + e.getValue()[2]);
+            }
+        }
+        long n = getNumUsers();
+        lines.add(RECOMMEND + ".users\t" + n);
+        long[] recommend = phases.get(RECOMMEND);
+        if (recommend != null && recommend[0] > 0L) {
+            lines.add(RECOMMEND + ".users_per_second\t" + n * 1e9 / recommend[0]);
+        }
+        if (n > 0L) {
+            for (int p : new int[]{50, 95, 99}) {
+                lines.add(RECOMMEND + ".latency_p" + p + "_us\t" + getLatencyPercentile(p) / 1e3);
+            }
+        }
+        lines.add("output.bytes\t" + outputBytes);
+        return lines;
+    }
+
+    /**
+     * Writes the statistics to a file.
+     *
+     * @param file the file
+     * @throws IOException when the file cannot be written
+     */
+    public void write(final File file) throws IOException {
+        Files.write(file.toPath(), getLines(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the statistics measuring a phase in the current thread, to which
+     * the workers started from this thread add their allocations.
+     *
+     * @return the statistics (null if no phase is being measured)
+     */
+    static RunnerStatistics current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Adds the bytes allocated by a worker of {@link UserPartitionExecutor}
+     * started by this runner.
+     *
+     * @param bytes the allocated bytes
+     */
+    void addWorkerAllocation(final long bytes) {
+        workerAllocated.addAndGet(bytes);
+    }
+
+    /**
+     * Gets the bytes allocated so far by the current thread, if the JVM
+     * measures them.
+     *
+     * @return the allocated bytes (0 if not measured)
+     */
+    static long threadAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+            if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+                return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Gets the bucket of the histogram of a value.
+     *
+     * @param v the value
+     * @return the bucket
+     */
+    static int bucket(final long v) {
+        if (v < SUB) {
+            return (int) v;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((v >>> shift) - SUB);
+    }
+
+    /**
+     * Gets the smallest value of a bucket of the histogram.
+     *
+     * @param b the bucket
+     * @return the value
+     */
+    static long lowerBound(final int b) {
+        if (b < SUB) {
+            return b;
+        }
+        int shift = b / SUB - 1;
+        return ((long) SUB + b % SUB) << shift;
+    }
+}
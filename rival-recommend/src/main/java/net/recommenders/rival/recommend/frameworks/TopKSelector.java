@@ -0,0 +1,220 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+/**
+ * Selects the k items with the highest scores using a bounded min-heap over
+ * primitive arrays. When two items have the same score, the one added first
+ * is preferred, so selecting from a list that is already sorted returns its
+ * first k elements.
+ *
+ * Instances can be reused (see {@link #clear()}) but are not thread-safe.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class TopKSelector {
+
+    /**
+     * Maximum number of items to keep.
+     */
+    private final int k;
+    /**
+     * Items in the heap.
+     */
+    private final long[] items;
+    /**
+     * Scores in the heap.
+     */
+    private final double[] scores;
+    /**
+     * Insertion order of the elements in the heap.
+     */
+    private final long[] order;
+    /**
+     * Number of elements in the heap.
+     */
+    private int size;
+    /**
+     * Number of items added since the last clear.
+     */
+    private long added;
+
+    /**
+     * Constructor.
+     *
+     * @param cutoff maximum number of items to keep
+     */
+    public TopKSelector(final int cutoff) {
+        if (cutoff < 1) {
+            throw new IllegalArgumentException("The cutoff should be positive: " + cutoff);
+        }
+        this.k = cutoff;
+        this.items = new long[cutoff];
+        this.scores = new double[cutoff];
+        this.order = new long[cutoff];
+    }
+
+    /**
+     * Gets the maximum number of items kept.
+     *
+     * @return the cutoff
+     */
+    public int getCutoff() {
+        return k;
+    }
+
+    /**
+     * Removes all the items.
+     */
+    public void clear() {
+        size = 0;
+        added = 0;
+    }
+
+    /**
+     * Offers an item.
+     *
+     * @param item the item
+     * @param score its score
+     */
+    public void add(final long item, final double score) {
+        long seq = added++;
+        if (size < k) {
+            int pos = size++;
+            set(pos, item, score, seq);
+            siftUp(pos);
+        } else if (Double.compare(score, scores[0]) > 0) {
+            // with the same score, the item in the heap was added before and is kept
+            set(0, item, score, seq);
+            siftDown(0, size);
+        }
+    }
+
+    /**
+     * Sorts the selected items by decreasing score (ties in insertion order).
+     * After this method, {@link #getItems()} and {@link #getScores()} contain
+     * the selection in its first positions, and the selector should be
+     * cleared before adding more items.
+     *
+     * @return the number of items selected
+     */
+    public int select() {
+        // heapsort: the worst element goes to the end each time
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        return size;
+    }
+
+    /**
+     * Gets the array of items (see {@link #select()}).
+     *
+     * @return the items
+     */
+    public long[] getItems() {
+        return items;
+    }
+
+    /**
+     * Gets the array of scores (see {@link #select()}).
+     *
+     * @return the scores
+     */
+    public double[] getScores() {
+        return scores;
+    }
+
+    /**
+     * Checks if the element in position a should be removed before the one in
+     * position b.
+     *
+     * @param a a position
+     * @param b another position
+     * @return true if a is worse than b
+     */
+    private boolean worse(final int a, final int b) {
+        int c = Double.compare(scores[a], scores[b]);
+        return c < 0 || (c == 0 && order[a] > order[b]);
+    }
+
+    /**
+     * Sets a position of the heap.
+     *
+     * @param pos the position
+     * @param item the item
+     * @param score the score
+     * @param seq the insertion order
+     */
+    private void set(final int pos, final long item, final double score, final long seq) {
+        items[pos] = item;
+        scores[pos] = score;
+        order[pos] = seq;
+    }
+
+    /**
+     * Swaps two positions of the heap.
+     *
+     * @param a a position
+     * @param b another position
+     */
+    private void swap(final int a, final int b) {
+        long item = items[a];
+        double score = scores[a];
+        long seq = order[a];
+        set(a, items[b], scores[b], order[b]);
+        set(b, item, score, seq);
+    }
+
+    /**
+     * Moves an element towards the root while it is worse than its parent.
+     *
+     * @param pos the position
+     */
+    private void siftUp(final int pos) {
+        int child = pos;
+        while (child > 0) {
+            int parent = (child - 1) >>> 1;
+            if (!worse(child, parent)) {
+                break;
+            }
+            swap(child, parent);
+            child = parent;
+        }
+    }
+
+    /**
+     * Moves an element towards the leaves while it is better than a child.
+     *
+     * @param pos the position
+     * @param end number of elements in the heap
+     */
+    private void siftDown(final int pos, final int end) {
+        int parent = pos;
+        int child = 2 * parent + 1;
+        while (child < end) {
+            if (child + 1 < end && worse(child + 1, child)) {
+                child++;
+            }
+            if (!worse(child, parent)) {
+                break;
+            }
+            swap(child, parent);
+            parent = child;
+            child = 2 * parent + 1;
+        }
+    }
+}
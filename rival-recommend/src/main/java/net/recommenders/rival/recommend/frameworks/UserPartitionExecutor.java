@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes something for every user of a list using a pool of worker threads.
+ * Users are partitioned in consecutive blocks; at most a fixed number of
+ * blocks are in flight at the same time, and results are handed to the sink
+ * in the calling thread and in the order of the user list, so the output does
+ * not depend on the number of threads.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class UserPartitionExecutor {
+
+    /**
+     * Default number of users in a block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+    /**
+     * Number of blocks in flight per thread.
+     */
+    private static final int BLOCKS_PER_THREAD = 2;
+
+    /**
+     * Work to be done for one user.
+     *
+     * @param <R> type of the result
+     */
+    public interface UserTask<R> {
+
+        /**
+         * Computes the result for a user. It may be called concurrently from
+         * several threads.
+         *
+         * @param user the user
+         * @return the result (null results are not passed to the sink)
+         * @throws Exception when the result cannot be computed
+         */
+        R compute(long user) throws Exception;
+    }
+
+    /**
+     * Consumer of the results, always called from the thread that runs the
+     * executor and following the order of the users.
+     *
+     * @param <R> type of the result
+     */
+    public interface ResultSink<R> {
+
+        /**
+         * Consumes the result of a user.
+         *
+         * @param user the user
+         * @param result the result
+         * @throws Exception when the result cannot be consumed
+         */
+        void consume(long user, R result) throws Exception;
+    }
+
+    /**
+     * Utility classes should not have a public or default constructor.
+     */
+    private UserPartitionExecutor() {
+    }
+
+    /**
+     * Runs a task for every user, using blocks of {@link #DEFAULT_BLOCK_SIZE}
+     * users.
+     *
+     * @param <R> type of the result
+     * @param users the users, in the order the results should be consumed
+     * @param nThreads number of threads (if less than 2, everything is done
+     * in the calling thread)
+     * @param task the task
+     * @param sink the sink
+     * @throws Exception the first exception thrown by the task or the sink
+     */
+    public static <R> void run(final long[] users, final int nThreads, final UserTask<R> task, final ResultSink<R> sink) throws Exception {
+        run(users, nThreads, DEFAULT_BLOCK_SIZE, task, sink);
+    }
+
+    /**
+     * Runs a task for every user.
+     *
+     * @param <R> type of the result
+     * @param users the users, in the order the results should be consumed
+     * @param nThreads number of threads (if less than 2, everything is done
+     * in the calling thread)
+     * @param blockSize number of users in a block
+     * @param task the task
+     * @param sink the sink
+     * @throws Exception the first exception thrown by the task or the sink
+     */
+    public static <R> void run(final long[] users, final int nThreads, final int blockSize, final UserTask<R> task, final ResultSink<R> sink) throws Exception {
+        if (nThreads < 2 || users.length <= blockSize) {
+            for (long u : users) {
+                R r = task.compute(u);
+                if (r != null) {
+                    sink.consume(u, r);
+                }
+            }
+            return;
+        }
+        int maxInFlight = BLOCKS_PER_THREAD * nThreads;
+        // allocations of the workers are measured by their threads, and added to the runner that started them
+        final RunnerStatistics owner = RunnerStatistics.current();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        Deque<Future<List<R>>> inFlight = new ArrayDeque<>();
+        Deque<Integer> starts = new ArrayDeque<>();
+        try {
+            for (int start = 0; start < users.length; start += blockSize) {
+                if (inFlight.size() >= maxInFlight) {
+                    drain(users, starts.poll(), inFlight.poll(), sink);
+                }
+                final int from = start;
+                final int to = Math.min(users.length, start + blockSize);
+                inFlight.add(pool.submit(new Callable<List<R>>() {
+                    @Override
+                    public List<R> call() throws Exception {
+                        long allocated = RunnerStatistics.threadAllocatedBytes();
+                        List<R> results = new ArrayList<>(to - from);
+                        for (int k = from; k < to; k++) {
+                            results.add(task.compute(users[k]));
+                        }
+                        if (owner != null) {
+                            owner.addWorkerAllocation(RunnerStatistics.threadAllocatedBytes() - allocated);
+                        }
+                        return results;
+                    }
+                }));
+                starts.add(from);
+            }
+            while (!inFlight.isEmpty()) {
+                drain(users, starts.poll(), inFlight.poll(), sink);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for a block and passes its results to the sink.
+     *
+     * @param <R> type of the result
+     * @param users the users
+     * @param start position of the first user of the block
+     * @param block the pending block
+     * @param sink the sink
+     * @throws Exception when the block failed or the sink cannot consume it
+     */
+    private static <R> void drain(final long[] users, final int start, final Future<List<R>> block, final ResultSink<R> sink) throws Exception {
+        List<R> results;
+        try {
+            results = block.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        for (int k = 0; k < results.size(); k++) {
+            R r = results.get(k);
+            if (r != null) {
+                sink.consume(users[start + k], r);
+            }
+        }
+    }
+}
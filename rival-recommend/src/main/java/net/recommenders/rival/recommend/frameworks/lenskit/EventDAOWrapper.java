@@ -19,6 +19,7 @@ import it.unimi.dsi.fastutil.longs.LongSet;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import net.recommenders.rival.core.FrozenDataModel;
 import net.recommenders.rival.core.TemporalDataModelIF;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.dao.EntityCollectionDAO;
@@ -76,6 +77,35 @@ public class EventDAOWrapper implements DataAccessObject {
         wrapper = EntityCollectionDAO.create(events);
     }
 
+    /**
+     * Constructs the wrapper directly from the arrays of a frozen model (e.g.,
+     * loaded from a split bundle). See {@link FrozenDataAccessObject} for a
+     * DataAccessObject that does not copy the preferences of the model.
+     *
+     * @param model the model to be used to create the wrapped model
+     */
+    public EventDAOWrapper(final FrozenDataModel model) {
+        long[] users = model.getUserIds();
+        long[] items = model.getItemIds();
+        int[] rows = model.getRowPointers();
+        int[] columns = model.getItemIndices();
+        double[] values = model.getValues();
+        int[] timePointers = model.getTimestampPointers();
+        long[] times = model.getTimestamps();
+        List<Rating> events = new ArrayList<>(model.getNumPreferences());
+        RatingBuilder rb = new RatingBuilder();
+        for (int u = 0; u < users.length; u++) {
+            rb.setUserId(users[u]);
+            for (int p = rows[u]; p < rows[u + 1]; p++) {
+                rb.setItemId(items[columns[p]]);
+                rb.setRating(values[p]);
+                rb.setTimestamp(timePointers[p] < timePointers[p + 1] ? times[timePointers[p]] : -1L);
+                events.add(rb.build());
+            }
+        }
+        wrapper = EntityCollectionDAO.create(events);
+    }
+
     /**
      * {@inheritDoc}
      */
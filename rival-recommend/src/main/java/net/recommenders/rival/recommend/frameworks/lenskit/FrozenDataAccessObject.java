@@ -0,0 +1,390 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.lenskit;
+
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import net.recommenders.rival.core.FrozenDataModel;
+import org.lenskit.data.dao.AbstractDataAccessObject;
+import org.lenskit.data.dao.EntityQuery;
+import org.lenskit.data.entities.Attribute;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entities;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.entities.EntityType;
+import org.lenskit.data.entities.TypedName;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingBuilder;
+import org.lenskit.util.IdBox;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.io.ObjectStreams;
+import org.lenskit.util.keys.LongSortedArraySet;
+
+/**
+ * Lenskit's DataAccessObject implemented directly on a {@link FrozenDataModel},
+ * without converting its preferences into entities up front: ratings are
+ * created lazily while they are streamed, reading users, items, values and
+ * timestamps from the arrays of the model. The id of a rating is its position
+ * in the (user-sorted) rows of the model.
+ *
+ * Queries for the ratings of a user or an item, and groups of ratings by user
+ * or by item, are answered from the rows and the (lazily built) columns of the
+ * model; any other query is answered by filtering all the ratings.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class FrozenDataAccessObject extends AbstractDataAccessObject {
+
+    /**
+     * The model.
+     */
+    private final FrozenDataModel model;
+    /**
+     * Ids of the users with ratings, sorted.
+     */
+    private final LongSortedArraySet userIds;
+    /**
+     * Ids of the items with ratings, sorted.
+     */
+    private final LongSortedArraySet itemIds;
+    /**
+     * Ids of the ratings, created on demand.
+     */
+    private LongSet ratingIds;
+
+    /**
+     * Constructor.
+     *
+     * @param theModel the model
+     */
+    public FrozenDataAccessObject(final FrozenDataModel theModel) {
+        this.model = theModel;
+        int[] rows = model.getRowPointers();
+        long[] users = model.getUserIds();
+        long[] active = new long[users.length];
+        int nUsers = 0;
+        for (int u = 0; u < users.length; u++) {
+            if (rows[u + 1] > rows[u]) {
+                active[nUsers++] = users[u];
+            }
+        }
+        this.userIds = new LongSortedArraySet(Arrays.copyOf(active, nUsers));
+        long[] items = model.getItemIds();
+        boolean[] rated = new boolean[items.length];
+        for (int i : model.getItemIndices()) {
+            rated[i] = true;
+        }
+        long[] activeItems = new long[items.length];
+        int nItems = 0;
+        for (int i = 0; i < items.length; i++) {
+            if (rated[i]) {
+                activeItems[nItems++] = items[i];
+            }
+        }
+        this.itemIds = new LongSortedArraySet(Arrays.copyOf(activeItems, nItems));
+    }
+
+    /**
+     * Gets the wrapped model.
+     *
+     * @return the model
+     */
+    public FrozenDataModel getModel() {
+        return model;
+    }
+
+    /**
+     * Creates the rating stored at a position of the rows.
+     *
+     * @param p the position
+     * @return the rating
+     */
+    private Rating rating(final int p) {
+        int[] rows = model.getRowPointers();
+        int u = Arrays.binarySearch(rows, p);
+        if (u < 0) {
+            u = -u - 2;
+        } else {
+            // skip users without ratings
+            while (rows[u + 1] == p) {
+                u++;
+            }
+        }
+        return rating(new RatingBuilder(), u, p);
+    }
+
+    /**
+     * Creates the rating stored at a position of the rows, knowing its user.
+     *
+     * @param builder the builder to use
+     * @param u index of the user
+     * @param p the position
+     * @return the rating
+     */
+    private Rating rating(final RatingBuilder builder, final int u, final int p) {
+        int[] timePointers = model.getTimestampPointers();
+        return builder
+                .setId(p)
+                .setUserId(model.getUserIds()[u])
+                .setItemId(model.getItemIds()[model.getItemIndices()[p]])
+                .setRating(model.getValues()[p])
+                .setTimestamp(timePointers[p] < timePointers[p + 1] ? model.getTimestamps()[timePointers[p]] : -1L)
+                .build();
+    }
+
+    /**
+     * Creates the ratings of a user.
+     *
+     * @param u index of the user
+     * @return the ratings, sorted by item
+     */
+    List<Rating> userRatings(final int u) {
+        int[] rows = model.getRowPointers();
+        List<Rating> ratings = new ArrayList<>(rows[u + 1] - rows[u]);
+        RatingBuilder builder = new RatingBuilder();
+        for (int p = rows[u]; p < rows[u + 1]; p++) {
+            ratings.add(rating(builder, u, p));
+        }
+        return ratings;
+    }
+
+    /**
+     * Creates the ratings of an item.
+     *
+     * @param i index of the item
+     * @return the ratings, sorted by user
+     */
+    List<Rating> itemRatings(final int i) {
+        int[] columns = model.getColumnPointers();
+        int[] users = model.getColumnUserIndices();
+        int[] positions = model.getColumnPositions();
+        List<Rating> ratings = new ArrayList<>(columns[i + 1] - columns[i]);
+        RatingBuilder builder = new RatingBuilder();
+        for (int c = columns[i]; c < columns[i + 1]; c++) {
+            ratings.add(rating(builder, users[c], positions[c]));
+        }
+        return ratings;
+    }
+
+    /**
+     * Streams all the ratings, sorted by user and item.
+     *
+     * @return the stream
+     */
+    private ObjectStream<Rating> streamRatings() {
+        return ObjectStreams.wrap(new Iterator<Rating>() {
+            private final RatingBuilder builder = new RatingBuilder();
+            private int u = 0;
+            private int p = 0;
+
+            @Override
+            public boolean hasNext() {
+                return p < model.getNumPreferences();
+            }
+
+            @Override
+            public Rating next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                while (model.getRowPointers()[u + 1] <= p) {
+                    u++;
+                }
+                return rating(builder, u, p++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    /**
+     * Gets the value of a filter of a query, if it is the only one.
+     *
+     * @param query the query
+     * @param name the attribute of the filter
+     * @return the value, null if the query has other filters
+     */
+    private static Long singleFilter(final EntityQuery<?> query, final TypedName<Long> name) {
+        List<Attribute<?>> filters = query.getFilterFields();
+        if (filters.size() == 1 && filters.get(0).getTypedName().equals(name)) {
+            return (Long) filters.get(0).getValue();
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<EntityType> getEntityTypes() {
+        return new HashSet<>(Arrays.asList(CommonTypes.RATING, CommonTypes.USER, CommonTypes.ITEM));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized LongSet getEntityIds(final EntityType type) {
+        if (type.equals(CommonTypes.USER)) {
+            return userIds;
+        } else if (type.equals(CommonTypes.ITEM)) {
+            return itemIds;
+        } else if (type.equals(CommonTypes.RATING)) {
+            if (ratingIds == null) {
+                long[] ids = new long[model.getNumPreferences()];
+                for (int p = 0; p < ids.length; p++) {
+                    ids[p] = p;
+                }
+                ratingIds = new LongSortedArraySet(ids);
+            }
+            return ratingIds;
+        }
+        return LongSets.EMPTY_SET;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entity lookupEntity(final EntityType type, final long id) {
+        if (type.equals(CommonTypes.USER)) {
+            return userIds.contains(id) ? Entities.create(type, id) : null;
+        } else if (type.equals(CommonTypes.ITEM)) {
+            return itemIds.contains(id) ? Entities.create(type, id) : null;
+        } else if (type.equals(CommonTypes.RATING)) {
+            return (id >= 0 && id < model.getNumPreferences()) ? rating((int) id) : null;
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <E extends Entity> E lookupEntity(final EntityType type, final long id, final Class<E> view) {
+        Entity e = lookupEntity(type, id);
+        return e == null ? null : Entities.project(e, view);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <E extends Entity> ObjectStream<E> streamEntities(final EntityQuery<E> query) {
+        EntityType type = query.getEntityType();
+        ObjectStream<? extends Entity> stream;
+        if (type.equals(CommonTypes.USER) || type.equals(CommonTypes.ITEM)) {
+            List<Entity> entities = new ArrayList<>();
+            for (long id : getEntityIds(type)) {
+                entities.add(Entities.create(type, id));
+            }
+            stream = ObjectStreams.filter(ObjectStreams.wrap(entities), query);
+        } else if (type.equals(CommonTypes.RATING)) {
+            Long user = singleFilter(query, CommonAttributes.USER_ID);
+            Long item = singleFilter(query, CommonAttributes.ITEM_ID);
+            if (user != null) {
+                int u = model.getUserIndex(user);
+                stream = ObjectStreams.wrap(u < 0 ? Collections.<Rating>emptyList() : userRatings(u));
+            } else if (item != null) {
+                int i = model.getItemIndex(item);
+                stream = ObjectStreams.wrap(i < 0 ? Collections.<Rating>emptyList() : itemRatings(i));
+            } else if (query.getFilterFields().isEmpty()) {
+                stream = streamRatings();
+            } else {
+                stream = ObjectStreams.filter(streamRatings(), query);
+            }
+        } else {
+            stream = ObjectStreams.empty();
+        }
+        ObjectStream<E> view = ObjectStreams.transform(stream, Entities.projection(query.getViewType()));
+        if (!query.getSortKeys().isEmpty()) {
+            view = ObjectStreams.sort(view, query.getOrdering());
+        }
+        return view;
+    }
+
+    /**
+     * Streams groups of entities. The ratings grouped by user or by item,
+     * without filters or sorting, are streamed directly from the rows or the
+     * columns of the model.
+     *
+     * @param query the query
+     * @param grouping the attribute used to group the entities
+     * @param <E> the type of the entities
+     * @return the stream of groups
+     */
+    @Override
+    public <E extends Entity> ObjectStream<IdBox<List<E>>> streamEntityGroups(final EntityQuery<E> query, final TypedName<Long> grouping) {
+        final boolean byUser = grouping.equals(CommonAttributes.USER_ID);
+        if (!query.getEntityType().equals(CommonTypes.RATING)
+                || !query.getFilterFields().isEmpty()
+                || !query.getSortKeys().isEmpty()
+                || !(byUser || grouping.equals(CommonAttributes.ITEM_ID))) {
+            return super.streamEntityGroups(query, grouping);
+        }
+        final Class<E> viewType = query.getViewType();
+        final long[] ids = byUser ? model.getUserIds() : model.getItemIds();
+        final int[] pointers = byUser ? model.getRowPointers() : model.getColumnPointers();
+        return ObjectStreams.wrap(new Iterator<IdBox<List<E>>>() {
+            private int next = advance(0);
+
+            private int advance(final int from) {
+                int k = from;
+                while (k < ids.length && pointers[k + 1] == pointers[k]) {
+                    k++;
+                }
+                return k;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < ids.length;
+            }
+
+            @Override
+            public IdBox<List<E>> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<Rating> ratings = byUser ? userRatings(next) : itemRatings(next);
+                List<E> group = new ArrayList<>(ratings.size());
+                for (Rating r : ratings) {
+                    group.add(Entities.project(r, viewType));
+                }
+                IdBox<List<E>> box = IdBox.create(ids[next], group);
+                next = advance(next + 1);
+                return box;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.lenskit;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import javax.inject.Inject;
+import net.recommenders.rival.core.FrozenDataModel;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.ratings.RatingVectorPDAO;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+import org.lenskit.util.IdBox;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.io.ObjectStreams;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+/**
+ * Lenskit's RatingVectorPDAO that, for a {@link FrozenDataAccessObject},
+ * builds the rating vectors of users directly from the rows of the model as
+ * primitive arrays, without creating rating entities. For any other
+ * DataAccessObject it behaves as Lenskit's StandardRatingVectorPDAO.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class FrozenRatingVectorPDAO implements RatingVectorPDAO {
+
+    /**
+     * The model, null if the DataAccessObject is not frozen.
+     */
+    private final FrozenDataModel model;
+    /**
+     * The standard PDAO, used when the DataAccessObject is not frozen.
+     */
+    private final RatingVectorPDAO standard;
+
+    /**
+     * Constructor.
+     *
+     * @param dao the DataAccessObject
+     */
+    @Inject
+    public FrozenRatingVectorPDAO(final DataAccessObject dao) {
+        if (dao instanceof FrozenDataAccessObject) {
+            this.model = ((FrozenDataAccessObject) dao).getModel();
+            this.standard = null;
+        } else {
+            this.model = null;
+            this.standard = new StandardRatingVectorPDAO(dao);
+        }
+    }
+
+    /**
+     * Creates the rating vector of a user.
+     *
+     * @param u index of the user
+     * @return the vector
+     */
+    private Long2DoubleMap vector(final int u) {
+        int[] rows = model.getRowPointers();
+        int n = rows[u + 1] - rows[u];
+        long[] items = new long[n];
+        double[] values = new double[n];
+        // rows are sorted by item index, and item ids are sorted too
+        for (int k = 0; k < n; k++) {
+            items[k] = model.getItemIds()[model.getItemIndices()[rows[u] + k]];
+            values[k] = model.getValues()[rows[u] + k];
+        }
+        return Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(items, n), values);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Long2DoubleMap userRatingVector(final long user) {
+        if (model == null) {
+            return standard.userRatingVector(user);
+        }
+        int u = model.getUserIndex(user);
+        if (u < 0) {
+            return Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.empty(), new double[0]);
+        }
+        return vector(u);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ObjectStream<IdBox<Long2DoubleMap>> streamUsers() {
+        if (model == null) {
+            return standard.streamUsers();
+        }
+        final int[] rows = model.getRowPointers();
+        final long[] users = model.getUserIds();
+        return ObjectStreams.wrap(new Iterator<IdBox<Long2DoubleMap>>() {
+            private int next = advance(0);
+
+            private int advance(final int from) {
+                int u = from;
+                while (u < users.length && rows[u + 1] == rows[u]) {
+                    u++;
+                }
+                return u;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < users.length;
+            }
+
+            @Override
+            public IdBox<Long2DoubleMap> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                IdBox<Long2DoubleMap> box = IdBox.create(users[next], vector(next));
+                next = advance(next + 1);
+                return box;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+}
@@ -18,15 +18,26 @@ package net.recommenders.rival.recommend.frameworks.lenskit;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import net.recommenders.rival.core.SplitBundle;
 import net.recommenders.rival.core.TemporalDataModel;
 import net.recommenders.rival.core.TemporalDataModelIF;
 import net.recommenders.rival.recommend.frameworks.AbstractRunner;
+import net.recommenders.rival.recommend.frameworks.ModelCache;
 import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
-import net.recommenders.rival.recommend.frameworks.RecommenderIO;
+import net.recommenders.rival.recommend.frameworks.RecommendationSink;
+import net.recommenders.rival.recommend.frameworks.RunnerStatistics;
 import net.recommenders.rival.recommend.frameworks.exceptions.RecommenderException;
 import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
 import org.grouplens.lenskit.iterative.IterationCount;
@@ -35,6 +46,7 @@ import org.grouplens.lenskit.iterative.StoppingCondition;
 import org.lenskit.LenskitConfiguration;
 import org.lenskit.LenskitRecommender;
 import org.lenskit.LenskitRecommenderEngine;
+import org.lenskit.RecommenderConfigurationException;
 import org.lenskit.api.ItemRecommender;
 import org.lenskit.api.ItemScorer;
 import org.lenskit.api.RecommenderBuildException;
@@ -48,7 +60,6 @@ import org.lenskit.data.dao.file.StaticDataSource;
 import org.lenskit.data.dao.file.TextEntitySource;
 import org.lenskit.data.ratings.RatingSummary;
 import org.lenskit.data.ratings.RatingVectorPDAO;
-import org.lenskit.data.ratings.StandardRatingVectorPDAO;
 import org.lenskit.knn.NeighborhoodSize;
 import org.lenskit.knn.user.LiveNeighborFinder;
 import org.lenskit.knn.user.NeighborFinder;
@@ -92,27 +103,41 @@ public class LenskitRecommenderRunner extends AbstractRunner<Long, Long> {
     @Override
     @SuppressWarnings("unchecked")
     public TemporalDataModelIF<Long, Long> run(final RUN_OPTIONS opts) throws RecommenderException {
-        if (isAlreadyRecommended()) {
-            return null;
-        }
+        try {
+            if (isAlreadyRecommended()) {
+                return null;
+            }
+            getStatistics().startPhase(RunnerStatistics.LOAD);
 
-        File trainingFile = new File(getProperties().getProperty(RecommendationRunner.TRAINING_SET));
-        File testFile = new File(getProperties().getProperty(RecommendationRunner.TEST_SET));
-//        EventDAO base = new TextEventDAO(trainingFile, Formats.delimitedRatings("\t"));
-        TextEntitySource tesTraining = new TextEntitySource();
-        tesTraining.setFile(trainingFile.toPath());
-        tesTraining.setFormat(org.lenskit.data.dao.file.Formats.delimitedRatings("\t"));
-        StaticDataSource sourceTraining = new StaticDataSource("training");
-        sourceTraining.addSource(tesTraining);
-        DataAccessObject base = sourceTraining.get();
-//        EventDAO test = new TextEventDAO(testFile, Formats.delimitedRatings("\t"));
-        TextEntitySource tesTest = new TextEntitySource();
-        tesTest.setFile(testFile.toPath());
-        tesTest.setFormat(org.lenskit.data.dao.file.Formats.delimitedRatings("\t"));
-        StaticDataSource sourceTest = new StaticDataSource("test");
-        sourceTest.addSource(tesTest);
-        DataAccessObject test = sourceTest.get();
-        return runLenskitRecommender(opts, base, test);
+            SplitBundle bundle;
+            try {
+                bundle = loadSplitBundle();
+            } catch (IOException e) {
+                throw new RecommenderException("Split bundle cannot be read", e);
+            }
+            if (bundle != null) {
+                return runLenskitRecommender(opts, new FrozenDataAccessObject(bundle.getTraining()), new FrozenDataAccessObject(bundle.getTest()));
+            }
+            File trainingFile = new File(getProperties().getProperty(RecommendationRunner.TRAINING_SET));
+            File testFile = new File(getProperties().getProperty(RecommendationRunner.TEST_SET));
+    //        EventDAO base = new TextEventDAO(trainingFile, Formats.delimitedRatings("\t"));
+            TextEntitySource tesTraining = new TextEntitySource();
+            tesTraining.setFile(trainingFile.toPath());
+            tesTraining.setFormat(org.lenskit.data.dao.file.Formats.delimitedRatings("\t"));
+            StaticDataSource sourceTraining = new StaticDataSource("training");
+            sourceTraining.addSource(tesTraining);
+            DataAccessObject base = sourceTraining.get();
+    //        EventDAO test = new TextEventDAO(testFile, Formats.delimitedRatings("\t"));
+            TextEntitySource tesTest = new TextEntitySource();
+            tesTest.setFile(testFile.toPath());
+            tesTest.setFormat(org.lenskit.data.dao.file.Formats.delimitedRatings("\t"));
+            StaticDataSource sourceTest = new StaticDataSource("test");
+            sourceTest.addSource(tesTest);
+            DataAccessObject test = sourceTest.get();
+            return runLenskitRecommender(opts, base, test);
+        } finally {
+            getStatistics().endPhase();
+        }
     }
 
     /**
@@ -129,14 +154,19 @@ public class LenskitRecommenderRunner extends AbstractRunner<Long, Long> {
      */
     @Override
     public TemporalDataModelIF<Long, Long> run(final RUN_OPTIONS opts, final TemporalDataModelIF<Long, Long> trainingModel, final TemporalDataModelIF<Long, Long> testModel) throws RecommenderException {
-        if (isAlreadyRecommended()) {
-            return null;
-        }
-        // transform from core's DataModels to Lenskit's EventDAO
-        DataAccessObject trainingModelLensKit = new EventDAOWrapper(trainingModel);
-        DataAccessObject testModelLensKit = new EventDAOWrapper(testModel);
+        try {
+            if (isAlreadyRecommended()) {
+                return null;
+            }
+            getStatistics().startPhase(RunnerStatistics.LOAD);
+            // transform from core's DataModels to Lenskit's EventDAO
+            DataAccessObject trainingModelLensKit = new EventDAOWrapper(trainingModel);
+            DataAccessObject testModelLensKit = new EventDAOWrapper(testModel);
 
-        return runLenskitRecommender(opts, trainingModelLensKit, testModelLensKit);
+            return runLenskitRecommender(opts, trainingModelLensKit, testModelLensKit);
+        } finally {
+            getStatistics().endPhase();
+        }
     }
 
     /**
@@ -159,107 +189,217 @@ public class LenskitRecommenderRunner extends AbstractRunner<Long, Long> {
      */
     @SuppressWarnings("unchecked")
     public TemporalDataModelIF<Long, Long> runLenskitRecommender(final RUN_OPTIONS opts, final DataAccessObject trainingModel, final DataAccessObject testModel) throws RecommenderException {
-        if (isAlreadyRecommended()) {
-            return null;
-        }
-        LenskitConfiguration config = new LenskitConfiguration();
-//        int nItems = new PrefetchingItemDAO(trainingModel).getItemIds().size();
-        LongSet items = RatingSummary.create(trainingModel).getItems();
-        int nItems = items.size();
-
         try {
-            config.bind(ItemScorer.class).to((Class<? extends ItemScorer>) Class.forName(getProperties().getProperty(RecommendationRunner.RECOMMENDER)));
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-            throw new RecommenderException("Problem with ItemScorer: " + e.getMessage());
-        }
-        if (getProperties().getProperty(RecommendationRunner.RECOMMENDER).contains(".user.")) {
-            config.bind(NeighborFinder.class).to(LiveNeighborFinder.class);
-            if (getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD).equals("-1")) {
-                getProperties().setProperty(RecommendationRunner.NEIGHBORHOOD, Math.round(Math.sqrt(nItems)) + "");
+            if (isAlreadyRecommended()) {
+                return null;
             }
-            config.set(NeighborhoodSize.class).to(Integer.parseInt(getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD)));
-        }
-        if (getProperties().containsKey(RecommendationRunner.SIMILARITY)) {
+            getStatistics().startPhase(RunnerStatistics.TRAIN);
+            LenskitConfiguration config = new LenskitConfiguration();
+    //        int nItems = new PrefetchingItemDAO(trainingModel).getItemIds().size();
+            LongSet items = RatingSummary.create(trainingModel).getItems();
+            int nItems = items.size();
+            // parameters bound in the configuration, they identify the cached engine
+            ModelCache.Fingerprint parameters = new ModelCache.Fingerprint()
+                    .add(RecommendationRunner.LENSKIT)
+                    .add(getProperties().getProperty(RecommendationRunner.RECOMMENDER));
+
             try {
-                config.within(ItemSimilarity.class).
-                        bind(VectorSimilarity.class).
-                        to((Class<? extends VectorSimilarity>) Class.forName(getProperties().getProperty(RecommendationRunner.SIMILARITY)));
+                config.bind(ItemScorer.class).to((Class<? extends ItemScorer>) Class.forName(getProperties().getProperty(RecommendationRunner.RECOMMENDER)));
             } catch (ClassNotFoundException e) {
                 e.printStackTrace();
-                throw new RecommenderException("Problem with ItemSimilarity: " + e.getMessage());
+                throw new RecommenderException("Problem with ItemScorer: " + e.getMessage());
             }
-        }
-        if (getProperties().containsKey(RecommendationRunner.FACTORS)) {
-            config.bind(BaselineScorer.class, ItemScorer.class).to(UserMeanItemScorer.class);
-            config.bind(StoppingCondition.class).to(IterationCountStoppingCondition.class);
-            config.bind(BiasModel.class).to(UserItemBiasModel.class);
-            config.set(IterationCount.class).to(DEFAULT_ITERATIONS);
-            if (getProperties().getProperty(RecommendationRunner.FACTORS).equals("-1")) {
-                getProperties().setProperty(RecommendationRunner.FACTORS, Math.round(Math.sqrt(nItems)) + "");
+            if (getProperties().getProperty(RecommendationRunner.RECOMMENDER).contains(".user.")) {
+                config.bind(NeighborFinder.class).to(LiveNeighborFinder.class);
+                if (getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD).equals("-1")) {
+                    getProperties().setProperty(RecommendationRunner.NEIGHBORHOOD, Math.round(Math.sqrt(nItems)) + "");
+                }
+                config.set(NeighborhoodSize.class).to(Integer.parseInt(getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD)));
+                parameters.add(RecommendationRunner.NEIGHBORHOOD).add(Long.parseLong(getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD)));
+            }
+            if (getProperties().containsKey(RecommendationRunner.SIMILARITY)) {
+                try {
+                    config.within(ItemSimilarity.class).
+                            bind(VectorSimilarity.class).
+                            to((Class<? extends VectorSimilarity>) Class.forName(getProperties().getProperty(RecommendationRunner.SIMILARITY)));
+                    parameters.add(RecommendationRunner.SIMILARITY).add(getProperties().getProperty(RecommendationRunner.SIMILARITY));
+                } catch (ClassNotFoundException e) {
+                    e.printStackTrace();
+                    throw new RecommenderException("Problem with ItemSimilarity: " + e.getMessage());
+                }
+            }
+            if (getProperties().containsKey(RecommendationRunner.FACTORS)) {
+                config.bind(BaselineScorer.class, ItemScorer.class).to(UserMeanItemScorer.class);
+                config.bind(StoppingCondition.class).to(IterationCountStoppingCondition.class);
+                config.bind(BiasModel.class).to(UserItemBiasModel.class);
+                config.set(IterationCount.class).to(DEFAULT_ITERATIONS);
+                if (getProperties().getProperty(RecommendationRunner.FACTORS).equals("-1")) {
+                    getProperties().setProperty(RecommendationRunner.FACTORS, Math.round(Math.sqrt(nItems)) + "");
+                }
+                config.set(FeatureCount.class).to(Integer.parseInt(getProperties().getProperty(RecommendationRunner.FACTORS)));
+                parameters.add(RecommendationRunner.FACTORS).add(Long.parseLong(getProperties().getProperty(RecommendationRunner.FACTORS)))
+                        .add((long) DEFAULT_ITERATIONS);
             }
-            config.set(FeatureCount.class).to(Integer.parseInt(getProperties().getProperty(RecommendationRunner.FACTORS)));
-        }
 
-        RatingVectorPDAO test = new StandardRatingVectorPDAO(testModel);
-        LenskitRecommender rec = null;
-        try {
-            LenskitRecommenderEngine engine = LenskitRecommenderEngine.build(config, trainingModel);
-            rec = engine.createRecommender(trainingModel);
-        } catch (RecommenderBuildException e) {
-            LOGGER.error(e.getMessage());
-            e.printStackTrace();
-            throw new RecommenderException("Problem with LenskitRecommenderEngine: " + e.getMessage());
-        }
-        ItemRecommender irec = null;
-        ItemScorer iscore = null;
-        if (rec != null) {
-            irec = rec.getItemRecommender();
-            iscore = rec.getItemScorer();
-        }
-        assert irec != null;
-        assert iscore != null;
+            if (trainingModel instanceof FrozenDataAccessObject) {
+                // rating vectors are built from the arrays of the frozen model
+                config.bind(RatingVectorPDAO.class).to(FrozenRatingVectorPDAO.class);
+            }
+            RatingVectorPDAO test = new FrozenRatingVectorPDAO(testModel);
+            LenskitRecommender rec = null;
+            try {
+                LenskitRecommenderEngine engine = null;
+                // the engine is the trained model, it is reused when cached
+                ModelCache cache = getModelCache(parameters);
+                File engineFile = null;
+                if (cache != null) {
+                    engineFile = cache.getFile(fingerprint(trainingModel), "lenskit.bin");
+                    if (engineFile.exists()) {
+                        try {
+                            engine = LenskitRecommenderEngine.newLoader().load(engineFile);
+                        } catch (IOException | RecommenderConfigurationException e) {
+                            LOGGER.warn("Cached model could not be loaded: " + engineFile, e);
+                            engine = null;
+                        }
+                    }
+                }
+                if (engine == null) {
+                    engine = LenskitRecommenderEngine.build(config, trainingModel);
+                    if (engineFile != null) {
+                        final LenskitRecommenderEngine built = engine;
+                        try {
+                            ModelCache.write(engineFile, file -> built.write(file));
+                        } catch (IOException e) {
+                            LOGGER.warn("Model could not be cached: " + e.getMessage());
+                        }
+                    }
+                }
+                rec = engine.createRecommender(trainingModel);
+            } catch (RecommenderBuildException e) {
+                LOGGER.error(e.getMessage());
+                e.printStackTrace();
+                throw new RecommenderException("Problem with LenskitRecommenderEngine: " + e.getMessage());
+            }
+            ItemRecommender irec = null;
+            ItemScorer iscore = null;
+            if (rec != null) {
+                irec = rec.getItemRecommender();
+                iscore = rec.getItemScorer();
+            }
+            assert irec != null;
+            assert iscore != null;
 
-        TemporalDataModelIF<Long, Long> model = null;
-        switch (opts) {
-            case RETURN_AND_OUTPUT_RECS:
-            case RETURN_RECS:
-                model = new TemporalDataModel<>();
-                break;
-            default:
-                model = null;
+            getStatistics().startPhase(RunnerStatistics.RECOMMEND);
+            TemporalDataModelIF<Long, Long> model = null;
+            switch (opts) {
+                case RETURN_AND_OUTPUT_RECS:
+                case RETURN_RECS:
+                    model = new TemporalDataModel<>();
+                    break;
+                default:
+                    model = null;
+            }
+            String name = null;
+            switch (opts) {
+                case RETURN_AND_OUTPUT_RECS:
+                case OUTPUT_RECS:
+                    name = getFileName();
+                    break;
+                default:
+                    name = null;
+            }
+            RecommendationSink sink = createSink(name, model);
+            try {
+                // LensKit scores every item, the sink keeps the top-k (if requested)
+                long[] recItems = new long[nItems];
+                double[] recScores = new double[nItems];
+                for (IdBox<Long2DoubleMap> u : test.streamUsers()) {
+                    long start = System.nanoTime();
+                    long user = u.getId();
+                    // The following does not return anything
+                    // List<Long> recItems = irec.recommend(user, nItems);
+                    //
+                    int n = 0;
+                    Collection<Long> toScore = items;
+                    if (getCandidateItemsProvider() != null) {
+                        Set<Long> candidates = getCandidateItemsProvider().getCandidateItems(user);
+                        // only the items that would be scored otherwise (i.e., in the training data)
+                        Set<Long> known = new HashSet<Long>();
+                        if (candidates != null) {
+                            for (Long i : candidates) {
+                                if (items.contains(i)) {
+                                    known.add(i);
+                                }
+                            }
+                        }
+                        toScore = known;
+                    }
+                    Map<Long, Double> results = iscore.score(user, toScore);
+                    Iterator<Long> it = toScore.iterator();
+                    while (it.hasNext()) {
+                        long i = it.next();
+        //                Result r = iscore.score(user, i);
+        //                if (r != null) {
+                        Double s = results.get(i);
+                        if (s != null) {
+        //                    Double s = r.getScore();
+                            recItems[n] = i;
+                            recScores[n] = s;
+                            n++;
+                        }
+                    }
+                    getStatistics().recordUser(System.nanoTime() - start);
+                    //
+                    try {
+                        sink.write(user, recItems, recScores, n);
+                    } catch (IOException e) {
+                        throw new RecommenderException("Recommendations could not be written", e);
+                    }
+                }
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    throw new RecommenderException("Recommendations could not be written", e);
+                }
+            } finally {
+                // a failed run keeps its partial output to be resumed
+                sink.abort();
+            }
+            writeStatistics(name, sink);
+            rec.close();
+            return model;
+        } finally {
+            getStatistics().endPhase();
         }
-        String name = null;
-        switch (opts) {
-            case RETURN_AND_OUTPUT_RECS:
-            case OUTPUT_RECS:
-                name = getFileName();
-                break;
-            default:
-                name = null;
+    }
+
+    /**
+     * Computes the fingerprint of the ratings in a DAO, used to identify the
+     * trained models in the cache.
+     *
+     * @param dao the DAO
+     * @return the fingerprint
+     */
+    private static ModelCache.Fingerprint fingerprint(final DataAccessObject dao) {
+        List<IdBox<Long2DoubleMap>> users = new ArrayList<>();
+        for (IdBox<Long2DoubleMap> u : new FrozenRatingVectorPDAO(dao).streamUsers()) {
+            users.add(u);
         }
-        boolean createFile = true;
-        for (IdBox<Long2DoubleMap> u : test.streamUsers()) {
-            long user = u.getId();
-            // The following does not return anything
-            // List<Long> recItems = irec.recommend(user, nItems);
-            //
-            List<RecommenderIO.Preference<Long, Long>> prefs = new ArrayList<>();
-            Map<Long, Double> results = iscore.score(user, items);
-            for (Long i : items) {
-//                Result r = iscore.score(user, i);
-//                if (r != null) {
-                if (results.containsKey(i)) {
-//                    Double s = r.getScore();
-                    Double s = results.get(i);
-                    prefs.add(new RecommenderIO.Preference<>(user, i, s));
-                }
+        Collections.sort(users, new Comparator<IdBox<Long2DoubleMap>>() {
+            @Override
+            public int compare(final IdBox<Long2DoubleMap> u1, final IdBox<Long2DoubleMap> u2) {
+                return Long.compare(u1.getId(), u2.getId());
+            }
+        });
+        ModelCache.Fingerprint f = new ModelCache.Fingerprint();
+        for (IdBox<Long2DoubleMap> u : users) {
+            long[] items = u.getValue().keySet().toLongArray();
+            Arrays.sort(items);
+            f.add(u.getId()).add((long) items.length);
+            for (long i : items) {
+                f.add(i).add(u.getValue().get(i));
             }
-            //
-            RecommenderIO.writeData(user, prefs, getPath(), name, !createFile, model);
-            createFile = false;
         }
-        rec.close();
-        return model;
+        return f;
     }
 }
@@ -53,7 +53,7 @@ public class DataDAOWrapper implements DataModel {
         super();
         try {
             // generate file based on the model
-            File path = File.createTempFile("librec", "datadao");
+            File path = File.createTempFile("librec", ".datadao");
             PrintStream out = new PrintStream(path);
             for (Long u : model.getUsers()) {
                 for (Long i : model.getUserItems(u)) {
@@ -72,7 +72,9 @@ public class DataDAOWrapper implements DataModel {
             out.close();
             // create the wrapper based on this file
             Configuration confTraining = new Configuration();
-            confTraining.set(Configured.CONF_DATA_INPUT_PATH, path.getAbsolutePath());
+            // the input path is relative to the data directory
+            confTraining.set(Configured.CONF_DFS_DATA_DIR, path.getAbsoluteFile().getParent());
+            confTraining.set(Configured.CONF_DATA_INPUT_PATH, path.getName());
             confTraining.set(Configured.CONF_DATA_COLUMN_FORMAT, "UIR");
             confTraining.set("data.model.splitter", "ratio");
             confTraining.set("data.splitter.trainset.ratio", "0.999");
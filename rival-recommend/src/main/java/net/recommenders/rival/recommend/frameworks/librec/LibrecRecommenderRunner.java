@@ -15,9 +15,11 @@
  */
 package net.recommenders.rival.recommend.frameworks.librec;
 
+import com.google.common.collect.BiMap;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -27,16 +29,18 @@ import net.librec.conf.Configuration;
 import net.librec.conf.Configured;
 import net.librec.data.DataModel;
 import net.librec.data.model.TextDataModel;
-import net.librec.filter.GenericRecommendedFilter;
+import net.librec.math.structure.SparseMatrix;
 import net.librec.recommender.Recommender;
 import net.librec.recommender.RecommenderContext;
 import net.librec.recommender.item.RecommendedItem;
 import net.librec.similarity.RecommenderSimilarity;
+import net.recommenders.rival.core.SplitBundle;
 import net.recommenders.rival.core.TemporalDataModel;
 import net.recommenders.rival.core.TemporalDataModelIF;
 import net.recommenders.rival.recommend.frameworks.AbstractRunner;
 import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
-import net.recommenders.rival.recommend.frameworks.RecommenderIO;
+import net.recommenders.rival.recommend.frameworks.RecommendationSink;
+import net.recommenders.rival.recommend.frameworks.RunnerStatistics;
 import net.recommenders.rival.recommend.frameworks.exceptions.RecommenderException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,36 +78,54 @@ public class LibrecRecommenderRunner extends AbstractRunner<Long, Long> {
     @Override
     @SuppressWarnings("unchecked")
     public TemporalDataModelIF<Long, Long> run(final RUN_OPTIONS opts) throws RecommenderException {
-        if (isAlreadyRecommended()) {
-            return null;
-        }
+        try {
+            if (isAlreadyRecommended()) {
+                return null;
+            }
+            getStatistics().startPhase(RunnerStatistics.LOAD);
 
-        File trainingFile = new File(getProperties().getProperty(RecommendationRunner.TRAINING_SET));
-        File testFile = new File(getProperties().getProperty(RecommendationRunner.TEST_SET));
+            SplitBundle bundle;
+            try {
+                bundle = loadSplitBundle();
+            } catch (IOException e) {
+                throw new RecommenderException("Split bundle cannot be read", e);
+            }
+            if (bundle != null) {
+                // LibRec only reads text data models: the bundle is dumped without parsing any input
+                return runLibrecRecommender(opts, new DataDAOWrapper(bundle.getTraining()), new DataDAOWrapper(bundle.getTest()));
+            }
+            File trainingFile = new File(getProperties().getProperty(RecommendationRunner.TRAINING_SET));
+            File testFile = new File(getProperties().getProperty(RecommendationRunner.TEST_SET));
 
-        try {
-            Configuration confTraining = new Configuration();
-            confTraining.set(Configured.CONF_DATA_INPUT_PATH, trainingFile.getAbsolutePath());
-            confTraining.set(Configured.CONF_DATA_COLUMN_FORMAT, "UIR");
-            confTraining.set("data.model.splitter", "ratio");
-            confTraining.set("data.splitter.trainset.ratio", "0.999");
-            confTraining.set("data.splitter.ratio", "rating");
-            DataModel training = new TextDataModel(confTraining);
-            training.buildDataModel();
+            try {
+                // input paths are relative to the data directory
+                Configuration confTraining = new Configuration();
+                confTraining.set(Configured.CONF_DFS_DATA_DIR, trainingFile.getAbsoluteFile().getParent());
+                confTraining.set(Configured.CONF_DATA_INPUT_PATH, trainingFile.getName());
+                confTraining.set(Configured.CONF_DATA_COLUMN_FORMAT, "UIR");
+                confTraining.set("data.model.splitter", "ratio");
+                confTraining.set("data.splitter.trainset.ratio", "0.999");
+                confTraining.set("data.splitter.ratio", "rating");
+                DataModel training = new TextDataModel(confTraining);
+                training.buildDataModel();
 
-            Configuration confTest = new Configuration();
-            confTest.set(Configured.CONF_DATA_INPUT_PATH, testFile.getAbsolutePath());
-            confTest.set(Configured.CONF_DATA_COLUMN_FORMAT, "UIR");
-            confTest.set("data.model.splitter", "ratio");
-            confTest.set("data.splitter.trainset.ratio", "0.999");
-            confTest.set("data.splitter.ratio", "rating");
-            DataModel test = new TextDataModel(confTest);
-            test.buildDataModel();
+                Configuration confTest = new Configuration();
+                confTest.set(Configured.CONF_DFS_DATA_DIR, testFile.getAbsoluteFile().getParent());
+                confTest.set(Configured.CONF_DATA_INPUT_PATH, testFile.getName());
+                confTest.set(Configured.CONF_DATA_COLUMN_FORMAT, "UIR");
+                confTest.set("data.model.splitter", "ratio");
+                confTest.set("data.splitter.trainset.ratio", "0.999");
+                confTest.set("data.splitter.ratio", "rating");
+                DataModel test = new TextDataModel(confTest);
+                test.buildDataModel();
 
-            return runLibrecRecommender(opts, training, test);
-        } catch (LibrecException e) {
-            e.printStackTrace();
-            throw new RecommenderException(e.getMessage());
+                return runLibrecRecommender(opts, training, test);
+            } catch (LibrecException e) {
+                e.printStackTrace();
+                throw new RecommenderException(e.getMessage());
+            }
+        } finally {
+            getStatistics().endPhase();
         }
     }
 
@@ -121,14 +143,19 @@ public class LibrecRecommenderRunner extends AbstractRunner<Long, Long> {
      */
     @Override
     public TemporalDataModelIF<Long, Long> run(RUN_OPTIONS opts, TemporalDataModelIF<Long, Long> trainingModel, TemporalDataModelIF<Long, Long> testModel) throws Exception {
-        if (isAlreadyRecommended()) {
-            return null;
-        }
-        // transform from core's DataModels to LibRec's DataModel
-        DataModel trainingModelLibrec = new DataDAOWrapper(trainingModel);
-        DataModel testModelLibrec = new DataDAOWrapper(testModel);
+        try {
+            if (isAlreadyRecommended()) {
+                return null;
+            }
+            getStatistics().startPhase(RunnerStatistics.LOAD);
+            // transform from core's DataModels to LibRec's DataModel
+            DataModel trainingModelLibrec = new DataDAOWrapper(trainingModel);
+            DataModel testModelLibrec = new DataDAOWrapper(testModel);
 
-        return runLibrecRecommender(opts, trainingModelLibrec, testModelLibrec);
+            return runLibrecRecommender(opts, trainingModelLibrec, testModelLibrec);
+        } finally {
+            getStatistics().endPhase();
+        }
     }
 
     /**
@@ -151,118 +178,194 @@ public class LibrecRecommenderRunner extends AbstractRunner<Long, Long> {
      */
     @SuppressWarnings("unchecked")
     public TemporalDataModelIF<Long, Long> runLibrecRecommender(final RUN_OPTIONS opts, final DataModel trainingModel, final DataModel testModel) throws RecommenderException {
-        if (isAlreadyRecommended()) {
-            return null;
-        }
-
-        Configuration conf = new Configuration();
-        RecommenderContext rc = new RecommenderContext(conf, trainingModel);
-
-        int nItems = trainingModel.getItemMappingData().size();
-        String recommenderProperty = getProperties().getProperty(RecommendationRunner.RECOMMENDER);
-        if (getProperties().containsKey(RecommendationRunner.NEIGHBORHOOD) && getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD).equals("-1")) {
-            getProperties().setProperty(RecommendationRunner.NEIGHBORHOOD, Math.round(Math.sqrt(nItems)) + "");
-        }
-        if (getProperties().containsKey(RecommendationRunner.FACTORS) && getProperties().getProperty(RecommendationRunner.FACTORS).equals("-1")) {
-            getProperties().setProperty(RecommendationRunner.FACTORS, Math.round(Math.sqrt(nItems)) + "");
-        }
-        if (getProperties().containsKey(RecommendationRunner.SIMILARITY)) {
-            String similarityType = getProperties().getProperty(RecommendationRunner.SIMILARITY);
-            Class<?> similarityClass = null;
-            try {
-                similarityClass = Class.forName(similarityType);
-                RecommenderSimilarity similarity = (RecommenderSimilarity) similarityClass.getConstructor().newInstance();
-                similarity.buildSimilarityMatrix(trainingModel);
-                rc.setSimilarity(similarity);
-            } catch (Exception e) {
-                e.printStackTrace();
+        try {
+            if (isAlreadyRecommended()) {
+                return null;
             }
-            conf.set("rec.neighbors.knn.number", getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD));
-        }
-        // TODO: more recs
+            getStatistics().startPhase(RunnerStatistics.TRAIN);
 
-        Recommender rec = null;
-        Class<?> recClass = null;
-        try {
-            recClass = Class.forName(recommenderProperty);
-            rec = (Recommender) recClass.getConstructor().newInstance();
-            rec.setContext(rc);
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RecommenderException("Could not create Similarity class " + e.getMessage());
-        }
+            Configuration conf = new Configuration();
+            RecommenderContext rc = new RecommenderContext(conf, trainingModel);
 
-        TemporalDataModelIF<Long, Long> model = null;
-        switch (opts) {
-            case RETURN_AND_OUTPUT_RECS:
-            case RETURN_RECS:
-                model = new TemporalDataModel<>();
-                break;
-            default:
-                model = null;
-        }
-        String name = null;
-        switch (opts) {
-            case RETURN_AND_OUTPUT_RECS:
-            case OUTPUT_RECS:
-                name = getFileName();
-                break;
-            default:
-                name = null;
-        }
+            int nItems = trainingModel.getItemMappingData().size();
+            // rank every item for every user (otherwise, only the ratings of LibRec's own test split are predicted)
+            conf.set("rec.recommender.isranking", "true");
+            conf.set("rec.recommender.ranking.topn", Math.max(1, nItems) + "");
+            String recommenderProperty = getProperties().getProperty(RecommendationRunner.RECOMMENDER);
+            if (getProperties().containsKey(RecommendationRunner.NEIGHBORHOOD) && getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD).equals("-1")) {
+                getProperties().setProperty(RecommendationRunner.NEIGHBORHOOD, Math.round(Math.sqrt(nItems)) + "");
+            }
+            if (getProperties().containsKey(RecommendationRunner.FACTORS) && getProperties().getProperty(RecommendationRunner.FACTORS).equals("-1")) {
+                getProperties().setProperty(RecommendationRunner.FACTORS, Math.round(Math.sqrt(nItems)) + "");
+            }
+            if (getProperties().containsKey(RecommendationRunner.SIMILARITY)) {
+                String similarityType = getProperties().getProperty(RecommendationRunner.SIMILARITY);
+                Class<?> similarityClass = null;
+                try {
+                    similarityClass = Class.forName(similarityType);
+                    RecommenderSimilarity similarity = (RecommenderSimilarity) similarityClass.getConstructor().newInstance();
+                    similarity.buildSimilarityMatrix(trainingModel);
+                    rc.setSimilarity(similarity);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                conf.set("rec.neighbors.knn.number", getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD));
+            }
+            // TODO: more recs
 
-        if (rec == null) {
-            return model;
-        } else {
+            Recommender rec = null;
+            Class<?> recClass = null;
             try {
-                // train the model
-                rec.recommend(rc);
+                recClass = Class.forName(recommenderProperty);
+                rec = (Recommender) recClass.getConstructor().newInstance();
+                rec.setContext(rc);
             } catch (Exception e) {
-                LOGGER.error(e.getMessage());
                 e.printStackTrace();
+                throw new RecommenderException("Could not create Similarity class " + e.getMessage());
             }
-        }
 
-        List<RecommendedItem> recommendedItemList = rec.getRecommendedList();
-        boolean createFile = true;
-        // rows: users
-        // columns: items
-        for (Map.Entry<String, Integer> e : testModel.getUserMappingData().entrySet()) {
-            Long user = Long.parseLong(e.getKey());
-            int u = e.getValue();
-            Set<String> notInTrainingItems = new HashSet<>();
-            for (Map.Entry<String, Integer> e2 : trainingModel.getItemMappingData().entrySet()) {
-                String item = e2.getKey();
-                int i = e2.getValue();
-                // ignore if item belongs to the training profile of user
-                if (notInTrainingItems.contains(item)) {
-                    continue;
-                }
-                if (!trainingModel.getDataSplitter().getTrainData().contains(u, i)) {
-                    notInTrainingItems.add(item);
+            TemporalDataModelIF<Long, Long> model = null;
+            switch (opts) {
+                case RETURN_AND_OUTPUT_RECS:
+                case RETURN_RECS:
+                    model = new TemporalDataModel<>();
+                    break;
+                default:
+                    model = null;
+            }
+            String name = null;
+            switch (opts) {
+                case RETURN_AND_OUTPUT_RECS:
+                case OUTPUT_RECS:
+                    name = getFileName();
+                    break;
+                default:
+                    name = null;
+            }
+
+            if (rec == null) {
+                return model;
+            } else {
+                try {
+                    // train the model
+                    rec.recommend(rc);
+                } catch (Exception e) {
+                    LOGGER.error(e.getMessage());
+                    e.printStackTrace();
                 }
             }
-            // 
-            List<String> userIdList = new ArrayList<>();
-            userIdList.add(e.getKey());
-            List<String> itemIdList = new ArrayList<>(notInTrainingItems);
-            // filter the recommended result
-            //   The GenericRecommendedFilter instance returns the recommendedList 
-            //   that contains the recommendedItem with only the specific userId or itemId
-            GenericRecommendedFilter filter = new GenericRecommendedFilter();
-            filter.setUserIdList(userIdList);
-            filter.setItemIdList(itemIdList);
-            List<RecommendedItem> recs = filter.filter(recommendedItemList);
 
-            // end of ranking creation
-            List<RecommenderIO.Preference<Long, Long>> prefs = new ArrayList<>();
-            for (RecommendedItem recommendedItem : recs) {
-                prefs.add(new RecommenderIO.Preference<>(user, Long.parseLong(recommendedItem.getItemId()), recommendedItem.getValue()));
+            getStatistics().startPhase(RunnerStatistics.RECOMMEND);
+            List<RecommendedItem> recommendedItemList = rec.getRecommendedList();
+            if (recommendedItemList == null) {
+                // LibRec returns null instead of an empty list
+                recommendedItemList = new ArrayList<>();
             }
-            //
-            RecommenderIO.writeData(user, prefs, getPath(), name, !createFile, model);
-            createFile = false;
+            RecommendationSink sink = createSink(name, model);
+            try {
+                // rows: users
+                // columns: items
+                BiMap<String, Integer> userMapping = trainingModel.getUserMappingData();
+                BiMap<String, Integer> itemMapping = trainingModel.getItemMappingData();
+                SparseMatrix trainData = trainingModel.getDataSplitter().getTrainData();
+                int nUsers = userMapping.size();
+                // item ids are parsed once, and kept as indices until writing
+                long[] itemIds = new long[nItems];
+                for (Map.Entry<Integer, String> e : itemMapping.inverse().entrySet()) {
+                    itemIds[e.getKey()] = Long.parseLong(e.getValue());
+                }
+                // group the recommended list by user in a single pass (counting sort)
+                int[] userOf = new int[recommendedItemList.size()];
+                int[] itemOf = new int[recommendedItemList.size()];
+                int[] start = new int[nUsers + 1];
+                for (int k = 0; k < userOf.length; k++) {
+                    RecommendedItem r = recommendedItemList.get(k);
+                    Integer u = userMapping.get(r.getUserId());
+                    Integer i = itemMapping.get(r.getItemId());
+                    userOf[k] = (u == null || i == null) ? -1 : u;
+                    itemOf[k] = (i == null) ? -1 : i;
+                    if (userOf[k] >= 0) {
+                        start[userOf[k] + 1]++;
+                    }
+                }
+                for (int u = 0; u < nUsers; u++) {
+                    start[u + 1] += start[u];
+                }
+                int[] groupedItems = new int[start[nUsers]];
+                double[] groupedScores = new double[start[nUsers]];
+                int[] next = Arrays.copyOf(start, nUsers);
+                for (int k = 0; k < userOf.length; k++) {
+                    if (userOf[k] >= 0) {
+                        groupedItems[next[userOf[k]]] = itemOf[k];
+                        groupedScores[next[userOf[k]]] = recommendedItemList.get(k).getValue();
+                        next[userOf[k]]++;
+                    }
+                }
+                // items in the training profile (or candidates) of the current user are marked with its stamp
+                int[] trainingMark = new int[nItems];
+                int[] candidateMark = new int[nItems];
+                int stamp = 0;
+                long[] recItems = new long[0];
+                double[] recScores = new double[0];
+                for (String userId : testModel.getUserMappingData().keySet()) {
+                    long userStart = System.nanoTime();
+                    long user = Long.parseLong(userId);
+                    Integer u = userMapping.get(userId);
+                    int n = 0;
+                    if (u != null) {
+                        stamp++;
+                        for (int p = trainData.rowPtr[u]; p < trainData.rowPtr[u + 1]; p++) {
+                            trainingMark[trainData.colInd[p]] = stamp;
+                        }
+                        boolean useCandidates = getCandidateItemsProvider() != null;
+                        if (useCandidates) {
+                            // LibRec computes the whole list during training, only the candidates are kept
+                            Set<Long> candidates = getCandidateItemsProvider().getCandidateItems(user);
+                            if (candidates != null) {
+                                for (Long candidate : candidates) {
+                                    Integer i = itemMapping.get(candidate.toString());
+                                    if (i != null) {
+                                        candidateMark[i] = stamp;
+                                    }
+                                }
+                            }
+                        }
+                        int size = start[u + 1] - start[u];
+                        if (size > recItems.length) {
+                            recItems = new long[size];
+                            recScores = new double[size];
+                        }
+                        for (int k = start[u]; k < start[u + 1]; k++) {
+                            int i = groupedItems[k];
+                            // ignore if item belongs to the training profile of user
+                            if (trainingMark[i] == stamp || (useCandidates && candidateMark[i] != stamp)) {
+                                continue;
+                            }
+                            recItems[n] = itemIds[i];
+                            recScores[n] = groupedScores[k];
+                            n++;
+                        }
+                    }
+                    getStatistics().recordUser(System.nanoTime() - userStart);
+                    try {
+                        sink.write(user, recItems, recScores, n);
+                    } catch (IOException ioe) {
+                        throw new RecommenderException("Recommendations could not be written", ioe);
+                    }
+                }
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    throw new RecommenderException("Recommendations could not be written", e);
+                }
+            } finally {
+                // a failed run keeps its partial output to be resumed
+                sink.abort();
+            }
+            writeStatistics(name, sink);
+            return model;
+        } finally {
+            getStatistics().endPhase();
         }
-        return model;
     }
 }
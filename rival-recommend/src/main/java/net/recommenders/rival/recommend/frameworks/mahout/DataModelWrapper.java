@@ -18,6 +18,7 @@ package net.recommenders.rival.recommend.frameworks.mahout;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import net.recommenders.rival.core.FrozenDataModel;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
@@ -25,6 +26,7 @@ import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
@@ -76,6 +78,42 @@ public class DataModelWrapper implements DataModel {
         wrapper = new GenericDataModel(userData, timestampData);
     }
 
+    /**
+     * Constructs the wrapper directly from the arrays of a frozen model (e.g.,
+     * loaded from a split bundle), without intermediate preference objects.
+     *
+     * @param model the model to be used to create the wrapped model
+     */
+    public DataModelWrapper(final FrozenDataModel model) {
+        long[] users = model.getUserIds();
+        long[] items = model.getItemIds();
+        int[] rows = model.getRowPointers();
+        int[] columns = model.getItemIndices();
+        double[] values = model.getValues();
+        int[] timePointers = model.getTimestampPointers();
+        long[] times = model.getTimestamps();
+        FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>(model.getNumUsers());
+        FastByIDMap<FastByIDMap<Long>> timestampData = new FastByIDMap<FastByIDMap<Long>>(model.getNumUsers());
+        for (int u = 0; u < users.length; u++) {
+            int n = rows[u + 1] - rows[u];
+            if (n == 0) {
+                continue;
+            }
+            PreferenceArray prefs = new GenericUserPreferenceArray(n);
+            prefs.setUserID(0, users[u]);
+            FastByIDMap<Long> userTimestamps = new FastByIDMap<Long>(n);
+            for (int p = rows[u], j = 0; p < rows[u + 1]; p++, j++) {
+                long item = items[columns[p]];
+                prefs.setItemID(j, item);
+                prefs.setValue(j, (float) values[p]);
+                userTimestamps.put(item, timePointers[p] < timePointers[p + 1] ? times[timePointers[p]] : -1L);
+            }
+            userData.put(users[u], prefs);
+            timestampData.put(users[u], userTimestamps);
+        }
+        wrapper = new GenericDataModel(userData, timestampData);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.mahout;
+
+import java.util.Arrays;
+import java.util.Collection;
+import net.recommenders.rival.core.FrozenDataModel;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * Mahout's DataModel implemented directly on a {@link FrozenDataModel},
+ * without copying its preferences: preferences of users and items are served
+ * as {@link FrozenPreferenceArray} views over the rows and the (lazily built)
+ * columns of the model. It behaves like a GenericDataModel with the same
+ * data: only users and items with preferences are listed, sorted by id, and
+ * values are returned as floats.
+ *
+ * The model is read-only.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class FrozenDataModelAdapter implements DataModel {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 220170911L;
+    /**
+     * The model.
+     */
+    private final FrozenDataModel model;
+    /**
+     * Ids of the users with preferences, sorted.
+     */
+    private final long[] userIDs;
+    /**
+     * Ids of the items with preferences, sorted.
+     */
+    private final long[] itemIDs;
+    /**
+     * Maximum preference value.
+     */
+    private final float maxPreference;
+    /**
+     * Minimum preference value.
+     */
+    private final float minPreference;
+
+    /**
+     * Constructor.
+     *
+     * @param theModel the model
+     */
+    public FrozenDataModelAdapter(final FrozenDataModel theModel) {
+        this.model = theModel;
+        int[] rows = model.getRowPointers();
+        long[] users = model.getUserIds();
+        long[] active = new long[users.length];
+        int nUsers = 0;
+        for (int u = 0; u < users.length; u++) {
+            if (rows[u + 1] > rows[u]) {
+                active[nUsers++] = users[u];
+            }
+        }
+        this.userIDs = Arrays.copyOf(active, nUsers);
+        long[] items = model.getItemIds();
+        boolean[] rated = new boolean[items.length];
+        float max = Float.NEGATIVE_INFINITY;
+        float min = Float.POSITIVE_INFINITY;
+        int[] indices = model.getItemIndices();
+        double[] values = model.getValues();
+        for (int p = 0; p < model.getNumPreferences(); p++) {
+            rated[indices[p]] = true;
+            max = Math.max(max, (float) values[p]);
+            min = Math.min(min, (float) values[p]);
+        }
+        long[] activeItems = new long[items.length];
+        int nItems = 0;
+        for (int i = 0; i < items.length; i++) {
+            if (rated[i]) {
+                activeItems[nItems++] = items[i];
+            }
+        }
+        this.itemIDs = Arrays.copyOf(activeItems, nItems);
+        this.maxPreference = max;
+        this.minPreference = min;
+    }
+
+    /**
+     * Gets the index of a user with preferences.
+     *
+     * @param userID the user
+     * @return the index
+     * @throws NoSuchUserException if the user has no preferences
+     */
+    private int userIndex(final long userID) throws NoSuchUserException {
+        int u = model.getUserIndex(userID);
+        if (u < 0 || model.getRowPointers()[u + 1] == model.getRowPointers()[u]) {
+            throw new NoSuchUserException(userID);
+        }
+        return u;
+    }
+
+    /**
+     * Gets the index of an item with preferences.
+     *
+     * @param itemID the item
+     * @return the index
+     * @throws NoSuchItemException if the item has no preferences
+     */
+    private int itemIndex(final long itemID) throws NoSuchItemException {
+        int i = model.getItemIndex(itemID);
+        if (i < 0 || model.getColumnPointers()[i + 1] == model.getColumnPointers()[i]) {
+            throw new NoSuchItemException(itemID);
+        }
+        return i;
+    }
+
+    /**
+     * Gets the position of a preference in the rows of the model.
+     *
+     * @param userID the user
+     * @param itemID the item
+     * @return the position, or a negative number if there is no preference
+     * @throws NoSuchUserException if the user has no preferences
+     */
+    private int position(final long userID, final long itemID) throws NoSuchUserException {
+        int u = userIndex(userID);
+        int i = model.getItemIndex(itemID);
+        if (i < 0) {
+            return -1;
+        }
+        return Arrays.binarySearch(model.getItemIndices(), model.getRowPointers()[u], model.getRowPointers()[u + 1], i);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public LongPrimitiveIterator getUserIDs() {
+        return new LongPrimitiveArrayIterator(userIDs);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PreferenceArray getPreferencesFromUser(final long userID) throws TasteException {
+        int u = userIndex(userID);
+        int[] rows = model.getRowPointers();
+        return new FrozenPreferenceArray(model, true, userID, rows[u], rows[u + 1] - rows[u]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FastIDSet getItemIDsFromUser(final long userID) throws TasteException {
+        int u = userIndex(userID);
+        int[] rows = model.getRowPointers();
+        FastIDSet items = new FastIDSet(rows[u + 1] - rows[u]);
+        for (int p = rows[u]; p < rows[u + 1]; p++) {
+            items.add(model.getItemIds()[model.getItemIndices()[p]]);
+        }
+        return items;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public LongPrimitiveIterator getItemIDs() {
+        return new LongPrimitiveArrayIterator(itemIDs);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PreferenceArray getPreferencesForItem(final long itemID) throws TasteException {
+        int i = itemIndex(itemID);
+        int[] columns = model.getColumnPointers();
+        return new FrozenPreferenceArray(model, false, itemID, columns[i], columns[i + 1] - columns[i]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Float getPreferenceValue(final long userID, final long itemID) throws TasteException {
+        int p = position(userID, itemID);
+        return p < 0 ? null : (float) model.getValues()[p];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Long getPreferenceTime(final long userID, final long itemID) throws TasteException {
+        int p = position(userID, itemID);
+        if (p < 0) {
+            return null;
+        }
+        int[] pointers = model.getTimestampPointers();
+        return pointers[p] < pointers[p + 1] ? model.getTimestamps()[pointers[p]] : -1L;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumItems() {
+        return itemIDs.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumUsers() {
+        return userIDs.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumUsersWithPreferenceFor(final long itemID) {
+        int i = model.getItemIndex(itemID);
+        if (i < 0) {
+            return 0;
+        }
+        return model.getColumnPointers()[i + 1] - model.getColumnPointers()[i];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumUsersWithPreferenceFor(final long itemID1, final long itemID2) {
+        int i1 = model.getItemIndex(itemID1);
+        int i2 = model.getItemIndex(itemID2);
+        if (i1 < 0 || i2 < 0) {
+            return 0;
+        }
+        // both columns are sorted by user
+        int[] columns = model.getColumnPointers();
+        int[] users = model.getColumnUserIndices();
+        int a = columns[i1];
+        int b = columns[i2];
+        int n = 0;
+        while (a < columns[i1 + 1] && b < columns[i2 + 1]) {
+            if (users[a] < users[b]) {
+                a++;
+            } else if (users[a] > users[b]) {
+                b++;
+            } else {
+                n++;
+                a++;
+                b++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Not supported: the model is read-only.
+     *
+     * @param userID the user
+     * @param itemID the item
+     * @param value the value
+     */
+    @Override
+    public void setPreference(final long userID, final long itemID, final float value) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported: the model is read-only.
+     *
+     * @param userID the user
+     * @param itemID the item
+     */
+    @Override
+    public void removePreference(final long userID, final long itemID) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasPreferenceValues() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public float getMaxPreference() {
+        return maxPreference;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public float getMinPreference() {
+        return minPreference;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void refresh(final Collection<Refreshable> alreadyRefreshed) {
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.mahout;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import net.recommenders.rival.core.FrozenDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * Read-only view of the preferences of a user (a row) or of an item (a
+ * column) of a {@link FrozenDataModel}, reading ids and values directly from
+ * its arrays. Rows are sorted by item and columns by user, as in Mahout's
+ * GenericDataModel.
+ *
+ * Methods that modify the array are not supported; {@link #clone()} returns
+ * a regular (modifiable) Mahout array.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class FrozenPreferenceArray implements PreferenceArray {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 220170911L;
+    /**
+     * The model.
+     */
+    private final FrozenDataModel model;
+    /**
+     * True if this is the row of a user, false for the column of an item.
+     */
+    private final boolean byUser;
+    /**
+     * Id of the user or item.
+     */
+    private final long id;
+    /**
+     * Position of the first preference in the rows (or columns).
+     */
+    private final int start;
+    /**
+     * Number of preferences.
+     */
+    private final int size;
+
+    /**
+     * Constructor.
+     *
+     * @param theModel the model
+     * @param isByUser true for the row of a user, false for the column of an
+     * item
+     * @param theId id of the user or item
+     * @param theStart position of the first preference in the rows (or
+     * columns)
+     * @param theSize number of preferences
+     */
+    FrozenPreferenceArray(final FrozenDataModel theModel, final boolean isByUser, final long theId, final int theStart, final int theSize) {
+        this.model = theModel;
+        this.byUser = isByUser;
+        this.id = theId;
+        this.start = theStart;
+        this.size = theSize;
+    }
+
+    /**
+     * Gets the position of a preference in the rows of the model.
+     *
+     * @param i position in this array
+     * @return position in the rows
+     */
+    private int position(final int i) {
+        if (i < 0 || i >= size) {
+            throw new ArrayIndexOutOfBoundsException(i);
+        }
+        return byUser ? start + i : model.getColumnPositions()[start + i];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int length() {
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Preference get(final int i) {
+        return new GenericPreference(getUserID(i), getItemID(i), getValue(i));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getUserID(final int i) {
+        position(i);
+        if (byUser) {
+            return id;
+        }
+        return model.getUserIds()[model.getColumnUserIndices()[start + i]];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getItemID(final int i) {
+        if (byUser) {
+            return model.getItemIds()[model.getItemIndices()[position(i)]];
+        }
+        position(i);
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public float getValue(final int i) {
+        return (float) model.getValues()[position(i)];
+    }
+
+    /**
+     * Gets the ids of the items (for a user) or the users (for an item).
+     * Since there is no internal array of ids, a new one is returned.
+     *
+     * @return the ids
+     */
+    @Override
+    public long[] getIDs() {
+        long[] ids = new long[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = byUser ? getItemID(i) : getUserID(i);
+        }
+        return ids;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasPrefWithUserID(final long userID) {
+        if (byUser) {
+            return size > 0 && userID == id;
+        }
+        int u = model.getUserIndex(userID);
+        return u >= 0 && Arrays.binarySearch(model.getColumnUserIndices(), start, start + size, u) >= 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasPrefWithItemID(final long itemID) {
+        if (!byUser) {
+            return size > 0 && itemID == id;
+        }
+        int i = model.getItemIndex(itemID);
+        return i >= 0 && Arrays.binarySearch(model.getItemIndices(), start, start + size, i) >= 0;
+    }
+
+    /**
+     * Returns a modifiable copy of the preferences.
+     *
+     * @return the copy
+     */
+    @Override
+    public PreferenceArray clone() {
+        PreferenceArray copy = byUser ? new GenericUserPreferenceArray(size) : new GenericItemPreferenceArray(size);
+        for (int i = 0; i < size; i++) {
+            copy.setUserID(i, getUserID(i));
+            copy.setItemID(i, getItemID(i));
+            copy.setValue(i, getValue(i));
+        }
+        return copy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Preference> iterator() {
+        return new Iterator<Preference>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Preference next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Not supported: the array is read-only.
+     *
+     * @param i position
+     * @param pref preference
+     */
+    @Override
+    public void set(final int i, final Preference pref) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported: the array is read-only.
+     *
+     * @param i position
+     * @param userID user id
+     */
+    @Override
+    public void setUserID(final int i, final long userID) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported: the array is read-only.
+     *
+     * @param i position
+     * @param itemID item id
+     */
+    @Override
+    public void setItemID(final int i, final long itemID) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported: the array is read-only.
+     *
+     * @param i position
+     * @param value value
+     */
+    @Override
+    public void setValue(final int i, final float value) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported: the array is read-only (rows are already sorted by item
+     * and columns by user).
+     */
+    @Override
+    public void sortByUser() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported: the array is read-only (rows are already sorted by item
+     * and columns by user).
+     */
+    @Override
+    public void sortByItem() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported: the array is read-only.
+     */
+    @Override
+    public void sortByValue() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Not supported: the array is read-only.
+     */
+    @Override
+    public void sortByValueReversed() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -21,6 +21,7 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
 import org.apache.mahout.cf.taste.impl.recommender.RandomRecommender;
 import org.apache.mahout.cf.taste.impl.recommender.svd.Factorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.PersistenceStrategy;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
 import org.apache.mahout.cf.taste.recommender.Recommender;
@@ -147,6 +148,35 @@ public final class GenericRecommenderBuilder implements RecommenderBuilder {
             final int iterations,
             final String facType)
             throws RecommenderException {
+        return buildRecommender(dataModel, recType, similarityType, neighborhoodSize, factors, iterations, facType, null);
+    }
+
+    /**
+     * General method to instantiate a Mahout recommender, where the
+     * factorization (if any) is stored using a persistence strategy: if the
+     * strategy already has a factorization, the factorizer is not run.
+     *
+     * @param dataModel the data model
+     * @param recType the type of the recommender (as Mahout class)
+     * @param similarityType the type of the similarity (as Mahout class), e.g.
+     * PearsonCorrelation
+     * @param neighborhoodSize the neighborhood size
+     * @param factors number of factors
+     * @param iterations number of iterations
+     * @param facType the factorizer (as Mahout class)
+     * @param persistence where the factorization is stored (may be null)
+     * @return the recommender
+     * @throws RecommenderException when there is a problem with instantiation
+     */
+    public Recommender buildRecommender(final DataModel dataModel,
+            final String recType,
+            final String similarityType,
+            final int neighborhoodSize,
+            final int factors,
+            final int iterations,
+            final String facType,
+            final PersistenceStrategy persistence)
+            throws RecommenderException {
         String neighborhoodType = "org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood";
         Object simObj = null;
         /**
@@ -184,7 +214,15 @@ public final class GenericRecommenderBuilder implements RecommenderBuilder {
          * Instantiate neighborhood class
          */
         Object neighObj = null;
-        if (neighborhoodSize != NO_N) {
+        if (neighborhoodSize != NO_N && simObj instanceof SharedCosineSimilarity) {
+            // sliced from the shared similarities, no need to compare with every user
+            try {
+                neighObj = ((SharedCosineSimilarity) simObj).getUserNeighborhood(neighborhoodSize);
+            } catch (TasteException e) {
+                e.printStackTrace();
+                throw new RecommenderException("Could not create Neighborhood class " + e.getMessage());
+            }
+        } else if (neighborhoodSize != NO_N) {
             Class<?> neighborhoodClass = null;
             try {
                 neighborhoodClass = Class.forName(neighborhoodType);
@@ -216,32 +254,7 @@ public final class GenericRecommenderBuilder implements RecommenderBuilder {
          * Instantiate factorizer class
          */
         if (facType != null) {
-            Class<?> factorizerClass = null;
-            try {
-                factorizerClass = Class.forName(facType);
-                simObj = factorizerClass.getConstructor(DataModel.class, int.class, int.class).newInstance(dataModel, factors, iterations);
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace();
-                throw new RecommenderException("Could not create Factorizer " + e.getMessage());
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-                throw new RecommenderException("Could not create Factorizer " + e.getMessage());
-            } catch (IllegalArgumentException e) {
-                e.printStackTrace();
-                throw new RecommenderException("Could not create Factorizer " + e.getMessage());
-            } catch (InstantiationException e) {
-                e.printStackTrace();
-                throw new RecommenderException("Could not create Factorizer " + e.getMessage());
-            } catch (InvocationTargetException e) {
-                e.printStackTrace();
-                throw new RecommenderException("Could not create Factorizer " + e.getMessage());
-            } catch (NoSuchMethodException e) {
-                e.printStackTrace();
-                throw new RecommenderException("Could not create Factorizer " + e.getMessage());
-            } catch (SecurityException e) {
-                e.printStackTrace();
-                throw new RecommenderException("Could not create Factorizer " + e.getMessage());
-            }
+            simObj = buildFactorizer(dataModel, facType, factors, iterations);
         }
         /**
          * Instantiate recommender class
@@ -254,7 +267,9 @@ public final class GenericRecommenderBuilder implements RecommenderBuilder {
         }
         final Object recObj;
         try {
-            if (facType != null) {
+            if (facType != null && persistence != null) {
+                recObj = recommenderClass.getConstructor(DataModel.class, Factorizer.class, PersistenceStrategy.class).newInstance(dataModel, (Factorizer) simObj, persistence);
+            } else if (facType != null) {
                 recObj = recommenderClass.getConstructor(DataModel.class, Factorizer.class).newInstance(dataModel, (Factorizer) simObj);
             } else if (recType.contains("UserBased")) {
                 // user-based similarity with neighborhood
@@ -280,4 +295,45 @@ public final class GenericRecommenderBuilder implements RecommenderBuilder {
         }
         return (Recommender) recObj;
     }
+
+    /**
+     * Instantiates a Mahout factorizer, e.g., to run it outside the
+     * recommender.
+     *
+     * @param dataModel the data model
+     * @param facType the factorizer (as Mahout class)
+     * @param factors number of factors
+     * @param iterations number of iterations
+     * @return the factorizer
+     * @throws RecommenderException when there is a problem with instantiation
+     */
+    public Factorizer buildFactorizer(final DataModel dataModel, final String facType, final int factors, final int iterations)
+            throws RecommenderException {
+        Class<?> factorizerClass = null;
+        try {
+            factorizerClass = Class.forName(facType);
+            return (Factorizer) factorizerClass.getConstructor(DataModel.class, int.class, int.class).newInstance(dataModel, factors, iterations);
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+            throw new RecommenderException("Could not create Factorizer " + e.getMessage());
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+            throw new RecommenderException("Could not create Factorizer " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            throw new RecommenderException("Could not create Factorizer " + e.getMessage());
+        } catch (InstantiationException e) {
+            e.printStackTrace();
+            throw new RecommenderException("Could not create Factorizer " + e.getMessage());
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+            throw new RecommenderException("Could not create Factorizer " + e.getMessage());
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+            throw new RecommenderException("Could not create Factorizer " + e.getMessage());
+        } catch (SecurityException e) {
+            e.printStackTrace();
+            throw new RecommenderException("Could not create Factorizer " + e.getMessage());
+        }
+    }
 }
@@ -16,21 +16,44 @@
 package net.recommenders.rival.recommend.frameworks.mahout;
 
 import net.recommenders.rival.recommend.frameworks.AbstractRunner;
+import net.recommenders.rival.recommend.frameworks.BatchFactorScorer;
+import net.recommenders.rival.recommend.frameworks.ModelCache;
 import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
+import net.recommenders.rival.recommend.frameworks.RecommendationSink;
 import net.recommenders.rival.recommend.frameworks.RecommenderIO;
+import net.recommenders.rival.recommend.frameworks.RunnerStatistics;
+import net.recommenders.rival.recommend.frameworks.UserPartitionExecutor;
 import net.recommenders.rival.recommend.frameworks.exceptions.RecommenderException;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.FilePersistenceStrategy;
+import org.apache.mahout.cf.taste.impl.recommender.svd.PersistenceStrategy;
+import org.apache.mahout.cf.taste.impl.recommender.svd.SVDRecommender;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import net.recommenders.rival.core.FrozenDataModel;
+import net.recommenders.rival.core.SplitBundle;
 import net.recommenders.rival.core.TemporalDataModel;
 import net.recommenders.rival.core.TemporalDataModelIF;
 
@@ -42,6 +65,11 @@ import net.recommenders.rival.core.TemporalDataModelIF;
  */
 public class MahoutRecommenderRunner extends AbstractRunner<Long, Long> {
 
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(MahoutRecommenderRunner.class);
+
     /**
      * Default neighborhood size.
      */
@@ -72,12 +100,21 @@ public class MahoutRecommenderRunner extends AbstractRunner<Long, Long> {
      */
     @Override
     public TemporalDataModelIF<Long, Long> run(final RUN_OPTIONS opts) throws RecommenderException, TasteException, IOException {
-        if (isAlreadyRecommended()) {
-            return null;
+        try {
+            if (isAlreadyRecommended()) {
+                return null;
+            }
+            getStatistics().startPhase(RunnerStatistics.LOAD);
+            SplitBundle bundle = loadSplitBundle();
+            if (bundle != null) {
+                return runMahoutRecommender(opts, new FrozenDataModelAdapter(bundle.getTraining()), new FrozenDataModelAdapter(bundle.getTest()));
+            }
+            DataModel trainingModel = new FileDataModel(new File(getProperties().getProperty(RecommendationRunner.TRAINING_SET)));
+            DataModel testModel = new FileDataModel(new File(getProperties().getProperty(RecommendationRunner.TEST_SET)));
+            return runMahoutRecommender(opts, trainingModel, testModel);
+        } finally {
+            getStatistics().endPhase();
         }
-        DataModel trainingModel = new FileDataModel(new File(getProperties().getProperty(RecommendationRunner.TRAINING_SET)));
-        DataModel testModel = new FileDataModel(new File(getProperties().getProperty(RecommendationRunner.TEST_SET)));
-        return runMahoutRecommender(opts, trainingModel, testModel);
     }
 
     /**
@@ -99,14 +136,32 @@ public class MahoutRecommenderRunner extends AbstractRunner<Long, Long> {
             final net.recommenders.rival.core.TemporalDataModelIF<Long, Long> trainingModel,
             final net.recommenders.rival.core.TemporalDataModelIF<Long, Long> testModel)
             throws RecommenderException, TasteException {
-        if (isAlreadyRecommended()) {
-            return null;
+        try {
+            if (isAlreadyRecommended()) {
+                return null;
+            }
+            getStatistics().startPhase(RunnerStatistics.LOAD);
+            // transform from core's DataModels to Mahout's DataModels (frozen models are not copied)
+            DataModel trainingModelMahout = toMahout(trainingModel);
+            DataModel testModelMahout = toMahout(testModel);
+
+            return runMahoutRecommender(opts, trainingModelMahout, testModelMahout);
+        } finally {
+            getStatistics().endPhase();
         }
-        // transform from core's DataModels to Mahout's DataModels
-        DataModel trainingModelMahout = new DataModelWrapper(trainingModel);
-        DataModel testModelMahout = new DataModelWrapper(testModel);
+    }
 
-        return runMahoutRecommender(opts, trainingModelMahout, testModelMahout);
+    /**
+     * Gets a Mahout data model with the data of a RiVal model.
+     *
+     * @param model the RiVal model
+     * @return the Mahout data model
+     */
+    private static DataModel toMahout(final net.recommenders.rival.core.TemporalDataModelIF<Long, Long> model) {
+        if (model instanceof FrozenDataModel) {
+            return new FrozenDataModelAdapter((FrozenDataModel) model);
+        }
+        return new DataModelWrapper(model);
     }
 
     /**
@@ -131,73 +186,342 @@ public class MahoutRecommenderRunner extends AbstractRunner<Long, Long> {
      */
     public TemporalDataModelIF<Long, Long> runMahoutRecommender(final RUN_OPTIONS opts, final DataModel trainingModel, final DataModel testModel)
             throws RecommenderException, TasteException {
-        if (isAlreadyRecommended()) {
-            return null;
-        }
-
-        GenericRecommenderBuilder grb = new GenericRecommenderBuilder();
-
-        if (getProperties().containsKey(RecommendationRunner.NEIGHBORHOOD) && getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD).equals("-1")) {
-            getProperties().setProperty(RecommendationRunner.NEIGHBORHOOD, Math.round(Math.sqrt(trainingModel.getNumItems())) + "");
-        }
-        if (getProperties().containsKey(RecommendationRunner.FACTORS) && getProperties().getProperty(RecommendationRunner.FACTORS).equals("-1")) {
-            getProperties().setProperty(RecommendationRunner.FACTORS, Math.round(Math.sqrt(trainingModel.getNumItems())) + "");
-        }
-
-        Recommender recommender = null;
-        if (getProperties().getProperty(RecommendationRunner.FACTORS) == null) {
-            recommender = grb.buildRecommender(
-                    trainingModel,
-                    getProperties().getProperty(RecommendationRunner.RECOMMENDER),
-                    getProperties().getProperty(RecommendationRunner.SIMILARITY),
-                    Integer.parseInt(getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD)));
-        }
-        if (getProperties().getProperty(RecommendationRunner.FACTORS) != null) {
-            recommender = grb.buildRecommender(
-                    trainingModel,
-                    getProperties().getProperty(RecommendationRunner.RECOMMENDER),
-                    getProperties().getProperty(RecommendationRunner.FACTORIZER),
-                    DEFAULT_ITERATIONS,
-                    Integer.parseInt(getProperties().getProperty(RecommendationRunner.FACTORS)));
-        }
-
-        LongPrimitiveIterator users = testModel.getUserIDs();
-
-        TemporalDataModelIF<Long, Long> model = null;
-        switch (opts) {
-            case RETURN_AND_OUTPUT_RECS:
-            case RETURN_RECS:
-                model = new TemporalDataModel<>();
-                break;
-            default:
-                model = null;
-        }
-        String name = null;
-        switch (opts) {
-            case RETURN_AND_OUTPUT_RECS:
-            case OUTPUT_RECS:
-                name = getFileName();
-                break;
-            default:
-                name = null;
-        }
-        boolean createFile = true;
-        while (users.hasNext()) {
-            long u = users.nextLong();
+        try {
+            if (isAlreadyRecommended()) {
+                return null;
+            }
+            getStatistics().startPhase(RunnerStatistics.TRAIN);
+
+            GenericRecommenderBuilder grb = new GenericRecommenderBuilder();
+
+            if (getProperties().containsKey(RecommendationRunner.NEIGHBORHOOD) && getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD).equals("-1")) {
+                getProperties().setProperty(RecommendationRunner.NEIGHBORHOOD, Math.round(Math.sqrt(trainingModel.getNumItems())) + "");
+            }
+            if (getProperties().containsKey(RecommendationRunner.FACTORS) && getProperties().getProperty(RecommendationRunner.FACTORS).equals("-1")) {
+                getProperties().setProperty(RecommendationRunner.FACTORS, Math.round(Math.sqrt(trainingModel.getNumItems())) + "");
+            }
+
+            Recommender recommender = null;
+            Factorization factorization = null;
+            if (getProperties().getProperty(RecommendationRunner.FACTORS) == null) {
+                recommender = grb.buildRecommender(
+                        trainingModel,
+                        getProperties().getProperty(RecommendationRunner.RECOMMENDER),
+                        getProperties().getProperty(RecommendationRunner.SIMILARITY),
+                        Integer.parseInt(getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD)));
+            }
+            if (getProperties().getProperty(RecommendationRunner.FACTORS) != null) {
+                // the factorization is the trained model, it is reused when cached
+                // the number of iterations is not configurable in Mahout's SVD
+                ModelCache cache = getModelCache(new ModelCache.Fingerprint()
+                        .add(RecommendationRunner.MAHOUT)
+                        .add(getProperties().getProperty(RecommendationRunner.RECOMMENDER))
+                        .add(getProperties().getProperty(RecommendationRunner.FACTORIZER))
+                        .add(Long.parseLong(getProperties().getProperty(RecommendationRunner.FACTORS)))
+                        .add((long) DEFAULT_ITERATIONS));
+                PersistenceStrategy persistence = null;
+                if (cache != null) {
+                    persistence = new CachePersistenceStrategy(cache.getFile(fingerprint(trainingModel), "mahout.svd"));
+                }
+                if (SVDRecommender.class.getName().equals(getProperties().getProperty(RecommendationRunner.RECOMMENDER))
+                        && getCandidateItemsProvider() == null) {
+                    // the scores are plain dot products of the factors, computed in blocks of users
+                    factorization = factorize(grb.buildFactorizer(
+                            trainingModel,
+                            getProperties().getProperty(RecommendationRunner.FACTORIZER),
+                            Integer.parseInt(getProperties().getProperty(RecommendationRunner.FACTORS)),
+                            DEFAULT_ITERATIONS), persistence);
+                } else {
+                    recommender = grb.buildRecommender(
+                            trainingModel,
+                            getProperties().getProperty(RecommendationRunner.RECOMMENDER),
+                            null,
+                            GenericRecommenderBuilder.NO_N,
+                            Integer.parseInt(getProperties().getProperty(RecommendationRunner.FACTORS)),
+                            DEFAULT_ITERATIONS,
+                            getProperties().getProperty(RecommendationRunner.FACTORIZER),
+                            persistence);
+                }
+            }
+
+            getStatistics().startPhase(RunnerStatistics.RECOMMEND);
+            LongPrimitiveIterator userIterator = testModel.getUserIDs();
+            final long[] users = new long[testModel.getNumUsers()];
+            int nUsers = 0;
+            while (userIterator.hasNext()) {
+                users[nUsers++] = userIterator.nextLong();
+            }
+            // Mahout already returns the users sorted, but the order of the output should not depend on it
+            Arrays.sort(users, 0, nUsers);
+
+            TemporalDataModelIF<Long, Long> model = null;
+            switch (opts) {
+                case RETURN_AND_OUTPUT_RECS:
+                case RETURN_RECS:
+                    model = new TemporalDataModel<>();
+                    break;
+                default:
+                    model = null;
+            }
+            String name = null;
+            switch (opts) {
+                case RETURN_AND_OUTPUT_RECS:
+                case OUTPUT_RECS:
+                    name = getFileName();
+                    break;
+                default:
+                    name = null;
+            }
+            final Recommender finalRecommender = recommender;
+            final int nItems = getRequestedItems(trainingModel.getNumItems(), model);
+            final RecommendationSink sink = createSink(name, model);
+            // candidates are requested in user order, before any parallel work
+            final Map<Long, Set<Long>> candidates = getCandidateItemsProvider() == null ? null : new HashMap<Long, Set<Long>>();
+            if (candidates != null) {
+                for (int k = 0; k < nUsers; k++) {
+                    candidates.put(users[k], getCandidateItemsProvider().getCandidateItems(users[k]));
+                }
+            }
+            try {
+                if (factorization != null) {
+                    batchRecommend(factorization, trainingModel, Arrays.copyOf(users, nUsers), Math.max(1, nItems), sink);
+                } else {
+                    UserPartitionExecutor.run(Arrays.copyOf(users, nUsers), getNumThreads(),
+                            getStatistics().timed(new UserPartitionExecutor.UserTask<List<RecommenderIO.Preference<Long, Long>>>() {
+                        @Override
+                        public List<RecommenderIO.Preference<Long, Long>> compute(final long u) {
+                            if (candidates != null) {
+                                return scoreCandidates(finalRecommender, u, candidates.get(u));
+                            }
+                            try {
+                                List<RecommendedItem> items = finalRecommender.recommend(u, nItems);
+                                //
+                                List<RecommenderIO.Preference<Long, Long>> prefs = new ArrayList<>();
+                                for (RecommendedItem i : items) {
+                                    prefs.add(new RecommenderIO.Preference<>(u, i.getItemID(), i.getValue()));
+                                }
+                                return prefs;
+                            } catch (TasteException e) {
+                                e.printStackTrace();
+                                return null;
+                            }
+                        }
+                    }), new UserPartitionExecutor.ResultSink<List<RecommenderIO.Preference<Long, Long>>>() {
+                        @Override
+                        public void consume(final long u, final List<RecommenderIO.Preference<Long, Long>> prefs) throws IOException {
+                            sink.write(u, prefs);
+                        }
+                    });
+                }
+                sink.close();
+            } catch (Exception e) {
+                throw new RecommenderException("Recommendations could not be generated", e);
+            } finally {
+                // a failed run keeps its partial output to be resumed
+                sink.abort();
+            }
+            writeStatistics(name, sink);
+            return model;
+        } finally {
+            getStatistics().endPhase();
+        }
+    }
+
+    /**
+     * Gets the factorization of a SVD recommender, as {@link SVDRecommender}
+     * does: from the persistence strategy if it has one, otherwise running
+     * the factorizer (and storing the result).
+     *
+     * @param factorizer the factorizer
+     * @param persistence where the factorization is stored (may be null)
+     * @return the factorization
+     * @throws TasteException when the factorization cannot be computed or
+     * loaded
+     */
+    private static Factorization factorize(final Factorizer factorizer, final PersistenceStrategy persistence) throws TasteException {
+        Factorization factorization = null;
+        try {
+            if (persistence != null) {
+                factorization = persistence.load();
+            }
+            if (factorization == null) {
+                factorization = factorizer.factorize();
+                if (persistence != null) {
+                    persistence.maybePersist(factorization);
+                }
+            }
+        } catch (IOException e) {
+            throw new TasteException("Error loading factorization", e);
+        }
+        return factorization;
+    }
+
+    /**
+     * Writes the recommendations of a SVD recommender with a
+     * {@link BatchFactorScorer}: the score of an item is the dot product of
+     * the factors of the user and the item (as in
+     * {@link SVDRecommender#estimatePreference(long, long)}), and every item
+     * not in the training data of the user is scored.
+     *
+     * @param factorization the factorization
+     * @param trainingModel the training data
+     * @param users the test users, in the order they are written
+     * @param nRecs number of items to recommend to each user
+     * @param sink the sink
+     * @throws Exception when the recommendations cannot be written
+     */
+    private void batchRecommend(final Factorization factorization, final DataModel trainingModel, final long[] users, final int nRecs, final RecommendationSink sink) throws Exception {
+        int k = factorization.numFeatures();
+        double[][] p = factorization.allUserFeatures();
+        double[][] q = factorization.allItemFeatures();
+        double[] userFactors = new double[p.length * k];
+        for (int u = 0; u < p.length; u++) {
+            System.arraycopy(p[u], 0, userFactors, u * k, k);
+        }
+        double[] itemFactors = new double[q.length * k];
+        for (int i = 0; i < q.length; i++) {
+            System.arraycopy(q[i], 0, itemFactors, i * k, k);
+        }
+        long[] userIds = new long[p.length];
+        for (Map.Entry<Long, Integer> e : factorization.getUserIDMappings()) {
+            userIds[e.getValue()] = e.getKey();
+        }
+        long[] itemIds = new long[q.length];
+        for (Map.Entry<Long, Integer> e : factorization.getItemIDMappings()) {
+            itemIds[e.getValue()] = e.getKey();
+        }
+        // the training items of each user (by row of the factors) are not recommended
+        int[] pointers = new int[p.length + 1];
+        for (int u = 0; u < p.length; u++) {
+            pointers[u + 1] = pointers[u] + trainingModel.getItemIDsFromUser(userIds[u]).size();
+        }
+        int[] excluded = new int[pointers[p.length]];
+        for (int u = 0; u < p.length; u++) {
+            int n = pointers[u];
+            LongPrimitiveIterator it = trainingModel.getItemIDsFromUser(userIds[u]).iterator();
+            while (it.hasNext()) {
+                excluded[n++] = factorization.itemIndex(it.nextLong());
+            }
+        }
+        int[] rows = new int[users.length];
+        for (int u = 0; u < users.length; u++) {
+            try {
+                rows[u] = factorization.userIndex(users[u]);
+            } catch (NoSuchUserException e) {
+                rows[u] = -1;
+            }
+        }
+        runFactorScorer(new BatchFactorScorer(k, userFactors, itemFactors, itemIds).setExcludedItems(pointers, excluded), users, rows, nRecs, sink);
+    }
+
+    /**
+     * Computes the fingerprint of a data model, used to identify the trained
+     * models in the cache.
+     *
+     * @param model the model
+     * @return the fingerprint
+     * @throws TasteException when the model cannot be read
+     */
+    private static ModelCache.Fingerprint fingerprint(final DataModel model) throws TasteException {
+        ModelCache.Fingerprint f = new ModelCache.Fingerprint();
+        long[] users = new long[model.getNumUsers()];
+        int n = 0;
+        LongPrimitiveIterator it = model.getUserIDs();
+        while (it.hasNext()) {
+            users[n++] = it.nextLong();
+        }
+        Arrays.sort(users, 0, n);
+        for (int k = 0; k < n; k++) {
+            PreferenceArray prefs = model.getPreferencesFromUser(users[k]);
+            long[] items = prefs.getIDs().clone();
+            Arrays.sort(items);
+            f.add(users[k]).add((long) items.length);
+            for (long i : items) {
+                Float v = model.getPreferenceValue(users[k], i);
+                f.add(i).add(v == null ? Double.NaN : v.doubleValue());
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Estimates the preference of a user for some candidate items.
+     *
+     * @param recommender the recommender
+     * @param u the user
+     * @param items the candidate items (those in the training data of the
+     * user are ignored)
+     * @return the scored items, sorted by decreasing score (ties by item id)
+     */
+    private static List<RecommenderIO.Preference<Long, Long>> scoreCandidates(final Recommender recommender, final long u, final Set<Long> items) {
+        List<RecommenderIO.Preference<Long, Long>> prefs = new ArrayList<>();
+        if (items == null) {
+            return prefs;
+        }
+        for (Long i : items) {
             try {
-                List<RecommendedItem> items = recommender.recommend(u, trainingModel.getNumItems());
-                //
-                List<RecommenderIO.Preference<Long, Long>> prefs = new ArrayList<>();
-                for (RecommendedItem i : items) {
-                    prefs.add(new RecommenderIO.Preference<>(u, i.getItemID(), i.getValue()));
+                // training items are excluded, as Recommender.recommend does
+                if (recommender.getDataModel().getPreferenceValue(u, i) != null) {
+                    continue;
+                }
+                float v = recommender.estimatePreference(u, i);
+                if (!Float.isNaN(v)) {
+                    prefs.add(new RecommenderIO.Preference<>(u, i, v));
                 }
-                //
-                RecommenderIO.writeData(u, prefs, getPath(), name, !createFile, model);
-                createFile = false;
+            } catch (NoSuchItemException e) {
+                // the item is not in the training data, it cannot be scored
             } catch (TasteException e) {
                 e.printStackTrace();
             }
         }
-        return model;
+        Collections.sort(prefs, new Comparator<RecommenderIO.Preference<Long, Long>>() {
+            @Override
+            public int compare(final RecommenderIO.Preference<Long, Long> p1, final RecommenderIO.Preference<Long, Long> p2) {
+                int c = Double.compare(p2.getScore(), p1.getScore());
+                return (c != 0) ? c : p1.getItem().compareTo(p2.getItem());
+            }
+        });
+        return prefs;
+    }
+
+    /**
+     * Stores the factorization in a file of the model cache, in the format of
+     * {@link FilePersistenceStrategy}, written with
+     * {@link ModelCache#write(File, ModelCache.ModelWriter)}.
+     */
+    private static final class CachePersistenceStrategy implements PersistenceStrategy {
+
+        /**
+         * The file of the factorization.
+         */
+        private final File file;
+
+        /**
+         * Constructor.
+         *
+         * @param cacheFile the file of the factorization
+         */
+        CachePersistenceStrategy(final File cacheFile) {
+            this.file = cacheFile;
+        }
+
+        @Override
+        public Factorization load() {
+            try {
+                return new FilePersistenceStrategy(file).load();
+            } catch (IOException e) {
+                LOGGER.warn("Cached model could not be loaded: " + file, e);
+                return null;
+            }
+        }
+
+        @Override
+        public void maybePersist(final Factorization factorization) {
+            try {
+                ModelCache.write(file, tmp -> new FilePersistenceStrategy(tmp).maybePersist(factorization));
+            } catch (IOException e) {
+                LOGGER.warn("Model could not be cached: " + e.getMessage());
+            }
+        }
     }
 }
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.mahout;
+
+import java.util.Collection;
+import net.recommenders.rival.recommend.frameworks.similarity.CsrMatrix;
+import net.recommenders.rival.recommend.frameworks.similarity.SimilarityEngine;
+import net.recommenders.rival.recommend.frameworks.similarity.SimilarityMatrix;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+/**
+ * Cosine similarity over the whole rating vectors of users or items, taken
+ * from the matrices shared by {@link SimilarityEngine}, so runs over the same
+ * training data (e.g., with different neighborhood sizes) compute the
+ * similarities only once.
+ *
+ * Only the top {@link SimilarityEngine#getMaxNeighbors(int)} neighbors of each
+ * user or item are kept, and the similarity with any other one is NaN: a
+ * user-based recommender with a neighborhood from
+ * {@link #getUserNeighborhood(int)} gets the exact similarities, whereas an
+ * item-based recommender only uses the most similar items of each item.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class SharedCosineSimilarity implements UserSimilarity, ItemSimilarity {
+
+    /**
+     * Asymmetry of the cosine (0.5 is the usual cosine).
+     */
+    private static final double ALPHA = 0.5;
+    /**
+     * The data model.
+     */
+    private final DataModel dataModel;
+    /**
+     * Ratings by user (null until needed).
+     */
+    private CsrMatrix userData;
+    /**
+     * Similarities between users (null until needed).
+     */
+    private SimilarityMatrix userMatrix;
+    /**
+     * Similarities between items (null until needed).
+     */
+    private SimilarityMatrix itemMatrix;
+
+    /**
+     * Default constructor.
+     *
+     * @param model the data model
+     */
+    public SharedCosineSimilarity(final DataModel model) {
+        this.dataModel = model;
+    }
+
+    /**
+     * Gets the ratings by user.
+     *
+     * @return the ratings
+     * @throws TasteException when the data model cannot be read
+     */
+    private synchronized CsrMatrix getUserData() throws TasteException {
+        if (userData == null) {
+            CsrMatrix.Builder builder = new CsrMatrix.Builder();
+            LongPrimitiveIterator users = dataModel.getUserIDs();
+            while (users.hasNext()) {
+                long u = users.nextLong();
+                PreferenceArray prefs = dataModel.getPreferencesFromUser(u);
+                for (int k = 0; k < prefs.length(); k++) {
+                    builder.add(u, prefs.getItemID(k), prefs.getValue(k));
+                }
+            }
+            userData = builder.build();
+        }
+        return userData;
+    }
+
+    /**
+     * Gets the similarities between users, with at least a number of
+     * neighbors.
+     *
+     * @param k the number of neighbors
+     * @return the similarities
+     * @throws TasteException when the data model cannot be read
+     */
+    private synchronized SimilarityMatrix getUserMatrix(final int k) throws TasteException {
+        if (userMatrix == null || userMatrix.getMaxNeighbors() < k) {
+            userMatrix = SimilarityEngine.cosine(getUserData(), ALPHA, k, getUserData().numColumns());
+        }
+        return userMatrix;
+    }
+
+    /**
+     * Gets the similarities between items.
+     *
+     * @return the similarities
+     * @throws TasteException when the data model cannot be read
+     */
+    private synchronized SimilarityMatrix getItemMatrix() throws TasteException {
+        if (itemMatrix == null) {
+            int nItems = getUserData().numColumns();
+            itemMatrix = SimilarityEngine.cosine(getUserData().transpose(), ALPHA, SimilarityEngine.getMaxNeighbors(nItems), nItems);
+        }
+        return itemMatrix;
+    }
+
+    /**
+     * Gets the similarity between two rows of a matrix.
+     *
+     * @param matrix the matrix
+     * @param id1 id of a row
+     * @param id2 id of another row
+     * @return the similarity, NaN if unknown
+     */
+    private static double similarity(final SimilarityMatrix matrix, final long id1, final long id2) {
+        int r1 = matrix.getData().getRowIndex(id1);
+        int r2 = matrix.getData().getRowIndex(id2);
+        if (r1 < 0 || r2 < 0) {
+            return Double.NaN;
+        }
+        return matrix.getSimilarity(r1, r2);
+    }
+
+    /**
+     * Gets a neighborhood with the most similar users, sliced from the shared
+     * similarities.
+     *
+     * @param n size of the neighborhood
+     * @return the neighborhood
+     * @throws TasteException when the data model cannot be read
+     */
+    public UserNeighborhood getUserNeighborhood(final int n) throws TasteException {
+        final SimilarityMatrix matrix = getUserMatrix(n);
+        return new UserNeighborhood() {
+            @Override
+            public long[] getUserNeighborhood(final long userID) {
+                int row = matrix.getData().getRowIndex(userID);
+                if (row < 0) {
+                    return new long[0];
+                }
+                long[] neighbors = new long[matrix.numNeighbors(row, n)];
+                for (int j = 0; j < neighbors.length; j++) {
+                    neighbors[j] = matrix.getData().getRowId(matrix.getNeighbor(row, j));
+                }
+                return neighbors;
+            }
+
+            @Override
+            public void refresh(final Collection<Refreshable> alreadyRefreshed) {
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double userSimilarity(final long userID1, final long userID2) throws TasteException {
+        return similarity(getUserMatrix(SimilarityEngine.getMaxNeighbors(getUserData().numColumns())), userID1, userID2);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double itemSimilarity(final long itemID1, final long itemID2) throws TasteException {
+        return similarity(getItemMatrix(), itemID1, itemID2);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double[] itemSimilarities(final long itemID1, final long[] itemID2s) throws TasteException {
+        double[] sims = new double[itemID2s.length];
+        for (int k = 0; k < itemID2s.length; k++) {
+            sims[k] = itemSimilarity(itemID1, itemID2s[k]);
+        }
+        return sims;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long[] allSimilarItemIDs(final long itemID) throws TasteException {
+        SimilarityMatrix matrix = getItemMatrix();
+        int row = matrix.getData().getRowIndex(itemID);
+        if (row < 0) {
+            return new long[0];
+        }
+        long[] items = new long[matrix.numNeighbors(row, matrix.getMaxNeighbors())];
+        for (int j = 0; j < items.length; j++) {
+            items[j] = matrix.getData().getRowId(matrix.getNeighbor(row, j));
+        }
+        return items;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setPreferenceInferrer(final PreferenceInferrer inferrer) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void refresh(final Collection<Refreshable> alreadyRefreshed) {
+    }
+}
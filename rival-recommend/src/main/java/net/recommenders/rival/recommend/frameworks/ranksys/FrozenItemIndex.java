@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.ranksys;
+
+import es.uam.eps.ir.ranksys.fast.index.FastItemIndex;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * RankSys' item index over the sorted item ids of a
+ * {@link net.recommenders.rival.core.FrozenDataModel}: the index of a item is
+ * its position in the array, so converting an index into an id is an array
+ * read and converting an id into an index is a binary search.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class FrozenItemIndex implements FastItemIndex<Long> {
+
+    /**
+     * Sorted ids of the items.
+     */
+    private final long[] ids;
+
+    /**
+     * Constructor.
+     *
+     * @param theIds sorted ids of the items (not copied)
+     */
+    public FrozenItemIndex(final long[] theIds) {
+        this.ids = theIds;
+    }
+
+    /**
+     * Gets the ids of the items.
+     *
+     * @return the ids, sorted
+     */
+    long[] getIds() {
+        return ids;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int item2iidx(final Long i) {
+        int idx = Arrays.binarySearch(ids, i);
+        return idx < 0 ? -1 : idx;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Long iidx2item(final int iidx) {
+        return ids[iidx];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsItem(final Long i) {
+        return Arrays.binarySearch(ids, i) >= 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int numItems() {
+        return ids.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Stream<Long> getAllItems() {
+        return LongStream.of(ids).boxed();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IntStream getAllIidx() {
+        return IntStream.range(0, ids.length);
+    }
+}
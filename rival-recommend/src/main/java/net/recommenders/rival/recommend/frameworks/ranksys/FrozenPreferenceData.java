@@ -0,0 +1,273 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.ranksys;
+
+import es.uam.eps.ir.ranksys.core.preference.IdPref;
+import es.uam.eps.ir.ranksys.fast.preference.IdxPref;
+import it.unimi.dsi.fastutil.doubles.AbstractDoubleIterator;
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.doubles.DoubleIterators;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntIterators;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import net.recommenders.rival.core.FrozenDataModel;
+import org.ranksys.fast.preference.FastPointWisePreferenceData;
+import org.ranksys.fast.preference.IteratorsAbstractFastPreferenceData;
+
+/**
+ * RankSys' preference data backed directly by the arrays of a
+ * {@link FrozenDataModel}: the user and item indices are the positions in the
+ * (shared, sorted) id arrays of the model, the preferences of a user are its
+ * row and the preferences of an item its (lazily built) column. Iterators of
+ * indices and values are primitive views over these arrays, and RankSys is
+ * told to use them preferentially; streams of preferences only create the
+ * {@link IdxPref} objects RankSys' API requires.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class FrozenPreferenceData extends IteratorsAbstractFastPreferenceData<Long, Long> implements FastPointWisePreferenceData<Long, Long> {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 230170911L;
+    /**
+     * The model.
+     */
+    private final FrozenDataModel model;
+    /**
+     * Number of users with preferences.
+     */
+    private final int numUsersWithPreferences;
+    /**
+     * Number of items with preferences.
+     */
+    private final int numItemsWithPreferences;
+
+    /**
+     * Constructor, using indices over the ids of the model.
+     *
+     * @param theModel the model
+     */
+    public FrozenPreferenceData(final FrozenDataModel theModel) {
+        this(theModel, new FrozenUserIndex(theModel.getUserIds()), new FrozenItemIndex(theModel.getItemIds()));
+    }
+
+    /**
+     * Constructor. The indices must be over the same ids as the model (e.g.,
+     * over the training model of a split bundle, whose id space is shared
+     * with the test model).
+     *
+     * @param theModel the model
+     * @param uIndex the user index
+     * @param iIndex the item index
+     */
+    public FrozenPreferenceData(final FrozenDataModel theModel, final FrozenUserIndex uIndex, final FrozenItemIndex iIndex) {
+        super(uIndex, iIndex);
+        if (!Arrays.equals(uIndex.getIds(), theModel.getUserIds()) || !Arrays.equals(iIndex.getIds(), theModel.getItemIds())) {
+            throw new IllegalArgumentException("Indices do not match the ids of the model");
+        }
+        this.model = theModel;
+        int[] rows = model.getRowPointers();
+        int nUsers = 0;
+        for (int u = 0; u < model.getUserIds().length; u++) {
+            if (rows[u + 1] > rows[u]) {
+                nUsers++;
+            }
+        }
+        this.numUsersWithPreferences = nUsers;
+        int[] columns = model.getColumnPointers();
+        int nItems = 0;
+        for (int i = 0; i < model.getItemIds().length; i++) {
+            if (columns[i + 1] > columns[i]) {
+                nItems++;
+            }
+        }
+        this.numItemsWithPreferences = nItems;
+    }
+
+    /**
+     * Gets the model.
+     *
+     * @return the model
+     */
+    public FrozenDataModel getModel() {
+        return model;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int numUsers(final int iidx) {
+        int[] columns = model.getColumnPointers();
+        return columns[iidx + 1] - columns[iidx];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int numItems(final int uidx) {
+        int[] rows = model.getRowPointers();
+        return rows[uidx + 1] - rows[uidx];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IntStream getUidxWithPreferences() {
+        int[] rows = model.getRowPointers();
+        return IntStream.range(0, model.getUserIds().length).filter(uidx -> rows[uidx + 1] > rows[uidx]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IntStream getIidxWithPreferences() {
+        int[] columns = model.getColumnPointers();
+        return IntStream.range(0, model.getItemIds().length).filter(iidx -> columns[iidx + 1] > columns[iidx]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Stream<IdxPref> getUidxPreferences(final int uidx) {
+        int[] rows = model.getRowPointers();
+        int[] indices = model.getItemIndices();
+        double[] values = model.getValues();
+        return IntStream.range(rows[uidx], rows[uidx + 1]).mapToObj(p -> new IdxPref(indices[p], values[p]));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Stream<IdxPref> getIidxPreferences(final int iidx) {
+        int[] columns = model.getColumnPointers();
+        int[] users = model.getColumnUserIndices();
+        int[] positions = model.getColumnPositions();
+        double[] values = model.getValues();
+        return IntStream.range(columns[iidx], columns[iidx + 1]).mapToObj(c -> new IdxPref(users[c], values[positions[c]]));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IntIterator getUidxIidxs(final int uidx) {
+        int[] rows = model.getRowPointers();
+        return IntIterators.wrap(model.getItemIndices(), rows[uidx], rows[uidx + 1] - rows[uidx]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DoubleIterator getUidxVs(final int uidx) {
+        int[] rows = model.getRowPointers();
+        return DoubleIterators.wrap(model.getValues(), rows[uidx], rows[uidx + 1] - rows[uidx]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IntIterator getIidxUidxs(final int iidx) {
+        int[] columns = model.getColumnPointers();
+        return IntIterators.wrap(model.getColumnUserIndices(), columns[iidx], columns[iidx + 1] - columns[iidx]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DoubleIterator getIidxVs(final int iidx) {
+        final int[] columns = model.getColumnPointers();
+        final int[] positions = model.getColumnPositions();
+        final double[] values = model.getValues();
+        return new AbstractDoubleIterator() {
+            private int c = columns[iidx];
+
+            @Override
+            public boolean hasNext() {
+                return c < columns[iidx + 1];
+            }
+
+            @Override
+            public double nextDouble() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return values[positions[c++]];
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int numPreferences() {
+        return model.getNumPreferences();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int numUsersWithPreferences() {
+        return numUsersWithPreferences;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int numItemsWithPreferences() {
+        return numItemsWithPreferences;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<IdxPref> getPreference(final int uidx, final int iidx) {
+        int[] rows = model.getRowPointers();
+        int p = Arrays.binarySearch(model.getItemIndices(), rows[uidx], rows[uidx + 1], iidx);
+        return p < 0 ? Optional.empty() : Optional.of(new IdxPref(iidx, model.getValues()[p]));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<IdPref<Long>> getPreference(final Long u, final Long i) {
+        int uidx = user2uidx(u);
+        int iidx = item2iidx(i);
+        if (uidx < 0 || iidx < 0) {
+            return Optional.empty();
+        }
+        return getPreference(uidx, iidx).map(uPrefFun);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.ranksys;
+
+import es.uam.eps.ir.ranksys.fast.index.FastUserIndex;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * RankSys' user index over the sorted user ids of a
+ * {@link net.recommenders.rival.core.FrozenDataModel}: the index of a user is
+ * its position in the array, so converting an index into an id is an array
+ * read and converting an id into an index is a binary search.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class FrozenUserIndex implements FastUserIndex<Long> {
+
+    /**
+     * Sorted ids of the users.
+     */
+    private final long[] ids;
+
+    /**
+     * Constructor.
+     *
+     * @param theIds sorted ids of the users (not copied)
+     */
+    public FrozenUserIndex(final long[] theIds) {
+        this.ids = theIds;
+    }
+
+    /**
+     * Gets the ids of the users.
+     *
+     * @return the ids, sorted
+     */
+    long[] getIds() {
+        return ids;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int user2uidx(final Long u) {
+        int idx = Arrays.binarySearch(ids, u);
+        return idx < 0 ? -1 : idx;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Long uidx2user(final int uidx) {
+        return ids[uidx];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsUser(final Long u) {
+        return Arrays.binarySearch(ids, u) >= 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int numUsers() {
+        return ids.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Stream<Long> getAllUsers() {
+        return LongStream.of(ids).boxed();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IntStream getAllUidx() {
+        return IntStream.range(0, ids.length);
+    }
+}
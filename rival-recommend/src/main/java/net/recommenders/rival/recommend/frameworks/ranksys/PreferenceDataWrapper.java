@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import net.recommenders.rival.core.FrozenDataModel;
 import net.recommenders.rival.core.TemporalDataModelIF;
 import org.jooq.lambda.tuple.Tuple3;
 
@@ -48,6 +49,30 @@ public class PreferenceDataWrapper implements FastPreferenceData<Long, Long> {
         wrapper = SimpleFastPreferenceData.load(tuples.stream(), uIndex, iIndex);
     }
 
+    /**
+     * Constructs the wrapper directly from the arrays of a frozen model (e.g.,
+     * loaded from a split bundle). See {@link FrozenPreferenceData} for
+     * preference data that does not copy the preferences of the model.
+     *
+     * @param data the model
+     * @param uIndex the user index
+     * @param iIndex the item index
+     */
+    public PreferenceDataWrapper(FrozenDataModel data, FastUserIndex<Long> uIndex, FastItemIndex<Long> iIndex) {
+        long[] users = data.getUserIds();
+        long[] items = data.getItemIds();
+        int[] rows = data.getRowPointers();
+        int[] columns = data.getItemIndices();
+        double[] values = data.getValues();
+        List<Tuple3<Long, Long, Double>> tuples = new ArrayList<>(data.getNumPreferences());
+        for (int u = 0; u < users.length; u++) {
+            for (int p = rows[u]; p < rows[u + 1]; p++) {
+                tuples.add(new Tuple3<>(users[u], items[columns[p]], values[p]));
+            }
+        }
+        wrapper = SimpleFastPreferenceData.load(tuples.stream(), uIndex, iIndex);
+    }
+
     @Override
     public int numUsers(int iidx) {
         return wrapper.numUsers(iidx);
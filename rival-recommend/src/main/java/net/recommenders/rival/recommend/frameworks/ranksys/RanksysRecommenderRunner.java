@@ -27,25 +27,50 @@ import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
 import es.uam.eps.ir.ranksys.fast.preference.SimpleFastPreferenceData;
 import es.uam.eps.ir.ranksys.mf.Factorization;
 import es.uam.eps.ir.ranksys.mf.Factorizer;
+import es.uam.eps.ir.ranksys.mf.rec.MFRecommender;
 import es.uam.eps.ir.ranksys.nn.item.neighborhood.ItemNeighborhood;
 import es.uam.eps.ir.ranksys.nn.item.neighborhood.TopKItemNeighborhood;
 import es.uam.eps.ir.ranksys.nn.item.sim.ItemSimilarity;
+import es.uam.eps.ir.ranksys.nn.item.sim.VectorCosineItemSimilarity;
 import es.uam.eps.ir.ranksys.nn.user.neighborhood.TopKUserNeighborhood;
 import es.uam.eps.ir.ranksys.nn.user.neighborhood.UserNeighborhood;
 import es.uam.eps.ir.ranksys.nn.user.sim.UserSimilarity;
+import es.uam.eps.ir.ranksys.nn.user.sim.VectorCosineUserSimilarity;
 import es.uam.eps.ir.ranksys.rec.Recommender;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import net.recommenders.rival.core.SplitBundle;
 import java.util.function.DoubleUnaryOperator;
 import net.recommenders.rival.core.TemporalDataModel;
 import net.recommenders.rival.core.TemporalDataModelIF;
 import net.recommenders.rival.recommend.frameworks.AbstractRunner;
+import net.recommenders.rival.recommend.frameworks.BatchFactorScorer;
+import net.recommenders.rival.recommend.frameworks.ModelCache;
 import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
+import net.recommenders.rival.recommend.frameworks.RecommendationSink;
 import net.recommenders.rival.recommend.frameworks.RecommenderIO;
+import net.recommenders.rival.recommend.frameworks.RunnerStatistics;
 import net.recommenders.rival.recommend.frameworks.exceptions.RecommenderException;
+import net.recommenders.rival.recommend.frameworks.similarity.CsrMatrix;
+import net.recommenders.rival.recommend.frameworks.similarity.SimilarityEngine;
+import net.recommenders.rival.recommend.frameworks.similarity.SimilarityMatrix;
 import org.ranksys.core.util.tuples.Tuple2od;
 import org.ranksys.formats.index.ItemsReader;
 import org.ranksys.formats.index.UsersReader;
@@ -59,6 +84,11 @@ import org.ranksys.formats.preference.SimpleRatingPreferencesReader;
  */
 public class RanksysRecommenderRunner extends AbstractRunner<Long, Long> {
 
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(RanksysRecommenderRunner.class);
+
     public static final double DEFAULT_ALPHA = 1.0;
     public static final double DEFAULT_LAMBDA = 0.1;
     public static final int DEFAULT_Q = 1;
@@ -74,38 +104,53 @@ public class RanksysRecommenderRunner extends AbstractRunner<Long, Long> {
 
     @Override
     public TemporalDataModelIF<Long, Long> run(final RUN_OPTIONS opts) throws RecommenderException, IOException {
-        if (isAlreadyRecommended()) {
-            return null;
-        }
+        try {
+            if (isAlreadyRecommended()) {
+                return null;
+            }
+            getStatistics().startPhase(RunnerStatistics.LOAD);
 
-        String trainDataPath = getProperties().getProperty(RecommendationRunner.TRAINING_SET);
-        String testDataPath = getProperties().getProperty(RecommendationRunner.TEST_SET);
-        String userPath = getProperties().getProperty(RecommendationRunner.USER_INDEX);
-        String itemPath = getProperties().getProperty(RecommendationRunner.ITEM_INDEX);
+            SplitBundle bundle = loadSplitBundle();
+            if (bundle != null) {
+                // the id space of the bundle is shared, so both models use the same indices
+                FrozenUserIndex userIndex = new FrozenUserIndex(bundle.getTraining().getUserIds());
+                FrozenItemIndex itemIndex = new FrozenItemIndex(bundle.getTraining().getItemIds());
+                FastPreferenceData<Long, Long> trainData = new FrozenPreferenceData(bundle.getTraining(), userIndex, itemIndex);
+                FastPreferenceData<Long, Long> testData = new FrozenPreferenceData(bundle.getTest(), userIndex, itemIndex);
+                return runRanksysRecommender(opts, userIndex, itemIndex, trainData, testData);
+            }
+
+            String trainDataPath = getProperties().getProperty(RecommendationRunner.TRAINING_SET);
+            String testDataPath = getProperties().getProperty(RecommendationRunner.TEST_SET);
+            String userPath = getProperties().getProperty(RecommendationRunner.USER_INDEX);
+            String itemPath = getProperties().getProperty(RecommendationRunner.ITEM_INDEX);
 		
-		PreferenceData<Long, Long> dataTotal = null;
-		if ((userPath == null) ||  (itemPath == null)){
-			PreferenceData<Long, Long> dataTrain = SimplePreferenceData.load(SimpleRatingPreferencesReader.get().read(trainDataPath, Parsers.lp, Parsers.lp));
-			PreferenceData<Long, Long> dataTest = SimplePreferenceData.load(SimpleRatingPreferencesReader.get().read(testDataPath, Parsers.lp, Parsers.lp));
-			dataTotal = new ConcatPreferenceData<>(dataTrain, dataTest);
-		}
-
-        FastUserIndex<Long> userIndex = null;
-		if (userPath != null){
-			userIndex = SimpleFastUserIndex.load(UsersReader.read(userPath, Parsers.lp));
-		}else{
-			userIndex = SimpleFastUserIndex.load(dataTotal.getAllUsers());
-		}
-        FastItemIndex<Long> itemIndex = null;
-		if (itemPath != null){
-			itemIndex = SimpleFastItemIndex.load(ItemsReader.read(itemPath, Parsers.lp));
-		}else{
-			itemIndex = SimpleFastItemIndex.load(dataTotal.getAllItems());
-		}
-        FastPreferenceData<Long, Long> trainData = SimpleFastPreferenceData.load(SimpleRatingPreferencesReader.get().read(trainDataPath, Parsers.lp, Parsers.lp), userIndex, itemIndex);
-        FastPreferenceData<Long, Long> testData = SimpleFastPreferenceData.load(SimpleRatingPreferencesReader.get().read(testDataPath, Parsers.lp, Parsers.lp), userIndex, itemIndex);
-
-        return runRanksysRecommender(opts, userIndex, itemIndex, trainData, testData);
+    		PreferenceData<Long, Long> dataTotal = null;
+    		if ((userPath == null) ||  (itemPath == null)){
+    			PreferenceData<Long, Long> dataTrain = SimplePreferenceData.load(SimpleRatingPreferencesReader.get().read(trainDataPath, Parsers.lp, Parsers.lp));
+    			PreferenceData<Long, Long> dataTest = SimplePreferenceData.load(SimpleRatingPreferencesReader.get().read(testDataPath, Parsers.lp, Parsers.lp));
+    			dataTotal = new ConcatPreferenceData<>(dataTrain, dataTest);
+    		}
+
+            FastUserIndex<Long> userIndex = null;
+    		if (userPath != null){
+    			userIndex = SimpleFastUserIndex.load(UsersReader.read(userPath, Parsers.lp));
+    		}else{
+    			userIndex = SimpleFastUserIndex.load(dataTotal.getAllUsers());
+    		}
+            FastItemIndex<Long> itemIndex = null;
+    		if (itemPath != null){
+    			itemIndex = SimpleFastItemIndex.load(ItemsReader.read(itemPath, Parsers.lp));
+    		}else{
+    			itemIndex = SimpleFastItemIndex.load(dataTotal.getAllItems());
+    		}
+            FastPreferenceData<Long, Long> trainData = SimpleFastPreferenceData.load(SimpleRatingPreferencesReader.get().read(trainDataPath, Parsers.lp, Parsers.lp), userIndex, itemIndex);
+            FastPreferenceData<Long, Long> testData = SimpleFastPreferenceData.load(SimpleRatingPreferencesReader.get().read(testDataPath, Parsers.lp, Parsers.lp), userIndex, itemIndex);
+
+            return runRanksysRecommender(opts, userIndex, itemIndex, trainData, testData);
+        } finally {
+            getStatistics().endPhase();
+        }
     }
 
     @Override
@@ -113,108 +158,369 @@ public class RanksysRecommenderRunner extends AbstractRunner<Long, Long> {
             final net.recommenders.rival.core.TemporalDataModelIF<Long, Long> trainingModel,
             final net.recommenders.rival.core.TemporalDataModelIF<Long, Long> testModel)
             throws RecommenderException {
-        if (isAlreadyRecommended()) {
-            return null;
-        }
-        // transform from core's DataModels to RankSys's PreferenceData
-        FastUserIndex<Long> userIndex = new UserIndexWrapper(trainingModel, testModel);
-        FastItemIndex<Long> itemIndex = new ItemIndexWrapper(trainingModel, testModel);
+        try {
+            if (isAlreadyRecommended()) {
+                return null;
+            }
+            getStatistics().startPhase(RunnerStatistics.LOAD);
+            // transform from core's DataModels to RankSys's PreferenceData
+            FastUserIndex<Long> userIndex = new UserIndexWrapper(trainingModel, testModel);
+            FastItemIndex<Long> itemIndex = new ItemIndexWrapper(trainingModel, testModel);
 
-        FastPreferenceData<Long, Long> trainingModelRanksys = new PreferenceDataWrapper(trainingModel, userIndex, itemIndex);
-        FastPreferenceData<Long, Long> testModelRanksys = new PreferenceDataWrapper(testModel, userIndex, itemIndex);
+            FastPreferenceData<Long, Long> trainingModelRanksys = new PreferenceDataWrapper(trainingModel, userIndex, itemIndex);
+            FastPreferenceData<Long, Long> testModelRanksys = new PreferenceDataWrapper(testModel, userIndex, itemIndex);
 
-        return runRanksysRecommender(opts, userIndex, itemIndex, trainingModelRanksys, testModelRanksys);
+            return runRanksysRecommender(opts, userIndex, itemIndex, trainingModelRanksys, testModelRanksys);
+        } finally {
+            getStatistics().endPhase();
+        }
     }
 
     public TemporalDataModelIF<Long, Long> runRanksysRecommender(final RUN_OPTIONS opts, final FastUserIndex<Long> userIndex, final FastItemIndex<Long> itemIndex, final FastPreferenceData<Long, Long> trainingModel, final FastPreferenceData<Long, Long> testModel)
             throws RecommenderException {
-        if (isAlreadyRecommended()) {
-            return null;
-        }
+        try {
+            if (isAlreadyRecommended()) {
+                return null;
+            }
+            getStatistics().startPhase(RunnerStatistics.TRAIN);
 
-        final int nItems = trainingModel.numItems();
+            final int nItems = trainingModel.numItems();
 
-        if (getProperties().containsKey(RecommendationRunner.NEIGHBORHOOD) && getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD).equals("-1")) {
-            getProperties().setProperty(RecommendationRunner.NEIGHBORHOOD, Math.round(Math.sqrt(nItems)) + "");
-        }
-        if (getProperties().containsKey(RecommendationRunner.FACTORS) && getProperties().getProperty(RecommendationRunner.FACTORS).equals("-1")) {
-            getProperties().setProperty(RecommendationRunner.FACTORS, Math.round(Math.sqrt(nItems)) + "");
-        }
+            if (getProperties().containsKey(RecommendationRunner.NEIGHBORHOOD) && getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD).equals("-1")) {
+                getProperties().setProperty(RecommendationRunner.NEIGHBORHOOD, Math.round(Math.sqrt(nItems)) + "");
+            }
+            if (getProperties().containsKey(RecommendationRunner.FACTORS) && getProperties().getProperty(RecommendationRunner.FACTORS).equals("-1")) {
+                getProperties().setProperty(RecommendationRunner.FACTORS, Math.round(Math.sqrt(nItems)) + "");
+            }
+
+            Recommender<Long, Long> rec = null;
+            // factorization of plain MF recommenders, scored in batches
+            Factorization<Long, Long> batchFactorization = null;
+            if (getProperties().getProperty(RecommendationRunner.FACTORS) == null) {
+                // knn, itempop, ...
+                Class<?> recClass = null;
+                try {
+                    recClass = Class.forName(getProperties().getProperty(RecommendationRunner.RECOMMENDER));
+                    if (recClass.getCanonicalName().contains("Neighborhood")) {
+                        if (recClass.getCanonicalName().contains("User")) {
+                            Class<?> sClass = Class.forName(getProperties().getProperty(RecommendationRunner.SIMILARITY));
+                            int k = Integer.parseInt(getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD));
+                            UserNeighborhood<Long> neigh;
+                            if (isSharedSimilarity() && sClass.equals(VectorCosineUserSimilarity.class)) {
+                                SimilarityMatrix matrix = SimilarityEngine.cosine(toCsr(trainingModel), DEFAULT_ALPHA, k, nItems);
+                                neigh = new UserNeighborhood<Long>(trainingModel, new SharedNeighborhood(matrix, k, trainingModel::uidx2user, trainingModel::user2uidx)) {
+                                };
+                            } else {
+                                UserSimilarity<Long> sim = (UserSimilarity<Long>) sClass.getConstructor(FastPreferenceData.class, double.class, boolean.class).newInstance(trainingModel, DEFAULT_ALPHA, true);
+                                neigh = new TopKUserNeighborhood<>(sim, k);
+                            }
+                            rec = (Recommender) recClass.getConstructor(FastPreferenceData.class, UserNeighborhood.class, int.class).newInstance(trainingModel, neigh, DEFAULT_Q);
+                        } else {
+                            Class<?> sClass = Class.forName(getProperties().getProperty(RecommendationRunner.SIMILARITY));
+                            int k = Integer.parseInt(getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD));
+                            ItemNeighborhood<Long> neigh;
+                            if (isSharedSimilarity() && sClass.equals(VectorCosineItemSimilarity.class)) {
+                                SimilarityMatrix matrix = SimilarityEngine.cosine(toCsr(trainingModel).transpose(), DEFAULT_ALPHA, k, nItems);
+                                neigh = new ItemNeighborhood<Long>(trainingModel, new SharedNeighborhood(matrix, k, trainingModel::iidx2item, trainingModel::item2iidx)) {
+                                };
+                            } else {
+                                ItemSimilarity<Long> sim = (ItemSimilarity<Long>) sClass.getConstructor(FastPreferenceData.class, double.class, boolean.class).newInstance(trainingModel, DEFAULT_ALPHA, true);
+                                neigh = new TopKItemNeighborhood<>(sim, k);
+                            }
+                            rec = (Recommender) recClass.getConstructor(FastPreferenceData.class, ItemNeighborhood.class, int.class).newInstance(trainingModel, neigh, DEFAULT_Q);
+                        }
+                    } else {
+                        rec = (Recommender) recClass.getConstructor(FastPreferenceData.class).newInstance(trainingModel);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            if (getProperties().getProperty(RecommendationRunner.FACTORS) != null) {
+                // mf
+                Class<?> mfClass = null;
+                try {
+                    mfClass = Class.forName(getProperties().getProperty(RecommendationRunner.RECOMMENDER));
+                    Class<?> fClass = Class.forName(getProperties().getProperty(RecommendationRunner.FACTORIZER));
+                    DoubleUnaryOperator confidence = x -> 1 + DEFAULT_ALPHA * x;
+                    int iterations = Integer.parseInt(getProperties().getProperty(RecommendationRunner.ITERATIONS, "" + DEFAULT_ITERATIONS));
+                    Factorizer<Long, Long> f = (Factorizer) fClass.getConstructor(double.class, DoubleUnaryOperator.class, int.class).newInstance(DEFAULT_LAMBDA, confidence, iterations);
+                    // the factorization is the trained model, it is reused when cached
+                    ModelCache cache = getModelCache(new ModelCache.Fingerprint()
+                            .add(RecommendationRunner.RANKSYS)
+                            .add(fClass.getName())
+                            .add(Long.parseLong(getProperties().getProperty(RecommendationRunner.FACTORS)))
+                            .add((long) iterations)
+                            .add(DEFAULT_LAMBDA)
+                            .add(DEFAULT_ALPHA));
+                    File factorizationFile = (cache == null) ? null : cache.getFile(fingerprint(trainingModel), "ranksys.mf");
+                    Factorization<Long, Long> factorizer = null;
+                    if (factorizationFile != null && factorizationFile.exists()) {
+                        factorizer = loadFactorization(factorizationFile, userIndex, itemIndex);
+                    }
+                    if (factorizer == null) {
+                        factorizer = f.factorize(Integer.parseInt(getProperties().getProperty(RecommendationRunner.FACTORS)), trainingModel);
+                        if (factorizationFile != null) {
+                            saveFactorization(factorizer, factorizationFile);
+                        }
+                    }
+                    rec = (Recommender) mfClass.getConstructor(FastUserIndex.class, FastItemIndex.class, Factorization.class).newInstance(userIndex, itemIndex, factorizer);
+                    if (mfClass.equals(MFRecommender.class)) {
+                        batchFactorization = factorizer;
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
 
-        Recommender<Long, Long> rec = null;
-        if (getProperties().getProperty(RecommendationRunner.FACTORS) == null) {
-            // knn, itempop, ...
-            Class<?> recClass = null;
+            getStatistics().startPhase(RunnerStatistics.RECOMMEND);
+            TemporalDataModelIF<Long, Long> m = null;
+            switch (opts) {
+                case RETURN_AND_OUTPUT_RECS:
+                case RETURN_RECS:
+                    m = new TemporalDataModel<>();
+                    break;
+                default:
+                    m = null;
+            }
+            String n = null;
+            switch (opts) {
+                case RETURN_AND_OUTPUT_RECS:
+                case OUTPUT_RECS:
+                    n = getFileName();
+                    break;
+                default:
+                    n = null;
+            }
+            final Recommender<Long, Long> recommender = rec;
+            final int nRecs = getRequestedItems(nItems, m);
+            final RecommendationSink sink = createSink(n, m);
+            if (batchFactorization != null && getCandidateItemsProvider() == null) {
+                try {
+                    batchRecommend(batchFactorization, userIndex, itemIndex, testModel, nRecs, sink);
+                    sink.close();
+                } catch (Exception e) {
+                    throw new RecommenderException("Recommendations could not be written", e);
+                } finally {
+                    // a failed run keeps its partial output to be resumed
+                    sink.abort();
+                }
+                writeStatistics(n, sink);
+                return m;
+            }
             try {
-                recClass = Class.forName(getProperties().getProperty(RecommendationRunner.RECOMMENDER));
-                if (recClass.getCanonicalName().contains("Neighborhood")) {
-                    if (recClass.getCanonicalName().contains("User")) {
-                        Class<?> sClass = Class.forName(getProperties().getProperty(RecommendationRunner.SIMILARITY));
-                        UserSimilarity<Long> sim = (UserSimilarity<Long>) sClass.getConstructor(FastPreferenceData.class, double.class, boolean.class).newInstance(trainingModel, DEFAULT_ALPHA, true);
-                        UserNeighborhood<Long> neigh = new TopKUserNeighborhood<>(sim, Integer.parseInt(getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD)));
-                        rec = (Recommender) recClass.getConstructor(FastPreferenceData.class, UserNeighborhood.class, int.class).newInstance(trainingModel, neigh, DEFAULT_Q);
+                final IOException[] error = new IOException[1];
+                testModel.getUsersWithPreferences().forEach(u -> {
+                    if (error[0] != null) {
+                        return;
+                    }
+                    long start = System.nanoTime();
+                    Recommendation<Long, Long> items;
+                    if (getCandidateItemsProvider() == null) {
+                        items = recommender.getRecommendation(u, nRecs);
                     } else {
-                        Class<?> sClass = Class.forName(getProperties().getProperty(RecommendationRunner.SIMILARITY));
-                        ItemSimilarity<Long> sim = (ItemSimilarity<Long>) sClass.getConstructor(FastPreferenceData.class, double.class, boolean.class).newInstance(trainingModel, DEFAULT_ALPHA, true);
-                        ItemNeighborhood<Long> neigh = new TopKItemNeighborhood<>(sim, Integer.parseInt(getProperties().getProperty(RecommendationRunner.NEIGHBORHOOD)));
-                        rec = (Recommender) recClass.getConstructor(FastPreferenceData.class, ItemNeighborhood.class, int.class).newInstance(trainingModel, neigh, DEFAULT_Q);
+                        Set<Long> candidates = getCandidateItemsProvider().getCandidateItems(u);
+                        Stream<Long> toScore = (candidates == null) ? Stream.empty() : candidates.stream().filter(itemIndex::containsItem);
+                        items = recommender.getRecommendation(u, toScore);
                     }
-                } else {
-                    rec = (Recommender) recClass.getConstructor(FastPreferenceData.class).newInstance(trainingModel);
+                    //
+                    List<RecommenderIO.Preference<Long, Long>> prefs = new ArrayList<>();
+                    for (Tuple2od<Long> i : items.getItems()) {
+                        prefs.add(new RecommenderIO.Preference<>(u, i.v1, i.v2));
+                    }
+                    getStatistics().recordUser(System.nanoTime() - start);
+                    //
+                    try {
+                        sink.write(u, prefs);
+                    } catch (IOException e) {
+                        error[0] = e;
+                    }
+                }
+                );
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    error[0] = (error[0] == null) ? e : error[0];
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
+                if (error[0] != null) {
+                    throw new RecommenderException("Recommendations could not be written", error[0]);
+                }
+            } finally {
+                // a failed run keeps its partial output to be resumed
+                sink.abort();
             }
+            writeStatistics(n, sink);
+            return m;
+        } finally {
+            getStatistics().endPhase();
         }
-        if (getProperties().getProperty(RecommendationRunner.FACTORS) != null) {
-            // mf
-            Class<?> mfClass = null;
-            try {
-                mfClass = Class.forName(getProperties().getProperty(RecommendationRunner.RECOMMENDER));
-                Class<?> fClass = Class.forName(getProperties().getProperty(RecommendationRunner.FACTORIZER));
-                DoubleUnaryOperator confidence = x -> 1 + DEFAULT_ALPHA * x;
-                Factorizer<Long, Long> f = (Factorizer) fClass.getConstructor(double.class, DoubleUnaryOperator.class, int.class).newInstance(DEFAULT_LAMBDA, confidence, Integer.parseInt(getProperties().getProperty(RecommendationRunner.ITERATIONS), DEFAULT_ITERATIONS));
-                Factorization<Long, Long> factorizer = f.factorize(Integer.parseInt(getProperties().getProperty(RecommendationRunner.FACTORS)), trainingModel);
-                rec = (Recommender) mfClass.getConstructor(FastUserIndex.class, FastItemIndex.class, Factorization.class).newInstance(userIndex, itemIndex, factorizer);
-            } catch (Exception e) {
-                e.printStackTrace();
+    }
+
+    /**
+     * Writes the recommendations of a plain matrix factorization recommender
+     * with a {@link BatchFactorScorer}: every item is scored, as in
+     * {@link MFRecommender}, and the users are the test users.
+     *
+     * @param factorization the factorization
+     * @param userIndex the index of the users
+     * @param itemIndex the index of the items
+     * @param testModel the test data
+     * @param nRecs number of items to recommend to each user
+     * @param sink the sink
+     * @throws Exception when the recommendations cannot be written
+     */
+    private void batchRecommend(final Factorization<Long, Long> factorization, final FastUserIndex<Long> userIndex, final FastItemIndex<Long> itemIndex, final FastPreferenceData<Long, Long> testModel, final int nRecs, final RecommendationSink sink) throws Exception {
+        int k = factorization.getK();
+        DenseDoubleMatrix2D p = factorization.getUserMatrix();
+        DenseDoubleMatrix2D q = factorization.getItemMatrix();
+        double[] userFactors = new double[p.rows() * k];
+        for (int u = 0; u < p.rows(); u++) {
+            for (int f = 0; f < k; f++) {
+                userFactors[u * k + f] = p.getQuick(u, f);
             }
         }
+        double[] itemFactors = new double[q.rows() * k];
+        long[] itemIds = new long[q.rows()];
+        for (int i = 0; i < q.rows(); i++) {
+            itemIds[i] = itemIndex.iidx2item(i);
+            for (int f = 0; f < k; f++) {
+                itemFactors[i * k + f] = q.getQuick(i, f);
+            }
+        }
+        long[] users = testModel.getUsersWithPreferences().mapToLong(Long::longValue).toArray();
+        int[] rows = new int[users.length];
+        for (int u = 0; u < users.length; u++) {
+            rows[u] = userIndex.containsUser(users[u]) ? userIndex.user2uidx(users[u]) : -1;
+        }
+        runFactorScorer(new BatchFactorScorer(k, userFactors, itemFactors, itemIds), users, rows, Math.max(1, nRecs), sink);
+    }
 
-        TemporalDataModelIF<Long, Long> m = null;
-        switch (opts) {
-            case RETURN_AND_OUTPUT_RECS:
-            case RETURN_RECS:
-                m = new TemporalDataModel<>();
-                break;
-            default:
-                m = null;
+    /**
+     * Gets the preferences as a sparse matrix of users by items.
+     *
+     * @param data the preferences
+     * @return the matrix
+     */
+    private static CsrMatrix toCsr(final FastPreferenceData<Long, Long> data) {
+        CsrMatrix.Builder builder = new CsrMatrix.Builder();
+        data.getUidxWithPreferences().forEach(uidx -> {
+            long u = data.uidx2user(uidx);
+            IntIterator iidxs = data.getUidxIidxs(uidx);
+            DoubleIterator vs = data.getUidxVs(uidx);
+            while (iidxs.hasNext()) {
+                builder.add(u, data.iidx2item(iidxs.nextInt()), vs.nextDouble());
+            }
+        });
+        return builder.build();
+    }
+
+    /**
+     * Computes the fingerprint of the preferences, used to identify the
+     * trained models in the cache.
+     *
+     * @param data the preferences
+     * @return the fingerprint
+     */
+    private static ModelCache.Fingerprint fingerprint(final FastPreferenceData<Long, Long> data) {
+        long[] users = data.getUidxWithPreferences().mapToLong(data::uidx2user).sorted().toArray();
+        ModelCache.Fingerprint f = new ModelCache.Fingerprint();
+        for (long u : users) {
+            int uidx = data.user2uidx(u);
+            int n = data.numItems(uidx);
+            long[] items = new long[n];
+            double[] values = new double[n];
+            IntIterator iidxs = data.getUidxIidxs(uidx);
+            DoubleIterator vs = data.getUidxVs(uidx);
+            for (int k = 0; k < n; k++) {
+                items[k] = data.iidx2item(iidxs.nextInt());
+                values[k] = vs.nextDouble();
+            }
+            Integer[] order = new Integer[n];
+            for (int k = 0; k < n; k++) {
+                order[k] = k;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(items[a], items[b]));
+            f.add(u).add((long) n);
+            for (int k : order) {
+                f.add(items[k]).add(values[k]);
+            }
         }
-        String n = null;
-        switch (opts) {
-            case RETURN_AND_OUTPUT_RECS:
-            case OUTPUT_RECS:
-                n = getFileName();
-                break;
-            default:
-                n = null;
+        return f;
+    }
+
+    /**
+     * Saves a factorization, together with the ids of its rows, so it can be
+     * loaded with different indices.
+     *
+     * @param factorization the factorization
+     * @param file the file
+     */
+    private static void saveFactorization(final Factorization<Long, Long> factorization, final File file) {
+        try {
+            ModelCache.write(file, tmp -> {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                    int k = factorization.getK();
+                    out.writeInt(k);
+                    out.writeInt(factorization.numUsers());
+                    for (int uidx = 0; uidx < factorization.numUsers(); uidx++) {
+                        out.writeLong(factorization.uidx2user(uidx));
+                        for (int j = 0; j < k; j++) {
+                            out.writeDouble(factorization.getUserMatrix().getQuick(uidx, j));
+                        }
+                    }
+                    out.writeInt(factorization.numItems());
+                    for (int iidx = 0; iidx < factorization.numItems(); iidx++) {
+                        out.writeLong(factorization.iidx2item(iidx));
+                        for (int j = 0; j < k; j++) {
+                            out.writeDouble(factorization.getItemMatrix().getQuick(iidx, j));
+                        }
+                    }
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warn("Model could not be cached: " + e.getMessage());
         }
-        final AtomicBoolean createFile = new AtomicBoolean(true);
-        final Recommender<Long, Long> recommender = rec;
-        final String name = n;
-        final TemporalDataModelIF<Long, Long> model = m;
-        testModel.getUsersWithPreferences().forEach(u -> {
-            Recommendation<Long, Long> items = recommender.getRecommendation(u, nItems);
-            //
-            List<RecommenderIO.Preference<Long, Long>> prefs = new ArrayList<>();
-            for (Tuple2od<Long> i : items.getItems()) {
-                prefs.add(new RecommenderIO.Preference<>(u, i.v1, i.v2));
-            }
-            //
-            RecommenderIO.writeData(u, prefs, getPath(), name, !createFile.get(), model);
-            createFile.set(false);
+    }
+
+    /**
+     * Loads a factorization saved by
+     * {@link #saveFactorization(es.uam.eps.ir.ranksys.mf.Factorization, java.io.File)}.
+     * Users and items not in the indices are ignored.
+     *
+     * @param file the file
+     * @param userIndex the user index
+     * @param itemIndex the item index
+     * @return the factorization, or null if it cannot be read
+     */
+    private static Factorization<Long, Long> loadFactorization(final File file, final FastUserIndex<Long> userIndex, final FastItemIndex<Long> itemIndex) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int k = in.readInt();
+            DenseDoubleMatrix2D userMatrix = new DenseDoubleMatrix2D(userIndex.numUsers(), k);
+            int nUsers = in.readInt();
+            for (int r = 0; r < nUsers; r++) {
+                int uidx = userIndex.user2uidx(in.readLong());
+                for (int j = 0; j < k; j++) {
+                    double v = in.readDouble();
+                    if (uidx >= 0) {
+                        userMatrix.setQuick(uidx, j, v);
+                    }
+                }
+            }
+            DenseDoubleMatrix2D itemMatrix = new DenseDoubleMatrix2D(itemIndex.numItems(), k);
+            int nItems = in.readInt();
+            for (int r = 0; r < nItems; r++) {
+                int iidx = itemIndex.item2iidx(in.readLong());
+                for (int j = 0; j < k; j++) {
+                    double v = in.readDouble();
+                    if (iidx >= 0) {
+                        itemMatrix.setQuick(iidx, j, v);
+                    }
+                }
+            }
+            return new Factorization<>(userIndex, itemIndex, userMatrix, itemMatrix, k);
+        } catch (IOException e) {
+            LOGGER.warn("Cached model could not be loaded: " + file, e);
+            return null;
         }
-        );
-        return model;
     }
 }
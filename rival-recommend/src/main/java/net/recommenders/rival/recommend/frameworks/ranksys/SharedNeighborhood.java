@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.ranksys;
+
+import es.uam.eps.ir.ranksys.nn.neighborhood.Neighborhood;
+import java.util.function.IntToLongFunction;
+import java.util.function.LongToIntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import net.recommenders.rival.recommend.frameworks.similarity.SimilarityMatrix;
+import org.ranksys.core.util.tuples.Tuple2id;
+
+/**
+ * RankSys neighborhood with the top neighbors of a shared
+ * {@link SimilarityMatrix}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class SharedNeighborhood implements Neighborhood {
+
+    /**
+     * The similarities.
+     */
+    private final SimilarityMatrix matrix;
+    /**
+     * Size of the neighborhood.
+     */
+    private final int size;
+    /**
+     * Maps RankSys indices to ids.
+     */
+    private final IntToLongFunction idx2id;
+    /**
+     * Maps ids to RankSys indices.
+     */
+    private final LongToIntFunction id2idx;
+
+    /**
+     * Constructor.
+     *
+     * @param theMatrix the similarities, with at least n neighbors per row
+     * @param n size of the neighborhood
+     * @param theIdx2id maps RankSys indices (of users or items) to ids
+     * @param theId2idx maps ids to RankSys indices
+     */
+    public SharedNeighborhood(final SimilarityMatrix theMatrix, final int n, final IntToLongFunction theIdx2id, final LongToIntFunction theId2idx) {
+        this.matrix = theMatrix;
+        this.size = n;
+        this.idx2id = theIdx2id;
+        this.id2idx = theId2idx;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Stream<Tuple2id> getNeighbors(final int idx) {
+        final int row = matrix.getData().getRowIndex(idx2id.applyAsLong(idx));
+        if (row < 0) {
+            return Stream.empty();
+        }
+        return IntStream.range(0, matrix.numNeighbors(row, size))
+                .mapToObj(j -> new Tuple2id(id2idx.applyAsInt(matrix.getData().getRowId(matrix.getNeighbor(row, j))), matrix.getNeighborSimilarity(row, j)));
+    }
+}
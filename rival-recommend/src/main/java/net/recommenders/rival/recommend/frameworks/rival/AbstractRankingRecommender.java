@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.rival;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import net.recommenders.rival.core.FrozenDataModel;
+
+/**
+ * A non-personalized recommender: the items with training preferences are
+ * ranked once, when the recommender is trained, and every user walks the
+ * same ranking.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public abstract class AbstractRankingRecommender implements RivalRecommender {
+
+    /**
+     * Items in decreasing order of score (ties by index).
+     */
+    private int[] ranking;
+    /**
+     * Scores of the items in the ranking.
+     */
+    private double[] rankingScores;
+
+    /**
+     * Computes the score of each item.
+     *
+     * @param training the training data
+     * @param properties the properties of the run
+     * @return the scores, indexed by item (only items with preferences are
+     * ranked)
+     */
+    protected abstract double[] itemScores(FrozenDataModel training, Properties properties);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void train(final FrozenDataModel training, final Properties properties, final int nThreads) {
+        final double[] scores = itemScores(training, properties);
+        int[] columns = training.getColumnPointers();
+        int nItems = training.getItemIds().length;
+        Integer[] items = new Integer[nItems];
+        int n = 0;
+        for (int i = 0; i < nItems; i++) {
+            if (columns[i + 1] > columns[i]) {
+                items[n++] = i;
+            }
+        }
+        Arrays.sort(items, 0, n, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer i1, final Integer i2) {
+                int c = Double.compare(scores[i2], scores[i1]);
+                return (c != 0) ? c : Integer.compare(i1, i2);
+            }
+        });
+        ranking = new int[n];
+        rankingScores = new double[n];
+        for (int k = 0; k < n; k++) {
+            ranking[k] = items[k];
+            rankingScores[k] = scores[items[k]];
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRanked() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void score(final int user, final long userId, final ScoreConsumer consumer) {
+        for (int k = 0; k < ranking.length; k++) {
+            if (!consumer.accept(ranking[k], rankingScores[k])) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.rival;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import net.recommenders.rival.core.FrozenDataModel;
+import net.recommenders.rival.recommend.frameworks.AbstractRunner;
+import net.recommenders.rival.recommend.frameworks.ModelCache;
+import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
+import net.recommenders.rival.recommend.frameworks.UserPartitionExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Matrix factorization for implicit feedback trained with alternating least
+ * squares, as in Hu, Koren and Volinsky (ICDM 2008): every preference is a
+ * positive observation with confidence 1 + alpha * value, and every other
+ * user-item pair a negative observation with confidence 1.
+ *
+ * Factors are stored row by row in contiguous arrays. In each iteration the
+ * users (and then the items) are solved in parallel: the Gram matrix of the
+ * fixed factors is computed once, so each row only adds the terms of its own
+ * preferences before a Cholesky solve. The number of factors and iterations
+ * are given by {@link RecommendationRunner#FACTORS} and
+ * {@link RecommendationRunner#ITERATIONS}, the regularization and the weight
+ * of the preferences by {@link #LAMBDA} and {@link #ALPHA}; when
+ * {@link RecommendationRunner#MODEL_CACHE} is given, the factors are saved
+ * and reused by later runs on the same training data.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class ImplicitALSRecommender implements RivalRecommender {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImplicitALSRecommender.class);
+
+    /**
+     * The property key for the regularization ({@link #DEFAULT_LAMBDA} if
+     * not specified).
+     */
+    public static final String LAMBDA = "als.lambda";
+    /**
+     * The property key for the weight of the preferences in the confidence
+     * ({@link #DEFAULT_ALPHA} if not specified).
+     */
+    public static final String ALPHA = "als.alpha";
+    /**
+     * Default regularization.
+     */
+    public static final double DEFAULT_LAMBDA = 0.1;
+    /**
+     * Default weight of the preferences in the confidence.
+     */
+    public static final double DEFAULT_ALPHA = 1.0;
+    /**
+     * Seed of the initial factors.
+     */
+    private static final long SEED = 20170101L;
+    /**
+     * Number of factors.
+     */
+    private int k;
+    /**
+     * Regularization.
+     */
+    private double lambda;
+    /**
+     * Weight of the preferences in the confidence.
+     */
+    private double alpha;
+    /**
+     * Factors of the users (row by row).
+     */
+    private double[] userFactors;
+    /**
+     * Factors of the items (row by row).
+     */
+    private double[] itemFactors;
+    /**
+     * Items with training preferences, the only ones scored.
+     */
+    private int[] catalog;
+
+    /**
+     * Gets the number of factors.
+     *
+     * @return the number of factors
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Gets the factors of the users, row by row.
+     *
+     * @return the factors
+     */
+    public double[] getUserFactors() {
+        return userFactors;
+    }
+
+    /**
+     * Gets the factors of the items, row by row.
+     *
+     * @return the factors
+     */
+    public double[] getItemFactors() {
+        return itemFactors;
+    }
+
+    /**
+     * Gets the items with training preferences, the only ones scored.
+     *
+     * @return the indices of the items
+     */
+    public int[] getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void train(final FrozenDataModel training, final Properties properties, final int nThreads) throws Exception {
+        int nUsers = training.getUserIds().length;
+        int nItems = training.getItemIds().length;
+        String factors = properties.getProperty(RecommendationRunner.FACTORS, "-1");
+        k = "-1".equals(factors) ? (int) Math.round(Math.sqrt(nItems)) : Integer.parseInt(factors);
+        int iterations = Integer.parseInt(properties.getProperty(RecommendationRunner.ITERATIONS, "" + AbstractRunner.DEFAULT_ITERATIONS));
+        lambda = Double.parseDouble(properties.getProperty(LAMBDA, "" + DEFAULT_LAMBDA));
+        alpha = Double.parseDouble(properties.getProperty(ALPHA, "" + DEFAULT_ALPHA));
+        int[] columns = training.getColumnPointers();
+        int[] items = new int[nItems];
+        int n = 0;
+        for (int i = 0; i < nItems; i++) {
+            if (columns[i + 1] > columns[i]) {
+                items[n++] = i;
+            }
+        }
+        catalog = Arrays.copyOf(items, n);
+
+        File file = null;
+        String cacheDir = properties.getProperty(RecommendationRunner.MODEL_CACHE);
+        if (cacheDir != null) {
+            ModelCache.Fingerprint parameters = new ModelCache.Fingerprint()
+                    .add(RecommendationRunner.RIVAL)
+                    .add(ImplicitALSRecommender.class.getName())
+                    .add((long) k)
+                    .add((long) iterations)
+                    .add(lambda)
+                    .add(alpha);
+            file = new ModelCache(new File(cacheDir), parameters).getFile(RivalRecommenderRunner.fingerprint(training), "rival.als");
+            if (file.exists() && load(file, training)) {
+                return;
+            }
+        }
+        userFactors = new double[nUsers * k];
+        itemFactors = new double[nItems * k];
+        Random rnd = new Random(SEED);
+        for (int i : catalog) {
+            for (int f = 0; f < k; f++) {
+                itemFactors[i * k + f] = rnd.nextGaussian() * 0.1;
+            }
+        }
+        // rows of the users and columns of the items, as (index, value) lists
+        final int[] rows = training.getRowPointers();
+        final int[] rowItems = training.getItemIndices();
+        final double[] values = training.getValues();
+        final int[] columnUsers = training.getColumnUserIndices();
+        final int[] positions = training.getColumnPositions();
+        final double[] columnValues = new double[positions.length];
+        for (int c = 0; c < positions.length; c++) {
+            columnValues[c] = values[positions[c]];
+        }
+        for (int it = 0; it < iterations; it++) {
+            solve(userFactors, itemFactors, rows, rowItems, values, nThreads);
+            solve(itemFactors, userFactors, columns, columnUsers, columnValues, nThreads);
+        }
+        if (file != null) {
+            save(file, training);
+        }
+    }
+
+    /**
+     * Solves the factors of one side (users or items) with the factors of
+     * the other side fixed.
+     *
+     * @param target factors being solved
+     * @param fixed factors of the other side
+     * @param pointers position of the first preference of each row
+     * @param indices index (in the other side) of each preference
+     * @param values value of each preference
+     * @param nThreads number of threads
+     * @throws Exception when the factors cannot be computed
+     */
+    private void solve(final double[] target, final double[] fixed, final int[] pointers, final int[] indices, final double[] values, final int nThreads) throws Exception {
+        final int nFixed = fixed.length / k;
+        final double[] gram = new double[k * k];
+        for (int r = 0; r < nFixed; r++) {
+            int o = r * k;
+            for (int a = 0; a < k; a++) {
+                double v = fixed[o + a];
+                if (v == 0.0) {
+                    continue;
+                }
+                for (int b = a; b < k; b++) {
+                    gram[a * k + b] += v * fixed[o + b];
+                }
+            }
+        }
+        for (int a = 0; a < k; a++) {
+            for (int b = 0; b < a; b++) {
+                gram[a * k + b] = gram[b * k + a];
+            }
+        }
+        final ThreadLocal<double[][]> buffers = new ThreadLocal<double[][]>() {
+            @Override
+            protected double[][] initialValue() {
+                return new double[][]{new double[k * k], new double[k]};
+            }
+        };
+        int nRows = pointers.length - 1;
+        long[] rows = new long[nRows];
+        for (int r = 0; r < nRows; r++) {
+            rows[r] = r;
+        }
+        UserPartitionExecutor.run(rows, nThreads, new UserPartitionExecutor.UserTask<Void>() {
+            @Override
+            public Void compute(final long row) {
+                double[][] b = buffers.get();
+                solveRow((int) row, target, fixed, gram, pointers, indices, values, b[0], b[1]);
+                return null;
+            }
+        }, new UserPartitionExecutor.ResultSink<Void>() {
+            @Override
+            public void consume(final long row, final Void result) {
+            }
+        });
+    }
+
+    /**
+     * Solves the factors of a row: (G + Y^t (C - I) Y + lambda I) x = Y^t C p,
+     * where G = Y^t Y is the Gram matrix of the fixed factors.
+     *
+     * @param row the row
+     * @param target factors being solved
+     * @param fixed factors of the other side
+     * @param gram Gram matrix of the fixed factors
+     * @param pointers position of the first preference of each row
+     * @param indices index (in the other side) of each preference
+     * @param values value of each preference
+     * @param a buffer for the matrix of the system
+     * @param x buffer for the right-hand side, and then the solution
+     */
+    private void solveRow(final int row, final double[] target, final double[] fixed, final double[] gram,
+            final int[] pointers, final int[] indices, final double[] values, final double[] a, final double[] x) {
+        int o = row * k;
+        if (pointers[row + 1] == pointers[row]) {
+            Arrays.fill(target, o, o + k, 0.0);
+            return;
+        }
+        System.arraycopy(gram, 0, a, 0, k * k);
+        Arrays.fill(x, 0.0);
+        for (int f = 0; f < k; f++) {
+            a[f * k + f] += lambda;
+        }
+        for (int p = pointers[row]; p < pointers[row + 1]; p++) {
+            int y = indices[p] * k;
+            double c = 1.0 + alpha * values[p];
+            for (int f = 0; f < k; f++) {
+                double cv = (c - 1.0) * fixed[y + f];
+                for (int g = f; g < k; g++) {
+                    a[f * k + g] += cv * fixed[y + g];
+                }
+                x[f] += c * fixed[y + f];
+            }
+        }
+        // only the upper triangle was updated
+        for (int f = 0; f < k; f++) {
+            for (int g = 0; g < f; g++) {
+                a[f * k + g] = a[g * k + f];
+            }
+        }
+        cholesky(a, x, k);
+        System.arraycopy(x, 0, target, o, k);
+    }
+
+    /**
+     * Solves a symmetric positive definite system in place with a Cholesky
+     * decomposition.
+     *
+     * @param a the matrix (overwritten by its decomposition)
+     * @param x the right-hand side (overwritten by the solution)
+     * @param n size of the system
+     */
+    static void cholesky(final double[] a, final double[] x, final int n) {
+        for (int j = 0; j < n; j++) {
+            double d = a[j * n + j];
+            for (int l = 0; l < j; l++) {
+                d -= a[j * n + l] * a[j * n + l];
+            }
+            d = Math.sqrt(Math.max(d, Double.MIN_NORMAL));
+            a[j * n + j] = d;
+            for (int i = j + 1; i < n; i++) {
+                double s = a[i * n + j];
+                for (int l = 0; l < j; l++) {
+                    s -= a[i * n + l] * a[j * n + l];
+                }
+                a[i * n + j] = s / d;
+            }
+        }
+        // L y = x
+        for (int i = 0; i < n; i++) {
+            double s = x[i];
+            for (int l = 0; l < i; l++) {
+                s -= a[i * n + l] * x[l];
+            }
+            x[i] = s / a[i * n + i];
+        }
+        // L^t z = y
+        for (int i = n - 1; i >= 0; i--) {
+            double s = x[i];
+            for (int l = i + 1; l < n; l++) {
+                s -= a[l * n + i] * x[l];
+            }
+            x[i] = s / a[i * n + i];
+        }
+    }
+
+    /**
+     * Saves the factors, together with the ids of their rows, so they can be
+     * loaded by runs whose id spaces differ (e.g., with other test sets).
+     *
+     * @param file the file
+     * @param training the training data
+     */
+    private void save(final File file, final FrozenDataModel training) {
+        try {
+            ModelCache.write(file, tmp -> {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                    out.writeInt(k);
+                    write(out, training.getUserIds(), userFactors);
+                    write(out, training.getItemIds(), itemFactors);
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warn("Model could not be cached: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the factors of one side.
+     *
+     * @param out the output
+     * @param ids ids of the rows
+     * @param factors the factors
+     * @throws IOException when the factors cannot be written
+     */
+    private void write(final DataOutputStream out, final long[] ids, final double[] factors) throws IOException {
+        out.writeInt(ids.length);
+        for (int r = 0; r < ids.length; r++) {
+            out.writeLong(ids[r]);
+            for (int f = 0; f < k; f++) {
+                out.writeDouble(factors[r * k + f]);
+            }
+        }
+    }
+
+    /**
+     * Loads the factors saved by {@link #save(java.io.File, net.recommenders.rival.core.FrozenDataModel)}.
+     * Rows whose ids are not in the training data are ignored.
+     *
+     * @param file the file
+     * @param training the training data
+     * @return true if the factors could be loaded
+     */
+    private boolean load(final File file, final FrozenDataModel training) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != k) {
+                return false;
+            }
+            userFactors = read(in, training.getUserIds());
+            itemFactors = read(in, training.getItemIds());
+            return true;
+        } catch (IOException e) {
+            LOGGER.warn("Cached model could not be loaded: " + file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Reads the factors of one side.
+     *
+     * @param in the input
+     * @param ids ids of the rows in the training data
+     * @return the factors
+     * @throws IOException when the factors cannot be read
+     */
+    private double[] read(final DataInputStream in, final long[] ids) throws IOException {
+        double[] factors = new double[ids.length * k];
+        int n = in.readInt();
+        for (int r = 0; r < n; r++) {
+            int idx = Arrays.binarySearch(ids, in.readLong());
+            for (int f = 0; f < k; f++) {
+                double v = in.readDouble();
+                if (idx >= 0) {
+                    factors[idx * k + f] = v;
+                }
+            }
+        }
+        return factors;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRanked() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void score(final int user, final long userId, final ScoreConsumer consumer) {
+        if (user < 0) {
+            return;
+        }
+        int o = user * k;
+        for (int i : catalog) {
+            int y = i * k;
+            double s = 0.0;
+            for (int f = 0; f < k; f++) {
+                s += userFactors[o + f] * itemFactors[y + f];
+            }
+            consumer.accept(i, s);
+        }
+    }
+}
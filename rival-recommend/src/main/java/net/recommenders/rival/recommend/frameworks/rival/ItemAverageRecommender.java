@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.rival;
+
+import java.util.Properties;
+import net.recommenders.rival.core.FrozenDataModel;
+
+/**
+ * Recommends the items with the highest average training preference.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class ItemAverageRecommender extends AbstractRankingRecommender {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected double[] itemScores(final FrozenDataModel training, final Properties properties) {
+        int[] rows = training.getRowPointers();
+        int[] indices = training.getItemIndices();
+        double[] values = training.getValues();
+        double[] sums = new double[training.getItemIds().length];
+        int[] counts = new int[sums.length];
+        for (int p = 0; p < rows[rows.length - 1]; p++) {
+            sums[indices[p]] += values[p];
+            counts[indices[p]]++;
+        }
+        for (int i = 0; i < sums.length; i++) {
+            if (counts[i] > 0) {
+                sums[i] /= counts[i];
+            }
+        }
+        return sums;
+    }
+}
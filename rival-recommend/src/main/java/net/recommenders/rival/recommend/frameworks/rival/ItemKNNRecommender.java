@@ -0,0 +1,212 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.rival;
+
+import java.util.Properties;
+import net.recommenders.rival.core.FrozenDataModel;
+import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
+import net.recommenders.rival.recommend.frameworks.similarity.CsrMatrix;
+import net.recommenders.rival.recommend.frameworks.similarity.SimilarityEngine;
+import net.recommenders.rival.recommend.frameworks.similarity.SimilarityMatrix;
+
+/**
+ * Item-based nearest neighbors: the score of an item for a user is the sum of
+ * the similarities between the item and the items of the user, weighted by
+ * the preferences of the user, considering only the top neighbors of each
+ * item of the user.
+ *
+ * Similarities are the cosine (see
+ * {@link SimilarityEngine#cosine(CsrMatrix, double, int, int)}) between the
+ * columns of the training data or, for the adjusted cosine, of the training
+ * data centered on the mean of each user. They are shared with other runners
+ * when {@link RecommendationRunner#SHARED_SIMILARITY} is set.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class ItemKNNRecommender implements RivalRecommender {
+
+    /**
+     * The property value (see {@link RecommendationRunner#SIMILARITY}) for
+     * the cosine similarity, the default.
+     */
+    public static final String COSINE = "cosine";
+    /**
+     * The property value (see {@link RecommendationRunner#SIMILARITY}) for
+     * the adjusted cosine similarity.
+     */
+    public static final String ADJUSTED_COSINE = "adjustedcosine";
+    /**
+     * Default neighborhood size.
+     */
+    public static final int DEFAULT_NEIGHBORHOOD_SIZE = 50;
+    /**
+     * Asymmetry of the cosine similarity (0.5 is the usual cosine).
+     */
+    private static final double ALPHA = 0.5;
+    /**
+     * The data the similarities are computed from (users by items).
+     */
+    private CsrMatrix data;
+    /**
+     * The similarities between items.
+     */
+    private SimilarityMatrix similarities;
+    /**
+     * Number of neighbors of each item.
+     */
+    private int k;
+    /**
+     * Per-thread accumulator of the scores of a user.
+     */
+    private ThreadLocal<Accumulator> accumulators;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void train(final FrozenDataModel training, final Properties properties, final int nThreads) {
+        final int nItems = training.getItemIds().length;
+        String n = properties.getProperty(RecommendationRunner.NEIGHBORHOOD, "" + DEFAULT_NEIGHBORHOOD_SIZE);
+        k = Math.max(1, "-1".equals(n) ? (int) Math.round(Math.sqrt(nItems)) : Integer.parseInt(n));
+        String similarity = properties.getProperty(RecommendationRunner.SIMILARITY, COSINE);
+        if (ADJUSTED_COSINE.equals(similarity)) {
+            data = centered(training);
+        } else if (COSINE.equals(similarity)) {
+            data = CsrMatrix.wrap(training.getUserIds(), training.getItemIds(), training.getRowPointers(), training.getItemIndices(), training.getValues());
+        } else {
+            throw new IllegalArgumentException("Unknown similarity: " + similarity);
+        }
+        if (Boolean.parseBoolean(properties.getProperty(RecommendationRunner.SHARED_SIMILARITY, "false"))) {
+            similarities = SimilarityEngine.cosine(data.transpose(), ALPHA, k, nItems);
+        } else {
+            similarities = SimilarityEngine.computeCosine(data.transpose(), ALPHA, k, nThreads);
+        }
+        accumulators = new ThreadLocal<Accumulator>() {
+            @Override
+            protected Accumulator initialValue() {
+                return new Accumulator(nItems);
+            }
+        };
+    }
+
+    /**
+     * Gets the training data centered on the mean of each user. Preferences
+     * equal to the mean are removed, since they do not contribute to the
+     * similarities.
+     *
+     * @param training the training data
+     * @return the centered data
+     */
+    private static CsrMatrix centered(final FrozenDataModel training) {
+        int[] rows = training.getRowPointers();
+        int[] indices = training.getItemIndices();
+        double[] values = training.getValues();
+        int nUsers = training.getUserIds().length;
+        int[] offsets = new int[nUsers + 1];
+        int[] columns = new int[indices.length];
+        double[] centered = new double[values.length];
+        int q = 0;
+        for (int u = 0; u < nUsers; u++) {
+            double mean = 0.0;
+            for (int p = rows[u]; p < rows[u + 1]; p++) {
+                mean += values[p];
+            }
+            mean /= Math.max(1, rows[u + 1] - rows[u]);
+            for (int p = rows[u]; p < rows[u + 1]; p++) {
+                if (values[p] != mean) {
+                    columns[q] = indices[p];
+                    centered[q] = values[p] - mean;
+                    q++;
+                }
+            }
+            offsets[u + 1] = q;
+        }
+        return CsrMatrix.wrap(training.getUserIds(), training.getItemIds(), offsets, columns, centered);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRanked() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void score(final int user, final long userId, final ScoreConsumer consumer) {
+        if (user < 0) {
+            return;
+        }
+        Accumulator acc = accumulators.get();
+        acc.stamp++;
+        int nTouched = 0;
+        for (int p = data.getOffset(user); p < data.getOffset(user + 1); p++) {
+            int j = data.getColumn(p);
+            double v = data.getValue(p);
+            int nn = similarities.numNeighbors(j, k);
+            for (int r = 0; r < nn; r++) {
+                int i = similarities.getNeighbor(j, r);
+                if (acc.marks[i] != acc.stamp) {
+                    acc.marks[i] = acc.stamp;
+                    acc.scores[i] = 0.0;
+                    acc.touched[nTouched++] = i;
+                }
+                acc.scores[i] += v * similarities.getNeighborSimilarity(j, r);
+            }
+        }
+        for (int t = 0; t < nTouched; t++) {
+            consumer.accept(acc.touched[t], acc.scores[acc.touched[t]]);
+        }
+    }
+
+    /**
+     * Dense accumulator of the scores of a user, reused by a thread for all
+     * the users it scores.
+     */
+    private static final class Accumulator {
+
+        /**
+         * Scores of the items touched so far.
+         */
+        private final double[] scores;
+        /**
+         * Last user for which each item was touched.
+         */
+        private final int[] marks;
+        /**
+         * Items touched by the current user.
+         */
+        private final int[] touched;
+        /**
+         * Stamp of the current user.
+         */
+        private int stamp;
+
+        /**
+         * Constructor.
+         *
+         * @param nItems number of items
+         */
+        Accumulator(final int nItems) {
+            this.scores = new double[nItems];
+            this.marks = new int[nItems];
+            this.touched = new int[nItems];
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.rival;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import net.recommenders.rival.core.FrozenDataModel;
+
+/**
+ * Recommends the items with training preferences in a random order. The
+ * order of each user only depends on the seed and on the user, so results do
+ * not change with the number of threads. Orders are generated lazily (a
+ * partial Fisher-Yates shuffle of the catalog that is undone afterwards), so
+ * a user costs as much as the items actually consumed.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class RandomRecommender implements RivalRecommender {
+
+    /**
+     * The property key for the seed of the random orders.
+     */
+    public static final String SEED = "seed";
+    /**
+     * Default seed.
+     */
+    public static final long DEFAULT_SEED = 20170101L;
+    /**
+     * Constant used to spread the ids of the users over the seeds.
+     */
+    private static final long SEED_MIX = 0x9E3779B97F4A7C15L;
+    /**
+     * The seed.
+     */
+    private long seed;
+    /**
+     * Items with training preferences.
+     */
+    private int[] catalog;
+    /**
+     * Per-thread copy of the catalog being shuffled, and the positions
+     * swapped with each of its elements.
+     */
+    private ThreadLocal<int[][]> buffers;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void train(final FrozenDataModel training, final Properties properties, final int nThreads) {
+        seed = Long.parseLong(properties.getProperty(SEED, Long.toString(DEFAULT_SEED)));
+        int[] columns = training.getColumnPointers();
+        int nItems = training.getItemIds().length;
+        int[] items = new int[nItems];
+        int n = 0;
+        for (int i = 0; i < nItems; i++) {
+            if (columns[i + 1] > columns[i]) {
+                items[n++] = i;
+            }
+        }
+        final int[] finalCatalog = Arrays.copyOf(items, n);
+        catalog = finalCatalog;
+        buffers = new ThreadLocal<int[][]>() {
+            @Override
+            protected int[][] initialValue() {
+                return new int[][]{finalCatalog.clone(), new int[finalCatalog.length]};
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRanked() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void score(final int user, final long userId, final ScoreConsumer consumer) {
+        int[][] b = buffers.get();
+        int[] perm = b[0];
+        int[] swaps = b[1];
+        int n = catalog.length;
+        Random rnd = new Random(seed ^ (userId * SEED_MIX));
+        int j = 0;
+        while (j < n) {
+            int r = j + rnd.nextInt(n - j);
+            swap(perm, j, r);
+            swaps[j] = r;
+            j++;
+            if (!consumer.accept(perm[j - 1], (double) (n - j + 1) / n)) {
+                break;
+            }
+        }
+        // restore the catalog for the next user of this thread
+        while (j > 0) {
+            j--;
+            swap(perm, j, swaps[j]);
+        }
+    }
+
+    /**
+     * Swaps two elements of an array.
+     *
+     * @param a the array
+     * @param i a position
+     * @param j another position
+     */
+    private static void swap(final int[] a, final int i, final int j) {
+        int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.rival;
+
+import java.util.Properties;
+import net.recommenders.rival.core.FrozenDataModel;
+
+/**
+ * A recommender run natively by {@link RivalRecommenderRunner}. Users and
+ * items are identified by their indices in the (sorted) id arrays of the
+ * training model.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public interface RivalRecommender {
+
+    /**
+     * Receiver of the items scored for a user.
+     */
+    interface ScoreConsumer {
+
+        /**
+         * Receives the score of an item.
+         *
+         * @param item index of the item
+         * @param score its score
+         * @return false if no more items are needed
+         */
+        boolean accept(int item, double score);
+    }
+
+    /**
+     * Trains the recommender.
+     *
+     * @param training the training data
+     * @param properties the properties of the run (see
+     * {@link net.recommenders.rival.recommend.frameworks.RecommendationRunner})
+     * @param nThreads number of threads that may be used
+     * @throws Exception when the recommender cannot be trained
+     */
+    void train(FrozenDataModel training, Properties properties, int nThreads) throws Exception;
+
+    /**
+     * Checks if items are scored in order of decreasing score, so that the
+     * caller may stop once it has enough of them.
+     *
+     * @return true if items are scored in decreasing order
+     */
+    boolean isRanked();
+
+    /**
+     * Scores the items for a user. It may be called concurrently from
+     * several threads once the recommender is trained.
+     *
+     * @param user index of the user (-1 if the user is not in the training
+     * data)
+     * @param userId id of the user
+     * @param consumer receiver of the scores
+     */
+    void score(int user, long userId, ScoreConsumer consumer);
+}
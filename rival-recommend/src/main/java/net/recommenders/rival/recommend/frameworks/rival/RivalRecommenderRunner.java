@@ -0,0 +1,417 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.rival;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import net.recommenders.rival.core.FrozenDataModel;
+import net.recommenders.rival.core.SimpleParser;
+import net.recommenders.rival.core.SplitBundle;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.recommend.frameworks.AbstractRunner;
+import net.recommenders.rival.recommend.frameworks.BatchFactorScorer;
+import net.recommenders.rival.recommend.frameworks.ModelCache;
+import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
+import net.recommenders.rival.recommend.frameworks.RecommendationSink;
+import net.recommenders.rival.recommend.frameworks.RunnerStatistics;
+import net.recommenders.rival.recommend.frameworks.TopKSelector;
+import net.recommenders.rival.recommend.frameworks.UserPartitionExecutor;
+import net.recommenders.rival.recommend.frameworks.exceptions.RecommenderException;
+
+/**
+ * A runner for RiVal's native recommenders (see {@link RivalRecommender}),
+ * which work directly on the arrays of the frozen training model. Users are
+ * scored in parallel, each thread reusing its own buffers, and the top items
+ * of each user are selected by the thread that scores it.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class RivalRecommenderRunner extends AbstractRunner<Long, Long> {
+
+    /**
+     * Default constructor.
+     *
+     * @param props the properties.
+     */
+    public RivalRecommenderRunner(final Properties props) {
+        super(props);
+    }
+
+    /**
+     * Runs the recommender using models from file.
+     *
+     * @param opts see
+     * {@link net.recommenders.rival.recommend.frameworks.AbstractRunner.RUN_OPTIONS}
+     * @return see
+     * {@link #runRivalRecommender(net.recommenders.rival.recommend.frameworks.AbstractRunner.RUN_OPTIONS, net.recommenders.rival.core.FrozenDataModel, net.recommenders.rival.core.FrozenDataModel)}
+     * @throws RecommenderException when the recommender is instantiated
+     * incorrectly or breaks otherwise.
+     * @throws IOException when paths in property object are incorrect.
+     */
+    @Override
+    public TemporalDataModelIF<Long, Long> run(final RUN_OPTIONS opts) throws RecommenderException, IOException {
+        try {
+            if (isAlreadyRecommended()) {
+                return null;
+            }
+            getStatistics().startPhase(RunnerStatistics.LOAD);
+            SplitBundle bundle = loadSplitBundle();
+            if (bundle == null) {
+                SimpleParser parser = new SimpleParser();
+                bundle = SplitBundle.create(
+                        parser.parseTemporalData(new File(getProperties().getProperty(RecommendationRunner.TRAINING_SET))),
+                        parser.parseTemporalData(new File(getProperties().getProperty(RecommendationRunner.TEST_SET))));
+            }
+            return runRivalRecommender(opts, bundle.getTraining(), bundle.getTest());
+        } finally {
+            getStatistics().endPhase();
+        }
+    }
+
+    /**
+     * Runs the recommender using the provided datamodels.
+     *
+     * @param opts see
+     * {@link net.recommenders.rival.recommend.frameworks.AbstractRunner.RUN_OPTIONS}
+     * @param trainingModel model to be used to train the recommender.
+     * @param testModel model to be used to test the recommender.
+     * @return see
+     * {@link #runRivalRecommender(net.recommenders.rival.recommend.frameworks.AbstractRunner.RUN_OPTIONS, net.recommenders.rival.core.FrozenDataModel, net.recommenders.rival.core.FrozenDataModel)}
+     * @throws RecommenderException see
+     * {@link #runRivalRecommender(net.recommenders.rival.recommend.frameworks.AbstractRunner.RUN_OPTIONS, net.recommenders.rival.core.FrozenDataModel, net.recommenders.rival.core.FrozenDataModel)}
+     */
+    @Override
+    public TemporalDataModelIF<Long, Long> run(final RUN_OPTIONS opts, final TemporalDataModelIF<Long, Long> trainingModel, final TemporalDataModelIF<Long, Long> testModel) throws RecommenderException {
+        try {
+            if (isAlreadyRecommended()) {
+                return null;
+            }
+            getStatistics().startPhase(RunnerStatistics.LOAD);
+            if (trainingModel instanceof FrozenDataModel && testModel instanceof FrozenDataModel) {
+                return runRivalRecommender(opts, (FrozenDataModel) trainingModel, (FrozenDataModel) testModel);
+            }
+            SplitBundle bundle = SplitBundle.create(trainingModel, testModel);
+            return runRivalRecommender(opts, bundle.getTraining(), bundle.getTest());
+        } finally {
+            getStatistics().endPhase();
+        }
+    }
+
+    /**
+     * Instantiates the recommender given in the properties (see
+     * {@link RecommendationRunner#RECOMMENDER}).
+     *
+     * @return the recommender
+     * @throws RecommenderException when the recommender cannot be
+     * instantiated
+     */
+    private RivalRecommender instantiate() throws RecommenderException {
+        String className = getProperties().getProperty(RecommendationRunner.RECOMMENDER);
+        try {
+            return (RivalRecommender) Class.forName(className).newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException e) {
+            throw new RecommenderException("Recommender " + className + " could not be instantiated", e);
+        }
+    }
+
+    /**
+     * Runs a native recommender using the provided models and the previously
+     * provided properties.
+     *
+     * @param opts see
+     * {@link net.recommenders.rival.recommend.frameworks.AbstractRunner.RUN_OPTIONS}
+     * @param training model to be used to train the recommender.
+     * @param test model to be used to test the recommender.
+     * @return nothing when opts is
+     * {@link net.recommenders.rival.recommend.frameworks.AbstractRunner.RUN_OPTIONS#OUTPUT_RECS},
+     * otherwise, when opts is
+     * {@link net.recommenders.rival.recommend.frameworks.AbstractRunner.RUN_OPTIONS#RETURN_RECS}
+     * or
+     * {@link net.recommenders.rival.recommend.frameworks.AbstractRunner.RUN_OPTIONS#RETURN_AND_OUTPUT_RECS}
+     * it returns the predictions
+     * @throws RecommenderException when the recommender cannot be
+     * instantiated, trained or run
+     */
+    public TemporalDataModelIF<Long, Long> runRivalRecommender(final RUN_OPTIONS opts, final FrozenDataModel training, final FrozenDataModel test) throws RecommenderException {
+        try {
+            if (isAlreadyRecommended()) {
+                return null;
+            }
+            getStatistics().startPhase(RunnerStatistics.TRAIN);
+            final RivalRecommender recommender = instantiate();
+            try {
+                recommender.train(training, getProperties(), getNumThreads());
+            } catch (Exception e) {
+                throw new RecommenderException("Recommender could not be trained", e);
+            }
+
+            getStatistics().startPhase(RunnerStatistics.RECOMMEND);
+            TemporalDataModelIF<Long, Long> model = null;
+            switch (opts) {
+                case RETURN_AND_OUTPUT_RECS:
+                case RETURN_RECS:
+                    model = new TemporalDataModel<>();
+                    break;
+                default:
+                    model = null;
+            }
+            String name = null;
+            switch (opts) {
+                case RETURN_AND_OUTPUT_RECS:
+                case OUTPUT_RECS:
+                    name = getFileName();
+                    break;
+                default:
+                    name = null;
+            }
+            // test users with preferences, in id order
+            long[] testUsers = test.getUserIds();
+            int[] testRows = test.getRowPointers();
+            long[] users = new long[testUsers.length];
+            int nUsers = 0;
+            for (int u = 0; u < testUsers.length; u++) {
+                if (testRows[u + 1] > testRows[u]) {
+                    users[nUsers++] = testUsers[u];
+                }
+            }
+            users = Arrays.copyOf(users, nUsers);
+            // candidates are requested in user order, before any parallel work
+            final Map<Long, Set<Long>> candidates = getCandidateItemsProvider() == null ? null : new HashMap<Long, Set<Long>>();
+            if (candidates != null) {
+                for (long u : users) {
+                    candidates.put(u, getCandidateItemsProvider().getCandidateItems(u));
+                }
+            }
+            final int nItems = training.getItemIds().length;
+            final int cutoff = Math.max(1, getRequestedItems(nItems, model));
+            final ThreadLocal<UserScorer> scorers = new ThreadLocal<UserScorer>() {
+                @Override
+                protected UserScorer initialValue() {
+                    return new UserScorer(training, recommender, cutoff);
+                }
+            };
+            final RecommendationSink sink = createSink(name, model);
+            if (model == null) {
+                // users written by a previous run are not recommended again
+                int resumed = sink.resume(users);
+                users = Arrays.copyOfRange(users, resumed, users.length);
+            }
+            try {
+                if (candidates == null && recommender instanceof ImplicitALSRecommender) {
+                    // factor models are scored in blocks of users
+                    ImplicitALSRecommender als = (ImplicitALSRecommender) recommender;
+                    int[] rows = new int[users.length];
+                    for (int k = 0; k < users.length; k++) {
+                        rows[k] = training.getUserIndex(users[k]);
+                    }
+                    runFactorScorer(new BatchFactorScorer(als.getK(), als.getUserFactors(), als.getItemFactors(), training.getItemIds())
+                            .setAllowedItems(als.getCatalog())
+                            .setExcludedItems(training.getRowPointers(), training.getItemIndices()), users, rows, cutoff, sink);
+                } else {
+                    UserPartitionExecutor.run(users, getNumThreads(),
+                            getStatistics().timed(new UserPartitionExecutor.UserTask<Recommendations>() {
+                        @Override
+                        public Recommendations compute(final long u) {
+                            return scorers.get().recommend(u, candidates == null ? null : candidates.get(u));
+                        }
+                    }), new UserPartitionExecutor.ResultSink<Recommendations>() {
+                        @Override
+                        public void consume(final long u, final Recommendations recs) throws IOException {
+                            sink.write(u, recs.items, recs.scores, recs.items.length);
+                        }
+                    });
+                }
+                sink.close();
+            } catch (Exception e) {
+                throw new RecommenderException("Recommendations could not be generated", e);
+            } finally {
+                // a failed run keeps its partial output to be resumed
+                sink.abort();
+            }
+            writeStatistics(name, sink);
+            return model;
+        } finally {
+            getStatistics().endPhase();
+        }
+    }
+
+    /**
+     * Computes the fingerprint of a training model, used by the recommenders
+     * to identify their trained models in the cache (see
+     * {@link RecommendationRunner#MODEL_CACHE}).
+     *
+     * @param model the model
+     * @return the fingerprint
+     */
+    public static ModelCache.Fingerprint fingerprint(final FrozenDataModel model) {
+        ModelCache.Fingerprint f = new ModelCache.Fingerprint();
+        long[] users = model.getUserIds();
+        long[] items = model.getItemIds();
+        int[] rows = model.getRowPointers();
+        int[] indices = model.getItemIndices();
+        double[] values = model.getValues();
+        for (int u = 0; u < users.length; u++) {
+            if (rows[u + 1] == rows[u]) {
+                continue;
+            }
+            f.add(users[u]).add((long) (rows[u + 1] - rows[u]));
+            for (int p = rows[u]; p < rows[u + 1]; p++) {
+                f.add(items[indices[p]]).add(values[p]);
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Recommendations of a user.
+     */
+    private static final class Recommendations {
+
+        /**
+         * The items, by decreasing score.
+         */
+        private final long[] items;
+        /**
+         * Their scores.
+         */
+        private final double[] scores;
+
+        /**
+         * Constructor.
+         *
+         * @param theItems the items
+         * @param theScores their scores
+         */
+        private Recommendations(final long[] theItems, final double[] theScores) {
+            this.items = theItems;
+            this.scores = theScores;
+        }
+    }
+
+    /**
+     * Buffers used by a thread to recommend items to users: items are
+     * excluded or allowed by stamping their positions in dense arrays, so
+     * they do not need to be cleared between users.
+     */
+    private static final class UserScorer implements RivalRecommender.ScoreConsumer {
+
+        /**
+         * The training model.
+         */
+        private final FrozenDataModel training;
+        /**
+         * The recommender.
+         */
+        private final RivalRecommender recommender;
+        /**
+         * Selector of the top items.
+         */
+        private final TopKSelector selector;
+        /**
+         * Stamp of the user being recommended in the excluded or allowed
+         * items.
+         */
+        private final int[] marks;
+        /**
+         * Stamp of the current user.
+         */
+        private int stamp;
+        /**
+         * Flag to know if marked items are allowed (the candidates) or
+         * excluded (the training items).
+         */
+        private boolean allowMarked;
+        /**
+         * Number of items selected for the current user.
+         */
+        private int accepted;
+
+        /**
+         * Constructor.
+         *
+         * @param theTraining the training model
+         * @param theRecommender the recommender
+         * @param cutoff number of items to recommend
+         */
+        private UserScorer(final FrozenDataModel theTraining, final RivalRecommender theRecommender, final int cutoff) {
+            this.training = theTraining;
+            this.recommender = theRecommender;
+            this.selector = new TopKSelector(cutoff);
+            this.marks = new int[theTraining.getItemIds().length];
+        }
+
+        /**
+         * Recommends items to a user.
+         *
+         * @param userId the user
+         * @param candidates the items to be scored, unless they are in the
+         * training data of the user (null if every item should be considered)
+         * @return the recommendations
+         */
+        private Recommendations recommend(final long userId, final Set<Long> candidates) {
+            stamp++;
+            int u = training.getUserIndex(userId);
+            int[] rows = training.getRowPointers();
+            int[] indices = training.getItemIndices();
+            if (candidates != null) {
+                allowMarked = true;
+                for (Long i : candidates) {
+                    int iidx = training.getItemIndex(i);
+                    if (iidx >= 0) {
+                        marks[iidx] = stamp;
+                    }
+                }
+                // training items are excluded as when every item is scored
+                if (u >= 0) {
+                    for (int p = rows[u]; p < rows[u + 1]; p++) {
+                        marks[indices[p]] = 0;
+                    }
+                }
+            } else {
+                allowMarked = false;
+                if (u >= 0) {
+                    for (int p = rows[u]; p < rows[u + 1]; p++) {
+                        marks[indices[p]] = stamp;
+                    }
+                }
+            }
+            selector.clear();
+            accepted = 0;
+            recommender.score(u, userId, this);
+            int n = selector.select();
+            return new Recommendations(Arrays.copyOf(selector.getItems(), n), Arrays.copyOf(selector.getScores(), n));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean accept(final int item, final double score) {
+            if ((marks[item] == stamp) != allowMarked || Double.isNaN(score)) {
+                return true;
+            }
+            selector.add(training.getItemIds()[item], score);
+            accepted++;
+            return !recommender.isRanked() || accepted < selector.getCutoff();
+        }
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * RiVal native recommenders, working directly on the arrays of frozen data
+ * models.
+ */
+package net.recommenders.rival.recommend.frameworks.rival;
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.similarity;
+
+import java.util.Arrays;
+import net.recommenders.rival.recommend.frameworks.ModelCache;
+
+/**
+ * Sparse matrix in compressed sparse row format, where rows and columns are
+ * identified by ids (e.g., users and items). Row and column indices follow
+ * the order of the ids, and the entries of a row are sorted by column, so the
+ * same data always produces the same matrix regardless of the order in which
+ * it was added.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class CsrMatrix {
+
+    /**
+     * Ids of the rows, sorted.
+     */
+    private final long[] rowIds;
+    /**
+     * Ids of the columns, sorted.
+     */
+    private final long[] columnIds;
+    /**
+     * Position of the first entry of each row (plus the number of entries).
+     */
+    private final int[] offsets;
+    /**
+     * Column index of each entry.
+     */
+    private final int[] columns;
+    /**
+     * Value of each entry.
+     */
+    private final double[] values;
+    /**
+     * Fingerprint of the data (null until computed).
+     */
+    private String fingerprint;
+
+    /**
+     * Constructor.
+     *
+     * @param theRowIds sorted row ids
+     * @param theColumnIds sorted column ids
+     * @param theOffsets position of the first entry of each row
+     * @param theColumns column index of each entry
+     * @param theValues value of each entry
+     */
+    private CsrMatrix(final long[] theRowIds, final long[] theColumnIds, final int[] theOffsets, final int[] theColumns, final double[] theValues) {
+        this.rowIds = theRowIds;
+        this.columnIds = theColumnIds;
+        this.offsets = theOffsets;
+        this.columns = theColumns;
+        this.values = theValues;
+    }
+
+    /**
+     * Creates a matrix over arrays that are already in compressed sparse row
+     * format (e.g., those of a frozen data model). The arrays are not copied.
+     *
+     * @param rowIds sorted row ids
+     * @param columnIds sorted column ids
+     * @param offsets position of the first entry of each row (plus the
+     * number of entries)
+     * @param columns column index of each entry, sorted within each row
+     * @param values value of each entry
+     * @return the matrix
+     */
+    public static CsrMatrix wrap(final long[] rowIds, final long[] columnIds, final int[] offsets, final int[] columns, final double[] values) {
+        return new CsrMatrix(rowIds, columnIds, offsets, columns, values);
+    }
+
+    /**
+     * Gets the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int numRows() {
+        return rowIds.length;
+    }
+
+    /**
+     * Gets the number of columns.
+     *
+     * @return the number of columns
+     */
+    public int numColumns() {
+        return columnIds.length;
+    }
+
+    /**
+     * Gets the id of a row.
+     *
+     * @param row the row index
+     * @return the id
+     */
+    public long getRowId(final int row) {
+        return rowIds[row];
+    }
+
+    /**
+     * Gets the index of a row.
+     *
+     * @param id the id of the row
+     * @return the index, or a negative number if there is no such row
+     */
+    public int getRowIndex(final long id) {
+        return Arrays.binarySearch(rowIds, id);
+    }
+
+    /**
+     * Gets the position of the first entry of a row; the entries of the row
+     * end at the position of the first entry of the next row.
+     *
+     * @param row the row index (up to the number of rows)
+     * @return the position
+     */
+    public int getOffset(final int row) {
+        return offsets[row];
+    }
+
+    /**
+     * Gets the column index of an entry.
+     *
+     * @param pos the position of the entry
+     * @return the column index
+     */
+    public int getColumn(final int pos) {
+        return columns[pos];
+    }
+
+    /**
+     * Gets the value of an entry.
+     *
+     * @param pos the position of the entry
+     * @return the value
+     */
+    public double getValue(final int pos) {
+        return values[pos];
+    }
+
+    /**
+     * Gets the transposed matrix (e.g., items by users).
+     *
+     * @return the transposed matrix
+     */
+    public CsrMatrix transpose() {
+        int[] tOffsets = new int[columnIds.length + 1];
+        for (int c : columns) {
+            tOffsets[c + 1]++;
+        }
+        for (int c = 0; c < columnIds.length; c++) {
+            tOffsets[c + 1] += tOffsets[c];
+        }
+        int[] next = Arrays.copyOf(tOffsets, columnIds.length);
+        int[] tColumns = new int[columns.length];
+        double[] tValues = new double[values.length];
+        // rows are visited in order, so the entries of each new row are sorted
+        for (int r = 0; r < rowIds.length; r++) {
+            for (int p = offsets[r]; p < offsets[r + 1]; p++) {
+                int q = next[columns[p]]++;
+                tColumns[q] = r;
+                tValues[q] = values[p];
+            }
+        }
+        return new CsrMatrix(columnIds, rowIds, tOffsets, tColumns, tValues);
+    }
+
+    /**
+     * Gets a digest of the ids and values of the matrix, used to share
+     * computations over the same data.
+     *
+     * @return the fingerprint
+     */
+    public synchronized String fingerprint() {
+        if (fingerprint == null) {
+            ModelCache.Fingerprint f = new ModelCache.Fingerprint();
+            f.add((long) rowIds.length).add((long) columnIds.length);
+            for (int r = 0; r < rowIds.length; r++) {
+                f.add(rowIds[r]).add((long) (offsets[r + 1] - offsets[r]));
+                for (int p = offsets[r]; p < offsets[r + 1]; p++) {
+                    f.add(columnIds[columns[p]]).add(values[p]);
+                }
+            }
+            fingerprint = f.toString();
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Builder of matrices from (row, column, value) entries added in any
+     * order. Each (row, column) pair should be added at most once.
+     */
+    public static final class Builder {
+
+        /**
+         * Row ids of the entries.
+         */
+        private long[] entryRows = new long[1024];
+        /**
+         * Column ids of the entries.
+         */
+        private long[] entryColumns = new long[1024];
+        /**
+         * Values of the entries.
+         */
+        private double[] entryValues = new double[1024];
+        /**
+         * Number of entries.
+         */
+        private int size;
+
+        /**
+         * Adds an entry.
+         *
+         * @param row the row id
+         * @param column the column id
+         * @param value the value
+         * @return this builder
+         */
+        public Builder add(final long row, final long column, final double value) {
+            if (size == entryRows.length) {
+                int capacity = 2 * size;
+                entryRows = Arrays.copyOf(entryRows, capacity);
+                entryColumns = Arrays.copyOf(entryColumns, capacity);
+                entryValues = Arrays.copyOf(entryValues, capacity);
+            }
+            entryRows[size] = row;
+            entryColumns[size] = column;
+            entryValues[size] = value;
+            size++;
+            return this;
+        }
+
+        /**
+         * Builds the matrix.
+         *
+         * @return the matrix
+         */
+        public CsrMatrix build() {
+            long[] rowIds = distinct(entryRows, size);
+            long[] columnIds = distinct(entryColumns, size);
+            int[] rows = new int[size];
+            int[] cols = new int[size];
+            for (int e = 0; e < size; e++) {
+                rows[e] = Arrays.binarySearch(rowIds, entryRows[e]);
+                cols[e] = Arrays.binarySearch(columnIds, entryColumns[e]);
+            }
+            // two stable counting sorts: by column and then by row
+            int[] byColumn = countingSort(identity(size), cols, columnIds.length);
+            int[] byRow = countingSort(byColumn, rows, rowIds.length);
+            int[] offsets = new int[rowIds.length + 1];
+            int[] columns = new int[size];
+            double[] values = new double[size];
+            for (int p = 0; p < size; p++) {
+                int e = byRow[p];
+                offsets[rows[e] + 1]++;
+                columns[p] = cols[e];
+                values[p] = entryValues[e];
+            }
+            for (int r = 0; r < rowIds.length; r++) {
+                offsets[r + 1] += offsets[r];
+            }
+            return new CsrMatrix(rowIds, columnIds, offsets, columns, values);
+        }
+
+        /**
+         * Gets the sorted distinct values of an array.
+         *
+         * @param ids the array
+         * @param n number of elements to consider
+         * @return the distinct values
+         */
+        private static long[] distinct(final long[] ids, final int n) {
+            long[] sorted = Arrays.copyOf(ids, n);
+            Arrays.sort(sorted);
+            int m = 0;
+            for (int k = 0; k < n; k++) {
+                if (m == 0 || sorted[m - 1] != sorted[k]) {
+                    sorted[m++] = sorted[k];
+                }
+            }
+            return Arrays.copyOf(sorted, m);
+        }
+
+        /**
+         * Gets the identity permutation.
+         *
+         * @param n the size
+         * @return the permutation
+         */
+        private static int[] identity(final int n) {
+            int[] p = new int[n];
+            for (int k = 0; k < n; k++) {
+                p[k] = k;
+            }
+            return p;
+        }
+
+        /**
+         * Sorts a permutation of the entries by a key, keeping the order of
+         * entries with the same key.
+         *
+         * @param order the permutation
+         * @param keys the key of each entry
+         * @param nKeys number of different keys
+         * @return the sorted permutation
+         */
+        private static int[] countingSort(final int[] order, final int[] keys, final int nKeys) {
+            int[] start = new int[nKeys + 1];
+            for (int e : order) {
+                start[keys[e] + 1]++;
+            }
+            for (int k = 0; k < nKeys; k++) {
+                start[k + 1] += start[k];
+            }
+            int[] sorted = new int[order.length];
+            for (int e : order) {
+                sorted[start[keys[e]]++] = e;
+            }
+            return sorted;
+        }
+    }
+}
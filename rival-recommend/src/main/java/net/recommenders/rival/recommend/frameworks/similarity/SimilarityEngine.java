@@ -0,0 +1,403 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.similarity;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import net.recommenders.rival.recommend.frameworks.TopKSelector;
+import net.recommenders.rival.recommend.frameworks.UserPartitionExecutor;
+
+/**
+ * Computes similarity matrices between the rows of some data and shares them
+ * between runners: a matrix is computed once for each data, similarity and
+ * number of neighbors, and runners asking for fewer neighbors use a prefix of
+ * the stored rows.
+ *
+ * Similarities are computed row by row in parallel, accumulating the sparse
+ * dot products of a row with all the others through the transposed data and
+ * keeping the top neighbors of the row.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class SimilarityEngine {
+
+    /**
+     * Default number of neighbors kept for each row.
+     */
+    public static final int DEFAULT_MAX_NEIGHBORS = 100;
+    /**
+     * Matrices computed or being computed.
+     */
+    private static final Map<String, Shared> MATRICES = new HashMap<String, Shared>();
+    /**
+     * Number of neighbors kept for each row when a smaller number is
+     * requested.
+     */
+    private static volatile int maxNeighbors = DEFAULT_MAX_NEIGHBORS;
+    /**
+     * Whether the square root of the number of items is also a lower bound
+     * of the neighbors kept for each row (i.e., a neighborhood of -1).
+     */
+    private static volatile boolean sqrtNeighbors = false;
+    /**
+     * Number of threads used to compute the matrices.
+     */
+    private static volatile int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Utility classes should not have a public or default constructor.
+     */
+    private SimilarityEngine() {
+    }
+
+    /**
+     * Sets the number of neighbors kept for each row, so that later requests
+     * for larger neighborhoods (e.g., the rest of an experiment grid) can use
+     * the same matrix.
+     *
+     * @param k the number of neighbors
+     */
+    public static void setMaxNeighbors(final int k) {
+        maxNeighbors = k;
+    }
+
+    /**
+     * Sets whether the square root of the number of items (the size of a
+     * neighborhood of -1) is also kept for each row, since it is only known
+     * once the data is read.
+     *
+     * @param sqrt whether the square root of the number of items is kept
+     */
+    public static void setSqrtNeighbors(final boolean sqrt) {
+        sqrtNeighbors = sqrt;
+    }
+
+    /**
+     * Gets the number of neighbors kept for each row.
+     *
+     * @param nItems the number of items of the data
+     * @return the number of neighbors
+     */
+    public static int getMaxNeighbors(final int nItems) {
+        if (sqrtNeighbors) {
+            return Math.max(maxNeighbors, (int) Math.round(Math.sqrt(nItems)));
+        }
+        return maxNeighbors;
+    }
+
+    /**
+     * Sets the number of threads used to compute the matrices.
+     *
+     * @param nThreads the number of threads
+     */
+    public static void setThreads(final int nThreads) {
+        threads = nThreads;
+    }
+
+    /**
+     * Removes all the matrices computed so far.
+     */
+    public static void clear() {
+        synchronized (MATRICES) {
+            MATRICES.clear();
+        }
+    }
+
+    /**
+     * Removes the matrices computed from some data or from its transpose
+     * (e.g., when a split is no longer used), keeping those of other data.
+     *
+     * @param fingerprint the fingerprint of the data (see
+     * {@link CsrMatrix#fingerprint()})
+     */
+    public static void release(final String fingerprint) {
+        synchronized (MATRICES) {
+            Iterator<Shared> it = MATRICES.values().iterator();
+            while (it.hasNext()) {
+                Shared shared = it.next();
+                if (shared.fingerprint.equals(fingerprint) || shared.transposedFingerprint.equals(fingerprint)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the cosine similarities between the rows of some data, generalized
+     * as in RankSys: the dot product of two rows u and v is divided by
+     * |u|^(2 alpha) |v|^(2 (1 - alpha)), so alpha = 0.5 is the usual cosine
+     * and alpha = 1 ranks the neighbors of a row by their dot product.
+     *
+     * @param data the data
+     * @param alpha the asymmetry of the similarity
+     * @param k minimum number of neighbors needed for each row
+     * @param nItems the number of items of the data (the rows of item
+     * similarities, the columns of user similarities)
+     * @return the similarity matrix
+     */
+    public static SimilarityMatrix cosine(final CsrMatrix data, final double alpha, final int k, final int nItems) {
+        final String key = data.fingerprint() + ":cosine:" + alpha;
+        final int maxK = Math.max(k, getMaxNeighbors(nItems));
+        Shared shared;
+        synchronized (MATRICES) {
+            shared = MATRICES.get(key);
+        }
+        boolean compute = false;
+        if (shared == null || shared.maxNeighbors < k) {
+            // prepared and computed outside the lock, so other data is not blocked
+            Shared created = new Shared(data, maxK, new Callable<SimilarityMatrix>() {
+                @Override
+                public SimilarityMatrix call() {
+                    return computeCosine(data, alpha, maxK, threads);
+                }
+            });
+            synchronized (MATRICES) {
+                shared = MATRICES.get(key);
+                if (shared == null || shared.maxNeighbors < k) {
+                    shared = created;
+                    compute = true;
+                    MATRICES.put(key, shared);
+                }
+            }
+        }
+        if (compute) {
+            shared.task.run();
+        }
+        try {
+            return shared.task.get();
+        } catch (ExecutionException e) {
+            synchronized (MATRICES) {
+                if (MATRICES.get(key) == shared) {
+                    MATRICES.remove(key);
+                }
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Similarities could not be computed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the similarities", e);
+        }
+    }
+
+    /**
+     * Computes the cosine similarities (see
+     * {@link #cosine(CsrMatrix, double, int, int)}) without sharing them.
+     *
+     * @param data the data
+     * @param alpha the asymmetry of the similarity
+     * @param k number of neighbors kept for each row
+     * @param nThreads number of threads
+     * @return the similarity matrix
+     */
+    public static SimilarityMatrix computeCosine(final CsrMatrix data, final double alpha, final int k, final int nThreads) {
+        final int nRows = data.numRows();
+        final CsrMatrix transposed = data.transpose();
+        final double[] norm2 = new double[nRows];
+        for (int r = 0; r < nRows; r++) {
+            for (int p = data.getOffset(r); p < data.getOffset(r + 1); p++) {
+                norm2[r] += data.getValue(p) * data.getValue(p);
+            }
+        }
+        final ThreadLocal<Accumulator> accumulators = new ThreadLocal<Accumulator>() {
+            @Override
+            protected Accumulator initialValue() {
+                return new Accumulator(nRows, k);
+            }
+        };
+        long[] rows = new long[nRows];
+        for (int r = 0; r < nRows; r++) {
+            rows[r] = r;
+        }
+        final int[][] rowNeighbors = new int[nRows][];
+        final double[][] rowSimilarities = new double[nRows][];
+        try {
+            UserPartitionExecutor.run(rows, nThreads, new UserPartitionExecutor.UserTask<Accumulator.Row>() {
+                @Override
+                public Accumulator.Row compute(final long row) {
+                    return accumulators.get().computeRow(data, transposed, norm2, alpha, (int) row);
+                }
+            }, new UserPartitionExecutor.ResultSink<Accumulator.Row>() {
+                @Override
+                public void consume(final long row, final Accumulator.Row result) {
+                    rowNeighbors[(int) row] = result.neighbors;
+                    rowSimilarities[(int) row] = result.similarities;
+                }
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException("Similarities could not be computed", e);
+        }
+        int[] offsets = new int[nRows + 1];
+        for (int r = 0; r < nRows; r++) {
+            offsets[r + 1] = offsets[r] + rowNeighbors[r].length;
+        }
+        int[] neighbors = new int[offsets[nRows]];
+        double[] similarities = new double[offsets[nRows]];
+        for (int r = 0; r < nRows; r++) {
+            System.arraycopy(rowNeighbors[r], 0, neighbors, offsets[r], rowNeighbors[r].length);
+            System.arraycopy(rowSimilarities[r], 0, similarities, offsets[r], rowSimilarities[r].length);
+        }
+        return new SimilarityMatrix(data, k, offsets, neighbors, similarities);
+    }
+
+    /**
+     * Matrix shared between runners, computed by the first runner that needs
+     * it while the others wait.
+     */
+    private static final class Shared {
+
+        /**
+         * Fingerprint of the data.
+         */
+        private final String fingerprint;
+        /**
+         * Fingerprint of the transposed data.
+         */
+        private final String transposedFingerprint;
+        /**
+         * Number of neighbors kept for each row.
+         */
+        private final int maxNeighbors;
+        /**
+         * Computation of the matrix.
+         */
+        private final FutureTask<SimilarityMatrix> task;
+
+        /**
+         * Constructor.
+         *
+         * @param data the data
+         * @param k number of neighbors kept for each row
+         * @param computation computation of the matrix
+         */
+        Shared(final CsrMatrix data, final int k, final Callable<SimilarityMatrix> computation) {
+            this.fingerprint = data.fingerprint();
+            this.transposedFingerprint = data.transpose().fingerprint();
+            this.maxNeighbors = k;
+            this.task = new FutureTask<SimilarityMatrix>(computation);
+        }
+    }
+
+    /**
+     * Dense accumulator of the dot products of a row with the other rows,
+     * reused by a thread for all the rows it computes.
+     */
+    private static final class Accumulator {
+
+        /**
+         * Dot products with the rows touched so far.
+         */
+        private final double[] products;
+        /**
+         * Last row (plus one) for which each row was touched.
+         */
+        private final int[] marks;
+        /**
+         * Rows touched by the current row.
+         */
+        private final int[] touched;
+        /**
+         * Selector of the top neighbors.
+         */
+        private final TopKSelector selector;
+
+        /**
+         * Constructor.
+         *
+         * @param nRows number of rows
+         * @param k number of neighbors
+         */
+        Accumulator(final int nRows, final int k) {
+            this.products = new double[nRows];
+            this.marks = new int[nRows];
+            this.touched = new int[nRows];
+            this.selector = new TopKSelector(k);
+        }
+
+        /**
+         * Computes the top neighbors of a row.
+         *
+         * @param data the data
+         * @param transposed the transposed data
+         * @param norm2 squared norm of each row
+         * @param alpha the asymmetry of the similarity
+         * @param row the row
+         * @return the neighbors of the row
+         */
+        Row computeRow(final CsrMatrix data, final CsrMatrix transposed, final double[] norm2, final double alpha, final int row) {
+            int nTouched = 0;
+            for (int p = data.getOffset(row); p < data.getOffset(row + 1); p++) {
+                int c = data.getColumn(p);
+                double v = data.getValue(p);
+                for (int q = transposed.getOffset(c); q < transposed.getOffset(c + 1); q++) {
+                    int other = transposed.getColumn(q);
+                    if (other == row) {
+                        continue;
+                    }
+                    if (marks[other] != row + 1) {
+                        marks[other] = row + 1;
+                        products[other] = 0.0;
+                        touched[nTouched++] = other;
+                    }
+                    products[other] += v * transposed.getValue(q);
+                }
+            }
+            selector.clear();
+            double rowNorm = Math.pow(norm2[row], alpha);
+            for (int t = 0; t < nTouched; t++) {
+                int other = touched[t];
+                selector.add(other, products[other] / (rowNorm * Math.pow(norm2[other], 1.0 - alpha)));
+            }
+            int n = selector.select();
+            Row result = new Row(n);
+            for (int j = 0; j < n; j++) {
+                result.neighbors[j] = (int) selector.getItems()[j];
+                result.similarities[j] = selector.getScores()[j];
+            }
+            return result;
+        }
+
+        /**
+         * Neighbors of a row.
+         */
+        static final class Row {
+
+            /**
+             * The neighbors, by decreasing similarity.
+             */
+            private final int[] neighbors;
+            /**
+             * The similarities.
+             */
+            private final double[] similarities;
+
+            /**
+             * Constructor.
+             *
+             * @param n number of neighbors
+             */
+            Row(final int n) {
+                this.neighbors = new int[n];
+                this.similarities = new double[n];
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.similarity;
+
+/**
+ * Similarities between the rows of a {@link CsrMatrix}, keeping only the
+ * most similar rows (neighbors) of each row. Neighbors are sorted by
+ * decreasing similarity, so a neighborhood of any size up to
+ * {@link #getMaxNeighbors()} is a prefix of the stored one.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class SimilarityMatrix {
+
+    /**
+     * The data the similarities were computed from.
+     */
+    private final CsrMatrix data;
+    /**
+     * Maximum number of neighbors kept for each row.
+     */
+    private final int maxNeighbors;
+    /**
+     * Position of the first neighbor of each row (plus the number of
+     * neighbors).
+     */
+    private final int[] offsets;
+    /**
+     * Neighbors of each row, by decreasing similarity.
+     */
+    private final int[] neighbors;
+    /**
+     * Similarities of the neighbors.
+     */
+    private final double[] similarities;
+    /**
+     * Neighbors of each row, by increasing index.
+     */
+    private final int[] sortedNeighbors;
+    /**
+     * Similarities of the neighbors by increasing index.
+     */
+    private final double[] sortedSimilarities;
+
+    /**
+     * Constructor.
+     *
+     * @param theData the data
+     * @param k maximum number of neighbors of each row
+     * @param theOffsets position of the first neighbor of each row
+     * @param theNeighbors neighbors of each row, by decreasing similarity
+     * @param theSimilarities similarities of the neighbors
+     */
+    SimilarityMatrix(final CsrMatrix theData, final int k, final int[] theOffsets, final int[] theNeighbors, final double[] theSimilarities) {
+        this.data = theData;
+        this.maxNeighbors = k;
+        this.offsets = theOffsets;
+        this.neighbors = theNeighbors;
+        this.similarities = theSimilarities;
+        this.sortedNeighbors = theNeighbors.clone();
+        this.sortedSimilarities = theSimilarities.clone();
+        for (int r = 0; r + 1 < offsets.length; r++) {
+            // rows are short (at most k neighbors)
+            for (int p = offsets[r] + 1; p < offsets[r + 1]; p++) {
+                int n = sortedNeighbors[p];
+                double s = sortedSimilarities[p];
+                int q = p - 1;
+                while (q >= offsets[r] && sortedNeighbors[q] > n) {
+                    sortedNeighbors[q + 1] = sortedNeighbors[q];
+                    sortedSimilarities[q + 1] = sortedSimilarities[q];
+                    q--;
+                }
+                sortedNeighbors[q + 1] = n;
+                sortedSimilarities[q + 1] = s;
+            }
+        }
+    }
+
+    /**
+     * Gets the data the similarities were computed from; rows of this
+     * matrix are the rows of the data.
+     *
+     * @return the data
+     */
+    public CsrMatrix getData() {
+        return data;
+    }
+
+    /**
+     * Gets the maximum number of neighbors kept for each row.
+     *
+     * @return the number of neighbors
+     */
+    public int getMaxNeighbors() {
+        return maxNeighbors;
+    }
+
+    /**
+     * Gets the number of neighbors of a row in a neighborhood of a given
+     * size.
+     *
+     * @param row the row index
+     * @param n size of the neighborhood (at most
+     * {@link #getMaxNeighbors()})
+     * @return the number of neighbors
+     */
+    public int numNeighbors(final int row, final int n) {
+        return Math.min(n, offsets[row + 1] - offsets[row]);
+    }
+
+    /**
+     * Gets a neighbor of a row.
+     *
+     * @param row the row index
+     * @param rank position of the neighbor (0 is the most similar)
+     * @return the row index of the neighbor
+     */
+    public int getNeighbor(final int row, final int rank) {
+        return neighbors[offsets[row] + rank];
+    }
+
+    /**
+     * Gets the similarity of a neighbor of a row.
+     *
+     * @param row the row index
+     * @param rank position of the neighbor (0 is the most similar)
+     * @return the similarity
+     */
+    public double getNeighborSimilarity(final int row, final int rank) {
+        return similarities[offsets[row] + rank];
+    }
+
+    /**
+     * Gets the similarity between two rows.
+     *
+     * @param row the row index
+     * @param other the row index of the other row
+     * @return the similarity, or NaN if the other row is not a neighbor of
+     * the row
+     */
+    public double getSimilarity(final int row, final int other) {
+        int lo = offsets[row];
+        int hi = offsets[row + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sortedNeighbors[mid] < other) {
+                lo = mid + 1;
+            } else if (sortedNeighbors[mid] > other) {
+                hi = mid - 1;
+            } else {
+                return sortedSimilarities[mid];
+            }
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * RiVal similarity matrices shared by the neighborhood recommenders of
+ * different runners.
+ */
+package net.recommenders.rival.recommend.frameworks.similarity;
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import net.librec.data.DataModel;
+import net.recommenders.rival.core.CandidateItemsProvider;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.recommend.frameworks.lenskit.LenskitRecommenderRunner;
+import net.recommenders.rival.recommend.frameworks.librec.DataDAOWrapper;
+import net.recommenders.rival.recommend.frameworks.librec.LibrecRecommenderRunner;
+import net.recommenders.rival.recommend.frameworks.mahout.MahoutRecommenderRunner;
+import net.recommenders.rival.recommend.frameworks.ranksys.RanksysRecommenderRunner;
+import net.recommenders.rival.recommend.frameworks.rival.PopularityRecommender;
+import net.recommenders.rival.recommend.frameworks.rival.RivalRecommenderRunner;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link AbstractRunner#setCandidateItemsProvider(CandidateItemsProvider)}
+ * in every framework.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class AbstractRunnerTest {
+
+    private static final long USERS = 20;
+    private static final long ITEMS = 15;
+
+    /**
+     * Provider that remembers the users it was asked for.
+     */
+    private static final class Candidates implements CandidateItemsProvider<Long, Long> {
+
+        private final Set<Long> requested = new HashSet<>();
+
+        @Override
+        public synchronized Set<Long> getCandidateItems(final Long user) {
+            requested.add(user);
+            Set<Long> items = new HashSet<>();
+            for (long i = 1; i <= ITEMS; i++) {
+                if ((user + i) % 3 == 0) {
+                    items.add(i);
+                }
+            }
+            // an item unknown to the recommender
+            items.add(ITEMS + 1);
+            return items;
+        }
+    }
+
+    private static Properties properties(final String framework, final String recommender) {
+        Properties props = new Properties();
+        props.setProperty(RecommendationRunner.FRAMEWORK, framework);
+        props.setProperty(RecommendationRunner.RECOMMENDER, recommender);
+        props.setProperty(RecommendationRunner.TRAINING_SET, "data_train.csv");
+        props.setProperty(RecommendationRunner.TEST_SET, "data_test.csv");
+        return props;
+    }
+
+    private static Map<Long, Map<Long, Double>> asMap(final TemporalDataModelIF<Long, Long> model) {
+        Map<Long, Map<Long, Double>> map = new HashMap<>();
+        for (Long u : model.getUsers()) {
+            Map<Long, Double> items = new HashMap<>();
+            for (Long i : model.getUserItems(u)) {
+                items.put(i, model.getUserItemPreference(u, i));
+            }
+            map.put(u, items);
+        }
+        return map;
+    }
+
+    private static void assertOnlyCandidates(final AbstractRunner<Long, Long> all, final AbstractRunner<Long, Long> restricted,
+            final TemporalDataModelIF<Long, Long> training, final TemporalDataModelIF<Long, Long> test) throws Exception {
+        Candidates candidates = new Candidates();
+        restricted.setCandidateItemsProvider(candidates);
+        assertOnlyCandidates(restricted.getClass().getSimpleName(), candidates,
+                all.run(AbstractRunner.RUN_OPTIONS.RETURN_RECS, training, test),
+                restricted.run(AbstractRunner.RUN_OPTIONS.RETURN_RECS, training, test), test);
+    }
+
+    private static void assertOnlyCandidates(final String name, final Candidates candidates,
+            final TemporalDataModelIF<Long, Long> all, final TemporalDataModelIF<Long, Long> restricted,
+            final TemporalDataModelIF<Long, Long> test) {
+        Map<Long, Map<Long, Double>> expected = asMap(all);
+        Map<Long, Map<Long, Double>> actual = asMap(restricted);
+        for (Long u : test.getUsers()) {
+            assertTrue(name, candidates.requested.contains(u));
+        }
+        int n = 0;
+        for (Map.Entry<Long, Map<Long, Double>> e : expected.entrySet()) {
+            Set<Long> userCandidates = candidates.getCandidateItems(e.getKey());
+            // the candidates are scored as when every item is scored, and nothing else is
+            Map<Long, Double> filtered = new HashMap<>();
+            for (Map.Entry<Long, Double> e2 : e.getValue().entrySet()) {
+                if (userCandidates.contains(e2.getKey())) {
+                    filtered.put(e2.getKey(), e2.getValue());
+                }
+            }
+            Map<Long, Double> items = actual.containsKey(e.getKey()) ? actual.get(e.getKey()) : new HashMap<Long, Double>();
+            assertEquals(name, filtered.keySet(), items.keySet());
+            for (Map.Entry<Long, Double> e2 : filtered.entrySet()) {
+                assertEquals(name, e2.getValue(), items.get(e2.getKey()), 1e-9);
+            }
+            n += items.size();
+        }
+        assertFalse(name, n == 0);
+    }
+
+    @Test
+    public void testCandidateItemsProvider() throws Exception {
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        TemporalDataModelIF<Long, Long> test = new TemporalDataModel<>();
+        Random rnd = new Random(11L);
+        for (long u = 1; u <= USERS; u++) {
+            for (long i = 1; i <= ITEMS; i++) {
+                if (rnd.nextInt(3) == 0) {
+                    training.addPreference(u, i, 1.0 + rnd.nextInt(5));
+                } else if (rnd.nextInt(4) == 0) {
+                    test.addPreference(u, i, 1.0 + rnd.nextInt(5));
+                }
+            }
+        }
+
+        Properties rival = properties(RecommendationRunner.RIVAL, PopularityRecommender.class.getName());
+        assertOnlyCandidates(new RivalRecommenderRunner(rival), new RivalRecommenderRunner(rival), training, test);
+
+        Properties mahout = properties(RecommendationRunner.MAHOUT, "org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender");
+        mahout.setProperty(RecommendationRunner.SIMILARITY, "org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity");
+        mahout.setProperty(RecommendationRunner.NEIGHBORHOOD, "5");
+        assertOnlyCandidates(new MahoutRecommenderRunner(mahout), new MahoutRecommenderRunner(mahout), training, test);
+
+        Properties lenskit = properties(RecommendationRunner.LENSKIT, "org.lenskit.baseline.ItemMeanRatingItemScorer");
+        assertOnlyCandidates(new LenskitRecommenderRunner(lenskit), new LenskitRecommenderRunner(lenskit), training, test);
+
+        Properties ranksys = properties(RecommendationRunner.RANKSYS, "es.uam.eps.ir.ranksys.rec.fast.basic.PopularityRecommender");
+        assertOnlyCandidates(new RanksysRecommenderRunner(ranksys), new RanksysRecommenderRunner(ranksys), training, test);
+
+        Properties librec = properties(RecommendationRunner.LIBREC, "net.librec.recommender.baseline.MostPopularRecommender");
+        // LibRec keeps a random sample of the data for training, shared by both runs
+        DataModel trainingModel = new DataDAOWrapper(training);
+        DataModel testModel = new DataDAOWrapper(test);
+        Candidates candidates = new Candidates();
+        LibrecRecommenderRunner restricted = new LibrecRecommenderRunner(librec);
+        restricted.setCandidateItemsProvider(candidates);
+        assertOnlyCandidates(LibrecRecommenderRunner.class.getSimpleName(), candidates,
+                new LibrecRecommenderRunner(librec).runLibrecRecommender(AbstractRunner.RUN_OPTIONS.RETURN_RECS, trainingModel, testModel),
+                restricted.runLibrecRecommender(AbstractRunner.RUN_OPTIONS.RETURN_RECS, trainingModel, testModel), test);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link BatchFactorScorer}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class BatchFactorScorerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSameAsBruteForce() throws Exception {
+        // more users than a block and more items than a tile
+        int k = 5;
+        int nUsers = 150;
+        int nItems = 300;
+        int cutoff = 10;
+        Random rnd = new Random(7L);
+        double[] userFactors = new double[nUsers * k];
+        double[] itemFactors = new double[nItems * k];
+        for (int p = 0; p < userFactors.length; p++) {
+            userFactors[p] = rnd.nextGaussian();
+        }
+        for (int p = 0; p < itemFactors.length; p++) {
+            itemFactors[p] = rnd.nextGaussian();
+        }
+        long[] itemIds = new long[nItems];
+        for (int i = 0; i < nItems; i++) {
+            itemIds[i] = 1000L + 3 * i;
+        }
+        List<Integer> allowedList = new ArrayList<>();
+        for (int i = 0; i < nItems; i++) {
+            if (i % 4 != 0) {
+                allowedList.add(i);
+            }
+        }
+        int[] allowed = allowedList.stream().mapToInt(Integer::intValue).toArray();
+        int[] pointers = new int[nUsers + 1];
+        List<Integer> excludedList = new ArrayList<>();
+        List<Set<Integer>> excluded = new ArrayList<>();
+        for (int u = 0; u < nUsers; u++) {
+            Set<Integer> items = new HashSet<>();
+            for (int i = 0; i < nItems; i++) {
+                if (rnd.nextInt(5) == 0) {
+                    items.add(i);
+                    excludedList.add(i);
+                }
+            }
+            excluded.add(items);
+            pointers[u + 1] = excludedList.size();
+        }
+        int[] excludedItems = excludedList.stream().mapToInt(Integer::intValue).toArray();
+        // users in reverse order, plus one without factors
+        long[] users = new long[nUsers + 1];
+        int[] rows = new int[nUsers + 1];
+        for (int u = 0; u < nUsers; u++) {
+            users[u] = 10L * (nUsers - u);
+            rows[u] = nUsers - 1 - u;
+        }
+        users[nUsers] = 99999L;
+        rows[nUsers] = -1;
+
+        List<String> expected = new ArrayList<>();
+        for (int b = 0; b < nUsers; b++) {
+            int u = rows[b];
+            List<double[]> scored = new ArrayList<>();
+            for (int i : allowed) {
+                if (excluded.get(u).contains(i)) {
+                    continue;
+                }
+                double s = 0.0;
+                for (int f = 0; f < k; f++) {
+                    s += userFactors[u * k + f] * itemFactors[i * k + f];
+                }
+                scored.add(new double[]{s, i});
+            }
+            Collections.sort(scored, (x, y) -> Double.compare(y[0], x[0]));
+            for (int r = 0; r < cutoff; r++) {
+                expected.add(users[b] + "\t" + itemIds[(int) scored.get(r)[1]] + "\t" + scored.get(r)[0]);
+            }
+        }
+
+        String path = folder.getRoot().getAbsolutePath();
+        for (int nThreads : new int[]{1, 3}) {
+            RecommendationSink sink = new RecommendationSink(path, "recs" + nThreads + ".tsv", null);
+            new BatchFactorScorer(k, userFactors, itemFactors, itemIds)
+                    .setAllowedItems(allowed)
+                    .setExcludedItems(pointers, excludedItems)
+                    .run(users, rows, cutoff, nThreads, sink);
+            sink.close();
+            assertEquals(expected, Files.readAllLines(new File(path, "recs" + nThreads + ".tsv").toPath()));
+        }
+    }
+
+    @Test
+    public void testApproximate() throws Exception {
+        int k = 4;
+        int nUsers = 80;
+        int nItems = 500;
+        Random rnd = new Random(11L);
+        double[] userFactors = new double[nUsers * k];
+        double[] itemFactors = new double[nItems * k];
+        for (int p = 0; p < userFactors.length; p++) {
+            userFactors[p] = rnd.nextGaussian();
+        }
+        for (int p = 0; p < itemFactors.length; p++) {
+            itemFactors[p] = rnd.nextGaussian();
+        }
+        long[] itemIds = new long[nItems];
+        int[] items = new int[nItems];
+        for (int i = 0; i < nItems; i++) {
+            itemIds[i] = i;
+            items[i] = i;
+        }
+        long[] users = new long[nUsers];
+        int[] rows = new int[nUsers];
+        for (int u = 0; u < nUsers; u++) {
+            users[u] = u;
+            rows[u] = u;
+        }
+        // every item is in exactly one list
+        InvertedFileIndex index = InvertedFileIndex.build(k, itemFactors, items, 20, 5, 2);
+        assertEquals(20, index.getNumLists());
+        int[] sorted = index.getListItems().clone();
+        Arrays.sort(sorted);
+        assertArrayEquals(items, sorted);
+
+        // probing every list gives the exact recommendations
+        String path = folder.getRoot().getAbsolutePath();
+        RecommendationSink exactSink = new RecommendationSink(path, "exact.tsv", null);
+        new BatchFactorScorer(k, userFactors, itemFactors, itemIds).run(users, rows, 10, 2, exactSink);
+        exactSink.close();
+        BatchFactorScorer full = new BatchFactorScorer(k, userFactors, itemFactors, itemIds).setApproximate(20, 20, 2);
+        RecommendationSink fullSink = new RecommendationSink(path, "full.tsv", null);
+        full.run(users, rows, 10, 2, fullSink);
+        fullSink.close();
+        assertEquals(Files.readAllLines(new File(path, "exact.tsv").toPath()), Files.readAllLines(new File(path, "full.tsv").toPath()));
+        BatchFactorScorer.Recall recall = full.measureRecall(rows, 10);
+        assertEquals(nUsers, recall.getUsers());
+        assertEquals(nUsers * 10L, recall.getExact());
+        assertEquals(0L, recall.getMissed());
+
+        // probing fewer lists finds fewer items
+        BatchFactorScorer.Recall partial = new BatchFactorScorer(k, userFactors, itemFactors, itemIds).setApproximate(20, 2, 2).measureRecall(rows, 10);
+        assertTrue(partial.getMissed() > 0L);
+        assertTrue(partial.getRecall() > 0.0 && partial.getRecall() < 1.0);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link ExperimentScheduler}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class ExperimentSchedulerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Runner that only records how it was run.
+     */
+    private static final class RecordingRunner extends AbstractRunner<Long, Long> {
+
+        private final AtomicInteger running;
+        private final AtomicInteger maxRunning;
+        private final Set<Object> trainingModels;
+
+        RecordingRunner(final Properties props, final AtomicInteger theRunning, final AtomicInteger theMaxRunning, final Set<Object> theTrainingModels) {
+            super(props);
+            this.running = theRunning;
+            this.maxRunning = theMaxRunning;
+            this.trainingModels = theTrainingModels;
+        }
+
+        @Override
+        public TemporalDataModelIF<Long, Long> run(final RUN_OPTIONS opts) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public TemporalDataModelIF<Long, Long> run(final RUN_OPTIONS opts, final TemporalDataModelIF<Long, Long> trainingModel, final TemporalDataModelIF<Long, Long> testModel) throws Exception {
+            int n = running.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), n));
+            }
+            trainingModels.add(trainingModel);
+            assertEquals(3, trainingModel.getNumUsers());
+            Thread.sleep(50L);
+            running.decrementAndGet();
+            return null;
+        }
+    }
+
+    private List<AbstractRunner<Long, Long>> createJobs(final int nJobs, final AtomicInteger running, final AtomicInteger maxRunning, final Set<Object> trainingModels) throws Exception {
+        File train = folder.newFile("split_train.dat");
+        File test = folder.newFile("split_test.dat");
+        try (PrintStream out = new PrintStream(train, "UTF-8")) {
+            out.println("1\t10\t5.0\t100");
+            out.println("2\t10\t3.0\t100");
+            out.println("3\t11\t4.0\t100");
+        }
+        try (PrintStream out = new PrintStream(test, "UTF-8")) {
+            out.println("1\t11\t2.0\t100");
+        }
+        List<AbstractRunner<Long, Long>> jobs = new ArrayList<>();
+        for (int j = 0; j < nJobs; j++) {
+            Properties props = new Properties();
+            props.setProperty(RecommendationRunner.TRAINING_SET, train.getAbsolutePath());
+            props.setProperty(RecommendationRunner.TEST_SET, test.getAbsolutePath());
+            props.setProperty(RecommendationRunner.OUTPUT, folder.getRoot().getAbsolutePath());
+            props.setProperty(RecommendationRunner.FRAMEWORK, RecommendationRunner.RANKSYS);
+            props.setProperty(RecommendationRunner.RECOMMENDER, "Recommender" + j);
+            jobs.add(new RecordingRunner(props, running, maxRunning, trainingModels));
+        }
+        return jobs;
+    }
+
+    @Test
+    public void testConcurrentJobsShareSplit() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Set<Object> trainingModels = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        List<AbstractRunner<Long, Long>> jobs = createJobs(6, running, maxRunning, trainingModels);
+        List<ExperimentScheduler.JobReport> reports = new ExperimentScheduler(3, Long.MAX_VALUE).run(jobs);
+        assertEquals(6, reports.size());
+        assertEquals(1, trainingModels.size());
+        assertTrue(maxRunning.get() > 1);
+        assertTrue(maxRunning.get() <= 3);
+        for (ExperimentScheduler.JobReport report : reports) {
+            assertTrue(report.getWallTime() >= 50L);
+            assertTrue(report.getPeakHeap() > 0L);
+            assertTrue(new File(report.getName()).exists());
+        }
+    }
+
+    @Test
+    public void testBudgetLimitsConcurrency() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Set<Object> trainingModels = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        List<AbstractRunner<Long, Long>> jobs = createJobs(4, running, maxRunning, trainingModels);
+        // no job fits in the budget, so they are run one at a time
+        new ExperimentScheduler(4, 1L).run(jobs);
+        assertEquals(1, maxRunning.get());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test for {@link ModelCache}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class ModelCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWrite() throws Exception {
+        ModelCache cache = new ModelCache(folder.getRoot(), new ModelCache.Fingerprint().add("params"));
+        final File file = cache.getFile(new ModelCache.Fingerprint().add(1L), "model.bin");
+        ModelCache.write(file, tmp -> {
+            // the model is not visible while it is written
+            assertFalse(file.exists());
+            Files.write(tmp.toPath(), "model".getBytes(StandardCharsets.UTF_8));
+        });
+        assertEquals("model", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertEquals(1, folder.getRoot().listFiles().length);
+
+        // a failed write keeps the previous model and leaves nothing else
+        try {
+            ModelCache.write(file, tmp -> {
+                Files.write(tmp.toPath(), "partial".getBytes(StandardCharsets.UTF_8));
+                throw new IOException("disk full");
+            });
+            fail("the write should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals("model", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertEquals(1, folder.getRoot().listFiles().length);
+        assertTrue(file.exists());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import net.recommenders.rival.recommend.frameworks.rival.ItemAverageRecommender;
+import net.recommenders.rival.recommend.frameworks.rival.PopularityRecommender;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link ProcessWorkerPool}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class ProcessWorkerPoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Properties job(final String framework, final Class<?> recommender, final File train, final File test) {
+        Properties props = new Properties();
+        props.setProperty(RecommendationRunner.FRAMEWORK, framework);
+        props.setProperty(RecommendationRunner.RECOMMENDER, recommender.getName());
+        props.setProperty(RecommendationRunner.TRAINING_SET, train.getAbsolutePath());
+        props.setProperty(RecommendationRunner.TEST_SET, test.getAbsolutePath());
+        props.setProperty(RecommendationRunner.OUTPUT, folder.getRoot().getAbsolutePath());
+        return props;
+    }
+
+    private List<Properties> createJobs() throws Exception {
+        File train = folder.newFile("split_train.dat");
+        File test = folder.newFile("split_test.dat");
+        try (PrintStream out = new PrintStream(train, "UTF-8")) {
+            out.println("1\t10\t5.0\t100");
+            out.println("2\t10\t3.0\t100");
+            out.println("3\t11\t4.0\t100");
+        }
+        try (PrintStream out = new PrintStream(test, "UTF-8")) {
+            out.println("1\t11\t2.0\t100");
+            out.println("4\t10\t2.0\t100");
+        }
+        List<Properties> jobs = new ArrayList<>();
+        jobs.add(job(RecommendationRunner.RIVAL, PopularityRecommender.class, train, test));
+        jobs.add(job("unknown", PopularityRecommender.class, train, test));
+        jobs.add(job(RecommendationRunner.RIVAL, ItemAverageRecommender.class, train, test));
+        return jobs;
+    }
+
+    @Test
+    public void testWorkers() throws Exception {
+        List<Properties> jobs = createJobs();
+        ProcessWorkerPool pool = new ProcessWorkerPool(2).setJvmOptions("-Xmx128m");
+        List<ProcessWorkerPool.JobResult> results = pool.run(jobs);
+        assertEquals(3, results.size());
+        assertEquals(ProcessWorkerPool.Status.OK, results.get(0).getStatus());
+        assertEquals(ProcessWorkerPool.Status.ERROR, results.get(1).getStatus());
+        assertFalse(results.get(1).getMessage().isEmpty());
+        assertEquals(ProcessWorkerPool.Status.OK, results.get(2).getStatus());
+        for (Properties props : Arrays.asList(jobs.get(0), jobs.get(2))) {
+            AbstractRunner<Long, Long> rr = RecommendationRunner.instantiateRecommender(props);
+            assertTrue(rr.isAlreadyRecommended());
+            assertTrue(new File(rr.getCanonicalFileName()).exists());
+        }
+
+        // a worker that cannot be launched fails its jobs only
+        pool.setClasspath("unknown", new File(folder.getRoot(), "missing").getAbsolutePath());
+        results = pool.run(jobs);
+        assertEquals(ProcessWorkerPool.Status.SKIPPED, results.get(0).getStatus());
+        assertEquals(ProcessWorkerPool.Status.ERROR, results.get(1).getStatus());
+        assertEquals(ProcessWorkerPool.Status.SKIPPED, results.get(2).getStatus());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        List<Properties> jobs = createJobs();
+        // no worker starts within a millisecond
+        ProcessWorkerPool pool = new ProcessWorkerPool(1).setJvmOptions("-Xmx128m").setJobTimeout(1L);
+        List<ProcessWorkerPool.JobResult> results = pool.run(jobs);
+        assertEquals(3, results.size());
+        for (ProcessWorkerPool.JobResult result : results) {
+            assertEquals(ProcessWorkerPool.Status.ERROR, result.getStatus());
+            assertTrue(result.getMessage(), result.getMessage().contains("timed out"));
+        }
+    }
+
+    @Test
+    public void testUnexpectedOutput() throws Exception {
+        List<Properties> jobs = createJobs();
+        // the JVM prints its flags to the standard output of the worker
+        ProcessWorkerPool pool = new ProcessWorkerPool(1).setJvmOptions("-Xmx128m", "-XX:+PrintFlagsFinal");
+        List<ProcessWorkerPool.JobResult> results = pool.run(jobs);
+        assertEquals(3, results.size());
+        for (ProcessWorkerPool.JobResult result : results) {
+            assertEquals(ProcessWorkerPool.Status.ERROR, result.getStatus());
+        }
+    }
+
+    @Test
+    public void testLongProperties() throws Exception {
+        StringBuilder value = new StringBuilder();
+        while (value.length() < 100000) {
+            value.append("\u00e1/");
+        }
+        Properties props = new Properties();
+        props.setProperty("key", value.toString());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            ProcessWorkerPool.writeProperties(out, props);
+        }
+        Properties read = ProcessWorkerPool.readProperties(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(props, read);
+    }
+}
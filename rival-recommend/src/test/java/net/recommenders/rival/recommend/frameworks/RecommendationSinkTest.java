@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Test for {@link RecommendationSink}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class RecommendationSinkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSameOutputAsRecommenderIO() throws Exception {
+        String path = folder.getRoot().getAbsolutePath();
+        TemporalDataModelIF<Long, Long> model = new TemporalDataModel<>();
+        RecommendationSink sink = new RecommendationSink(path, "sink.tsv", model);
+        boolean createFile = true;
+        int nPrefs = 0;
+        for (long u = -5; u < 3000; u++) {
+            List<RecommenderIO.Preference<Long, Long>> prefs = new ArrayList<>();
+            for (long i = 0; i < 20; i++) {
+                prefs.add(new RecommenderIO.Preference<>(u, i * 1000003L, (u * i) / 7.0));
+            }
+            nPrefs += prefs.size();
+            RecommenderIO.writeData(u, prefs, path, "io.tsv", !createFile, null);
+            createFile = false;
+            sink.write(u, prefs);
+        }
+        sink.close();
+        assertArrayEquals(Files.readAllBytes(new File(path, "io.tsv").toPath()), Files.readAllBytes(new File(path, "sink.tsv").toPath()));
+        assertEquals(3005, model.getNumUsers());
+        assertEquals(2999.0 * 19 / 7.0, model.getUserItemPreference(2999L, 19 * 1000003L), 1e-9);
+        assertEquals(nPrefs, Files.readAllLines(new File(path, "sink.tsv").toPath()).size());
+    }
+
+    @Test
+    public void testTopK() throws Exception {
+        String path = folder.getRoot().getAbsolutePath();
+        TemporalDataModelIF<Long, Long> full = new TemporalDataModel<>();
+        TemporalDataModelIF<Long, Long> top = new TemporalDataModel<>();
+        RecommendationSink fullSink = new RecommendationSink(path, "full.tsv", full, 3, true);
+        RecommendationSink topSink = new RecommendationSink(null, null, top, 3, false);
+        long[] items = new long[]{10L, 11L, 12L, 13L, 14L, 15L};
+        double[] scores = new double[]{0.5, 2.0, 0.5, 1.0, 0.5, 2.0};
+        fullSink.write(1L, items, scores, items.length);
+        topSink.write(1L, items, scores, items.length);
+        fullSink.close();
+        topSink.close();
+        // sorted by score, ties in the original order
+        List<String> lines = Files.readAllLines(new File(path, "full.tsv").toPath());
+        assertEquals(3, lines.size());
+        assertEquals("1\t11\t2.0", lines.get(0));
+        assertEquals("1\t15\t2.0", lines.get(1));
+        assertEquals("1\t13\t1.0", lines.get(2));
+        assertEquals(6, full.getNumItems());
+        assertEquals(3, top.getNumItems());
+        assertEquals(Double.NaN, top.getUserItemPreference(1L, 10L), 0.0);
+        assertEquals(1.0, top.getUserItemPreference(1L, 13L), 0.0);
+
+        // a cutoff larger than the list keeps everything, in the same order
+        RecommendationSink largeSink = new RecommendationSink(path, "large.tsv", null, 10, false);
+        largeSink.write(1L, items, scores, items.length);
+        largeSink.close();
+        assertEquals("1\t10\t0.5", Files.readAllLines(new File(path, "large.tsv").toPath()).get(0));
+    }
+
+    private static void writeUsers(final RecommendationSink sink, final int from, final int to) throws Exception {
+        for (int u = from; u < to; u++) {
+            sink.write(u, new long[]{u + 1L, u + 2L}, new double[]{2.0, 1.0}, 2);
+        }
+    }
+
+    private static File interruptedRun(final String path, final int nUsers) throws Exception {
+        RecommendationSink sink = new RecommendationSink(path, "recs.tsv", null).enableCheckpoints(3);
+        writeUsers(sink, 0, nUsers);
+        // the sink is never closed, as if the run was killed
+        File progress = new File(path, "recs.tsv" + RecommendationSink.PROGRESS_SUFFIX);
+        for (int t = 0; t < 1000 && (!progress.exists() || Files.readAllLines(progress.toPath()).size() < nUsers / 3); t++) {
+            Thread.sleep(10);
+        }
+        assertEquals(nUsers / 3, Files.readAllLines(progress.toPath()).size());
+        return new File(path, "recs.tsv" + RecommendationSink.PARTIAL_SUFFIX);
+    }
+
+    @Test
+    public void testCheckpoints() throws Exception {
+        String path = folder.getRoot().getAbsolutePath();
+        RecommendationSink complete = new RecommendationSink(path, "complete.tsv", null);
+        writeUsers(complete, 0, 10);
+        complete.close();
+        List<String> expected = Files.readAllLines(new File(path, "complete.tsv").toPath());
+
+        // a truncated block is discarded, the users of the complete blocks are not written again
+        File part = interruptedRun(path, 7);
+        assertFalse(new File(path, "recs.tsv").exists());
+        Files.write(part.toPath(), "7\t8\t2".getBytes(), StandardOpenOption.APPEND);
+        TemporalDataModelIF<Long, Long> model = new TemporalDataModel<>();
+        RecommendationSink resumed = new RecommendationSink(path, "recs.tsv", model).enableCheckpoints(3);
+        writeUsers(resumed, 0, 10);
+        resumed.close();
+        assertEquals(expected, Files.readAllLines(new File(path, "recs.tsv").toPath()));
+        assertEquals(10, model.getNumUsers());
+        assertFalse(part.exists());
+        assertFalse(new File(path, "recs.tsv" + RecommendationSink.PROGRESS_SUFFIX).exists());
+
+        // a corrupted block is discarded, and the runner skips the users before it
+        Files.delete(new File(path, "recs.tsv").toPath());
+        part = interruptedRun(path, 6);
+        byte[] bytes = Files.readAllBytes(part.toPath());
+        bytes[bytes.length - 2] = '7';
+        Files.write(part.toPath(), bytes);
+        resumed = new RecommendationSink(path, "recs.tsv", null).enableCheckpoints(3);
+        assertEquals(3, resumed.resume(new long[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}));
+        writeUsers(resumed, 3, 10);
+        resumed.close();
+        assertEquals(expected, Files.readAllLines(new File(path, "recs.tsv").toPath()));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link RunnerStatistics}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class RunnerStatisticsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        // runners of other tests do not share the peak heap
+        RunnerStatistics.reset();
+    }
+
+    @Test
+    public void testHistogram() {
+        for (long v : new long[]{0L, 7L, 8L, 15L, 16L, 1000L, 123456789L}) {
+            int b = RunnerStatistics.bucket(v);
+            assertTrue(RunnerStatistics.lowerBound(b) <= v && v < RunnerStatistics.lowerBound(b + 1));
+        }
+        RunnerStatistics stats = new RunnerStatistics();
+        // latencies of 1..1000 microseconds
+        for (long us = 1; us <= 1000; us++) {
+            stats.recordUser(us * 1000L);
+        }
+        assertEquals(1000L, stats.getNumUsers());
+        assertEquals(500e3, stats.getLatencyPercentile(50), 500e3 / 16);
+        assertEquals(950e3, stats.getLatencyPercentile(95), 950e3 / 16);
+        assertEquals(990e3, stats.getLatencyPercentile(99), 990e3 / 16);
+    }
+
+    @Test
+    public void testLines() throws Exception {
+        RunnerStatistics stats = new RunnerStatistics();
+        stats.startPhase(RunnerStatistics.TRAIN);
+        stats.startPhase(RunnerStatistics.RECOMMEND);
+        long[] users = new long[200];
+        UserPartitionExecutor.run(users, 3, stats.timed(new UserPartitionExecutor.UserTask<double[]>() {
+            @Override
+            public double[] compute(final long user) {
+                return new double[100];
+            }
+        }), new UserPartitionExecutor.ResultSink<double[]>() {
+            @Override
+            public void consume(final long user, final double[] result) {
+            }
+        });
+        stats.setOutputBytes(1234L);
+        File file = folder.newFile("recs.tsv.stats");
+        stats.write(file);
+        List<String> lines = Files.readAllLines(file.toPath());
+        Map<String, String> values = new HashMap<>();
+        for (String line : lines) {
+            String[] toks = line.split("\t");
+            assertEquals(2, toks.length);
+            values.put(toks[0], toks[1]);
+        }
+        assertTrue(lines.get(0).startsWith("train.time_ms\t"));
+        assertEquals("200", values.get("recommend.users"));
+        assertEquals("1234", values.get("output.bytes"));
+        assertTrue(Double.parseDouble(values.get("recommend.users_per_second")) > 0.0);
+        assertTrue(Long.parseLong(values.get("recommend.peak_heap_bytes")) > 0L);
+        assertTrue(values.containsKey("recommend.allocated_bytes"));
+        assertTrue(values.containsKey("recommend.latency_p99_us"));
+    }
+
+    private static Map<String, String> values(final RunnerStatistics stats) {
+        Map<String, String> values = new HashMap<>();
+        for (String line : stats.getLines()) {
+            String[] toks = line.split("\t");
+            values.put(toks[0], toks[1]);
+        }
+        return values;
+    }
+
+    @Test
+    public void testConcurrentRunners() throws Exception {
+        final RunnerStatistics other = new RunnerStatistics();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        // another runner, measured from its own thread
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                other.startPhase(RunnerStatistics.TRAIN);
+                started.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                other.endPhase();
+            }
+        };
+        thread.start();
+        started.await();
+        RunnerStatistics stats = new RunnerStatistics();
+        stats.startPhase(RunnerStatistics.RECOMMEND);
+        UserPartitionExecutor.run(new long[200], 3, new UserPartitionExecutor.UserTask<double[]>() {
+            @Override
+            public double[] compute(final long user) {
+                return new double[1000];
+            }
+        }, new UserPartitionExecutor.ResultSink<double[]>() {
+            @Override
+            public void consume(final long user, final double[] result) {
+            }
+        });
+        Map<String, String> values = values(stats);
+        done.countDown();
+        thread.join();
+        Map<String, String> otherValues = values(other);
+        // the heap is shared by both runners, so its peak is not reported
+        assertFalse(values.containsKey("recommend.peak_heap_bytes"));
+        assertFalse(otherValues.containsKey("train.peak_heap_bytes"));
+        if (RunnerStatistics.threadAllocatedBytes() > 0L) {
+            // the workers only add their allocations to the runner that started them
+            assertTrue(Long.parseLong(values.get("recommend.allocated_bytes")) >= 200L * 1000L * 8L);
+            assertTrue(Long.parseLong(otherValues.get("train.allocated_bytes")) < 200L * 1000L * 8L);
+        }
+    }
+}
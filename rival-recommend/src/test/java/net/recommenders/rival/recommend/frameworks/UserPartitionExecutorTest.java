@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test for {@link UserPartitionExecutor}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class UserPartitionExecutorTest {
+
+    @Test
+    public void testOrderDoesNotDependOnThreads() throws Exception {
+        long[] users = new long[1000];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = 3L * i;
+        }
+        List<Long> expected = collect(users, 1);
+        assertEquals(users.length - users.length / 7 - 1, expected.size());
+        for (int nThreads = 2; nThreads <= 8; nThreads *= 2) {
+            assertEquals(expected, collect(users, nThreads));
+        }
+    }
+
+    private static List<Long> collect(final long[] users, final int nThreads) throws Exception {
+        final List<Long> output = new ArrayList<>();
+        UserPartitionExecutor.run(users, nThreads, 10, new UserPartitionExecutor.UserTask<Long>() {
+            @Override
+            public Long compute(final long user) {
+                // skip some users
+                return (user % 7 == 0) ? null : user * user;
+            }
+        }, new UserPartitionExecutor.ResultSink<Long>() {
+            @Override
+            public void consume(final long user, final Long result) {
+                assertEquals(user * user, result.longValue());
+                output.add(user);
+            }
+        });
+        return output;
+    }
+}
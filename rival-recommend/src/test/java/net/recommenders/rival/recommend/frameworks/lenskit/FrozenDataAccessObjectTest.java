@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.lenskit;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import net.recommenders.rival.core.SplitBundle;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import org.lenskit.LenskitConfiguration;
+import org.lenskit.LenskitRecommender;
+import org.lenskit.LenskitRecommenderEngine;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingSummary;
+import org.lenskit.data.ratings.RatingVectorPDAO;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+import org.lenskit.knn.item.ItemItemScorer;
+import org.lenskit.util.IdBox;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test for {@link FrozenDataAccessObject} and {@link FrozenRatingVectorPDAO}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class FrozenDataAccessObjectTest {
+
+    private static SplitBundle createBundle() {
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        TemporalDataModelIF<Long, Long> test = new TemporalDataModel<>();
+        Random rnd = new Random(7L);
+        for (long u = 1; u <= 40; u++) {
+            for (long i = 1; i <= 25; i++) {
+                if (rnd.nextInt(3) == 0) {
+                    training.addPreference(u, i * 10, 1.0 + rnd.nextInt(5));
+                    training.addTimestamp(u, i * 10, 1000L + u * i);
+                } else if (rnd.nextInt(10) == 0) {
+                    test.addPreference(u, i * 10, 1.0 + rnd.nextInt(5));
+                }
+            }
+        }
+        // a user only in the test split
+        test.addPreference(100L, 10L, 3.0);
+        return SplitBundle.create(training, test);
+    }
+
+    private static Map<Long, Long2DoubleMap> vectors(final RatingVectorPDAO pdao) {
+        Map<Long, Long2DoubleMap> vectors = new HashMap<>();
+        for (IdBox<Long2DoubleMap> u : pdao.streamUsers()) {
+            vectors.put(u.getId(), u.getValue());
+        }
+        return vectors;
+    }
+
+    @Test
+    public void testSameAsEntityCollection() {
+        SplitBundle bundle = createBundle();
+        DataAccessObject expected = new EventDAOWrapper(bundle.getTraining());
+        DataAccessObject actual = new FrozenDataAccessObject(bundle.getTraining());
+
+        // users and items are derived from the ratings
+        assertEquals(expected.query(Rating.class).valueSet(CommonAttributes.USER_ID), actual.getEntityIds(CommonTypes.USER));
+        assertEquals(expected.query(Rating.class).valueSet(CommonAttributes.ITEM_ID), actual.getEntityIds(CommonTypes.ITEM));
+        assertEquals(expected.getEntityIds(CommonTypes.RATING).size(), actual.getEntityIds(CommonTypes.RATING).size());
+        assertEquals(vectors(new StandardRatingVectorPDAO(expected)), vectors(new StandardRatingVectorPDAO(actual)));
+        assertEquals(vectors(new StandardRatingVectorPDAO(expected)), vectors(new FrozenRatingVectorPDAO(actual)));
+
+        RatingSummary expectedSummary = RatingSummary.create(expected);
+        RatingSummary actualSummary = RatingSummary.create(actual);
+        assertEquals(expectedSummary.getItems(), actualSummary.getItems());
+        assertEquals(expectedSummary.getGlobalMean(), actualSummary.getGlobalMean(), 1e-9);
+
+        for (long i : actual.getEntityIds(CommonTypes.ITEM)) {
+            List<Rating> expectedRatings = expected.query(Rating.class).withAttribute(CommonAttributes.ITEM_ID, i).orderBy(CommonAttributes.USER_ID).get();
+            List<Rating> actualRatings = actual.query(Rating.class).withAttribute(CommonAttributes.ITEM_ID, i).get();
+            assertEquals(expectedRatings.size(), actualRatings.size());
+            for (int k = 0; k < expectedRatings.size(); k++) {
+                assertEquals(expectedRatings.get(k).getUserId(), actualRatings.get(k).getUserId());
+                assertEquals(expectedRatings.get(k).getValue(), actualRatings.get(k).getValue(), 0.0);
+                assertEquals(expectedRatings.get(k).getTimestamp(), actualRatings.get(k).getTimestamp());
+                Rating r = actual.lookupEntity(CommonTypes.RATING, actualRatings.get(k).getId(), Rating.class);
+                assertEquals(actualRatings.get(k), r);
+            }
+        }
+        List<IdBox<List<Rating>>> groups = new ArrayList<>();
+        for (IdBox<List<Rating>> g : actual.query(Rating.class).groupBy(CommonAttributes.ITEM_ID).stream()) {
+            groups.add(g);
+        }
+        assertEquals(actual.getEntityIds(CommonTypes.ITEM).size(), groups.size());
+        assertEquals(expected.query(Rating.class).withAttribute(CommonAttributes.RATING, 5.0).count(),
+                actual.query(Rating.class).withAttribute(CommonAttributes.RATING, 5.0).count());
+        assertNull(actual.lookupEntity(CommonTypes.USER, 100L));
+    }
+
+    @Test
+    public void testSameScores() throws Exception {
+        SplitBundle bundle = createBundle();
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(ItemItemScorer.class);
+        DataAccessObject expectedDao = new EventDAOWrapper(bundle.getTraining());
+        LenskitRecommender expected = LenskitRecommenderEngine.build(config, expectedDao).createRecommender(expectedDao);
+
+        config.bind(RatingVectorPDAO.class).to(FrozenRatingVectorPDAO.class);
+        DataAccessObject actualDao = new FrozenDataAccessObject(bundle.getTraining());
+        LenskitRecommender actual = LenskitRecommenderEngine.build(config, actualDao).createRecommender(actualDao);
+
+        List<Long> items = new ArrayList<>(actualDao.getEntityIds(CommonTypes.ITEM));
+        for (IdBox<Long2DoubleMap> u : new FrozenRatingVectorPDAO(new FrozenDataAccessObject(bundle.getTest())).streamUsers()) {
+            Map<Long, Double> expectedScores = expected.getItemScorer().score(u.getId(), items);
+            Map<Long, Double> actualScores = actual.getItemScorer().score(u.getId(), items);
+            assertEquals(expectedScores.keySet(), actualScores.keySet());
+            for (Map.Entry<Long, Double> e : expectedScores.entrySet()) {
+                assertEquals(e.getValue(), actualScores.get(e.getKey()), 1e-9);
+            }
+        }
+        expected.close();
+        actual.close();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.librec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.filter.GenericRecommendedFilter;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.recommender.Recommender;
+import net.librec.recommender.RecommenderContext;
+import net.librec.recommender.baseline.MostPopularRecommender;
+import net.librec.recommender.item.RecommendedItem;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.recommend.frameworks.AbstractRunner;
+import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Test for {@link LibrecRecommenderRunner}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class LibrecRecommenderRunnerTest {
+
+    /**
+     * Recommendations of each test user as computed before the list was
+     * grouped by user: the whole list is filtered, for each user, with the
+     * items not in the training profile of the user.
+     */
+    private static Map<Long, Map<Long, Double>> filterRecommendations(final DataModel training, final DataModel test, final List<RecommendedItem> recommended) {
+        Map<Long, Map<Long, Double>> recs = new HashMap<>();
+        for (String userId : test.getUserMappingData().keySet()) {
+            Integer u = training.getUserMappingData().get(userId);
+            List<String> notInTrainingItems = new ArrayList<>();
+            for (Map.Entry<String, Integer> e : training.getItemMappingData().entrySet()) {
+                if (!training.getDataSplitter().getTrainData().contains(u, e.getValue())) {
+                    notInTrainingItems.add(e.getKey());
+                }
+            }
+            List<String> userIdList = new ArrayList<>();
+            userIdList.add(userId);
+            GenericRecommendedFilter filter = new GenericRecommendedFilter();
+            filter.setUserIdList(userIdList);
+            filter.setItemIdList(notInTrainingItems);
+            Map<Long, Double> items = new HashMap<>();
+            for (RecommendedItem r : filter.filter(recommended)) {
+                items.put(Long.parseLong(r.getItemId()), r.getValue());
+            }
+            recs.put(Long.parseLong(userId), items);
+        }
+        return recs;
+    }
+
+    @Test
+    public void testRecommendations() throws Exception {
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        TemporalDataModelIF<Long, Long> test = new TemporalDataModel<>();
+        Random rnd = new Random(5L);
+        for (long u = 1; u <= 15; u++) {
+            // every user is also a training user
+            training.addPreference(u, 1 + u % 10, 5.0);
+            for (long i = 1; i <= 10; i++) {
+                if (rnd.nextInt(3) == 0) {
+                    training.addPreference(u, i, 1.0 + rnd.nextInt(5));
+                } else if (rnd.nextInt(3) == 0) {
+                    test.addPreference(u, i, 1.0 + rnd.nextInt(5));
+                }
+            }
+        }
+        Properties props = new Properties();
+        props.setProperty(RecommendationRunner.FRAMEWORK, RecommendationRunner.LIBREC);
+        props.setProperty(RecommendationRunner.RECOMMENDER, MostPopularRecommender.class.getName());
+        props.setProperty(RecommendationRunner.TRAINING_SET, "data_train.csv");
+        props.setProperty(RecommendationRunner.TEST_SET, "data_test.csv");
+        // LibRec keeps a random sample of the data for training, shared by both runs
+        DataModel trainingModel = new DataDAOWrapper(training);
+        DataModel testModel = new DataDAOWrapper(test);
+        LibrecRecommenderRunner runner = new LibrecRecommenderRunner(props);
+        TemporalDataModelIF<Long, Long> actual = runner.runLibrecRecommender(AbstractRunner.RUN_OPTIONS.RETURN_RECS, trainingModel, testModel);
+
+        // the same list, filtered as before
+        Configuration conf = new Configuration();
+        conf.set("rec.recommender.isranking", "true");
+        conf.set("rec.recommender.ranking.topn", trainingModel.getItemMappingData().size() + "");
+        RecommenderContext rc = new RecommenderContext(conf, trainingModel);
+        Recommender rec = new MostPopularRecommender();
+        rec.setContext(rc);
+        rec.recommend(rc);
+        Map<Long, Map<Long, Double>> expected = filterRecommendations(trainingModel, testModel, rec.getRecommendedList());
+
+        int n = 0;
+        for (Long u : test.getUsers()) {
+            Set<Long> trainingItems = new HashSet<>();
+            SparseMatrix trainData = trainingModel.getDataSplitter().getTrainData();
+            int row = trainingModel.getUserMappingData().get(u.toString());
+            for (int p = trainData.rowPtr[row]; p < trainData.rowPtr[row + 1]; p++) {
+                trainingItems.add(Long.parseLong(trainingModel.getItemMappingData().inverse().get(trainData.colInd[p])));
+            }
+            Set<Long> items = new HashSet<>();
+            for (Long i : actual.getUserItems(u)) {
+                items.add(i);
+                // training items are not recommended
+                assertFalse(trainingItems.contains(i));
+                assertEquals(expected.get(u).get(i), actual.getUserItemPreference(u, i), 1e-9);
+            }
+            assertEquals(expected.get(u).keySet(), items);
+            n += items.size();
+        }
+        assertFalse(n == 0);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.mahout;
+
+import java.util.Arrays;
+import java.util.Random;
+import net.recommenders.rival.core.SplitBundle;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link FrozenDataModelAdapter}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class FrozenDataModelAdapterTest {
+
+    private static long[] ids(final LongPrimitiveIterator it) {
+        long[] ids = new long[0];
+        while (it.hasNext()) {
+            ids = Arrays.copyOf(ids, ids.length + 1);
+            ids[ids.length - 1] = it.nextLong();
+        }
+        return ids;
+    }
+
+    private static void assertSamePreferences(final PreferenceArray expected, final PreferenceArray actual) {
+        assertEquals(expected.length(), actual.length());
+        for (int k = 0; k < expected.length(); k++) {
+            assertEquals(expected.getUserID(k), actual.getUserID(k));
+            assertEquals(expected.getItemID(k), actual.getItemID(k));
+            assertEquals(expected.getValue(k), actual.getValue(k), 0.0f);
+        }
+        assertArrayEquals(expected.getIDs(), actual.getIDs());
+    }
+
+    @Test
+    public void testSameAsGenericDataModel() throws Exception {
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        TemporalDataModelIF<Long, Long> test = new TemporalDataModel<>();
+        Random rnd = new Random(5L);
+        for (long u = 1; u <= 30; u++) {
+            for (long i = 1; i <= 20; i++) {
+                int r = rnd.nextInt(6);
+                if (r == 0) {
+                    training.addPreference(u, i * 10, 1.0 + rnd.nextInt(5));
+                    training.addTimestamp(u, i * 10, 1000L + u);
+                } else if (r == 1) {
+                    training.addPreference(u, i * 10, 0.5 * rnd.nextInt(10));
+                }
+            }
+        }
+        // users and items only in the test split
+        test.addPreference(100L, 10L, 3.0);
+        test.addPreference(1L, 999L, 3.0);
+        SplitBundle bundle = SplitBundle.create(training, test);
+        DataModel expected = new DataModelWrapper(bundle.getTraining());
+        DataModel actual = new FrozenDataModelAdapter(bundle.getTraining());
+
+        assertEquals(expected.getNumUsers(), actual.getNumUsers());
+        assertEquals(expected.getNumItems(), actual.getNumItems());
+        assertEquals(expected.getMaxPreference(), actual.getMaxPreference(), 0.0f);
+        assertEquals(expected.getMinPreference(), actual.getMinPreference(), 0.0f);
+        long[] users = ids(expected.getUserIDs());
+        long[] items = ids(expected.getItemIDs());
+        assertArrayEquals(users, ids(actual.getUserIDs()));
+        assertArrayEquals(items, ids(actual.getItemIDs()));
+        for (long u : users) {
+            assertSamePreferences(expected.getPreferencesFromUser(u), actual.getPreferencesFromUser(u));
+            assertEquals(expected.getItemIDsFromUser(u), actual.getItemIDsFromUser(u));
+            for (long i : items) {
+                assertEquals(expected.getPreferenceValue(u, i), actual.getPreferenceValue(u, i));
+                assertEquals(expected.getPreferenceTime(u, i), actual.getPreferenceTime(u, i));
+            }
+        }
+        for (long i : items) {
+            assertSamePreferences(expected.getPreferencesForItem(i), actual.getPreferencesForItem(i));
+            assertEquals(expected.getNumUsersWithPreferenceFor(i), actual.getNumUsersWithPreferenceFor(i));
+            for (long j : items) {
+                assertEquals(expected.getNumUsersWithPreferenceFor(i, j), actual.getNumUsersWithPreferenceFor(i, j));
+            }
+        }
+        PreferenceArray prefs = actual.getPreferencesFromUser(users[0]);
+        assertTrue(prefs.hasPrefWithItemID(prefs.getItemID(0)));
+        assertFalse(prefs.hasPrefWithItemID(999L));
+        PreferenceArray copy = prefs.clone();
+        copy.sortByValueReversed();
+        assertEquals(prefs.length(), copy.length());
+    }
+
+    @Test(expected = NoSuchUserException.class)
+    public void testUserOnlyInTest() throws Exception {
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        TemporalDataModelIF<Long, Long> test = new TemporalDataModel<>();
+        training.addPreference(1L, 10L, 1.0);
+        test.addPreference(2L, 10L, 1.0);
+        new FrozenDataModelAdapter(SplitBundle.create(training, test).getTraining()).getPreferencesFromUser(2L);
+    }
+
+    @Test(expected = NoSuchItemException.class)
+    public void testItemOnlyInTest() throws Exception {
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        TemporalDataModelIF<Long, Long> test = new TemporalDataModel<>();
+        training.addPreference(1L, 10L, 1.0);
+        test.addPreference(1L, 11L, 1.0);
+        new FrozenDataModelAdapter(SplitBundle.create(training, test).getTraining()).getPreferencesForItem(11L);
+    }
+}
@@ -27,10 +27,16 @@ import org.apache.mahout.cf.taste.impl.recommender.RandomRecommender;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.cf.taste.impl.recommender.svd.FilePersistenceStrategy;
+import org.apache.mahout.cf.taste.impl.recommender.svd.SVDRecommender;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.util.Arrays;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -40,6 +46,9 @@ import static org.junit.Assert.assertTrue;
  */
 public class GenericRecommenderBuilderTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testBuildDefaultRecommender() {
 
@@ -80,4 +89,26 @@ public class GenericRecommenderBuilderTest {
         }
         assertTrue(rec instanceof GenericUserBasedRecommender);
     }
+
+    @Test
+    public void testBuildSVDRecommenderWithPersistence() throws Exception {
+        GenericRecommenderBuilder rb = new GenericRecommenderBuilder();
+        FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+        userData.put(1, new GenericUserPreferenceArray(Arrays.asList(new GenericPreference(1, 1, 1),
+                new GenericPreference(1, 2, 4), new GenericPreference(1, 3, 2))));
+        userData.put(2, new GenericUserPreferenceArray(Arrays.asList(new GenericPreference(2, 1, 5),
+                new GenericPreference(2, 2, 1), new GenericPreference(2, 4, 3))));
+        DataModel dm = new GenericDataModel(userData);
+
+        File file = folder.newFile("svd.bin");
+        assertTrue(file.delete());
+        String recommenderType = "org.apache.mahout.cf.taste.impl.recommender.svd.SVDRecommender";
+        String factorizerType = "org.apache.mahout.cf.taste.impl.recommender.svd.RatingSGDFactorizer";
+        Recommender rec = rb.buildRecommender(dm, recommenderType, null, GenericRecommenderBuilder.NO_N, 2, 5, factorizerType, new FilePersistenceStrategy(file));
+        assertTrue(rec instanceof SVDRecommender);
+        assertTrue(file.exists());
+        // the second recommender reads the factorization from the file
+        Recommender cached = rb.buildRecommender(dm, recommenderType, null, GenericRecommenderBuilder.NO_N, 2, 5, factorizerType, new FilePersistenceStrategy(file));
+        assertEquals(rec.estimatePreference(1, 4), cached.estimatePreference(1, 4), 0.0);
+    }
 }
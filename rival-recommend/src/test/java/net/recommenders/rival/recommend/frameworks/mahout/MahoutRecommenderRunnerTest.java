@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.mahout;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.recommend.frameworks.AbstractRunner;
+import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
+import org.apache.mahout.cf.taste.impl.recommender.svd.FilePersistenceStrategy;
+import org.apache.mahout.cf.taste.impl.recommender.svd.RatingSGDFactorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.SVDRecommender;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Test for {@link MahoutRecommenderRunner}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class MahoutRecommenderRunnerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBatchSVD() throws Exception {
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        TemporalDataModelIF<Long, Long> test = new TemporalDataModel<>();
+        Random rnd = new Random(7L);
+        for (long u = 1; u <= 30; u++) {
+            for (long i = 1; i <= 20; i++) {
+                if (rnd.nextInt(2) == 0) {
+                    training.addPreference(u, i, 1.0 + rnd.nextInt(5));
+                } else if (rnd.nextInt(3) == 0) {
+                    test.addPreference(u, i, 1.0 + rnd.nextInt(5));
+                }
+            }
+        }
+        // a user without factors
+        test.addPreference(100L, 1L, 1.0);
+        Properties props = new Properties();
+        props.setProperty(RecommendationRunner.FRAMEWORK, RecommendationRunner.MAHOUT);
+        props.setProperty(RecommendationRunner.RECOMMENDER, SVDRecommender.class.getName());
+        props.setProperty(RecommendationRunner.FACTORIZER, RatingSGDFactorizer.class.getName());
+        props.setProperty(RecommendationRunner.FACTORS, "3");
+        props.setProperty(RecommendationRunner.TRAINING_SET, "data_train.csv");
+        props.setProperty(RecommendationRunner.TEST_SET, "data_test.csv");
+        props.setProperty(RecommendationRunner.MODEL_CACHE, folder.getRoot().getAbsolutePath());
+        DataModel trainingModel = new DataModelWrapper(training);
+        DataModel testModel = new DataModelWrapper(test);
+        TemporalDataModelIF<Long, Long> actual = new MahoutRecommenderRunner(props).runMahoutRecommender(AbstractRunner.RUN_OPTIONS.RETURN_RECS, trainingModel, testModel);
+
+        // Mahout's recommender, with the same (cached) factorization
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        Recommender expected = new GenericRecommenderBuilder().buildRecommender(trainingModel, SVDRecommender.class.getName(), null,
+                GenericRecommenderBuilder.NO_N, 3, MahoutRecommenderRunner.DEFAULT_ITERATIONS, RatingSGDFactorizer.class.getName(),
+                new FilePersistenceStrategy(files[0]));
+        int n = 0;
+        for (Long u : test.getUsers()) {
+            Map<Long, Double> items = new HashMap<>();
+            for (Long i : actual.getUserItems(u)) {
+                items.put(i, actual.getUserItemPreference(u, i));
+            }
+            if (u == 100L) {
+                assertEquals(0, items.size());
+                continue;
+            }
+            List<RecommendedItem> recs = expected.recommend(u, trainingModel.getNumItems());
+            assertEquals(recs.size(), items.size());
+            for (RecommendedItem r : recs) {
+                // Mahout rounds the scores to floats
+                assertEquals(r.getValue(), items.get(r.getItemID()), 1e-5 * Math.max(1.0, Math.abs(r.getValue())));
+            }
+            n += items.size();
+        }
+        assertFalse(n == 0);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.ranksys;
+
+import es.uam.eps.ir.ranksys.fast.index.FastItemIndex;
+import es.uam.eps.ir.ranksys.fast.index.FastUserIndex;
+import es.uam.eps.ir.ranksys.fast.index.SimpleFastItemIndex;
+import es.uam.eps.ir.ranksys.fast.index.SimpleFastUserIndex;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import es.uam.eps.ir.ranksys.fast.preference.IdxPref;
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import net.recommenders.rival.core.SplitBundle;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link FrozenPreferenceData}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class FrozenPreferenceDataTest {
+
+    private static List<Double> values(final DoubleIterator it) {
+        List<Double> values = new ArrayList<>();
+        while (it.hasNext()) {
+            values.add(it.nextDouble());
+        }
+        return values;
+    }
+
+    private static List<Integer> indices(final IntIterator it) {
+        List<Integer> indices = new ArrayList<>();
+        while (it.hasNext()) {
+            indices.add(it.nextInt());
+        }
+        return indices;
+    }
+
+    private static List<String> prefs(final FastPreferenceData<Long, Long> data, final int idx, final boolean byUser) {
+        return (byUser ? data.getUidxPreferences(idx) : data.getIidxPreferences(idx))
+                .map((IdxPref p) -> p.v1 + ":" + p.v2)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testSameAsSimpleFastPreferenceData() {
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        TemporalDataModelIF<Long, Long> test = new TemporalDataModel<>();
+        Random rnd = new Random(11L);
+        for (long u = 1; u <= 30; u++) {
+            for (long i = 1; i <= 20; i++) {
+                int r = rnd.nextInt(5);
+                if (r == 0) {
+                    training.addPreference(u, i * 3, 1.0 + rnd.nextInt(5));
+                } else if (r == 1) {
+                    test.addPreference(u, i * 3, 1.0 + rnd.nextInt(5));
+                }
+            }
+        }
+        test.addPreference(100L, 999L, 1.0);
+        SplitBundle bundle = SplitBundle.create(training, test);
+        FastUserIndex<Long> userIndex = SimpleFastUserIndex.load(LongStream.of(bundle.getTraining().getUserIds()).boxed());
+        FastItemIndex<Long> itemIndex = SimpleFastItemIndex.load(LongStream.of(bundle.getTraining().getItemIds()).boxed());
+        FrozenUserIndex frozenUsers = new FrozenUserIndex(bundle.getTraining().getUserIds());
+        FrozenItemIndex frozenItems = new FrozenItemIndex(bundle.getTraining().getItemIds());
+
+        for (boolean isTraining : new boolean[]{true, false}) {
+            FastPreferenceData<Long, Long> expected = new PreferenceDataWrapper(isTraining ? bundle.getTraining() : bundle.getTest(), userIndex, itemIndex);
+            FrozenPreferenceData actual = new FrozenPreferenceData(isTraining ? bundle.getTraining() : bundle.getTest(), frozenUsers, frozenItems);
+            assertEquals(expected.numUsers(), actual.numUsers());
+            assertEquals(expected.numItems(), actual.numItems());
+            assertEquals(expected.numPreferences(), actual.numPreferences());
+            assertEquals(expected.numUsersWithPreferences(), actual.numUsersWithPreferences());
+            assertEquals(expected.numItemsWithPreferences(), actual.numItemsWithPreferences());
+            assertEquals(expected.getUidxWithPreferences().boxed().collect(Collectors.toList()), actual.getUidxWithPreferences().boxed().collect(Collectors.toList()));
+            assertEquals(expected.getIidxWithPreferences().boxed().collect(Collectors.toList()), actual.getIidxWithPreferences().boxed().collect(Collectors.toList()));
+            for (int uidx = 0; uidx < expected.numUsers(); uidx++) {
+                assertEquals(expected.uidx2user(uidx), actual.uidx2user(uidx));
+                assertEquals(uidx, actual.user2uidx(expected.uidx2user(uidx)));
+                assertEquals(expected.numItems(uidx), actual.numItems(uidx));
+                assertEquals(prefs(expected, uidx, true), prefs(actual, uidx, true));
+                assertEquals(indices(expected.getUidxIidxs(uidx)), indices(actual.getUidxIidxs(uidx)));
+                assertEquals(values(expected.getUidxVs(uidx)), values(actual.getUidxVs(uidx)));
+            }
+            for (int iidx = 0; iidx < expected.numItems(); iidx++) {
+                assertEquals(expected.iidx2item(iidx), actual.iidx2item(iidx));
+                assertEquals(expected.numUsers(iidx), actual.numUsers(iidx));
+                assertEquals(prefs(expected, iidx, false), prefs(actual, iidx, false));
+                List<Integer> uidxs = indices(actual.getIidxUidxs(iidx));
+                List<Double> vs = values(actual.getIidxVs(iidx));
+                assertEquals(uidxs.size(), vs.size());
+                for (int k = 0; k < uidxs.size(); k++) {
+                    assertEquals(vs.get(k), actual.getPreference(uidxs.get(k), iidx).get().v2, 0.0);
+                }
+            }
+        }
+        assertEquals(-1, frozenUsers.user2uidx(12345L));
+        assertFalse(frozenItems.containsItem(12345L));
+        assertTrue(frozenItems.containsItem(999L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIndicesMustMatch() {
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        training.addPreference(1L, 10L, 1.0);
+        training.addPreference(2L, 11L, 1.0);
+        SplitBundle bundle = SplitBundle.create(training, new TemporalDataModel<Long, Long>());
+        new FrozenPreferenceData(bundle.getTraining(), new FrozenUserIndex(new long[]{1L}), new FrozenItemIndex(bundle.getTraining().getItemIds()));
+    }
+}
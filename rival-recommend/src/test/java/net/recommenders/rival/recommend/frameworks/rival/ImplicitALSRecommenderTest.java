@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.rival;
+
+import java.util.Properties;
+import java.util.Random;
+import net.recommenders.rival.core.FrozenDataModel;
+import net.recommenders.rival.core.SplitBundle;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link ImplicitALSRecommender}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class ImplicitALSRecommenderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static FrozenDataModel createBlocks() {
+        // users 1-20 like items 1-15, users 21-40 like items 16-30
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        Random rnd = new Random(3L);
+        for (long u = 1; u <= 40; u++) {
+            for (long i = 1; i <= 30; i++) {
+                if ((u <= 20) == (i <= 15) && rnd.nextInt(2) == 0) {
+                    training.addPreference(u, i, 1.0 + rnd.nextInt(5));
+                }
+            }
+        }
+        return SplitBundle.create(training, new TemporalDataModel<Long, Long>()).getTraining();
+    }
+
+    private static Properties properties() {
+        Properties props = new Properties();
+        props.setProperty(RecommendationRunner.FACTORS, "4");
+        props.setProperty(RecommendationRunner.ITERATIONS, "10");
+        return props;
+    }
+
+    @Test
+    public void testCholesky() {
+        double[] a = new double[]{4, 2, 2, 2, 5, 3, 2, 3, 6};
+        double[] x = new double[]{8, 10, 11};
+        ImplicitALSRecommender.cholesky(a, x, 3);
+        assertArrayEquals(new double[]{1, 1, 1}, x, 1e-12);
+    }
+
+    @Test
+    public void testFactorization() throws Exception {
+        FrozenDataModel model = createBlocks();
+        ImplicitALSRecommender als = new ImplicitALSRecommender();
+        als.train(model, properties(), 3);
+        assertEquals(4, als.getK());
+        final double[][] sums = new double[model.getUserIds().length][2];
+        for (int u = 0; u < model.getUserIds().length; u++) {
+            final int user = u;
+            als.score(u, model.getUserIds()[u], (item, score) -> {
+                sums[user][model.getItemIds()[item] <= 15 ? 0 : 1] += score;
+                return true;
+            });
+            // the items of the block of the user get higher scores
+            assertTrue(model.getUserIds()[u] <= 20 ? sums[u][0] > sums[u][1] : sums[u][1] > sums[u][0]);
+        }
+        ImplicitALSRecommender single = new ImplicitALSRecommender();
+        single.train(model, properties(), 1);
+        assertArrayEquals(als.getUserFactors(), single.getUserFactors(), 0.0);
+        assertArrayEquals(als.getItemFactors(), single.getItemFactors(), 0.0);
+    }
+
+    @Test
+    public void testCachedFactors() throws Exception {
+        FrozenDataModel model = createBlocks();
+        Properties props = properties();
+        props.setProperty(RecommendationRunner.MODEL_CACHE, folder.getRoot().getAbsolutePath());
+        ImplicitALSRecommender trained = new ImplicitALSRecommender();
+        trained.train(model, props, 2);
+        assertEquals(1, folder.getRoot().listFiles().length);
+        ImplicitALSRecommender loaded = new ImplicitALSRecommender();
+        loaded.train(model, props, 2);
+        assertArrayEquals(trained.getUserFactors(), loaded.getUserFactors(), 0.0);
+        assertArrayEquals(trained.getItemFactors(), loaded.getItemFactors(), 0.0);
+
+        // only the parameters used by the factorization identify the model
+        props.setProperty(RecommendationRunner.NEIGHBORHOOD, "10");
+        new ImplicitALSRecommender().train(model, props, 2);
+        assertEquals(1, folder.getRoot().listFiles().length);
+        props.setProperty(RecommendationRunner.ITERATIONS, "3");
+        new ImplicitALSRecommender().train(model, props, 2);
+        assertEquals(2, folder.getRoot().listFiles().length);
+        props.setProperty(ImplicitALSRecommender.LAMBDA, "0.5");
+        new ImplicitALSRecommender().train(model, props, 2);
+        assertEquals(3, folder.getRoot().listFiles().length);
+        props.setProperty(ImplicitALSRecommender.ALPHA, "2");
+        new ImplicitALSRecommender().train(model, props, 2);
+        assertEquals(4, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void testParameters() throws Exception {
+        FrozenDataModel model = createBlocks();
+        ImplicitALSRecommender defaults = new ImplicitALSRecommender();
+        defaults.train(model, properties(), 1);
+        Properties props = properties();
+        props.setProperty(ImplicitALSRecommender.LAMBDA, "" + ImplicitALSRecommender.DEFAULT_LAMBDA);
+        props.setProperty(ImplicitALSRecommender.ALPHA, "" + ImplicitALSRecommender.DEFAULT_ALPHA);
+        ImplicitALSRecommender explicit = new ImplicitALSRecommender();
+        explicit.train(model, props, 1);
+        assertArrayEquals(defaults.getUserFactors(), explicit.getUserFactors(), 0.0);
+        // a stronger regularization shrinks the factors
+        props.setProperty(ImplicitALSRecommender.LAMBDA, "100");
+        ImplicitALSRecommender regularized = new ImplicitALSRecommender();
+        regularized.train(model, props, 1);
+        assertTrue(norm(regularized.getUserFactors()) < norm(defaults.getUserFactors()));
+    }
+
+    private static double norm(final double[] factors) {
+        double n = 0.0;
+        for (double f : factors) {
+            n += f * f;
+        }
+        return n;
+    }
+}
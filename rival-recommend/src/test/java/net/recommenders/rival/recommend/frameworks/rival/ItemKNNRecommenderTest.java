@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.rival;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import net.recommenders.rival.core.FrozenDataModel;
+import net.recommenders.rival.core.SplitBundle;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link ItemKNNRecommender}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class ItemKNNRecommenderTest {
+
+    private static double[][] dense(final FrozenDataModel model, final boolean centered) {
+        int[] rows = model.getRowPointers();
+        double[][] m = new double[model.getUserIds().length][model.getItemIds().length];
+        for (int u = 0; u < m.length; u++) {
+            double mean = 0.0;
+            for (int p = rows[u]; p < rows[u + 1]; p++) {
+                mean += model.getValues()[p];
+            }
+            mean = centered && rows[u + 1] > rows[u] ? mean / (rows[u + 1] - rows[u]) : 0.0;
+            for (int p = rows[u]; p < rows[u + 1]; p++) {
+                m[u][model.getItemIndices()[p]] = model.getValues()[p] - mean;
+            }
+        }
+        return m;
+    }
+
+    private static Map<Integer, Double> bruteForce(final double[][] m, final int user, final int k) {
+        int nItems = m[0].length;
+        double[][] sim = new double[nItems][nItems];
+        for (int i = 0; i < nItems; i++) {
+            for (int j = 0; j < nItems; j++) {
+                double dot = 0.0;
+                double ni = 0.0;
+                double nj = 0.0;
+                boolean common = false;
+                for (double[] row : m) {
+                    dot += row[i] * row[j];
+                    ni += row[i] * row[i];
+                    nj += row[j] * row[j];
+                    common |= row[i] != 0.0 && row[j] != 0.0;
+                }
+                sim[i][j] = (i == j || !common) ? Double.NaN : dot / Math.sqrt(ni * nj);
+            }
+        }
+        Map<Integer, Double> scores = new HashMap<>();
+        for (int j = 0; j < nItems; j++) {
+            if (m[user][j] == 0.0) {
+                continue;
+            }
+            List<double[]> neighbors = new ArrayList<>();
+            for (int i = 0; i < nItems; i++) {
+                if (!Double.isNaN(sim[j][i])) {
+                    neighbors.add(new double[]{sim[j][i], i});
+                }
+            }
+            Collections.sort(neighbors, (a, b) -> Double.compare(b[0], a[0]));
+            for (int r = 0; r < Math.min(k, neighbors.size()); r++) {
+                int i = (int) neighbors.get(r)[1];
+                Double s = scores.get(i);
+                scores.put(i, (s == null ? 0.0 : s) + m[user][j] * neighbors.get(r)[0]);
+            }
+        }
+        return scores;
+    }
+
+    @Test
+    public void testSameScoresAsBruteForce() throws Exception {
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        Random rnd = new Random(23L);
+        for (long u = 1; u <= 40; u++) {
+            for (long i = 1; i <= 30; i++) {
+                if (rnd.nextInt(3) == 0) {
+                    training.addPreference(u, i * 2, 1.0 + 4.0 * rnd.nextDouble());
+                }
+            }
+        }
+        FrozenDataModel model = SplitBundle.create(training, new TemporalDataModel<Long, Long>()).getTraining();
+        for (String similarity : new String[]{ItemKNNRecommender.COSINE, ItemKNNRecommender.ADJUSTED_COSINE}) {
+            Properties props = new Properties();
+            props.setProperty(RecommendationRunner.SIMILARITY, similarity);
+            props.setProperty(RecommendationRunner.NEIGHBORHOOD, "5");
+            ItemKNNRecommender recommender = new ItemKNNRecommender();
+            recommender.train(model, props, 3);
+            double[][] m = dense(model, ItemKNNRecommender.ADJUSTED_COSINE.equals(similarity));
+            for (int u = 0; u < m.length; u++) {
+                final Map<Integer, Double> actual = new HashMap<>();
+                recommender.score(u, model.getUserIds()[u], (item, score) -> {
+                    actual.put(item, score);
+                    return true;
+                });
+                Map<Integer, Double> expected = bruteForce(m, u, 5);
+                assertEquals(expected.keySet(), actual.keySet());
+                for (Map.Entry<Integer, Double> e : expected.entrySet()) {
+                    assertEquals(e.getValue(), actual.get(e.getKey()), 1e-9);
+                }
+            }
+        }
+        final List<Integer> none = new ArrayList<>();
+        ItemKNNRecommender recommender = new ItemKNNRecommender();
+        recommender.train(model, new Properties(), 1);
+        recommender.score(-1, 1000L, (item, score) -> none.add(item));
+        assertTrue(none.isEmpty());
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.rival;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import net.recommenders.rival.core.SplitBundle;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.recommend.frameworks.AbstractRunner;
+import net.recommenders.rival.recommend.frameworks.RecommendationRunner;
+import net.recommenders.rival.recommend.frameworks.RunnerStatistics;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test for {@link RivalRecommenderRunner} and the baseline recommenders.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class RivalRecommenderRunnerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Recommender that fails when it scores the user 50.
+     */
+    public static class FailingRecommender extends PopularityRecommender {
+
+        @Override
+        public void score(final int user, final long userId, final ScoreConsumer consumer) {
+            if (userId == 50L) {
+                throw new IllegalStateException("failing user");
+            }
+            super.score(user, userId, consumer);
+        }
+    }
+
+    private static Properties properties(final Class<?> recommender, final int threads, final int topK) {
+        Properties props = new Properties();
+        props.setProperty(RecommendationRunner.FRAMEWORK, RecommendationRunner.RIVAL);
+        props.setProperty(RecommendationRunner.RECOMMENDER, recommender.getName());
+        props.setProperty(RecommendationRunner.TRAINING_SET, "data_train.csv");
+        props.setProperty(RecommendationRunner.TEST_SET, "data_test.csv");
+        props.setProperty(RecommendationRunner.THREADS, "" + threads);
+        props.setProperty(RecommendationRunner.TOP_K, "" + topK);
+        return props;
+    }
+
+    private static TemporalDataModelIF<Long, Long> recommend(final Properties props, final TemporalDataModelIF<Long, Long> training, final TemporalDataModelIF<Long, Long> test) throws Exception {
+        AbstractRunner<Long, Long> runner = RecommendationRunner.instantiateRecommender(props);
+        assertTrue(runner instanceof RivalRecommenderRunner);
+        return runner.run(AbstractRunner.RUN_OPTIONS.RETURN_RECS, training, test);
+    }
+
+    private static Map<Long, Map<Long, Double>> asMap(final TemporalDataModelIF<Long, Long> model) {
+        Map<Long, Map<Long, Double>> map = new HashMap<>();
+        for (Long u : model.getUsers()) {
+            Map<Long, Double> items = new HashMap<>();
+            for (Long i : model.getUserItems(u)) {
+                items.put(i, model.getUserItemPreference(u, i));
+            }
+            map.put(u, items);
+        }
+        return map;
+    }
+
+    @Test
+    public void testNonPersonalizedBaselines() throws Exception {
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        // item 10: 3 preferences (avg 2), item 20: 2 (avg 4.5), item 30: 1 (avg 5), item 40: 1 (avg 1)
+        training.addPreference(1L, 10L, 1.0);
+        training.addPreference(2L, 10L, 2.0);
+        training.addPreference(3L, 10L, 3.0);
+        training.addPreference(1L, 20L, 4.0);
+        training.addPreference(2L, 20L, 5.0);
+        training.addPreference(3L, 30L, 5.0);
+        training.addPreference(4L, 40L, 1.0);
+        TemporalDataModelIF<Long, Long> test = new TemporalDataModel<>();
+        test.addPreference(1L, 30L, 1.0);
+        test.addPreference(4L, 50L, 1.0);
+        test.addPreference(5L, 10L, 1.0);
+
+        TemporalDataModelIF<Long, Long> pop = recommend(properties(PopularityRecommender.class, 2, 2), training, test);
+        assertEquals(3, pop.getNumUsers());
+        // training items of the user are excluded
+        assertEquals(1.0, pop.getUserItemPreference(1L, 30L), 0.0);
+        assertEquals(1.0, pop.getUserItemPreference(1L, 40L), 0.0);
+        assertTrue(Double.isNaN(pop.getUserItemPreference(1L, 10L)));
+        assertEquals(3.0, pop.getUserItemPreference(4L, 10L), 0.0);
+        assertEquals(2.0, pop.getUserItemPreference(4L, 20L), 0.0);
+        // a user without training preferences, and an item only in the test split
+        assertEquals(3.0, pop.getUserItemPreference(5L, 10L), 0.0);
+        assertTrue(Double.isNaN(pop.getUserItemPreference(5L, 50L)));
+
+        TemporalDataModelIF<Long, Long> avg = recommend(properties(ItemAverageRecommender.class, 1, 0), training, test);
+        assertEquals(2, asMap(avg).get(1L).size());
+        assertEquals(5.0, avg.getUserItemPreference(1L, 30L), 0.0);
+        assertEquals(4, asMap(avg).get(5L).size());
+        assertEquals(4.5, avg.getUserItemPreference(5L, 20L), 0.0);
+    }
+
+    @Test
+    public void testRandomDoesNotDependOnThreads() throws Exception {
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        TemporalDataModelIF<Long, Long> test = new TemporalDataModel<>();
+        Random rnd = new Random(5L);
+        for (long u = 1; u <= 200; u++) {
+            for (long i = 1; i <= 50; i++) {
+                if (rnd.nextInt(4) == 0) {
+                    training.addPreference(u, i, 1.0);
+                } else if (rnd.nextInt(10) == 0) {
+                    test.addPreference(u, i, 1.0);
+                }
+            }
+        }
+        Map<Long, Map<Long, Double>> expected = asMap(recommend(properties(RandomRecommender.class, 1, 10), training, test));
+        Map<Long, Map<Long, Double>> actual = asMap(recommend(properties(RandomRecommender.class, 4, 10), training, test));
+        assertEquals(expected, actual);
+        for (Map.Entry<Long, Map<Long, Double>> e : actual.entrySet()) {
+            assertEquals(10, e.getValue().size());
+            for (Long i : e.getValue().keySet()) {
+                assertTrue(Double.isNaN(training.getUserItemPreference(e.getKey(), i)));
+            }
+        }
+        assertNotEquals(actual.get(1L).keySet(), actual.get(2L).keySet());
+
+        Properties props = properties(RandomRecommender.class, 3, 0);
+        props.setProperty(RandomRecommender.SEED, "7");
+        Map<Long, Map<Long, Double>> all = asMap(recommend(props, training, test));
+        for (Map.Entry<Long, Map<Long, Double>> e : all.entrySet()) {
+            for (long i = 1; i <= 50; i++) {
+                assertEquals(Double.isNaN(training.getUserItemPreference(e.getKey(), i)), e.getValue().containsKey(i));
+            }
+        }
+    }
+
+    @Test
+    public void testBundleOnlyJob() throws Exception {
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        training.addPreference(1L, 10L, 1.0);
+        training.addPreference(2L, 10L, 1.0);
+        training.addPreference(2L, 20L, 1.0);
+        TemporalDataModelIF<Long, Long> test = new TemporalDataModel<>();
+        test.addPreference(1L, 20L, 1.0);
+        File bundleFile = folder.newFile("split_0.bundle");
+        SplitBundle.create(training, test).write(bundleFile);
+
+        // neither the training nor the test set are given
+        Properties props = new Properties();
+        props.setProperty(RecommendationRunner.FRAMEWORK, RecommendationRunner.RIVAL);
+        props.setProperty(RecommendationRunner.RECOMMENDER, PopularityRecommender.class.getName());
+        props.setProperty(SplitBundle.PROPERTY, bundleFile.getAbsolutePath());
+        props.setProperty(RecommendationRunner.OUTPUT, folder.getRoot().getAbsolutePath());
+        AbstractRunner<Long, Long> runner = RecommendationRunner.instantiateRecommender(props);
+        assertTrue(runner instanceof RivalRecommenderRunner);
+        RecommendationRunner.run(runner);
+        String stats = runner.getCanonicalFileName();
+        List<String> recs = Files.readAllLines(new File(stats.substring(0, stats.length() - ".stats".length())).toPath());
+        // the training item of user 1 is excluded
+        assertEquals(1, recs.size());
+        assertTrue(recs.get(0).startsWith("1\t20\t"));
+    }
+
+    @Test
+    public void testFailedRunStopsWriter() throws Exception {
+        TemporalDataModelIF<Long, Long> training = new TemporalDataModel<>();
+        TemporalDataModelIF<Long, Long> test = new TemporalDataModel<>();
+        for (long u = 1; u <= 100; u++) {
+            training.addPreference(u, u % 7, 1.0);
+            test.addPreference(u, 100L, 1.0);
+        }
+        Properties props = properties(FailingRecommender.class, 1, 0);
+        props.setProperty(RecommendationRunner.OUTPUT, folder.getRoot().getAbsolutePath());
+        props.setProperty(RecommendationRunner.CHECKPOINT_USERS, "10");
+        AbstractRunner<Long, Long> runner = RecommendationRunner.instantiateRecommender(props);
+        try {
+            runner.run(AbstractRunner.RUN_OPTIONS.OUTPUT_RECS, training, test);
+            fail("the recommender should fail");
+        } catch (Exception e) {
+            // expected
+        }
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            assertFalse(t.getName(), t.getName().startsWith("recommendation-sink-") && t.isAlive());
+        }
+        // the partial output is kept to be resumed
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(2, files.length);
+        // the failed runner is no longer measured, so the peak heap of the next one is reported
+        RunnerStatistics next = new RunnerStatistics();
+        next.startPhase(RunnerStatistics.TRAIN);
+        next.endPhase();
+        assertTrue(next.getLines().toString(), next.getLines().toString().contains("train.peak_heap_bytes"));
+    }
+}
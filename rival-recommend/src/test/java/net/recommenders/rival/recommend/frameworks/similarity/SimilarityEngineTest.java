@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.recommend.frameworks.similarity;
+
+import es.uam.eps.ir.ranksys.fast.index.FastItemIndex;
+import es.uam.eps.ir.ranksys.fast.index.FastUserIndex;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import es.uam.eps.ir.ranksys.nn.user.sim.VectorCosineUserSimilarity;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.recommend.frameworks.ranksys.ItemIndexWrapper;
+import net.recommenders.rival.recommend.frameworks.ranksys.PreferenceDataWrapper;
+import net.recommenders.rival.recommend.frameworks.ranksys.UserIndexWrapper;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link SimilarityEngine}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class SimilarityEngineTest {
+
+    @After
+    public void tearDown() {
+        SimilarityEngine.clear();
+        SimilarityEngine.setMaxNeighbors(SimilarityEngine.DEFAULT_MAX_NEIGHBORS);
+        SimilarityEngine.setSqrtNeighbors(false);
+    }
+
+    @Test
+    public void testSameSimilaritiesAsRankSys() {
+        TemporalDataModelIF<Long, Long> model = new TemporalDataModel<>();
+        CsrMatrix.Builder builder = new CsrMatrix.Builder();
+        Random rnd = new Random(17L);
+        for (long u = 1; u <= 60; u++) {
+            for (long i = 1; i <= 40; i++) {
+                if (rnd.nextInt(4) == 0) {
+                    double v = 1 + rnd.nextInt(5);
+                    model.addPreference(u * 7, i * 3, v);
+                    builder.add(u * 7, i * 3, v);
+                }
+            }
+        }
+        FastUserIndex<Long> userIndex = new UserIndexWrapper(model, new TemporalDataModel<Long, Long>());
+        FastItemIndex<Long> itemIndex = new ItemIndexWrapper(model, new TemporalDataModel<Long, Long>());
+        FastPreferenceData<Long, Long> data = new PreferenceDataWrapper(model, userIndex, itemIndex);
+        VectorCosineUserSimilarity<Long> ranksys = new VectorCosineUserSimilarity<>(data, 0.5, true);
+
+        SimilarityEngine.setThreads(3);
+        SimilarityEngine.setMaxNeighbors(10);
+        CsrMatrix csr = builder.build();
+        SimilarityMatrix matrix = SimilarityEngine.cosine(csr, 0.5, 5, csr.numColumns());
+        assertEquals(10, matrix.getMaxNeighbors());
+        for (int r = 0; r < csr.numRows(); r++) {
+            Map<Long, Double> expected = new HashMap<>();
+            ranksys.similarUsers(csr.getRowId(r)).forEach(t -> expected.put(t.v1, t.v2));
+            int n = matrix.numNeighbors(r, 10);
+            assertTrue(n > 0);
+            for (int j = 0; j < n; j++) {
+                long v = csr.getRowId(matrix.getNeighbor(r, j));
+                assertEquals(expected.get(v), matrix.getNeighborSimilarity(r, j), 1e-9);
+                assertEquals(expected.get(v), matrix.getSimilarity(r, matrix.getNeighbor(r, j)), 1e-9);
+                if (j > 0) {
+                    assertTrue(matrix.getNeighborSimilarity(r, j - 1) >= matrix.getNeighborSimilarity(r, j));
+                }
+            }
+        }
+        // smaller neighborhoods of the same data (added in any order) reuse the matrix
+        CsrMatrix.Builder reversed = new CsrMatrix.Builder();
+        for (int r = csr.numRows() - 1; r >= 0; r--) {
+            for (int p = csr.getOffset(r + 1) - 1; p >= csr.getOffset(r); p--) {
+                reversed.add(csr.getRowId(r), csr.transpose().getRowId(csr.getColumn(p)), csr.getValue(p));
+            }
+        }
+        assertSame(matrix, SimilarityEngine.cosine(reversed.build(), 0.5, 3, csr.numColumns()));
+        assertTrue(SimilarityEngine.cosine(csr, 0.5, 20, csr.numColumns()).getMaxNeighbors() >= 20);
+    }
+
+    @Test
+    public void testSqrtNeighbors() {
+        CsrMatrix.Builder builder = new CsrMatrix.Builder();
+        for (long u = 1; u <= 10; u++) {
+            for (long i = 1; i <= 49; i++) {
+                if ((u + i) % 3 == 0) {
+                    builder.add(u, i, 1.0);
+                }
+            }
+        }
+        CsrMatrix csr = builder.build();
+        SimilarityEngine.setMaxNeighbors(2);
+        SimilarityEngine.setSqrtNeighbors(true);
+        // a later neighborhood of -1 (7 users) uses the same matrix
+        SimilarityMatrix matrix = SimilarityEngine.cosine(csr, 0.5, 1, csr.numColumns());
+        assertEquals(7, matrix.getMaxNeighbors());
+        assertSame(matrix, SimilarityEngine.cosine(csr, 0.5, (int) Math.round(Math.sqrt(csr.numColumns())), csr.numColumns()));
+    }
+
+    private static CsrMatrix createData(final long seed) {
+        CsrMatrix.Builder builder = new CsrMatrix.Builder();
+        Random rnd = new Random(seed);
+        for (long u = 1; u <= 30; u++) {
+            for (long i = 1; i <= 20; i++) {
+                if (rnd.nextInt(3) == 0) {
+                    builder.add(u, i, 1 + rnd.nextInt(5));
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testRelease() {
+        CsrMatrix released = createData(1L);
+        CsrMatrix kept = createData(2L);
+        SimilarityMatrix users = SimilarityEngine.cosine(released, 0.5, 5, released.numColumns());
+        SimilarityMatrix items = SimilarityEngine.cosine(released.transpose(), 0.5, 5, released.numColumns());
+        SimilarityMatrix other = SimilarityEngine.cosine(kept, 0.5, 5, kept.numColumns());
+        // the matrices of the data and of its transpose are released, the others are kept
+        SimilarityEngine.release(released.fingerprint());
+        assertNotSame(users, SimilarityEngine.cosine(released, 0.5, 5, released.numColumns()));
+        assertNotSame(items, SimilarityEngine.cosine(released.transpose(), 0.5, 5, released.numColumns()));
+        assertSame(other, SimilarityEngine.cosine(kept, 0.5, 5, kept.numColumns()));
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        final CsrMatrix data = createData(3L);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<SimilarityMatrix>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(pool.submit(new Callable<SimilarityMatrix>() {
+                    @Override
+                    public SimilarityMatrix call() {
+                        return SimilarityEngine.cosine(data, 0.5, 5, data.numColumns());
+                    }
+                }));
+            }
+            // the matrix is computed once, and shared with the runners waiting for it
+            for (Future<SimilarityMatrix> f : futures) {
+                assertSame(futures.get(0).get(), f.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.split.filter;
+
+import java.io.FileNotFoundException;
+import java.io.UnsupportedEncodingException;
+import java.util.Properties;
+
+import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.DataModelUtils;
+import net.recommenders.rival.core.TemporalDataModelIF;
+
+/**
+ * Runner for the filters applied to a dataset before splitting it.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public final class FilterRunner {
+
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String FILTER_KCORE_USERS = "dataset.filter.kcore.users";
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String FILTER_KCORE_ITEMS = "dataset.filter.kcore.items";
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String FILTER_OUTPUT_FILE = "dataset.filter.output.file";
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String FILTER_OUTPUT_OVERWRITE = "dataset.filter.output.overwrite";
+
+    /**
+     * Utility classes should not have a public or default constructor.
+     */
+    private FilterRunner() {
+    }
+
+    /**
+     * Filters the data according to the properties. If no filter is
+     * configured, the same data is returned.
+     *
+     * @param <U> user identifier type
+     * @param <I> item identifier type
+     * @param properties the properties
+     * @param data the data to be filtered
+     * @return the filtered data
+     * @throws FileNotFoundException see
+     * {@link net.recommenders.rival.core.DataModelUtils#saveDataModel(DataModelIF, String, boolean, String)}
+     * @throws UnsupportedEncodingException see
+     * {@link net.recommenders.rival.core.DataModelUtils#saveDataModel(DataModelIF, String, boolean, String)}
+     */
+    public static <U, I> TemporalDataModelIF<U, I> run(final Properties properties, final TemporalDataModelIF<U, I> data)
+            throws FileNotFoundException, UnsupportedEncodingException {
+        int kUsers = Integer.parseInt(properties.getProperty(FILTER_KCORE_USERS, "0"));
+        int kItems = Integer.parseInt(properties.getProperty(FILTER_KCORE_ITEMS, "0"));
+        if (kUsers <= 0 && kItems <= 0) {
+            return data;
+        }
+        System.out.println("Filtering started");
+        KCoreFilter<U, I> filter = new KCoreFilter<>(kUsers, kItems);
+        TemporalDataModelIF<U, I> filtered = filter.filter(data);
+        System.out.println("Filtering finished (" + filter.getStatistics() + ")");
+        String outputFile = properties.getProperty(FILTER_OUTPUT_FILE);
+        if (outputFile != null) {
+            Boolean overwrite = Boolean.parseBoolean(properties.getProperty(FILTER_OUTPUT_OVERWRITE, "false"));
+            DataModelUtils.saveDataModel(filtered, outputFile, overwrite, "\t");
+        }
+        return filtered;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.split.filter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.recommenders.rival.core.DataModelFactory;
+import net.recommenders.rival.core.TemporalDataModelIF;
+
+/**
+ * Filter that keeps the (user, item) k-core of a dataset, that is, the
+ * largest subset of the data where every user has interacted with at least
+ * kUsers items and every item has been interacted by at least kItems users.
+ *
+ * The core is computed by peeling: users and items below the threshold are
+ * put in a worklist and, when removed, the degrees of their neighbours are
+ * decremented (adding them to the worklist if they fall below the threshold).
+ * Each interaction is visited a constant number of times, so the filter runs
+ * in time linear in the size of the data.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ *
+ * @param <U> type of users
+ * @param <I> type of items
+ */
+public class KCoreFilter<U, I> {
+
+    /**
+     * Minimum number of items per user.
+     */
+    private final int kUsers;
+    /**
+     * Minimum number of users per item.
+     */
+    private final int kItems;
+    /**
+     * Statistics of the last filtered dataset.
+     */
+    private Statistics statistics;
+
+    /**
+     * Constructor.
+     *
+     * @param minItemsPerUser minimum number of items per user
+     * @param minUsersPerItem minimum number of users per item
+     */
+    public KCoreFilter(final int minItemsPerUser, final int minUsersPerItem) {
+        this.kUsers = minItemsPerUser;
+        this.kItems = minUsersPerItem;
+    }
+
+    /**
+     * Filters the data, returning a new model with the k-core.
+     *
+     * @param data the data
+     * @return a new model containing only the users and items of the k-core
+     */
+    public TemporalDataModelIF<U, I> filter(final TemporalDataModelIF<U, I> data) {
+        // dense identifiers
+        List<U> users = new ArrayList<>();
+        List<I> items = new ArrayList<>();
+        Map<I, Integer> itemIndex = new HashMap<>();
+        int nPrefs = 0;
+        for (U u : data.getUsers()) {
+            users.add(u);
+            for (I i : data.getUserItems(u)) {
+                if (!itemIndex.containsKey(i)) {
+                    itemIndex.put(i, items.size());
+                    items.add(i);
+                }
+                nPrefs++;
+            }
+        }
+        int nUsers = users.size();
+        int nItems = items.size();
+        // user -> items (CSR)
+        int[] userPtr = new int[nUsers + 1];
+        int[] userItems = new int[nPrefs];
+        int[] itemDegree = new int[nItems];
+        int p = 0;
+        for (int u = 0; u < nUsers; u++) {
+            userPtr[u] = p;
+            for (I i : data.getUserItems(users.get(u))) {
+                int idx = itemIndex.get(i);
+                userItems[p++] = idx;
+                itemDegree[idx]++;
+            }
+        }
+        userPtr[nUsers] = p;
+        // item -> users (CSR)
+        int[] itemPtr = new int[nItems + 1];
+        for (int i = 0; i < nItems; i++) {
+            itemPtr[i + 1] = itemPtr[i] + itemDegree[i];
+        }
+        int[] itemUsers = new int[nPrefs];
+        int[] fill = new int[nItems];
+        int[] userDegree = new int[nUsers];
+        for (int u = 0; u < nUsers; u++) {
+            userDegree[u] = userPtr[u + 1] - userPtr[u];
+            for (int q = userPtr[u]; q < userPtr[u + 1]; q++) {
+                int i = userItems[q];
+                itemUsers[itemPtr[i] + fill[i]++] = u;
+            }
+        }
+        // peeling: users are encoded as u, items as nUsers + i
+        boolean[] userRemoved = new boolean[nUsers];
+        boolean[] itemRemoved = new boolean[nItems];
+        int[] worklist = new int[nUsers + nItems];
+        int head = 0;
+        int tail = 0;
+        for (int u = 0; u < nUsers; u++) {
+            if (userDegree[u] < kUsers) {
+                userRemoved[u] = true;
+                worklist[tail++] = u;
+            }
+        }
+        for (int i = 0; i < nItems; i++) {
+            if (itemDegree[i] < kItems) {
+                itemRemoved[i] = true;
+                worklist[tail++] = nUsers + i;
+            }
+        }
+        while (head < tail) {
+            int node = worklist[head++];
+            if (node < nUsers) {
+                for (int q = userPtr[node]; q < userPtr[node + 1]; q++) {
+                    int i = userItems[q];
+                    if (!itemRemoved[i] && --itemDegree[i] < kItems) {
+                        itemRemoved[i] = true;
+                        worklist[tail++] = nUsers + i;
+                    }
+                }
+            } else {
+                int item = node - nUsers;
+                for (int q = itemPtr[item]; q < itemPtr[item + 1]; q++) {
+                    int u = itemUsers[q];
+                    if (!userRemoved[u] && --userDegree[u] < kUsers) {
+                        userRemoved[u] = true;
+                        worklist[tail++] = u;
+                    }
+                }
+            }
+        }
+        // copy the core
+        TemporalDataModelIF<U, I> core = DataModelFactory.getDefaultTemporalModel();
+        int keptUsers = 0;
+        int keptPrefs = 0;
+        for (int u = 0; u < nUsers; u++) {
+            if (userRemoved[u]) {
+                continue;
+            }
+            keptUsers++;
+            U user = users.get(u);
+            for (int q = userPtr[u]; q < userPtr[u + 1]; q++) {
+                int i = userItems[q];
+                if (itemRemoved[i]) {
+                    continue;
+                }
+                I item = items.get(i);
+                core.addPreference(user, item, data.getUserItemPreference(user, item));
+                Iterable<Long> time = data.getUserItemTimestamps(user, item);
+                if (time != null) {
+                    for (Long t : time) {
+                        core.addTimestamp(user, item, t);
+                    }
+                }
+                keptPrefs++;
+            }
+        }
+        int keptItems = 0;
+        for (int i = 0; i < nItems; i++) {
+            if (!itemRemoved[i]) {
+                keptItems++;
+            }
+        }
+        statistics = new Statistics(nUsers, nItems, nPrefs, keptUsers, keptItems, keptPrefs);
+        return core;
+    }
+
+    /**
+     * Gets the statistics of the last call to
+     * {@link #filter(TemporalDataModelIF)}.
+     *
+     * @return the statistics, or null if no data has been filtered yet
+     */
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Sizes of a dataset before and after being filtered.
+     */
+    public static final class Statistics {
+
+        /**
+         * Number of users before filtering.
+         */
+        private final int usersBefore;
+        /**
+         * Number of items before filtering.
+         */
+        private final int itemsBefore;
+        /**
+         * Number of preferences before filtering.
+         */
+        private final int preferencesBefore;
+        /**
+         * Number of users after filtering.
+         */
+        private final int usersAfter;
+        /**
+         * Number of items after filtering.
+         */
+        private final int itemsAfter;
+        /**
+         * Number of preferences after filtering.
+         */
+        private final int preferencesAfter;
+
+        /**
+         * Constructor.
+         *
+         * @param nUsersBefore number of users before filtering
+         * @param nItemsBefore number of items before filtering
+         * @param nPrefsBefore number of preferences before filtering
+         * @param nUsersAfter number of users after filtering
+         * @param nItemsAfter number of items after filtering
+         * @param nPrefsAfter number of preferences after filtering
+         */
+        public Statistics(final int nUsersBefore, final int nItemsBefore, final int nPrefsBefore,
+                final int nUsersAfter, final int nItemsAfter, final int nPrefsAfter) {
+            this.usersBefore = nUsersBefore;
+            this.itemsBefore = nItemsBefore;
+            this.preferencesBefore = nPrefsBefore;
+            this.usersAfter = nUsersAfter;
+            this.itemsAfter = nItemsAfter;
+            this.preferencesAfter = nPrefsAfter;
+        }
+
+        /**
+         * Gets the number of users before filtering.
+         *
+         * @return the number of users before filtering
+         */
+        public int getUsersBefore() {
+            return usersBefore;
+        }
+
+        /**
+         * Gets the number of items before filtering.
+         *
+         * @return the number of items before filtering
+         */
+        public int getItemsBefore() {
+            return itemsBefore;
+        }
+
+        /**
+         * Gets the number of preferences before filtering.
+         *
+         * @return the number of preferences before filtering
+         */
+        public int getPreferencesBefore() {
+            return preferencesBefore;
+        }
+
+        /**
+         * Gets the number of users after filtering.
+         *
+         * @return the number of users after filtering
+         */
+        public int getUsersAfter() {
+            return usersAfter;
+        }
+
+        /**
+         * Gets the number of items after filtering.
+         *
+         * @return the number of items after filtering
+         */
+        public int getItemsAfter() {
+            return itemsAfter;
+        }
+
+        /**
+         * Gets the number of preferences after filtering.
+         *
+         * @return the number of preferences after filtering
+         */
+        public int getPreferencesAfter() {
+            return preferencesAfter;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "users: " + usersBefore + " -> " + usersAfter
+                    + ", items: " + itemsBefore + " -> " + itemsAfter
+                    + ", preferences: " + preferencesBefore + " -> " + preferencesAfter;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * RiVal data filters applied before splitting.
+ */
+package net.recommenders.rival.split.filter;
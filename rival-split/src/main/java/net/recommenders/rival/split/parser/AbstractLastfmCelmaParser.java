@@ -18,8 +18,23 @@ package net.recommenders.rival.split.parser;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.recommenders.rival.core.DataModelFactory;
 import net.recommenders.rival.core.SimpleParser;
+import net.recommenders.rival.core.TemporalDataModelIF;
 
 /**
  * Parser for the Last.fm dataset by O Celma.
@@ -33,6 +48,18 @@ public class AbstractLastfmCelmaParser {
      * (instead of tracks).
      */
     private boolean useArtists;
+    /**
+     * Number of threads used to parse the file.
+     */
+    private int threads = 1;
+    /**
+     * Default number of lines parsed together by a thread.
+     */
+    private static final int DEFAULT_CHUNK_SIZE = 65536;
+    /**
+     * Number of lines parsed together by a thread.
+     */
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
 
     /**
      * Default constructor.
@@ -78,4 +105,284 @@ public class AbstractLastfmCelmaParser {
     protected boolean isUseArtists() {
         return useArtists;
     }
+
+    /**
+     * Sets the number of threads used to parse the file. With more than one
+     * thread the file is read in chunks of lines that are tokenized in
+     * parallel; the data model is still updated in the order of the file, so
+     * the generated ids do not depend on the number of threads.
+     *
+     * @param nThreads the number of threads
+     */
+    public void setThreads(final int nThreads) {
+        this.threads = Math.max(1, nThreads);
+    }
+
+    /**
+     * Sets the number of lines parsed together by a thread (for testing).
+     *
+     * @param nLines the number of lines
+     */
+    void setChunkSize(final int nLines) {
+        this.chunkSize = Math.max(1, nLines);
+    }
+
+    /**
+     * Gets the number of threads used to parse the file.
+     *
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Parses a Last.fm file, mapping users and items to numeric ids (and
+     * saving the mappings if a prefix is provided).
+     *
+     * @param f the file
+     * @param mapIdsPrefix prefix of the files with the id mappings
+     * @param userTok column of the user
+     * @param artistTok column of the artist
+     * @param trackTok column of the track
+     * @param timeTok column of the timestamp (-1 if not available)
+     * @param prefTok column of the preference (-1 to use 1.0)
+     * @return the data model
+     * @throws IOException when the file cannot be read or the mappings cannot
+     * be saved
+     */
+    protected TemporalDataModelIF<Long, Long> parseLastfm(final File f, final String mapIdsPrefix,
+            final int userTok, final int artistTok, final int trackTok, final int timeTok, final int prefTok) throws IOException {
+        TemporalDataModelIF<Long, Long> dataset = DataModelFactory.getDefaultTemporalModel();
+
+        Map<String, Long> legacyUserIds = new HashMap<>();
+        Map<String, Long> legacyItemIds = new HashMap<>();
+        long[] next = new long[]{
+            getIndexMap(new File(mapIdsPrefix + "_userId.txt"), legacyUserIds),
+            getIndexMap(new File(mapIdsPrefix + "_itemId.txt"), legacyItemIds)};
+        // dictionaries shared by the parsing threads, only written in file order
+        Map<Object, Long> userIds = new ConcurrentHashMap<>(legacyUserIds);
+        Map<Object, Long> itemIds = new ConcurrentHashMap<>();
+        int[] columns = new int[]{userTok, artistTok, trackTok, timeTok, prefTok};
+
+        BufferedReader br = SimpleParser.getBufferedReader(f);
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        Deque<Future<Chunk>> pending = new ArrayDeque<>();
+        try {
+            List<String> lines = new ArrayList<>(chunkSize);
+            String line;
+            boolean eof = false;
+            while (!eof) {
+                line = br.readLine();
+                if (line != null) {
+                    lines.add(line);
+                } else {
+                    eof = true;
+                }
+                if (lines.size() == chunkSize || (eof && !lines.isEmpty())) {
+                    final List<String> chunkLines = lines;
+                    lines = new ArrayList<>(chunkSize);
+                    if (pool == null) {
+                        apply(tokenize(chunkLines, columns, userIds, itemIds), dataset, userIds, itemIds, legacyItemIds, next);
+                    } else {
+                        pending.add(pool.submit(new Callable<Chunk>() {
+                            @Override
+                            public Chunk call() {
+                                return tokenize(chunkLines, columns, userIds, itemIds);
+                            }
+                        }));
+                        // keep a bounded number of chunks in memory
+                        while (pending.size() > 2 * threads) {
+                            apply(pending.poll().get(), dataset, userIds, itemIds, legacyItemIds, next);
+                        }
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                apply(pending.poll().get(), dataset, userIds, itemIds, legacyItemIds, next);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            br.close();
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+
+        // save map ids?
+        if (mapIdsPrefix != null) {
+            // save user map
+            PrintStream outUser = new PrintStream(mapIdsPrefix + "_userId.txt", "UTF-8");
+            for (Entry<Object, Long> e : userIds.entrySet()) {
+                outUser.println(e.getKey() + "\t" + e.getValue());
+            }
+            outUser.close();
+            // save item map
+            Map<String, Long> mapItemIds = new HashMap<>(legacyItemIds);
+            for (Entry<Object, Long> e : itemIds.entrySet()) {
+                mapItemIds.put(e.getKey().toString(), e.getValue());
+            }
+            PrintStream outItem = new PrintStream(mapIdsPrefix + "_itemId.txt", "UTF-8");
+            for (Entry<String, Long> e : mapItemIds.entrySet()) {
+                outItem.println(e.getKey() + "\t" + e.getValue());
+            }
+            outItem.close();
+        }
+
+        return dataset;
+    }
+
+    /**
+     * Tokenizes a chunk of lines, resolving the ids already present in the
+     * dictionaries.
+     *
+     * @param lines the lines
+     * @param columns columns of user, artist, track, timestamp and preference
+     * @param userIds the user dictionary
+     * @param itemIds the item dictionary
+     * @return the tokenized chunk
+     */
+    private Chunk tokenize(final List<String> lines, final int[] columns,
+            final Map<Object, Long> userIds, final Map<Object, Long> itemIds) {
+        int n = lines.size();
+        Chunk chunk = new Chunk(n);
+        int maxTok = 0;
+        for (int c : columns) {
+            maxTok = Math.max(maxTok, c);
+        }
+        int[] starts = new int[maxTok + 2];
+        for (int k = 0; k < n; k++) {
+            String line = lines.get(k);
+            // field j spans [starts[j], starts[j + 1] - 1)
+            int found = 1;
+            int pos = line.indexOf('\t');
+            while (pos != -1 && found <= maxTok) {
+                starts[found++] = pos + 1;
+                pos = line.indexOf('\t', pos + 1);
+            }
+            if (found <= maxTok) {
+                throw new IllegalArgumentException("Malformed line: " + line);
+            }
+            starts[found] = (pos == -1 ? line.length() : pos) + 1;
+            String user = line.substring(starts[columns[0]], starts[columns[0] + 1] - 1);
+            String artist = line.substring(starts[columns[1]], starts[columns[1] + 1] - 1);
+            Object item;
+            if (isUseArtists()) {
+                item = artist;
+            } else {
+                item = new ItemKey(artist, line.substring(starts[columns[2]], starts[columns[2] + 1] - 1));
+            }
+            chunk.users[k] = user;
+            chunk.items[k] = item;
+            Long userId = userIds.get(user);
+            chunk.userIds[k] = userId == null ? -1L : userId;
+            Long itemId = itemIds.get(item);
+            chunk.itemIds[k] = itemId == null ? -1L : itemId;
+            chunk.timestamps[k] = -1L;
+            if (columns[3] != -1) {
+                try {
+                    chunk.timestamps[k] = TimestampDecoder.decode(line.substring(starts[columns[3]], starts[columns[3] + 1] - 1));
+                } catch (IllegalArgumentException e) {
+                    e.printStackTrace();
+                }
+            }
+            chunk.preferences[k] = 1.0;
+            if (columns[4] != -1) {
+                chunk.preferences[k] = Double.parseDouble(line.substring(starts[columns[4]], starts[columns[4] + 1] - 1));
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Adds a tokenized chunk to the data model, assigning new ids to unseen
+     * users and items.
+     *
+     * @param chunk the chunk
+     * @param dataset the data model
+     * @param userIds the user dictionary
+     * @param itemIds the item dictionary
+     * @param legacyItemIds item ids loaded from a previous mapping file
+     * @param next next user (position 0) and item (position 1) ids
+     */
+    private static void apply(final Chunk chunk, final TemporalDataModelIF<Long, Long> dataset,
+            final Map<Object, Long> userIds, final Map<Object, Long> itemIds, final Map<String, Long> legacyItemIds, final long[] next) {
+        for (int k = 0; k < chunk.users.length; k++) {
+            long userId = chunk.userIds[k];
+            if (userId == -1L) {
+                Long id = userIds.get(chunk.users[k]);
+                if (id == null) {
+                    id = next[0]++;
+                    userIds.put(chunk.users[k], id);
+                }
+                userId = id;
+            }
+            long itemId = chunk.itemIds[k];
+            if (itemId == -1L) {
+                Object item = chunk.items[k];
+                Long id = itemIds.get(item);
+                if (id == null && !legacyItemIds.isEmpty()) {
+                    id = legacyItemIds.get(item.toString());
+                }
+                if (id == null) {
+                    id = next[1]++;
+                }
+                itemIds.put(item, id);
+                itemId = id;
+            }
+            dataset.addPreference(userId, itemId, chunk.preferences[k]);
+            if (chunk.timestamps[k] != -1L) {
+                dataset.addTimestamp(userId, itemId, chunk.timestamps[k]);
+            }
+        }
+    }
+
+    /**
+     * Tokenized chunk of lines.
+     */
+    private static final class Chunk {
+
+        /**
+         * The users.
+         */
+        private final String[] users;
+        /**
+         * The items (artists or artist/track keys).
+         */
+        private final Object[] items;
+        /**
+         * The user ids (-1 if not known when tokenizing).
+         */
+        private final long[] userIds;
+        /**
+         * The item ids (-1 if not known when tokenizing).
+         */
+        private final long[] itemIds;
+        /**
+         * The timestamps (-1 if not available).
+         */
+        private final long[] timestamps;
+        /**
+         * The preferences.
+         */
+        private final double[] preferences;
+
+        /**
+         * Constructor.
+         *
+         * @param n number of lines
+         */
+        Chunk(final int n) {
+            users = new String[n];
+            items = new Object[n];
+            userIds = new long[n];
+            itemIds = new long[n];
+            timestamps = new long[n];
+            preferences = new double[n];
+        }
+    }
 }
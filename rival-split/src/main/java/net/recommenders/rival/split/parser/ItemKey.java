@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.split.parser;
+
+/**
+ * Key for (artist, track) items that avoids concatenating both strings. Its
+ * string form is the one used in the id mapping files ({@code artist_track}).
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+final class ItemKey {
+
+    /**
+     * The artist.
+     */
+    private final String artist;
+    /**
+     * The track.
+     */
+    private final String track;
+    /**
+     * The precomputed hash code.
+     */
+    private final int hash;
+
+    /**
+     * Constructor.
+     *
+     * @param theArtist the artist
+     * @param theTrack the track
+     */
+    ItemKey(final String theArtist, final String theTrack) {
+        this.artist = theArtist;
+        this.track = theTrack;
+        this.hash = 31 * theArtist.hashCode() + theTrack.hashCode();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ItemKey)) {
+            return false;
+        }
+        ItemKey k = (ItemKey) o;
+        return hash == k.hash && artist.equals(k.artist) && track.equals(k.track);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return artist + "_" + track;
+    }
+}
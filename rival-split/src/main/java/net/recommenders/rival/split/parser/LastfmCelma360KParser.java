@@ -15,17 +15,10 @@
  */
 package net.recommenders.rival.split.parser;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-import net.recommenders.rival.core.DataModelFactory;
 import net.recommenders.rival.core.DataModelIF;
 import net.recommenders.rival.core.ParserWithIdMapping;
-import net.recommenders.rival.core.SimpleParser;
 import net.recommenders.rival.core.TemporalDataModel;
 import net.recommenders.rival.core.TemporalDataModelIF;
 
@@ -90,64 +83,6 @@ public class LastfmCelma360KParser extends AbstractLastfmCelmaParser implements
      */
     @Override
     public TemporalDataModelIF<Long, Long> parseTemporalData(final File f, final String mapIdsPrefix) throws IOException {
-        TemporalDataModelIF<Long, Long> dataset = DataModelFactory.getDefaultTemporalModel();
-
-        Map<String, Long> mapUserIds = new HashMap<>();
-        Map<String, Long> mapItemIds = new HashMap<>();
-
-        long curUser = getIndexMap(new File(mapIdsPrefix + "_userId.txt"), mapUserIds);
-        long curItem = getIndexMap(new File(mapIdsPrefix + "_itemId.txt"), mapItemIds);
-
-        BufferedReader br = SimpleParser.getBufferedReader(f);
-        String line;
-        while ((line = br.readLine()) != null) {
-            String[] toks = line.split("\t");
-            // user
-            String user = toks[USER_TOK];
-            if (!mapUserIds.containsKey(user)) {
-                mapUserIds.put(user, curUser);
-                curUser++;
-            }
-            long userId = mapUserIds.get(user);
-            // item
-            String artist = toks[ARTIST_TOK];
-            String track = toks[TRACK_TOK];
-            String item;
-            if (isUseArtists()) {
-                item = artist;
-            } else {
-                item = artist + "_" + track;
-            }
-            if (!mapItemIds.containsKey(item)) {
-                mapItemIds.put(item, curItem);
-                curItem++;
-            }
-            long itemId = mapItemIds.get(item);
-            // preference
-            double preference = Double.parseDouble(toks[PREF_TOK]);
-            //////
-            // update information
-            //////
-            dataset.addPreference(userId, itemId, preference);
-        }
-        br.close();
-
-        // save map ids?
-        if (mapIdsPrefix != null) {
-            // save user map
-            PrintStream outUser = new PrintStream(mapIdsPrefix + "_userId.txt", "UTF-8");
-            for (Entry<String, Long> e : mapUserIds.entrySet()) {
-                outUser.println(e.getKey() + "\t" + e.getValue());
-            }
-            outUser.close();
-            // save item map
-            PrintStream outItem = new PrintStream(mapIdsPrefix + "_itemId.txt", "UTF-8");
-            for (Entry<String, Long> e : mapItemIds.entrySet()) {
-                outItem.println(e.getKey() + "\t" + e.getValue());
-            }
-            outItem.close();
-        }
-
-        return dataset;
+        return parseLastfm(f, mapIdsPrefix, USER_TOK, ARTIST_TOK, TRACK_TOK, -1, PREF_TOK);
     }
 }
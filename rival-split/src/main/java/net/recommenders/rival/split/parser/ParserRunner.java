@@ -46,6 +46,10 @@ public final class ParserRunner {
      * Variable that represent the name of a property in the file.
      */
     public static final String LASTFM_USEARTISTS = "dataset.parser.lastfm.useartists";
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String DATASET_PARSER_THREADS = "dataset.parser.threads";
 
     /**
      * Utility classes should not have a public or default constructor.
@@ -119,6 +123,10 @@ public final class ParserRunner {
         if (parserClassName.contains("LastfmCelma")) {
             Boolean useArtists = Boolean.parseBoolean(properties.getProperty(LASTFM_USEARTISTS));
             parser = (Parser<Long, Long>) parserClass.getConstructor(boolean.class).newInstance(useArtists);
+            if (parser instanceof AbstractLastfmCelmaParser) {
+                int threads = Integer.parseInt(properties.getProperty(DATASET_PARSER_THREADS, "1"));
+                ((AbstractLastfmCelmaParser) parser).setThreads(threads);
+            }
         } else {
             parser = (Parser<Long, Long>) parserClass.getConstructor().newInstance();
         }
@@ -17,7 +17,9 @@ package net.recommenders.rival.split.splitter;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import net.recommenders.rival.core.DataModelFactory;
 import net.recommenders.rival.core.DataModelIF;
@@ -33,7 +35,7 @@ import net.recommenders.rival.core.TemporalDataModelIF;
  * @param <U> type of users
  * @param <I> type of items
  */
-public class CrossValidationSplitter<U, I> implements Splitter<U, I> {
+public class CrossValidationSplitter<U, I> implements FoldIteratorSplitter<U, I> {
 
     /**
      * The number of folds that the data will be split into.
@@ -47,6 +49,10 @@ public class CrossValidationSplitter<U, I> implements Splitter<U, I> {
      * An instance of a Random class.
      */
     protected Random rnd;
+    /**
+     * The seed used to initialize the Random instance.
+     */
+    private final long seed;
 
     /**
      * Constructor.
@@ -58,6 +64,7 @@ public class CrossValidationSplitter<U, I> implements Splitter<U, I> {
     public CrossValidationSplitter(final int nFold, final boolean perUsers, final long seed) {
         this.nFolds = nFold;
         this.perUser = perUsers;
+        this.seed = seed;
 
         rnd = new Random(seed);
     }
@@ -205,4 +212,117 @@ public class CrossValidationSplitter<U, I> implements Splitter<U, I> {
         }
         return splits;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumFolds() {
+        return nFolds;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The folds are the same as those returned by
+     * {@link #split(TemporalDataModelIF)} on a newly created splitter: the
+     * users and their items are shuffled once (with a random generator
+     * initialized with the original seed) when the first fold is requested,
+     * and only that order and the current fold are kept in memory.
+     */
+    @Override
+    public Iterator<TemporalDataModelIF<U, I>[]> foldIterator(final TemporalDataModelIF<U, I> data) {
+        return new Iterator<TemporalDataModelIF<U, I>[]>() {
+            private int fold = 0;
+            private List<U> users;
+            private List<List<I>> items;
+
+            @Override
+            public boolean hasNext() {
+                return fold < nFolds;
+            }
+
+            @Override
+            public TemporalDataModelIF<U, I>[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (users == null) {
+                    users = new ArrayList<>();
+                    items = new ArrayList<>();
+                    shuffle(data, users, items);
+                }
+                return generateFold(data, users, items, fold++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Shuffles the users (unless the split is per user) and the items of each
+     * user, in the same order as {@link #split(TemporalDataModelIF)}.
+     *
+     * @param data the data
+     * @param users where the users are stored, in order
+     * @param items where the items of each user are stored, in order
+     */
+    private void shuffle(final TemporalDataModelIF<U, I> data, final List<U> users, final List<List<I>> items) {
+        Random foldRnd = new Random(seed);
+        for (U u : data.getUsers()) {
+            users.add(u);
+        }
+        if (!perUser) {
+            Collections.shuffle(users, foldRnd);
+        }
+        for (U user : users) {
+            List<I> userItems = new ArrayList<>();
+            for (I i : data.getUserItems(user)) {
+                userItems.add(i);
+            }
+            Collections.shuffle(userItems, foldRnd);
+            items.add(userItems);
+        }
+    }
+
+    /**
+     * Generates the training and test splits of one fold.
+     *
+     * @param data the data
+     * @param users the shuffled users
+     * @param items the shuffled items of each user
+     * @param fold the fold to generate
+     * @return an array with the training and test splits of the fold
+     */
+    private TemporalDataModelIF<U, I>[] generateFold(final TemporalDataModelIF<U, I> data, final List<U> users, final List<List<I>> items, final int fold) {
+        @SuppressWarnings("unchecked")
+        final TemporalDataModelIF<U, I>[] splits = new TemporalDataModelIF[2];
+        splits[0] = DataModelFactory.getDefaultTemporalModel(); // training
+        splits[1] = DataModelFactory.getDefaultTemporalModel(); // test
+        int n = 0;
+        for (int u = 0; u < users.size(); u++) {
+            U user = users.get(u);
+            for (I item : items.get(u)) {
+                TemporalDataModelIF<U, I> datamodel = splits[0]; // training
+                if (n % nFolds == fold) {
+                    datamodel = splits[1]; // test
+                }
+                Double pref = data.getUserItemPreference(user, item);
+                if (pref != null) {
+                    datamodel.addPreference(user, item, pref);
+                }
+                Iterable<Long> time = data.getUserItemTimestamps(user, item);
+                if (time != null) {
+                    for (Long t : time) {
+                        datamodel.addTimestamp(user, item, t);
+                    }
+                }
+                n++;
+            }
+        }
+        return splits;
+    }
 }
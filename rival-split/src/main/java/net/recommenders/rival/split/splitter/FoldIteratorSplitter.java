@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.split.splitter;
+
+import java.util.Iterator;
+
+import net.recommenders.rival.core.TemporalDataModelIF;
+
+/**
+ * Interface for splitters able to generate their folds lazily, one at a time,
+ * so that only one fold needs to be kept in memory.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ *
+ * @param <U> generic type for users
+ * @param <I> generic type for items
+ */
+public interface FoldIteratorSplitter<U, I> extends Splitter<U, I> {
+
+    /**
+     * Gets the number of folds generated by the splitter.
+     *
+     * @return the number of folds
+     */
+    int getNumFolds();
+
+    /**
+     * Generates the folds of temporal data lazily. Each element returned by
+     * the iterator contains the training (position 0) and test (position 1)
+     * splits of one fold, in the same order as returned by
+     * {@link Splitter#split(TemporalDataModelIF)}. The data should not be
+     * modified while iterating.
+     *
+     * @param data The data.
+     * @return an iterator over the folds.
+     */
+    Iterator<TemporalDataModelIF<U, I>[]> foldIterator(TemporalDataModelIF<U, I> data);
+}
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.util.Properties;
 
 import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.split.filter.FilterRunner;
 import net.recommenders.rival.split.parser.ParserRunner;
 
 /**
@@ -52,6 +53,6 @@ public final class Split {
             ie.printStackTrace();
         }
 
-        SplitterRunner.run(properties, ParserRunner.run(properties), true);
+        SplitterRunner.run(properties, FilterRunner.run(properties, ParserRunner.run(properties)), true);
     }
 }
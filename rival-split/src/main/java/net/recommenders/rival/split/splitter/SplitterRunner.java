@@ -15,12 +15,25 @@
  */
 package net.recommenders.rival.split.splitter;
 
-import java.io.FileNotFoundException;
-import java.io.UnsupportedEncodingException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.recommenders.rival.core.DataModelIF;
 import net.recommenders.rival.core.DataModelUtils;
+import net.recommenders.rival.core.SplitBundle;
 import net.recommenders.rival.core.TemporalDataModelIF;
 
 /**
@@ -83,6 +96,43 @@ public final class SplitterRunner {
      * Variable that represent the field delimiter for each line
      */
     public static final String SPLIT_FIELD_DELIMITER = "split.delimiter";
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String SPLIT_OUTPUT_PIPELINE = "split.output.pipeline";
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String SPLIT_OUTPUT_THREADS = "split.output.threads";
+    /**
+     * Default number of writer threads in pipelined mode.
+     */
+    public static final int DEFAULT_OUTPUT_THREADS = 2;
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String SPLIT_OUTPUT_FORMAT = "split.output.format";
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String SPLIT_BUNDLE_PREFIX = "split.bundle.prefix";
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String SPLIT_BUNDLE_SUFFIX = "split.bundle.suffix";
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String SPLIT_MANIFEST_FILE = "split.manifest.file";
+    /**
+     * Value of {@link #SPLIT_OUTPUT_FORMAT} to save the splits as text files.
+     */
+    public static final String FORMAT_TEXT = "text";
+    /**
+     * Value of {@link #SPLIT_OUTPUT_FORMAT} to save each fold as a binary
+     * {@link SplitBundle}, together with a manifest.
+     */
+    public static final String FORMAT_BUNDLE = "bundle";
 
     /**
      * Utility classes should not have a public or default constructor.
@@ -99,25 +149,26 @@ public final class SplitterRunner {
      * @param data        the data to be split
      * @param doDataClear flag to clear the memory used for the data before
      *                    saving the splits
-     * @throws FileNotFoundException        see
-     *                                      {@link net.recommenders.rival.core.DataModelUtils#saveDataModel(DataModelIF, String, boolean, String)}
-     * @throws UnsupportedEncodingException see
-     *                                      {@link net.recommenders.rival.core.DataModelUtils#saveDataModel(DataModelIF, String, boolean, String)}
+     * @throws IOException see
+     *                     {@link net.recommenders.rival.core.DataModelUtils#saveDataModel(DataModelIF, String, boolean, String)}
+     *                     and {@link SplitBundle#write(java.io.File)}
      */
     public static <U, I> void run(final Properties properties, final TemporalDataModelIF<U, I> data, final boolean doDataClear)
-            throws FileNotFoundException, UnsupportedEncodingException {
+            throws IOException {
         System.out.println("Start splitting");
         TemporalDataModelIF<U, I>[] splits;
-        // read parameters
-        String outputFolder = properties.getProperty(SPLIT_OUTPUT_FOLDER);
-        Boolean overwrite = Boolean.parseBoolean(properties.getProperty(SPLIT_OUTPUT_OVERWRITE, "false"));
-        String fieldDelimiter = properties.getProperty(SPLIT_FIELD_DELIMITER, "\t");
-        String splitTrainingPrefix = properties.getProperty(SPLIT_TRAINING_PREFIX);
-        String splitTrainingSuffix = properties.getProperty(SPLIT_TRAINING_SUFFIX);
-        String splitTestPrefix = properties.getProperty(SPLIT_TEST_PREFIX);
-        String splitTestSuffix = properties.getProperty(SPLIT_TEST_SUFFIX);
+        Properties manifest = new Properties();
         // generate splits
         Splitter<U, I> splitter = instantiateSplitter(properties);
+        if (Boolean.parseBoolean(properties.getProperty(SPLIT_OUTPUT_PIPELINE, "false"))) {
+            int nThreads = Integer.parseInt(properties.getProperty(SPLIT_OUTPUT_THREADS, "" + DEFAULT_OUTPUT_THREADS));
+            int nFolds = runPipelined(splitter, data, nThreads, properties, manifest);
+            if (doDataClear) {
+                data.clear();
+            }
+            saveManifest(properties, manifest, nFolds);
+            return;
+        }
         splits = splitter.split(data);
         if (doDataClear) {
             data.clear();
@@ -125,15 +176,166 @@ public final class SplitterRunner {
         System.out.println("Saving splits");
         // save splits
         for (int i = 0; i < splits.length / 2; i++) {
-            TemporalDataModelIF<U, I> training = splits[2 * i];
-            TemporalDataModelIF<U, I> test = splits[2 * i + 1];
-            String trainingFile = outputFolder + splitTrainingPrefix + i + splitTrainingSuffix;
-            String testFile = outputFolder + splitTestPrefix + i + splitTestSuffix;
+            saveFold(properties, i, splits[2 * i], splits[2 * i + 1], manifest);
+        }
+        saveManifest(properties, manifest, splits.length / 2);
+    }
+
+    /**
+     * Saves the training and test splits of a fold according to the
+     * properties.
+     *
+     * @param <U> user identifier type
+     * @param <I> item identifier type
+     * @param properties the properties
+     * @param fold the number of the fold
+     * @param training the training split
+     * @param test the test split
+     * @param manifest the manifest where the sizes of bundles are added
+     * @throws IOException see
+     * {@link net.recommenders.rival.core.DataModelUtils#saveDataModel(DataModelIF, String, boolean, String)}
+     * and {@link SplitBundle#write(java.io.File)}
+     */
+    @SuppressWarnings("unchecked")
+    private static <U, I> void saveFold(final Properties properties, final int fold,
+            final TemporalDataModelIF<U, I> training, final TemporalDataModelIF<U, I> test, final Properties manifest)
+            throws IOException {
+        String outputFolder = properties.getProperty(SPLIT_OUTPUT_FOLDER);
+        Boolean overwrite = Boolean.parseBoolean(properties.getProperty(SPLIT_OUTPUT_OVERWRITE, "false"));
+        if (FORMAT_BUNDLE.equals(properties.getProperty(SPLIT_OUTPUT_FORMAT, FORMAT_TEXT))) {
+            String bundleFile = outputFolder + properties.getProperty(SPLIT_BUNDLE_PREFIX, "split_") + fold
+                    + properties.getProperty(SPLIT_BUNDLE_SUFFIX, ".bundle");
+            if (new File(bundleFile).exists() && !overwrite) {
+                System.out.println("Ignoring " + bundleFile);
+                return;
+            }
+            // bundles use the numeric id space of the parsers
+            SplitBundle bundle = SplitBundle.create((TemporalDataModelIF<Long, Long>) training, (TemporalDataModelIF<Long, Long>) test);
+            bundle.write(new File(bundleFile));
+            manifest.setProperty("fold." + fold + ".file", new File(bundleFile).getName());
+            bundle.describe(manifest, "fold." + fold + ".");
+        } else {
+            String fieldDelimiter = properties.getProperty(SPLIT_FIELD_DELIMITER, "\t");
+            String trainingFile = outputFolder + properties.getProperty(SPLIT_TRAINING_PREFIX) + fold + properties.getProperty(SPLIT_TRAINING_SUFFIX);
+            String testFile = outputFolder + properties.getProperty(SPLIT_TEST_PREFIX) + fold + properties.getProperty(SPLIT_TEST_SUFFIX);
             DataModelUtils.saveDataModel(training, trainingFile, overwrite, fieldDelimiter);
             DataModelUtils.saveDataModel(test, testFile, overwrite, fieldDelimiter);
         }
     }
 
+    /**
+     * Saves the manifest of the bundles (only when the output format is
+     * {@link #FORMAT_BUNDLE}), with the splitting properties and the sizes of
+     * each fold.
+     *
+     * @param properties the properties
+     * @param manifest the manifest
+     * @param nFolds the number of folds
+     * @throws IOException when the manifest cannot be written
+     */
+    private static void saveManifest(final Properties properties, final Properties manifest, final int nFolds) throws IOException {
+        if (!FORMAT_BUNDLE.equals(properties.getProperty(SPLIT_OUTPUT_FORMAT, FORMAT_TEXT))) {
+            return;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith("split.") || key.startsWith("dataset.")) {
+                manifest.setProperty(key, properties.getProperty(key));
+            }
+        }
+        manifest.setProperty("folds", "" + nFolds);
+        String manifestFile = properties.getProperty(SPLIT_MANIFEST_FILE, properties.getProperty(SPLIT_OUTPUT_FOLDER) + "manifest.properties");
+        SplitBundle.writeManifest(manifest, new File(manifestFile));
+    }
+
+    /**
+     * Generates the folds one at a time (when the splitter allows it) and
+     * saves them with a bounded pool of writer threads, so that splitting and
+     * writing overlap and only a few folds are kept in memory at the same
+     * time.
+     *
+     * @param <U> user identifier type
+     * @param <I> item identifier type
+     * @param splitter the splitter
+     * @param data the data to be split
+     * @param nThreads maximum number of folds being written concurrently
+     * @param properties the properties
+     * @param manifest the manifest where the sizes of bundles are added
+     * @return the number of folds
+     * @throws IOException see
+     * {@link #saveFold(Properties, int, TemporalDataModelIF, TemporalDataModelIF, Properties)}
+     */
+    private static <U, I> int runPipelined(final Splitter<U, I> splitter, final TemporalDataModelIF<U, I> data, final int nThreads,
+            final Properties properties, final Properties manifest)
+            throws IOException {
+        final Iterator<TemporalDataModelIF<U, I>[]> folds;
+        final int nFolds;
+        if (splitter instanceof FoldIteratorSplitter) {
+            FoldIteratorSplitter<U, I> foldSplitter = (FoldIteratorSplitter<U, I>) splitter;
+            folds = foldSplitter.foldIterator(data);
+            nFolds = foldSplitter.getNumFolds();
+        } else {
+            // the splitter cannot generate the folds lazily: only the output is parallelized
+            TemporalDataModelIF<U, I>[] splits = splitter.split(data);
+            List<TemporalDataModelIF<U, I>[]> list = new ArrayList<>();
+            for (int i = 0; i < splits.length / 2; i++) {
+                list.add(Arrays.copyOfRange(splits, 2 * i, 2 * i + 2));
+            }
+            folds = list.iterator();
+            nFolds = list.size();
+        }
+        final int threads = Math.max(1, nThreads);
+        final Semaphore inFlight = new Semaphore(threads);
+        final AtomicInteger saved = new AtomicInteger(0);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>();
+        System.out.println("Saving splits with " + threads + " writer threads");
+        try {
+            int i = 0;
+            while (folds.hasNext()) {
+                // block the producer while all the writers are busy
+                inFlight.acquire();
+                if (failed.get()) {
+                    // a writer failed: do not generate more folds
+                    break;
+                }
+                final TemporalDataModelIF<U, I>[] fold = folds.next();
+                final int foldNumber = i;
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        try {
+                            saveFold(properties, foldNumber, fold[0], fold[1], manifest);
+                            System.out.println("Saved fold " + foldNumber + " (" + saved.incrementAndGet() + "/" + nFolds + ")");
+                        } catch (Exception e) {
+                            failed.set(true);
+                            throw e;
+                        } finally {
+                            inFlight.release();
+                        }
+                        return null;
+                    }
+                }));
+                i++;
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+            return nFolds;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while saving splits", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IllegalStateException("Error while saving splits", cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
     /**
      * Instantiates a splitter based on the properties.
      *
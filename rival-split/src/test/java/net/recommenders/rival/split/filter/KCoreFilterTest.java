@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.split.filter;
+
+import net.recommenders.rival.core.DataModelFactory;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link net.recommenders.rival.split.filter.KCoreFilter}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class KCoreFilterTest {
+
+    @Test
+    public void testCascadingRemoval() {
+        TemporalDataModelIF<Long, Long> dm = DataModelFactory.getDefaultTemporalModel();
+        // users 1-3 rated items 1-3: this is the 3-core
+        for (long u = 1L; u <= 3L; u++) {
+            for (long i = 1L; i <= 3L; i++) {
+                dm.addPreference(u, i, 1.0);
+                dm.addTimestamp(u, i, u * i);
+            }
+        }
+        // user 4 rated items 1, 2 and 4; item 4 is only rated by user 4,
+        // so removing it leaves user 4 with two items
+        dm.addPreference(4L, 1L, 1.0);
+        dm.addPreference(4L, 2L, 1.0);
+        dm.addPreference(4L, 4L, 1.0);
+
+        KCoreFilter<Long, Long> filter = new KCoreFilter<>(3, 3);
+        TemporalDataModelIF<Long, Long> core = filter.filter(dm);
+
+        assertEquals(3, core.getNumUsers());
+        assertEquals(3, core.getNumItems());
+        assertTrue(Double.isNaN(core.getUserItemPreference(4L, 1L)));
+        assertTrue(core.getUserItemTimestamps(2L, 3L).iterator().hasNext());
+        assertEquals(4, filter.getStatistics().getUsersBefore());
+        assertEquals(12, filter.getStatistics().getPreferencesBefore());
+        assertEquals(9, filter.getStatistics().getPreferencesAfter());
+    }
+}
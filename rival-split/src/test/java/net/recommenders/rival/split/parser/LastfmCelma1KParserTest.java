@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.split.parser;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import net.recommenders.rival.core.TemporalDataModelIF;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link net.recommenders.rival.split.parser.LastfmCelma1KParser}.
+ *
+ * @author <a href="http://github.com/abellogin">Alejandro</a>
+ */
+public class LastfmCelma1KParserTest {
+
+    /**
+     * Temporary folder for the data and id mappings.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTimestampDecoder() throws Exception {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+        for (String s : new String[]{"1970-01-01T00:00:00Z", "2009-05-04T23:08:57Z", "2000-02-29T12:00:01Z", "1969-12-31T23:59:59Z"}) {
+            assertEquals(sdf.parse(s).getTime(), TimestampDecoder.decode(s));
+        }
+    }
+
+    @Test
+    public void testParallelParsing() throws Exception {
+        File data = folder.newFile("lastfm.tsv");
+        PrintStream out = new PrintStream(data, "UTF-8");
+        for (int l = 0; l < 200; l++) {
+            // some users and tracks only appear in the last chunks
+            String user = l < 150 ? "user_" + (l % 7) : "late_user_" + (l % 3);
+            String track = l < 100 ? "track_" + (l % 11) : "track_" + (l % 23);
+            out.print(user + "\t2009-05-04T23:08:" + (10 + l % 50) + "Z\tartid\tartist_" + (l % 5) + "\ttraid\t" + track);
+            // the last line is not terminated
+            if (l < 199) {
+                out.println();
+            }
+        }
+        out.close();
+
+        LastfmCelma1KParser sequential = new LastfmCelma1KParser(false);
+        TemporalDataModelIF<Long, Long> expected = sequential.parseTemporalData(data, folder.getRoot() + "/seq");
+        assertEquals(10, expected.getNumUsers());
+
+        // chunks that divide the lines exactly, that do not, and more chunks
+        // than the bounded number pending
+        for (int chunkSize : new int[]{8, 7, 1}) {
+            LastfmCelma1KParser parallel = new LastfmCelma1KParser(false);
+            parallel.setThreads(4);
+            parallel.setChunkSize(chunkSize);
+            TemporalDataModelIF<Long, Long> actual = parallel.parseTemporalData(data, folder.getRoot() + "/par" + chunkSize);
+
+            assertEquals(expected.getNumUsers(), actual.getNumUsers());
+            assertEquals(expected.getNumItems(), actual.getNumItems());
+            for (Long u : expected.getUsers()) {
+                for (Long i : expected.getUserItems(u)) {
+                    assertEquals(expected.getUserItemPreference(u, i), actual.getUserItemPreference(u, i), 0.0);
+                    assertEquals(expected.getUserItemTimestamps(u, i), actual.getUserItemTimestamps(u, i));
+                }
+            }
+        }
+
+        // ids stored in the mapping are reused in a second run
+        TemporalDataModelIF<Long, Long> again = new LastfmCelma1KParser(false).parseTemporalData(data, folder.getRoot() + "/seq");
+        assertEquals(expected.getNumItems(), again.getNumItems());
+        for (Long u : expected.getUsers()) {
+            for (Long i : expected.getUserItems(u)) {
+                assertEquals(expected.getUserItemPreference(u, i), again.getUserItemPreference(u, i), 0.0);
+            }
+        }
+    }
+}
@@ -17,12 +17,23 @@ package net.recommenders.rival.split.splitter;
 
 import net.recommenders.rival.core.DataModelFactory;
 import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Main class that parses a data set and splits it according to a property file.
@@ -42,6 +53,9 @@ public class SplitTest {
      */
     private static final int ITEMS = 10;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testCrossValidation() {
         DataModelIF<Long, Long> dm = DataModelFactory.getDefaultModel();
@@ -83,6 +97,73 @@ public class SplitTest {
         }
     }
 
+    @Test
+    public void testCrossValidationFoldIterator() {
+        TemporalDataModelIF<Long, Long> dm = DataModelFactory.getDefaultTemporalModel();
+        for (long u = 1L; u <= USERS; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                dm.addPreference(u, i, 1.0 * u * i);
+                dm.addTimestamp(u, i, u + i);
+            }
+        }
+
+        int nFolds = 5;
+
+        for (boolean perUser : new boolean[]{false, true}) {
+            TemporalDataModelIF<Long, Long>[] splits = new CrossValidationSplitter<Long, Long>(nFolds, perUser, 1L).split(dm);
+            Iterator<TemporalDataModelIF<Long, Long>[]> folds = new CrossValidationSplitter<Long, Long>(nFolds, perUser, 1L).foldIterator(dm);
+
+            // Let's check the lazy folds are the same as the ones generated at once
+            for (int f = 0; f < nFolds; f++) {
+                assertTrue(folds.hasNext());
+                TemporalDataModelIF<Long, Long>[] fold = folds.next();
+                for (int s = 0; s < 2; s++) {
+                    assertEquals(splits[2 * f + s].getNumUsers(), fold[s].getNumUsers());
+                    for (Long user : splits[2 * f + s].getUsers()) {
+                        for (Long item : splits[2 * f + s].getUserItems(user)) {
+                            assertEquals(splits[2 * f + s].getUserItemPreference(user, item), fold[s].getUserItemPreference(user, item), 0.0);
+                        }
+                    }
+                }
+            }
+            assertTrue(!folds.hasNext());
+        }
+    }
+
+    @Test
+    public void testPipelineStopsAfterFailure() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        TemporalDataModelIF<Long, Long> dm = new TemporalDataModel<Long, Long>() {
+            @Override
+            public Double getUserItemPreference(final Long u, final Long i) {
+                reads.incrementAndGet();
+                return super.getUserItemPreference(u, i);
+            }
+        };
+        for (long u = 1L; u <= USERS; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                dm.addPreference(u, i, 1.0 * u * i);
+            }
+        }
+        Properties props = new Properties();
+        props.setProperty(SplitterRunner.DATASET_SPLITTER, "CrossValidationSplitter");
+        props.setProperty(SplitterRunner.SPLIT_CV_NFOLDS, "5");
+        props.setProperty(SplitterRunner.SPLIT_SEED, "1");
+        props.setProperty(SplitterRunner.SPLIT_OUTPUT_PIPELINE, "true");
+        props.setProperty(SplitterRunner.SPLIT_OUTPUT_THREADS, "1");
+        props.setProperty(SplitterRunner.SPLIT_OUTPUT_FORMAT, SplitterRunner.FORMAT_BUNDLE);
+        // the bundles cannot be written in a folder that does not exist
+        props.setProperty(SplitterRunner.SPLIT_OUTPUT_FOLDER, new File(folder.getRoot(), "missing").getAbsolutePath() + "/");
+        try {
+            SplitterRunner.run(props, dm, false);
+            fail("The bundles should not be written");
+        } catch (IOException e) {
+            // expected
+        }
+        // only the first fold is generated: each preference is read once
+        assertEquals(USERS * ITEMS, reads.get());
+    }
+
     @Test
     public void testRandom() {
         DataModelIF<Long, Long> dm = DataModelFactory.getDefaultModel();